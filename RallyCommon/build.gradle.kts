@@ -36,6 +36,8 @@ dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    // So the tests' log lines show
+    testRuntimeOnly("org.slf4j:slf4j-simple")
 }
 
 tasks.test {
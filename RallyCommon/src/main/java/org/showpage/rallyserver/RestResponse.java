@@ -18,6 +18,13 @@ public class RestResponse<T> {
     @JsonIgnore
     private int statusCode;
 
+    /**
+     * SQL statements the server ran for this call, from X-Query-Count, if it reports them. Also
+     * populated by RESTCaller.
+     */
+    @JsonIgnore
+    private Integer queryCount;
+
     private boolean success;
     private String message;
     private T data;
@@ -0,0 +1,10 @@
+package org.showpage.rallyserver.entity;
+
+/**
+ * What happened to one line of a claim sheet.
+ */
+public enum ClaimStatus {
+    ACCEPTED,
+    DUPLICATE,
+    INVALID;
+}
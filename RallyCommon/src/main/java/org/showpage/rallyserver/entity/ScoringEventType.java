@@ -0,0 +1,19 @@
+package org.showpage.rallyserver.entity;
+
+/**
+ * The kinds of event sent down a rally's scoring stream.
+ */
+public enum ScoringEventType {
+    /** The full standings. Sent when a viewer first connects. */
+    STANDINGS,
+    /** A bonus point was claimed, or its confirmation changed. */
+    BONUS_POINT,
+    /** A combination was awarded, or its confirmation changed. */
+    COMBINATION,
+    /** A combination was taken away. */
+    COMBINATION_RETIRED,
+    /** A rider's rank or score moved. */
+    RANK,
+    /** We dropped events for this viewer. Fetch the standings again. */
+    RESYNC;
+}
@@ -0,0 +1,28 @@
+package org.showpage.rallyserver.entity;
+
+/**
+ * The kinds of entry in a rally's scoring log. Each entry carries the full state of what it is
+ * about, so replaying the same entry twice gives the same result.
+ */
+public enum ScoringLogType {
+    /** A participant became a rider. */
+    RIDER_JOINED,
+    /** A rider became something else (aide, organizer). */
+    RIDER_LEFT,
+    /** Starting odometer recorded. Audit only; it doesn't change the score. */
+    ODOMETER_IN,
+    /** Ending odometer recorded. Audit only; it doesn't change the score. */
+    ODOMETER_OUT,
+    /** A bonus point was claimed, or its confirmation changed. */
+    BONUS_POINT,
+    /** A combination was awarded, or its confirmation changed. */
+    COMBINATION,
+    /** A combination was taken away. */
+    COMBINATION_RETIRED,
+    /** The organizer changed what a bonus point is worth. */
+    BONUS_POINT_REPRICED,
+    /** The organizer changed what a combination is worth. */
+    COMBINATION_REPRICED,
+    /** The organizer deleted a bonus point, and every claim to it. */
+    BONUS_POINT_DELETED;
+}
@@ -0,0 +1,31 @@
+package org.showpage.rallyserver.ui;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "One claimed bonus point on a rider's claim sheet. Give either the bonus point ID or its code.")
+public class ClaimSheetEntry {
+    @Schema(description = "Bonus point ID that was earned", example = "10")
+    private Integer bonusPointId;
+
+    @Schema(description = "Bonus point code, as written on the claim sheet", example = "BP1")
+    private String code;
+
+    @Schema(description = "Odometer reading when the bonus point was earned", example = "47500")
+    private Integer odometer;
+
+    @Schema(description = "Timestamp when the bonus point was earned", example = "2024-08-22T14:30:00Z")
+    private Instant earnedAt;
+
+    @Schema(description = "Whether this earned bonus point has been confirmed by organizers", example = "false")
+    private Boolean confirmed;
+}
@@ -0,0 +1,35 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.showpage.rallyserver.entity.ClaimStatus;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "What happened to one line of a claim sheet")
+public class ClaimSheetItemResult {
+    @Schema(description = "Position of the claim in the submitted sheet, starting at 0", example = "0")
+    private Integer index;
+
+    @Schema(description = "Bonus point ID, if we could work it out", example = "10")
+    private Integer bonusPointId;
+
+    @Schema(description = "Bonus point code", example = "BP1")
+    private String code;
+
+    @Schema(description = "ACCEPTED, DUPLICATE or INVALID", example = "ACCEPTED")
+    private ClaimStatus status;
+
+    @Schema(description = "ID of the earned bonus point created for an accepted claim", example = "100")
+    private Integer earnedBonusPointId;
+
+    @Schema(description = "Why the claim was not accepted", example = "Unknown bonus point code")
+    private String message;
+}
@@ -0,0 +1,28 @@
+package org.showpage.rallyserver.ui;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A rider's whole claim sheet, submitted at check-in")
+public class ClaimSheetRequest {
+    @Schema(description = "Member ID of the rider. Defaults to the caller.", example = "5")
+    private Integer riderId;
+
+    @Schema(description = "Odometer reading at the start of the rally", example = "47000")
+    private Integer odometerIn;
+
+    @Schema(description = "Odometer reading at check-in", example = "48250")
+    private Integer odometerOut;
+
+    @Schema(description = "Claimed bonus points", required = true)
+    private List<ClaimSheetEntry> claims;
+}
@@ -0,0 +1,36 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Outcome of submitting a claim sheet")
+public class ClaimSheetResult {
+    @Schema(description = "Rally participant ID the claims were recorded for", example = "5")
+    private Integer rallyParticipantId;
+
+    @Schema(description = "Odometer reading at the start of the rally", example = "47000")
+    private Integer odometerIn;
+
+    @Schema(description = "Odometer reading at check-in", example = "48250")
+    private Integer odometerOut;
+
+    @Schema(description = "Number of claims recorded", example = "42")
+    private Integer accepted;
+
+    @Schema(description = "Number of claims not recorded", example = "1")
+    private Integer rejected;
+
+    @Schema(description = "One result per submitted claim, in the same order")
+    private List<ClaimSheetItemResult> items;
+}
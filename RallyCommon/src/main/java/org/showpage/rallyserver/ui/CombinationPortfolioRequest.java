@@ -0,0 +1,68 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.showpage.rallyserver.exception.ValidationException;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Request to work out which of a rally's combinations are worth riding for")
+public class CombinationPortfolioRequest {
+    @Schema(description = "Starting latitude. Defaults to the rally's start bonus point.", example = "39.7392")
+    private Double startLatitude;
+
+    @Schema(description = "Starting longitude. Defaults to the rally's start bonus point.", example = "-104.9903")
+    private Double startLongitude;
+
+    @Schema(description = "Finishing latitude. Defaults to the rally's finish bonus point, then the start.", example = "39.7392")
+    private Double finishLatitude;
+
+    @Schema(description = "Finishing longitude. Defaults to the rally's finish bonus point, then the start.", example = "-104.9903")
+    private Double finishLongitude;
+
+    @Schema(description = "Riding time available, in minutes", example = "1440", requiredMode = Schema.RequiredMode.REQUIRED)
+    private Integer timeBudgetMinutes;
+
+    @Schema(description = "Average speed between stops, in miles per hour", example = "50")
+    private Double averageSpeedMph;
+
+    @Schema(description = "Time spent at each stop, in seconds", example = "600")
+    private Integer stopDuration;
+
+    @Schema(description = "How long to search, in seconds (1-30). The server may stop sooner.", example = "2")
+    private Integer searchSeconds;
+
+    @Schema(description = "How many portfolios to return (1-20)", example = "5")
+    private Integer maxResults;
+
+    public void checkValid() throws ValidationException {
+        if ((startLatitude == null) != (startLongitude == null)) {
+            throw new ValidationException("Start needs both latitude and longitude");
+        }
+        if ((finishLatitude == null) != (finishLongitude == null)) {
+            throw new ValidationException("Finish needs both latitude and longitude");
+        }
+        if (timeBudgetMinutes == null || timeBudgetMinutes <= 0) {
+            throw new ValidationException("Time budget is required and must be positive");
+        }
+        if (averageSpeedMph != null && averageSpeedMph <= 0) {
+            throw new ValidationException("Average speed must be positive");
+        }
+        if (stopDuration != null && stopDuration < 0) {
+            throw new ValidationException("Stop duration can't be negative");
+        }
+        if (searchSeconds != null && (searchSeconds < 1 || searchSeconds > 30)) {
+            throw new ValidationException("Search time must be between 1 and 30 seconds");
+        }
+        if (maxResults != null && (maxResults < 1 || maxResults > 20)) {
+            throw new ValidationException("Max results must be between 1 and 20");
+        }
+    }
+}
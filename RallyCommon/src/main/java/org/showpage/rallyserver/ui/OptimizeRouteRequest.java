@@ -0,0 +1,65 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.showpage.rallyserver.exception.ValidationException;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Request to plan the best-scoring route through a rally's bonus points")
+public class OptimizeRouteRequest {
+    @Schema(description = "Name for the new route", example = "Optimized Route")
+    private String name;
+
+    @Schema(description = "Starting latitude. Defaults to the rally's start bonus point.", example = "39.7392")
+    private Double startLatitude;
+
+    @Schema(description = "Starting longitude. Defaults to the rally's start bonus point.", example = "-104.9903")
+    private Double startLongitude;
+
+    @Schema(description = "Finishing latitude. Defaults to the rally's finish bonus point, then the start.", example = "39.7392")
+    private Double finishLatitude;
+
+    @Schema(description = "Finishing longitude. Defaults to the rally's finish bonus point, then the start.", example = "-104.9903")
+    private Double finishLongitude;
+
+    @Schema(description = "Riding time available, in minutes. Defaults to the ride's expected start to expected end.", example = "1440")
+    private Integer timeBudgetMinutes;
+
+    @Schema(description = "Average speed between stops, in miles per hour", example = "50")
+    private Double averageSpeedMph;
+
+    @Schema(description = "Time spent at each stop, in seconds. Defaults to the ride's stop duration.", example = "600")
+    private Integer stopDuration;
+
+    @Schema(description = "How long to search, in seconds (1-30). The server may stop sooner.", example = "3")
+    private Integer searchSeconds;
+
+    public void checkValid() throws ValidationException {
+        if ((startLatitude == null) != (startLongitude == null)) {
+            throw new ValidationException("Start needs both latitude and longitude");
+        }
+        if ((finishLatitude == null) != (finishLongitude == null)) {
+            throw new ValidationException("Finish needs both latitude and longitude");
+        }
+        if (timeBudgetMinutes != null && timeBudgetMinutes <= 0) {
+            throw new ValidationException("Time budget must be positive");
+        }
+        if (averageSpeedMph != null && averageSpeedMph <= 0) {
+            throw new ValidationException("Average speed must be positive");
+        }
+        if (stopDuration != null && stopDuration < 0) {
+            throw new ValidationException("Stop duration can't be negative");
+        }
+        if (searchSeconds != null && (searchSeconds < 1 || searchSeconds > 30)) {
+            throw new ValidationException("Search time must be between 1 and 30 seconds");
+        }
+    }
+}
@@ -40,6 +40,9 @@ public class PageResponse<T> {
     @Schema(description = "Whether the page is empty", example = "false")
     private boolean empty;
 
+    @Schema(description = "Cursor for the next page, when paging by cursor; null on the last page")
+    private String next;
+
     @JsonCreator
     public PageResponse(
             @JsonProperty("content") List<T> content,
@@ -49,7 +52,8 @@ public class PageResponse<T> {
             @JsonProperty("totalPages") int totalPages,
             @JsonProperty("first") boolean first,
             @JsonProperty("last") boolean last,
-            @JsonProperty("empty") boolean empty
+            @JsonProperty("empty") boolean empty,
+            @JsonProperty("next") String next
     ) {
         this.content = content;
         this.number = number;
@@ -59,5 +63,6 @@ public class PageResponse<T> {
         this.first = first;
         this.last = last;
         this.empty = empty;
+        this.next = next;
     }
 }
@@ -5,6 +5,10 @@ import java.util.List;
 /**
  * REST API pagination wrapper.
  * Simplified version of Spring's Page for use in REST responses.
+ *
+ * A page read by cursor has no page number, so page is -1, and totalElements and totalPages are -1
+ * unless a count was asked for. next is the cursor for the following page, or null on the last page
+ * and for pages read by number.
  */
 public record RestPage<T>(
         List<T> content,
@@ -14,7 +18,8 @@ public record RestPage<T>(
         int totalPages,
         boolean first,
         boolean last,
-        List<SortOrder> sort    // optional
+        List<SortOrder> sort,   // optional
+        String next             // optional
 ) {
     public record SortOrder(String property, String direction) {}
 }
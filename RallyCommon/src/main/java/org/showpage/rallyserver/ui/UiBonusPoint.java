@@ -20,6 +20,12 @@ public class UiBonusPoint {
     @Schema(description = "Rally ID this bonus point belongs to", example = "1")
     private Integer rallyId;
 
+    @Schema(description = "Ride ID, if this is a rider's planning copy rather than the rally's own", example = "1")
+    private Integer rideId;
+
+    @Schema(description = "For a planning copy, the rally bonus point it was copied from", example = "1")
+    private Integer sourceBonusPointId;
+
     @Schema(description = "Unique code for this bonus point", example = "BP001", required = true)
     private String code;
 
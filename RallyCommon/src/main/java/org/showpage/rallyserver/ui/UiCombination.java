@@ -22,6 +22,12 @@ public class UiCombination {
     @Schema(description = "Rally ID this combination belongs to", example = "1", required = true)
     private Integer rallyId;
 
+    @Schema(description = "Ride ID, if this is a rider's planning copy rather than the rally's own", example = "1")
+    private Integer rideId;
+
+    @Schema(description = "For a planning copy, the rally combination it was copied from", example = "1")
+    private Integer sourceCombinationId;
+
     @Schema(description = "Unique code for this combination", example = "COMBO1", required = true)
     private String code;
 
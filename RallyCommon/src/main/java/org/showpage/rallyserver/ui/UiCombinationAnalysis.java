@@ -0,0 +1,27 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Which combinations are worth riding for, together and on their own")
+public class UiCombinationAnalysis {
+    @Schema(description = "The best sets of combinations that fit the time budget, best first")
+    private List<UiCombinationPortfolio> portfolios;
+
+    @Schema(description = "What each combination would take and earn on its own")
+    private List<UiCombinationEstimate> combinations;
+
+    @Schema(description = "False if the search ran out of time before it was sure of the best", example = "true")
+    private Boolean complete;
+}
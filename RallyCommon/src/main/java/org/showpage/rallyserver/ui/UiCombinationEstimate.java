@@ -0,0 +1,39 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "What one combination would take and earn if it were the only thing ridden for")
+public class UiCombinationEstimate {
+    @Schema(description = "Combination ID", example = "7")
+    private Integer combinationId;
+
+    @Schema(description = "The cheapest bonus points that complete it")
+    private List<Integer> bonusPointIds;
+
+    @Schema(description = "Points from those bonus points and the combination", example = "650")
+    private Integer points;
+
+    @Schema(description = "Miles over going straight from start to finish", example = "120.3")
+    private Double extraMiles;
+
+    @Schema(description = "Minutes over going straight from start to finish", example = "164.4")
+    private Double extraMinutes;
+
+    @Schema(description = "Points per extra hour; absent when there is no extra time", example = "237.2")
+    private Double pointsPerHour;
+
+    @Schema(description = "Whether it can be ridden within the time budget at all", example = "true")
+    private Boolean fits;
+}
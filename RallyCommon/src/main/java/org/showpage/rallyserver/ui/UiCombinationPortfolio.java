@@ -0,0 +1,45 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A set of combinations that fits the time budget, with shared bonus points visited once")
+public class UiCombinationPortfolio {
+    @Schema(description = "The combinations, and what each adds to the set")
+    private List<UiPortfolioCombination> members;
+
+    @Schema(description = "Bonus points to visit, in a suggested riding order")
+    private List<Integer> bonusPointIds;
+
+    @Schema(description = "Points from the bonus points and the combinations they complete", example = "4200")
+    private Integer points;
+
+    @Schema(description = "Straight-line miles from start to finish through every bonus point", example = "812.5")
+    private Double miles;
+
+    @Schema(description = "Riding plus stop time, in minutes", example = "1210")
+    private Double minutes;
+
+    @Schema(description = "Miles over going straight from start to finish", example = "405.2")
+    private Double extraMiles;
+
+    @Schema(description = "Minutes over going straight from start to finish", example = "640")
+    private Double extraMinutes;
+
+    @Schema(description = "Points per extra mile; absent when there are no extra miles", example = "10.4")
+    private Double pointsPerMile;
+
+    @Schema(description = "Points per extra hour; absent when there is no extra time", example = "393.8")
+    private Double pointsPerHour;
+}
@@ -0,0 +1,22 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A bonus point and how far it is from the location asked about")
+public class UiNearbyBonusPoint {
+    @Schema(description = "The bonus point")
+    private UiBonusPoint bonusPoint;
+
+    @Schema(description = "Great-circle miles from the query location", example = "12.7")
+    private Double miles;
+}
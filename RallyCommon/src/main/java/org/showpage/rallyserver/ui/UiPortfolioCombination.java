@@ -0,0 +1,28 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A combination in a portfolio, and what the portfolio would lose and save without it")
+public class UiPortfolioCombination {
+    @Schema(description = "Combination ID", example = "7")
+    private Integer combinationId;
+
+    @Schema(description = "Points lost by dropping this combination and the bonus points only it needs", example = "650")
+    private Integer marginalPoints;
+
+    @Schema(description = "Miles saved by dropping it", example = "88.1")
+    private Double marginalMiles;
+
+    @Schema(description = "Minutes saved by dropping it", example = "115.7")
+    private Double marginalMinutes;
+}
@@ -0,0 +1,45 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "One rider's line in the rally standings")
+public class UiRallyStanding {
+    @Schema(description = "Rank within the rally. Riders with the same score share a rank.", example = "1")
+    private Integer rank;
+
+    @Schema(description = "Rally participant ID", example = "5")
+    private Integer rallyParticipantId;
+
+    @Schema(description = "Member ID of the rider", example = "12")
+    private Integer memberId;
+
+    @Schema(description = "Points from confirmed bonus points and combinations", example = "12500")
+    private Integer score;
+
+    @Schema(description = "Points claimed but not yet confirmed by a scorer", example = "800")
+    private Integer pendingScore;
+
+    @Schema(description = "Number of bonus points claimed", example = "42")
+    private Integer bonusPointCount;
+
+    @Schema(description = "Number of combinations claimed", example = "3")
+    private Integer combinationCount;
+
+    @Schema(description = "Miles ridden, from the starting and ending odometers. Only on the leaderboard, and only once both are in.", example = "1187")
+    private Integer mileage;
+
+    @Schema(description = "When the rider claimed a finish bonus point. Only on the leaderboard.", example = "2025-06-15T18:42:00Z")
+    private Instant finishedAt;
+}
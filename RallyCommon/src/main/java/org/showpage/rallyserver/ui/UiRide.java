@@ -42,6 +42,12 @@ public class UiRide implements HasId<UiRide> {
     @Schema(description = "List of routes for this ride")
     private List<UiRoute> routes;
 
+    @Schema(description = "The ride's own copies of the rally's bonus points, for planning")
+    private List<UiBonusPoint> bonusPoints;
+
+    @Schema(description = "The ride's own copies of the rally's combinations, for planning")
+    private List<UiCombination> combinations;
+
     @Schema(description = "Default stop duration in seconds")
     private Integer stopDuration;
 
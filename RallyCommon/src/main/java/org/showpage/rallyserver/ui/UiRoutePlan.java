@@ -0,0 +1,36 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A planned route and what it's expected to earn")
+public class UiRoutePlan {
+    @Schema(description = "The route that was written, with one leg of waypoints in riding order")
+    private UiRoute route;
+
+    @Schema(description = "Points from the planned bonus points and the combinations they complete", example = "10312")
+    private Integer score;
+
+    @Schema(description = "Straight-line miles from start to finish through every stop", example = "1010.4")
+    private Double miles;
+
+    @Schema(description = "Riding plus stop time, in minutes", example = "1432")
+    private Double minutes;
+
+    @Schema(description = "Number of bonus points in the plan, not counting start and finish", example = "22")
+    private Integer bonusPointCount;
+
+    @Schema(description = "Combinations the plan completes")
+    private List<Integer> combinationIds;
+}
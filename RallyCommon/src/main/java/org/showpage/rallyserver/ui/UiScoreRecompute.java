@@ -0,0 +1,43 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Outcome of recomputing every rider's final score for a rally")
+public class UiScoreRecompute {
+    @Schema(description = "Rally ID", example = "1")
+    private Integer rallyId;
+
+    @Schema(description = "Number of riders scored", example = "500")
+    private Integer riders;
+
+    @Schema(description = "Confirmed bonus point claims counted", example = "50000")
+    private Integer bonusPointClaims;
+
+    @Schema(description = "Confirmed combination claims counted", example = "1200")
+    private Integer combinationClaims;
+
+    @Schema(description = "Riders whose final score was different and has been rewritten", example = "3")
+    private Integer updated;
+
+    @Schema(description = "Milliseconds spent loading definitions and claims", example = "85")
+    private Long loadMillis;
+
+    @Schema(description = "Milliseconds spent computing scores", example = "4")
+    private Long computeMillis;
+
+    @Schema(description = "Milliseconds spent writing scores back", example = "30")
+    private Long writeMillis;
+
+    @Schema(description = "Total milliseconds, start to finish", example = "120")
+    private Long totalMillis;
+}
@@ -0,0 +1,58 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.showpage.rallyserver.entity.ScoringEventType;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "One change pushed down a rally's scoring stream. Which fields are set depends on the type.")
+public class UiScoringEvent {
+    @Schema(description = "What happened", example = "BONUS_POINT")
+    private ScoringEventType type;
+
+    @Schema(description = "Rally ID", example = "1")
+    private Integer rallyId;
+
+    @Schema(description = "Rally participant ID of the rider", example = "5")
+    private Integer rallyParticipantId;
+
+    @Schema(description = "Member ID of the rider", example = "12")
+    private Integer memberId;
+
+    @Schema(description = "Earned bonus point ID, for BONUS_POINT events", example = "100")
+    private Integer earnedBonusPointId;
+
+    @Schema(description = "Earned combination ID, for COMBINATION and COMBINATION_RETIRED events", example = "7")
+    private Integer earnedCombinationId;
+
+    @Schema(description = "Points for the bonus point or combination", example = "500")
+    private Integer points;
+
+    @Schema(description = "Whether the bonus point or combination is confirmed", example = "true")
+    private Boolean confirmed;
+
+    @Schema(description = "New rank, for RANK events", example = "3")
+    private Integer rank;
+
+    @Schema(description = "Rank before this change, for RANK events. Missing for a rider new to the standings.", example = "4")
+    private Integer previousRank;
+
+    @Schema(description = "Confirmed score, for RANK events", example = "12500")
+    private Integer score;
+
+    @Schema(description = "Unconfirmed score, for RANK events", example = "800")
+    private Integer pendingScore;
+
+    @Schema(description = "Full standings, for STANDINGS events")
+    private List<UiRallyStanding> standings;
+}
@@ -0,0 +1,43 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "What was read from an uploaded track and the bonus points it visited")
+public class UiTrackUpload {
+    @Schema(description = "Ride ID", example = "1")
+    private Integer rideId;
+
+    @Schema(description = "Rally participant the claims were proposed for", example = "5")
+    private Integer rallyParticipantId;
+
+    @Schema(description = "Track points stored", example = "86400")
+    private Integer points;
+
+    @Schema(description = "Track points thrown away for having no time or an impossible position", example = "0")
+    private Integer skipped;
+
+    @Schema(description = "Time of the first point", example = "2025-06-01T12:00:00Z")
+    private Instant startedAt;
+
+    @Schema(description = "Time of the last point", example = "2025-06-02T12:00:00Z")
+    private Instant endedAt;
+
+    @Schema(description = "Number of unconfirmed claims added", example = "12")
+    private Integer proposed;
+
+    @Schema(description = "Every bonus point visit, in the order they happened")
+    private List<UiTrackVisit> visits;
+}
@@ -0,0 +1,46 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.showpage.rallyserver.entity.ClaimStatus;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A stop the track made at a bonus point, and the claim it proposed")
+public class UiTrackVisit {
+    @Schema(description = "Bonus point ID", example = "10")
+    private Integer bonusPointId;
+
+    @Schema(description = "Bonus point code", example = "BP1")
+    private String code;
+
+    @Schema(description = "Bonus point name", example = "Covered Bridge")
+    private String name;
+
+    @Schema(description = "When the track first came within range", example = "2025-06-01T14:32:05Z")
+    private Instant arrivedAt;
+
+    @Schema(description = "When the track was last within range", example = "2025-06-01T14:41:50Z")
+    private Instant departedAt;
+
+    @Schema(description = "Closest the track came to the bonus point, in miles", example = "0.01")
+    private Double closestMiles;
+
+    @Schema(description = "ACCEPTED if an unconfirmed claim was added, DUPLICATE if the rider already has it", example = "ACCEPTED")
+    private ClaimStatus status;
+
+    @Schema(description = "ID of the earned bonus point proposed for this visit", example = "100")
+    private Integer earnedBonusPointId;
+
+    @Schema(description = "Why no claim was proposed", example = "This earned bonus point already exists")
+    private String message;
+}
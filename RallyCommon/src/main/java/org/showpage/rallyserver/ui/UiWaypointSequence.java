@@ -0,0 +1,27 @@
+package org.showpage.rallyserver.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Legs whose waypoints were put in the shortest order, and the miles saved")
+public class UiWaypointSequence {
+    @Schema(description = "The legs, with their waypoints in the new order")
+    private List<UiRideLeg> rideLegs;
+
+    @Schema(description = "Straight-line miles through the waypoints in their old order", example = "412.6")
+    private Double milesBefore;
+
+    @Schema(description = "Straight-line miles through the waypoints in their new order", example = "355.1")
+    private Double milesAfter;
+}
@@ -0,0 +1,277 @@
+package org.showpage.rallyserver.util;
+
+import java.util.Arrays;
+
+/**
+ * Packs a line of points (a GPS track or a routed leg) into a few bytes a point, for storing and
+ * sending as is. The server and the desktop both read it, which is why it lives here.
+ *
+ * Layout:
+ *   'G', version, precision (decimal places kept, 5 to 7), flags (1 = has times), varint count,
+ *   then for each point zigzag varints of the change in latitude, longitude and, if there are
+ *   times, epoch seconds since the previous point. The first point's changes are from zero.
+ *
+ * Positions are rounded to the precision first, and each change is taken between rounded values,
+ * so rounding errors don't build up along the line. A track at one point a second moves a few
+ * hundred millionths of a degree and one second each time, which is about five bytes a point at
+ * six places.
+ *
+ * toPolyline() gives the same line as a Google encoded polyline (five places, no times), which map
+ * components take directly.
+ */
+public final class GeometryCodec {
+    public static final int DEFAULT_PRECISION = 6;
+    public static final String CONTENT_TYPE = "application/vnd.rallymaster.geometry";
+
+    private static final byte MAGIC = 'G';
+    private static final byte VERSION = 1;
+    private static final int HAS_TIMES = 1;
+    private static final int HEADER = 4;
+
+    private GeometryCodec() {
+    }
+
+    /**
+     * Decoded points. Times are epoch seconds, or null if the line had none.
+     */
+    public record Geometry(double[] latitudes, double[] longitudes, long[] times) {
+        public int size() {
+            return latitudes.length;
+        }
+    }
+
+    /**
+     * Encode the points, with times if there are any.
+     */
+    public static byte[] encode(double[] latitudes, double[] longitudes, long[] times, int precision) {
+        if (precision < 5 || precision > 7) {
+            throw new IllegalArgumentException("Precision must be 5 to 7 places: " + precision);
+        }
+        int count = latitudes.length;
+        double scale = Math.pow(10, precision);
+
+        Writer out = new Writer(HEADER + 5 + count * (times != null ? 6 : 5));
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(precision);
+        out.write(times != null ? HAS_TIMES : 0);
+        out.varint(count);
+
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+        long lastTime = 0;
+        for (int i = 0; i < count; ++i) {
+            long latitude = Math.round(latitudes[i] * scale);
+            long longitude = Math.round(longitudes[i] * scale);
+            out.varint(zigzag(latitude - lastLatitude));
+            out.varint(zigzag(longitude - lastLongitude));
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            if (times != null) {
+                out.varint(zigzag(times[i] - lastTime));
+                lastTime = times[i];
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static Geometry decode(byte[] encoded) {
+        Reader in = new Reader(encoded);
+        double scale = Math.pow(10, encoded[2]);
+        boolean hasTimes = (encoded[3] & HAS_TIMES) != 0;
+
+        double[] latitudes = new double[in.count];
+        double[] longitudes = new double[in.count];
+        long[] times = hasTimes ? new long[in.count] : null;
+        long latitude = 0;
+        long longitude = 0;
+        long time = 0;
+        for (int i = 0; i < in.count; ++i) {
+            latitude += unzigzag(in.varint());
+            longitude += unzigzag(in.varint());
+            latitudes[i] = latitude / scale;
+            longitudes[i] = longitude / scale;
+            if (hasTimes) {
+                time += unzigzag(in.varint());
+                times[i] = time;
+            }
+        }
+        return new Geometry(latitudes, longitudes, times);
+    }
+
+    /**
+     * Whether these bytes start like something encode() wrote.
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes != null && bytes.length > HEADER && bytes[0] == MAGIC && bytes[1] == VERSION
+                && bytes[2] >= 5 && bytes[2] <= 7;
+    }
+
+    /**
+     * How many points, read from the header alone.
+     */
+    public static int size(byte[] encoded) {
+        return new Reader(encoded).count;
+    }
+
+    /**
+     * The same line as a Google encoded polyline, at five places and without times, straight from
+     * the encoded bytes.
+     */
+    public static String toPolyline(byte[] encoded) {
+        Reader in = new Reader(encoded);
+        double scale = Math.pow(10, encoded[2]);
+        boolean hasTimes = (encoded[3] & HAS_TIMES) != 0;
+
+        StringBuilder polyline = new StringBuilder(in.count * 8);
+        long latitude = 0;
+        long longitude = 0;
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+        for (int i = 0; i < in.count; ++i) {
+            latitude += unzigzag(in.varint());
+            longitude += unzigzag(in.varint());
+            if (hasTimes) {
+                in.varint();
+            }
+            long polylineLatitude = Math.round(latitude / scale * 1e5);
+            long polylineLongitude = Math.round(longitude / scale * 1e5);
+            writePolyline(polyline, polylineLatitude - lastLatitude);
+            writePolyline(polyline, polylineLongitude - lastLongitude);
+            lastLatitude = polylineLatitude;
+            lastLongitude = polylineLongitude;
+        }
+        return polyline.toString();
+    }
+
+    /**
+     * Read a Google encoded polyline, which has five places and no times.
+     */
+    public static Geometry fromPolyline(String polyline) {
+        double[] latitudes = new double[16];
+        double[] longitudes = new double[16];
+        int count = 0;
+        long latitude = 0;
+        long longitude = 0;
+        int[] position = { 0 };
+        while (position[0] < polyline.length()) {
+            latitude += readPolyline(polyline, position);
+            longitude += readPolyline(polyline, position);
+            if (count == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, count * 2);
+                longitudes = Arrays.copyOf(longitudes, count * 2);
+            }
+            latitudes[count] = latitude / 1e5;
+            longitudes[count] = longitude / 1e5;
+            ++count;
+        }
+        return new Geometry(Arrays.copyOf(latitudes, count), Arrays.copyOf(longitudes, count), null);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Five bits at a time, low first, each offset by 63 and flagged with 0x20 if more follow.
+     */
+    private static void writePolyline(StringBuilder out, long delta) {
+        long value = delta < 0 ? ~(delta << 1) : delta << 1;
+        while (value >= 0x20) {
+            out.append((char) ((0x20 | (value & 0x1F)) + 63));
+            value >>= 5;
+        }
+        out.append((char) (value + 63));
+    }
+
+    private static long readPolyline(String polyline, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int chunk;
+        do {
+            if (position[0] >= polyline.length()) {
+                throw new IllegalArgumentException("Polyline ends part way through a number");
+            }
+            chunk = polyline.charAt(position[0]++) - 63;
+            value |= (long) (chunk & 0x1F) << shift;
+            shift += 5;
+        } while (chunk >= 0x20);
+        return (value & 1) != 0 ? ~(value >> 1) : value >> 1;
+    }
+
+    /**
+     * A growable byte array. ByteArrayOutputStream locks on every byte.
+     */
+    private static class Writer {
+        private byte[] bytes;
+        private int size;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Reads varints from after the header, having checked the header and read the count.
+     */
+    private static class Reader {
+        private final byte[] bytes;
+        private int position = HEADER;
+        private final int count;
+
+        Reader(byte[] bytes) {
+            if (!isEncoded(bytes)) {
+                throw new IllegalArgumentException("Not an encoded geometry");
+            }
+            this.bytes = bytes;
+            long count = varint();
+            // Every point takes at least two bytes, so don't believe a count the bytes can't hold.
+            if (count < 0 || count > (bytes.length - position) / 2) {
+                throw new IllegalArgumentException("Bad point count: " + count);
+            }
+            this.count = (int) count;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new IllegalArgumentException("Geometry ends part way through a point");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+    }
+}
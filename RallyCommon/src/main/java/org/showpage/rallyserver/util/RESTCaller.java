@@ -11,6 +11,7 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -103,6 +104,55 @@ public class RESTCaller {
         return execute(requestBuilder, authHeader, typeRef);
     }
 
+    /**
+     * Perform a POST request sending a file as it is, rather than as JSON. The file is streamed, not
+     * read into memory first.
+     *
+     * @param path Relative path (e.g., "/api/ride/1/track")
+     * @param file File to send
+     * @param contentType Content-Type of the file (e.g., "application/gpx+xml")
+     * @param authHeader Authorization header value (can be null)
+     * @param typeRef TypeReference for JSON deserialization
+     * @return Deserialized response object
+     * @throws IOException If an I/O error occurs
+     * @throws InterruptedException If the request is interrupted
+     */
+    public <T> T upload(String path, Path file, String contentType, String authHeader, TypeReference<T> typeRef)
+            throws IOException, InterruptedException
+    {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(serverUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofFile(file));
+
+        addHeaders(requestBuilder, authHeader);
+        requestBuilder.setHeader("Content-Type", contentType);
+        return send(requestBuilder, typeRef);
+    }
+
+    /**
+     * Perform a PUT request sending bytes as they are, rather than as JSON.
+     *
+     * @param path Relative path (e.g., "/api/leg/1/geometry")
+     * @param body Bytes to send
+     * @param contentType Content-Type of the bytes (e.g., GeometryCodec.CONTENT_TYPE)
+     * @param authHeader Authorization header value (can be null)
+     * @param typeRef TypeReference for JSON deserialization
+     * @return Deserialized response object
+     * @throws IOException If an I/O error occurs
+     * @throws InterruptedException If the request is interrupted
+     */
+    public <T> T putBytes(String path, byte[] body, String contentType, String authHeader, TypeReference<T> typeRef)
+            throws IOException, InterruptedException
+    {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(serverUrl + path))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body));
+
+        addHeaders(requestBuilder, authHeader);
+        requestBuilder.setHeader("Content-Type", contentType);
+        return send(requestBuilder, typeRef);
+    }
+
     /**
      * Perform a PUT request.
      *
@@ -142,6 +192,24 @@ public class RESTCaller {
         return execute(requestBuilder, authHeader, typeRef);
     }
 
+    /**
+     * Perform a GET request for a binary body, which comes back as it is.
+     *
+     * @param path Relative path (e.g., "/api/leg/1/geometry")
+     * @param authHeader Authorization header value (can be null)
+     * @return The response
+     * @throws IOException If an I/O error occurs
+     * @throws InterruptedException If the request is interrupted
+     */
+    public HttpResponse<byte[]> getBytes(String path, String authHeader) throws IOException, InterruptedException {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(serverUrl + path))
+                .GET();
+
+        addHeaders(requestBuilder, authHeader);
+        return httpClient.send(requestBuilder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
     /**
      * Add default headers and optional authorization header to the request.
      */
@@ -166,7 +234,10 @@ public class RESTCaller {
             TypeReference<T> typeRef
     ) throws IOException, InterruptedException {
         addHeaders(requestBuilder, authHeader);
+        return send(requestBuilder, typeRef);
+    }
 
+    private <T> T send(HttpRequest.Builder requestBuilder, TypeReference<T> typeRef) throws IOException, InterruptedException {
         HttpRequest request = requestBuilder.build();
         HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
 
@@ -177,11 +248,13 @@ public class RESTCaller {
     }
 
     /**
-     * If this is a RestResponse, then we can also force the status code.
+     * If this is a RestResponse, then we can also force the status code, and pick up the query
+     * count if the server sent one.
      */
     private <T> void setResponseCode(T retVal, HttpResponse<String> response) {
         if (retVal instanceof RestResponse<?> rr) {
             rr.setStatusCode(response.statusCode());
+            response.headers().firstValue("X-Query-Count").ifPresent(count -> rr.setQueryCount(Integer.valueOf(count)));
         }
     }
 }
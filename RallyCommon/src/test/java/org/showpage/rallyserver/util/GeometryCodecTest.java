@@ -0,0 +1,170 @@
+package org.showpage.rallyserver.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for packing lines of points. The day-long track is what a rider's GPS records: one
+ * point a second for 24 hours, riding at highway speed with the odd stop.
+ */
+@Slf4j
+public class GeometryCodecTest {
+    private static final int DAY = 86_400;
+
+    @Test
+    public void testRoundTrip() {
+        double[] latitudes = { 40.1234567, -33.8688197, 89.9999999, -90 };
+        double[] longitudes = { -105.7654321, 151.2092955, -179.9999999, 180 };
+        long[] times = { 1748779200, 1748779201, 1748865600, 1748865600 };
+
+        GeometryCodec.Geometry geometry = GeometryCodec.decode(GeometryCodec.encode(latitudes, longitudes, times, 7));
+
+        assertEquals(4, geometry.size());
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(latitudes[i], geometry.latitudes()[i], 1e-7);
+            assertEquals(longitudes[i], geometry.longitudes()[i], 1e-7);
+            assertEquals(times[i], geometry.times()[i]);
+        }
+
+        byte[] untimed = GeometryCodec.encode(latitudes, longitudes, null, 5);
+        assertNull(GeometryCodec.decode(untimed).times());
+        assertEquals(4, GeometryCodec.size(untimed));
+        assertEquals(-33.86882, GeometryCodec.decode(untimed).latitudes()[1], 1e-9);
+
+        byte[] empty = GeometryCodec.encode(new double[0], new double[0], new long[0], 6);
+        assertEquals(0, GeometryCodec.decode(empty).size());
+    }
+
+    @Test
+    public void testRoundingDoesNotDrift() {
+        // Each step is a third of the last place, so rounding each change on its own would lose it all.
+        int count = 10_000;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; ++i) {
+            latitudes[i] = 40 + i * 0.0000003;
+            longitudes[i] = -100;
+        }
+
+        GeometryCodec.Geometry geometry = GeometryCodec.decode(
+                GeometryCodec.encode(latitudes, longitudes, null, GeometryCodec.DEFAULT_PRECISION));
+
+        assertEquals(latitudes[count - 1], geometry.latitudes()[count - 1], 0.5e-6);
+    }
+
+    @Test
+    public void testGooglePolyline() {
+        // The example from Google's description of the format.
+        double[] latitudes = { 38.5, 40.7, 43.252 };
+        double[] longitudes = { -120.2, -120.95, -126.453 };
+        String polyline = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+
+        byte[] encoded = GeometryCodec.encode(latitudes, longitudes, new long[] { 0, 60, 120 }, 6);
+        assertEquals(polyline, GeometryCodec.toPolyline(encoded));
+
+        GeometryCodec.Geometry geometry = GeometryCodec.fromPolyline(polyline);
+        assertEquals(3, geometry.size());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(latitudes[i], geometry.latitudes()[i], 1e-9);
+            assertEquals(longitudes[i], geometry.longitudes()[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testDayLongTrackIsFewBytesAPoint() {
+        Day day = new Day();
+
+        byte[] encoded = GeometryCodec.encode(day.latitudes, day.longitudes, day.times, GeometryCodec.DEFAULT_PRECISION);
+        double bytesPerPoint = (double) encoded.length / DAY;
+
+        // Twelve bytes a point as ints; about a third of that here.
+        assertTrue(bytesPerPoint < 5, "Bytes a point: " + bytesPerPoint);
+
+        GeometryCodec.Geometry geometry = GeometryCodec.decode(encoded);
+        for (int i = 0; i < DAY; i += 997) {
+            assertEquals(day.latitudes[i], geometry.latitudes()[i], 0.5e-6);
+            assertEquals(day.longitudes[i], geometry.longitudes()[i], 0.5e-6);
+            assertEquals(day.times[i], geometry.times()[i]);
+        }
+    }
+
+    @Test
+    public void testDayLongTrackTimings() {
+        Day day = new Day();
+
+        // Warm up, then time ten of each.
+        for (int i = 0; i < 10; ++i) {
+            GeometryCodec.decode(GeometryCodec.encode(day.latitudes, day.longitudes, day.times, GeometryCodec.DEFAULT_PRECISION));
+        }
+        byte[] encoded = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; ++i) {
+            encoded = GeometryCodec.encode(day.latitudes, day.longitudes, day.times, GeometryCodec.DEFAULT_PRECISION);
+        }
+        double encodeMillis = (System.nanoTime() - start) / 10 / 1_000_000.0;
+        start = System.nanoTime();
+        for (int i = 0; i < 10; ++i) {
+            GeometryCodec.decode(encoded);
+        }
+        double decodeMillis = (System.nanoTime() - start) / 10 / 1_000_000.0;
+
+        // How long is for the log, not the test: a busy machine would fail any limit set here.
+        assertEquals(DAY, GeometryCodec.size(encoded));
+        log.info("Day-long track: encode {} ms, decode {} ms", encodeMillis, decodeMillis);
+    }
+
+    @Test
+    public void testRejectsWhatItDidNotWrite() {
+        assertFalse(GeometryCodec.isEncoded(null));
+        assertFalse(GeometryCodec.isEncoded(new byte[] { 0, 0, 0, 0, 0 }));
+        assertFalse(GeometryCodec.isEncoded(new byte[] { 'G', 1, 9, 0, 0 }));
+
+        // A count far bigger than the bytes, and a point cut off part way.
+        assertThrows(IllegalArgumentException.class, () -> GeometryCodec.decode(new byte[] { 'G', 1, 6, 0, 50, 1 }));
+        byte[] encoded = GeometryCodec.encode(new double[] { 40, 41 }, new double[] { -100, -101 }, null, 6);
+        byte[] cut = Arrays.copyOf(encoded, encoded.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> GeometryCodec.decode(cut));
+
+        assertThrows(IllegalArgumentException.class, () -> GeometryCodec.fromPolyline("_p~iF~ps|U_"));
+        assertThrows(IllegalArgumentException.class,
+                () -> GeometryCodec.encode(new double[] { 40 }, new double[] { -100 }, null, 8));
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * A day's ride: 65 mph on a wandering heading, with a stop of a few minutes every hour, and GPS
+     * noise of a metre or so.
+     */
+    private static class Day {
+        final double[] latitudes = new double[DAY];
+        final double[] longitudes = new double[DAY];
+        final long[] times = new long[DAY];
+
+        Day() {
+            Random random = new Random(20);
+            double latitude = 38;
+            double longitude = -105;
+            double heading = 0;
+            double degreesPerSecond = 65 * 1.609 / 3600 / 111;
+            for (int i = 0; i < DAY; ++i) {
+                boolean stopped = i % 3600 < 240;
+                if (!stopped) {
+                    heading += random.nextGaussian() * 0.02;
+                    latitude += Math.cos(heading) * degreesPerSecond;
+                    longitude += Math.sin(heading) * degreesPerSecond / Math.cos(Math.toRadians(latitude));
+                }
+                latitudes[i] = latitude + random.nextGaussian() * 0.00001;
+                longitudes[i] = longitude + random.nextGaussian() * 0.00001;
+                times[i] = 1_748_736_000L + i;
+            }
+        }
+    }
+}
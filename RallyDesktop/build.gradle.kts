@@ -27,8 +27,7 @@ dependencies {
     // JXMapViewer for mapping
     implementation("org.jxmapviewer:jxmapviewer2:2.8")
 
-    // GraphHopper for routing (core library for now, will add OSM reader when needed)
-    // Note: Full routing implementation will require map data files
+    // GraphHopper for offline routing; reads OSM extracts configured in rallymaster.properties
     implementation("com.graphhopper:graphhopper-core:8.0")
 
     // HTTP Client for server communication
@@ -1,6 +1,7 @@
 package org.showpage.rallydesktop.service
 
 import org.slf4j.LoggerFactory
+import java.io.File
 import java.util.Properties
 
 private val logger = LoggerFactory.getLogger("ConfigurationService")
@@ -33,6 +34,21 @@ class ConfigurationService {
         return properties.getProperty("mapbox.token")
     }
 
+    /**
+     * Get the OSM extract (.osm.pbf) to route on, or null for straight-line routing
+     */
+    fun getOsmFile(): String? {
+        return properties.getProperty("routing.osm.file")
+    }
+
+    /**
+     * Get the directory that holds imported routing graphs
+     */
+    fun getGraphCacheDir(): String {
+        return properties.getProperty("routing.graph.cache")
+            ?: File(System.getProperty("user.home"), ".rallymaster/graph-cache").path
+    }
+
     companion object {
         private var instance: ConfigurationService? = null
 
@@ -9,6 +9,7 @@ import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.RequestBody.Companion.toRequestBody
 import org.showpage.rallyserver.RestResponse
 import org.showpage.rallyserver.ui.*
+import org.showpage.rallyserver.util.GeometryCodec
 import org.slf4j.LoggerFactory
 import java.io.IOException
 import java.util.Base64
@@ -28,6 +29,7 @@ class RallyServerClient(private val serverUrl: String) {
     }
 
     private val jsonMediaType = "application/json; charset=utf-8".toMediaType()
+    private val geometryMediaType = GeometryCodec.CONTENT_TYPE.toMediaType()
 
     private var accessToken: String? = null
     private var refreshToken: String? = null
@@ -417,6 +419,39 @@ class RallyServerClient(private val serverUrl: String) {
         return authenticatedDelete("/api/waypoint/$waypointId")
     }
 
+    //======================================================================
+    // Leg Geometry
+    //======================================================================
+
+    /**
+     * Store the road a leg follows, as routed here, packed with GeometryCodec.
+     */
+    fun saveLegGeometry(legId: Int, points: List<RoutingService.LatLng>): Result<Unit> {
+        logger.info("Saving geometry for leg {}: {} points", legId, points.size)
+        val encoded = GeometryCodec.encode(
+            points.map { it.latitude }.toDoubleArray(),
+            points.map { it.longitude }.toDoubleArray(),
+            null,
+            GeometryCodec.DEFAULT_PRECISION
+        )
+        return authenticatedPutBytes("/api/leg/$legId/geometry", encoded)
+    }
+
+    /**
+     * The road a leg follows, or an empty list if it hasn't been routed.
+     */
+    fun getLegGeometry(legId: Int): Result<List<RoutingService.LatLng>> {
+        logger.info("Getting geometry for leg {}", legId)
+        return authenticatedGetBytes("/api/leg/$legId/geometry").map { bytes ->
+            if (bytes == null) {
+                emptyList()
+            } else {
+                val geometry = GeometryCodec.decode(bytes)
+                List(geometry.size()) { RoutingService.LatLng(geometry.latitudes()[it], geometry.longitudes()[it]) }
+            }
+        }
+    }
+
     /**
      * Search rallies with optional filters.
      * For "My Rallies", use all=true to include all rallies user is involved with.
@@ -567,6 +602,80 @@ class RallyServerClient(private val serverUrl: String) {
         }
     }
 
+    /**
+     * Make an authenticated GET request for a GeometryCodec body. Not found comes back as null.
+     */
+    private fun authenticatedGetBytes(path: String): Result<ByteArray?> {
+        val token = accessToken ?: return Result.failure(Exception("Not authenticated"))
+
+        val fullUrl = "$serverUrl$path"
+        logger.debug("Making authenticated GET request to: {}", fullUrl)
+
+        val request = Request.Builder()
+            .url(fullUrl)
+            .header("Authorization", "Bearer $token")
+            .header("Accept", GeometryCodec.CONTENT_TYPE)
+            .get()
+            .build()
+
+        return try {
+            client.newCall(request).execute().use { response ->
+                logger.debug("Response code: {}", response.code)
+
+                if (response.isSuccessful) {
+                    Result.success(response.body?.bytes())
+                } else if (response.code == 404) {
+                    Result.success(null)
+                } else if (response.code == 401) {
+                    logger.error("Authentication failed (401) for URL: {}", fullUrl)
+                    Result.failure(Exception("Authentication failed: Token expired"))
+                } else {
+                    logger.error("Request failed with code {} for URL: {}", response.code, fullUrl)
+                    Result.failure(Exception("Request failed: ${response.code}"))
+                }
+            }
+        } catch (e: Exception) {
+            logger.error("Error during authenticated request to {}", fullUrl, e)
+            Result.failure(e)
+        }
+    }
+
+    /**
+     * Make an authenticated PUT request with a GeometryCodec body.
+     */
+    private fun authenticatedPutBytes(path: String, body: ByteArray): Result<Unit> {
+        val token = accessToken ?: return Result.failure(Exception("Not authenticated"))
+
+        val fullUrl = "$serverUrl$path"
+        logger.debug("Making authenticated PUT request to: {}", fullUrl)
+
+        val request = Request.Builder()
+            .url(fullUrl)
+            .header("Authorization", "Bearer $token")
+            .put(body.toRequestBody(geometryMediaType))
+            .build()
+
+        return try {
+            client.newCall(request).execute().use { response ->
+                logger.debug("Response code: {}", response.code)
+
+                if (response.isSuccessful) {
+                    Result.success(Unit)
+                } else if (response.code == 401) {
+                    logger.error("Authentication failed (401) for URL: {}", fullUrl)
+                    Result.failure(Exception("Authentication failed: Token expired"))
+                } else {
+                    val responseBody = response.body?.string()
+                    logger.error("Request failed with code {} for URL: {}, body: {}", response.code, fullUrl, responseBody)
+                    Result.failure(Exception("Request failed: ${response.code}"))
+                }
+            }
+        } catch (e: Exception) {
+            logger.error("Error during authenticated PUT request to {}", fullUrl, e)
+            Result.failure(e)
+        }
+    }
+
     /**
      * Make an authenticated DELETE request.
      */
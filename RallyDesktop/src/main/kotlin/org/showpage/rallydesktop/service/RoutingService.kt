@@ -1,22 +1,50 @@
 package org.showpage.rallydesktop.service
 
+import com.graphhopper.GHRequest
+import com.graphhopper.GraphHopper
+import com.graphhopper.GraphHopperConfig
+import com.graphhopper.config.CHProfile
+import com.graphhopper.config.Profile
+import com.graphhopper.util.shapes.GHPoint
 import org.slf4j.LoggerFactory
+import java.io.File
 
 /**
  * Service for calculating routes and distances between points.
- * Uses GraphHopper for offline routing capabilities.
+ *
+ * Uses GraphHopper for offline routing. The first time we see an OSM extract we import it into a
+ * graph cache on disk (with contraction hierarchies prepared for cars), which can take a while for
+ * a big region. After that the cache is memory-mapped, so startup is quick and legs come back in
+ * well under a millisecond each. Nothing is loaded until the first route is asked for.
+ *
+ * If no extract is configured, or it can't be loaded, routes fall back to straight lines.
  */
-class RoutingService {
+class RoutingService(
+    private val osmFile: String? = ConfigurationService.getInstance().getOsmFile(),
+    private val graphCacheDir: String = ConfigurationService.getInstance().getGraphCacheDir()
+) {
     private val logger = LoggerFactory.getLogger(javaClass)
 
-    // TODO: Initialize GraphHopper with map data
-    // This will require downloading OSM map data files
-    // For now, this is a placeholder for the routing functionality
+    private val lazyHopper = lazy { loadGraph() }
+
+    companion object {
+        private const val PROFILE = "car"
+        private const val FALLBACK_KPH = 100.0
+    }
 
     data class RouteResult(
         val distanceMeters: Double,
         val durationSeconds: Long,
-        val points: List<LatLng>
+        val points: List<LatLng>,
+        val legs: List<Leg> = emptyList()
+    )
+
+    /**
+     * One waypoint to the next.
+     */
+    data class Leg(
+        val distanceMeters: Double,
+        val durationSeconds: Long
     )
 
     data class LatLng(
@@ -24,31 +52,59 @@ class RoutingService {
         val longitude: Double
     )
 
+    /**
+     * Is real road routing available? This loads the graph if it isn't already.
+     */
+    fun isRoadRouting(): Boolean = lazyHopper.value != null
+
     /**
      * Calculate a route between multiple waypoints.
      *
      * @param waypoints List of coordinates to route through
-     * @return RouteResult with distance, duration, and route points
+     * @return RouteResult with distance, duration, route points, and one leg per pair of waypoints
      */
     fun calculateRoute(waypoints: List<LatLng>): Result<RouteResult> {
-        logger.warn("GraphHopper routing not yet implemented - returning placeholder data")
+        if (waypoints.size < 2) {
+            return Result.success(RouteResult(0.0, 0, waypoints))
+        }
 
-        // TODO: Implement GraphHopper routing
-        // This requires:
-        // 1. Downloaded OSM map data
-        // 2. GraphHopper initialization
-        // 3. Routing calculation
+        val hopper = lazyHopper.value ?: return calculateStraightLineRoute(waypoints)
 
-        // For now, return a simple straight-line calculation
         return try {
-            val distance = calculateStraightLineDistance(waypoints)
-            val estimatedDuration = (distance / 100.0 * 3600.0).toLong() // Rough estimate: 100 km/h average
+            // One request per leg. With CH each is a few hundred microseconds, and it gives us the
+            // per-leg distance and time directly.
+            val legs = mutableListOf<Leg>()
+            val points = mutableListOf<LatLng>()
+            for (i in 0 until waypoints.size - 1) {
+                val from = waypoints[i]
+                val to = waypoints[i + 1]
+                val request = GHRequest(
+                    GHPoint(from.latitude, from.longitude),
+                    GHPoint(to.latitude, to.longitude)
+                ).setProfile(PROFILE)
+
+                val response = hopper.route(request)
+                if (response.hasErrors()) {
+                    return Result.failure(IllegalStateException(
+                        "No route for leg ${i + 1}: ${response.errors.first().message}", response.errors.first()))
+                }
+
+                val path = response.best
+                legs.add(Leg(path.distance, path.time / 1000))
+
+                // Each leg starts where the last one ended, so skip the repeated point.
+                val pointList = path.points
+                for (p in (if (i == 0) 0 else 1) until pointList.size()) {
+                    points.add(LatLng(pointList.getLat(p), pointList.getLon(p)))
+                }
+            }
 
             Result.success(
                 RouteResult(
-                    distanceMeters = distance,
-                    durationSeconds = estimatedDuration,
-                    points = waypoints
+                    distanceMeters = legs.sumOf { it.distanceMeters },
+                    durationSeconds = legs.sumOf { it.durationSeconds },
+                    points = points,
+                    legs = legs
                 )
             )
         } catch (e: Exception) {
@@ -58,19 +114,75 @@ class RoutingService {
     }
 
     /**
-     * Calculate straight-line distance between waypoints using Haversine formula.
+     * Release the graph's memory-mapped files.
+     */
+    fun close() {
+        if (lazyHopper.isInitialized()) {
+            lazyHopper.value?.close()
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Graph loading
+    //----------------------------------------------------------------------
+
+    /**
+     * Import the extract, or load the cache from an earlier import. The cache is named after the
+     * extract and its timestamp, so replacing the extract triggers a fresh import.
      */
-    private fun calculateStraightLineDistance(waypoints: List<LatLng>): Double {
-        if (waypoints.size < 2) return 0.0
+    private fun loadGraph(): GraphHopper? {
+        val file = osmFile?.takeIf { it.isNotBlank() }?.let { File(it) }
+        if (file == null) {
+            logger.warn("No OSM extract configured (routing.osm.file) - routes will be straight lines")
+            return null
+        }
+        if (!file.exists()) {
+            logger.warn("OSM extract {} not found - routes will be straight lines", file)
+            return null
+        }
+
+        val location = File(graphCacheDir, "${file.nameWithoutExtension}-${file.lastModified()}")
+        val config = GraphHopperConfig()
+            .putObject("datareader.file", file.absolutePath)
+            .putObject("graph.location", location.absolutePath)
+            .putObject("graph.dataaccess.default_type", "MMAP")
+            .setProfiles(listOf(Profile(PROFILE).setVehicle("car").setTurnCosts(false)))
+            .setCHProfiles(listOf(CHProfile(PROFILE)))
+
+        return try {
+            val start = System.currentTimeMillis()
+            val hopper = GraphHopper().init(config)
+            hopper.importOrLoad()
+            logger.info("Loaded routing graph for {} from {} in {} ms",
+                file.name, location, System.currentTimeMillis() - start)
+            hopper
+        } catch (e: Exception) {
+            logger.error("Could not load routing graph from {} - routes will be straight lines", file, e)
+            null
+        }
+    }
 
-        var totalDistance = 0.0
-        for (i in 0 until waypoints.size - 1) {
-            totalDistance += haversineDistance(
+    //----------------------------------------------------------------------
+    // Straight-line fallback
+    //----------------------------------------------------------------------
+
+    private fun calculateStraightLineRoute(waypoints: List<LatLng>): Result<RouteResult> {
+        val legs = (0 until waypoints.size - 1).map { i ->
+            val distance = haversineDistance(
                 waypoints[i].latitude, waypoints[i].longitude,
                 waypoints[i + 1].latitude, waypoints[i + 1].longitude
             )
+            Leg(distance, (distance / 1000.0 / FALLBACK_KPH * 3600.0).toLong())
         }
-        return totalDistance
+
+        return Result.success(
+            RouteResult(
+                distanceMeters = legs.sumOf { it.distanceMeters },
+                durationSeconds = legs.sumOf { it.durationSeconds },
+                points = waypoints,
+                legs = legs
+            )
+        )
     }
 
     /**
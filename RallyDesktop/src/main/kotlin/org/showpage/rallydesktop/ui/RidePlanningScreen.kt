@@ -14,8 +14,11 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.Dp
 import androidx.compose.ui.unit.dp
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.showpage.rallydesktop.service.RallyServerClient
+import org.showpage.rallydesktop.service.RoutingService
 import org.showpage.rallyserver.ui.*
 import org.slf4j.LoggerFactory
 import java.time.format.DateTimeFormatter
@@ -34,6 +37,10 @@ fun RidePlanningScreen(
     onBack: () -> Unit
 ) {
     val scope = rememberCoroutineScope()
+    val routingService = remember { RoutingService() }
+    DisposableEffect(Unit) {
+        onDispose { routingService.close() }
+    }
 
     var ride by remember { mutableStateOf<UiRide?>(null) }
     var rally by remember { mutableStateOf<UiRally?>(null) }
@@ -167,6 +174,7 @@ fun RidePlanningScreen(
                             rally = rally,
                             routes = routes,
                             serverClient = serverClient,
+                            routingService = routingService,
                             onCollapse = { sidebarCollapsed = true },
                             width = sidebarWidth,
                             onWidthChange = { sidebarWidth = it },
@@ -225,6 +233,7 @@ fun RidePlanSidebar(
     rally: UiRally?,
     routes: List<UiRoute>,
     serverClient: RallyServerClient,
+    routingService: RoutingService,
     onCollapse: () -> Unit,
     width: Dp,
     onWidthChange: (Dp) -> Unit,
@@ -291,6 +300,7 @@ fun RidePlanSidebar(
                         rideId = ride.id!!,
                         routes = routes,
                         serverClient = serverClient,
+                        routingService = routingService,
                         onRoutesChanged = onRoutesChanged,
                         modifier = Modifier.fillMaxSize()
                     )
@@ -399,6 +409,7 @@ fun RoutesTree(
     rideId: Int,
     routes: List<UiRoute>,
     serverClient: RallyServerClient,
+    routingService: RoutingService,
     onRoutesChanged: (List<UiRoute>) -> Unit,
     modifier: Modifier = Modifier
 ) {
@@ -430,6 +441,7 @@ fun RoutesTree(
                 RouteItem(
                     route = route,
                     serverClient = serverClient,
+                    routingService = routingService,
                     onRouteChanged = { updatedRoute ->
                         onRoutesChanged(routes.map { if (it.id == updatedRoute.id) updatedRoute else it })
                     }
@@ -446,6 +458,7 @@ fun RoutesTree(
 fun RouteItem(
     route: UiRoute,
     serverClient: RallyServerClient,
+    routingService: RoutingService,
     onRouteChanged: (UiRoute) -> Unit
 ) {
     var isExpanded by remember { mutableStateOf(true) }
@@ -504,6 +517,7 @@ fun RouteItem(
                     RideLegItem(
                         leg = leg,
                         serverClient = serverClient,
+                        routingService = routingService,
                         onLegChanged = { updatedLeg ->
                             legs = legs.map { if (it.id == updatedLeg.id) updatedLeg else it }
                         }
@@ -524,16 +538,24 @@ fun RouteItem(
 }
 
 /**
- * Single leg item showing waypoints
+ * Single leg item showing waypoints. Routing a leg follows the roads through its waypoints in order
+ * and stores the line on the server, so the rider's other devices can draw it.
  */
 @Composable
 fun RideLegItem(
     leg: UiRideLeg,
     serverClient: RallyServerClient,
+    routingService: RoutingService,
     onLegChanged: (UiRideLeg) -> Unit
 ) {
     var isExpanded by remember { mutableStateOf(true) }
     var waypoints by remember { mutableStateOf(emptyList<UiWaypoint>()) }
+    var isRouting by remember { mutableStateOf(false) }
+    var routeSummary by remember { mutableStateOf<String?>(null) }
+    val scope = rememberCoroutineScope()
+    val stops = waypoints
+        .filter { it.latitude != null && it.longitude != null }
+        .map { RoutingService.LatLng(it.latitude.toDouble(), it.longitude.toDouble()) }
 
     // Load waypoints for this leg
     LaunchedEffect(leg.id) {
@@ -567,7 +589,46 @@ fun RideLegItem(
             Text(
                 text = leg.name ?: "Leg",
                 style = MaterialTheme.typography.bodySmall,
-                fontWeight = FontWeight.SemiBold
+                fontWeight = FontWeight.SemiBold,
+                modifier = Modifier.weight(1f)
+            )
+            TextButton(
+                onClick = {
+                    scope.launch {
+                        isRouting = true
+                        // The first route may import the map, which takes a while, so keep it off the UI thread.
+                        val result = withContext(Dispatchers.IO) {
+                            routingService.calculateRoute(stops).mapCatching { route ->
+                                serverClient.saveLegGeometry(leg.id!!, route.points).getOrThrow()
+                                route
+                            }
+                        }
+                        result.fold(
+                            onSuccess = { route ->
+                                logger.info("Routed leg {}: {} points", leg.id, route.points.size)
+                                routeSummary = routingService.formatDistance(route.distanceMeters) +
+                                        ", " + routingService.formatDuration(route.durationSeconds)
+                            },
+                            onFailure = { error ->
+                                logger.error("Failed to route leg {}", leg.id, error)
+                                routeSummary = "Routing failed: ${error.message}"
+                            }
+                        )
+                        isRouting = false
+                    }
+                },
+                enabled = leg.id != null && stops.size >= 2 && !isRouting
+            ) {
+                Text(if (isRouting) "Routing..." else "Route", style = MaterialTheme.typography.bodySmall)
+            }
+        }
+
+        if (routeSummary != null) {
+            Text(
+                text = routeSummary!!,
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(start = 16.dp)
             )
         }
 
@@ -0,0 +1,81 @@
+package org.showpage.rallydesktop.service
+
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import kotlin.math.abs
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Routes on the bundled grid extract, so no network or map download is needed.
+ */
+class RoutingServiceTest {
+    @TempDir
+    lateinit var cacheDir: File
+
+    private val extract: String = File(javaClass.getResource("/routing/grid.osm")!!.toURI()).path
+
+    // Opposite corners of the grid, and the middle.
+    private val southWest = RoutingService.LatLng(39.70, -105.00)
+    private val northEast = RoutingService.LatLng(39.75, -104.95)
+    private val middle = RoutingService.LatLng(39.72, -104.97)
+
+    @Test
+    fun routesAlongTheRoads() {
+        val service = RoutingService(extract, cacheDir.path)
+        assertTrue(service.isRoadRouting())
+
+        val route = service.calculateRoute(listOf(southWest, northEast)).getOrThrow()
+
+        // Five blocks north and five east: about 5.6 km plus 4.3 km, where a crow would fly 7 km.
+        assertTrue(abs(route.distanceMeters - 9840) < 300, "Distance was ${route.distanceMeters}")
+        assertTrue(route.durationSeconds > 0)
+        assertEquals(1, route.legs.size)
+        assertEquals(southWest.latitude, route.points.first().latitude, 0.0001)
+        assertEquals(northEast.longitude, route.points.last().longitude, 0.0001)
+
+        service.close()
+    }
+
+    @Test
+    fun legsAddUpToTheRoute() {
+        val service = RoutingService(extract, cacheDir.path)
+
+        val route = service.calculateRoute(listOf(southWest, middle, northEast, southWest)).getOrThrow()
+
+        assertEquals(3, route.legs.size)
+        assertEquals(route.legs.sumOf { it.distanceMeters }, route.distanceMeters, 0.001)
+        assertEquals(route.legs.sumOf { it.durationSeconds }, route.durationSeconds)
+        assertEquals(route.legs[0].distanceMeters + route.legs[1].distanceMeters, route.legs[2].distanceMeters, 1.0)
+
+        service.close()
+    }
+
+    @Test
+    fun reusesTheGraphCache() {
+        val first = RoutingService(extract, cacheDir.path)
+        val expected = first.calculateRoute(listOf(southWest, northEast)).getOrThrow()
+        first.close()
+        assertEquals(1, cacheDir.listFiles()!!.size, "Imported once into one cache directory")
+
+        val second = RoutingService(extract, cacheDir.path)
+        val actual = second.calculateRoute(listOf(southWest, northEast)).getOrThrow()
+        assertEquals(expected.distanceMeters, actual.distanceMeters, 0.001)
+        assertEquals(1, cacheDir.listFiles()!!.size)
+        second.close()
+    }
+
+    @Test
+    fun fallsBackToStraightLines() {
+        val service = RoutingService(null, cacheDir.path)
+        assertFalse(service.isRoadRouting())
+
+        val route = service.calculateRoute(listOf(southWest, northEast)).getOrThrow()
+
+        assertTrue(abs(route.distanceMeters - 7020) < 100, "Distance was ${route.distanceMeters}")
+        assertEquals((route.distanceMeters / 1000.0 / 100.0 * 3600.0).toLong(), route.durationSeconds)
+        assertEquals(listOf(southWest, northEast), route.points)
+    }
+}
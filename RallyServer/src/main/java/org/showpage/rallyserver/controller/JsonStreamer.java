@@ -0,0 +1,107 @@
+package org.showpage.rallyserver.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes a long list as the JSON a RestResponse would have been, one row at a time as the database
+ * cursor hands them over, so memory stays flat however many rows there are. The whole list never
+ * exists, as entities or as DTOs.
+ *
+ * The rows are usually entities mapped to DTOs on the way past. Every so often we flush what's
+ * written to the client and clear the persistence context, which would otherwise keep every entity
+ * read. The stream is opened here, in a read-only transaction of
+ * its own, because the request's transaction has finished by the time the body is written.
+ *
+ * By the time a row fails, the 200 and the rows before it are already with the client. Closing the
+ * JSON off would pass that off as the whole list, so instead the error is logged and rethrown with
+ * the output left as it is, and the server drops the connection.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JsonStreamer {
+    static final int FLUSH_EVERY = 100;
+
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+
+    /**
+     * {"success":true,"data":[...]}
+     */
+    @Transactional(readOnly = true)
+    public <T> void writeList(OutputStream out, Supplier<Stream<T>> rows) throws IOException {
+        JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+        json.writeStartObject();
+        json.writeBooleanField("success", true);
+        json.writeFieldName("data");
+        writeRows(json, rows);
+        json.writeEndObject();
+        json.close();
+    }
+
+    /**
+     * The same, with data a RestPage holding every row: one page, as an unpaged Page would be.
+     */
+    @Transactional(readOnly = true)
+    public <T> void writePage(OutputStream out, Supplier<Stream<T>> rows) throws IOException {
+        JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+        json.writeStartObject();
+        json.writeBooleanField("success", true);
+        json.writeObjectFieldStart("data");
+        json.writeFieldName("content");
+        int count = writeRows(json, rows);
+        json.writeNumberField("page", 0);
+        json.writeNumberField("size", count);
+        json.writeNumberField("totalElements", count);
+        json.writeNumberField("totalPages", 1);
+        json.writeBooleanField("first", true);
+        json.writeBooleanField("last", true);
+        json.writeArrayFieldStart("sort");
+        json.writeEndArray();
+        json.writeNullField("next");
+        json.writeEndObject();
+        json.writeEndObject();
+        json.close();
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * The rows as a JSON array. Returns how many there were. If one fails, the generator isn't
+     * closed: that would end the JSON as if nothing went wrong.
+     */
+    private <T> int writeRows(JsonGenerator json, Supplier<Stream<T>> rows) throws IOException {
+        int count = 0;
+        json.writeStartArray();
+        try (Stream<T> stream = rows.get()) {
+            Iterator<T> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                json.writeObject(iterator.next());
+                if (++count % FLUSH_EVERY == 0) {
+                    json.flush();
+                    entityManager.clear();
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Streaming failed after {} rows; dropping the response", count, e);
+            throw e;
+        }
+        json.writeEndArray();
+        return count;
+    }
+}
@@ -15,9 +15,11 @@ import org.showpage.rallyserver.service.MemberService;
 import org.showpage.rallyserver.ui.*;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api")
@@ -59,15 +61,39 @@ public class MemberController {
         }
     )
     @GetMapping("/admin/members")
-    ResponseEntity<RestResponse<List<UiMember>>> getAllMembers() {
-        return serviceCaller.call((member) -> {
-            List<Member> members = memberService.getAllMembers(member);
-            return members.stream()
-                    .map(DtoMapper::toUiMember)
-                    .collect(Collectors.toList());
+    ResponseEntity<StreamingResponseBody> getAllMembers() {
+        return serviceCaller.callForStream((member) -> {
+            Supplier<Stream<Member>> members = memberService.streamAllMembers(member);
+            return () -> members.get().map(DtoMapper::toUiMember);
         });
     }
 
+    @Operation(
+        summary = "Page through all members (admin only)",
+        description = "Every member in id order, a page at a time by cursor. Every page costs the same however far in it is. " +
+            "This endpoint is restricted to administrators only.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Members retrieved successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or page size"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "403", description = "Not authorized - admin privileges required")
+        }
+    )
+    @GetMapping("/admin/members/page")
+    ResponseEntity<RestResponse<RestPage<UiMember>>> pageAllMembers(
+            @Parameter(description = "Absent or empty for the first page, then the next cursor from the page before")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Members per page, up to 500", example = "100")
+            @RequestParam(required = false, defaultValue = "100") Integer size,
+            @Parameter(description = "Whether to count the total")
+            @RequestParam(required = false) Boolean count
+    ) {
+        return serviceCaller.call((member) -> RestPageHelper.from(
+            memberService.getAllMembers(member, cursor, size, count != null && count)
+                    .map(DtoMapper::toUiMember),
+            "id"));
+    }
+
     @Operation(
         summary = "Delete a member (admin only)",
         description = "Delete a member account from the system. This endpoint is restricted to administrators only.",
@@ -9,23 +9,32 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.showpage.rallyserver.RestResponse;
+import org.showpage.rallyserver.entity.BonusPoint;
+import org.showpage.rallyserver.entity.Rally;
 import org.showpage.rallyserver.repository.BonusPointRepository;
 import org.showpage.rallyserver.repository.CombinationPointRepository;
 import org.showpage.rallyserver.repository.CombinationRepository;
+import org.showpage.rallyserver.exception.ValidationException;
 import org.showpage.rallyserver.service.DtoMapper;
+import org.showpage.rallyserver.service.KeysetPage;
 import org.showpage.rallyserver.service.RallyService;
+import org.showpage.rallyserver.service.RoutePlanningService;
 import org.showpage.rallyserver.ui.*;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api")
@@ -35,6 +44,7 @@ import java.util.List;
 public class RallyController {
     private final ServiceCaller serviceCaller;
     private final RallyService rallyService;
+    private final RoutePlanningService routePlanningService;
 
     @Operation(
         summary = "Create a new rally",
@@ -96,7 +106,9 @@ public class RallyController {
 
     @Operation(
         summary = "Search rallies",
-        description = "Search and filter rallies by name, date range, location, and proximity. Returns paginated results.",
+        description = "Search and filter rallies by name, date range, location, and proximity. Returns paginated results, " +
+                "optionally ranked by how well the name matches. With all=true, every match comes back as a single page, " +
+                "written as it's read.",
         responses = {
             @ApiResponse(responseCode = "200", description = "Search completed successfully"),
             @ApiResponse(responseCode = "400", description = "Invalid search parameters"),
@@ -104,9 +116,11 @@ public class RallyController {
         }
     )
     @GetMapping("/rallies")
-    ResponseEntity<RestResponse<RestPage<UiRally>>> searchRallies(
+    ResponseEntity<?> searchRallies(
             @Parameter(description = "Case-insensitive text search in rally name", example = "Iron Butt")
             @RequestParam(required = false) String name,
+            @Parameter(description = "If true, each word of the name may appear anywhere in it, and the closest matches come first instead of the sort")
+            @RequestParam(required = false) Boolean relevance,
 
             @Parameter(description = "Start date for date range filter (inclusive, ISO format)", example = "2025-06-01")
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
@@ -125,16 +139,39 @@ public class RallyController {
             @Parameter(description = "Search radius in miles for proximity search", example = "100")
             @RequestParam(required = false, defaultValue = "100") Double radiusMiles,
 
-            @Parameter(description = "If true, include all rallies regardless of visibility settings")
+            @Parameter(description = "If true, return every match as one page, streamed, ignoring page and size")
             @RequestParam(required = false) Boolean all,
+            @Parameter(description = "Page by cursor instead of page number, in start date order: empty for the first page, " +
+                    "then the next cursor from the page before. Ignores page and sort, and can't be used with relevance.")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "When paging by cursor, whether to count the total (which reads every match)")
+            @RequestParam(required = false) Boolean count,
             @Parameter(description = "Pagination and sorting parameters (page, size, sort)", example = "page=0&size=20&sort=startDate,asc")
             @PageableDefault(size = 20, sort = "startDate", direction = Sort.Direction.ASC) Pageable pageable
     ) {
         if (from != null) {
             log.info("Searching for rallys from {} to {}", from, to);
         }
+        if (cursor != null) {
+            return serviceCaller.call((member) -> {
+                if (relevance != null && relevance) {
+                    throw new ValidationException("Results ranked by relevance can't be paged by cursor");
+                }
+                KeysetPage<UiRally> page = rallyService.searchAfter(name, from, to, country, region, nearLat, nearLng, radiusMiles,
+                                cursor, pageable.getPageSize(), count != null && count)
+                        .map(rally -> DtoMapper.toUiRally(member, rally));
+                return RestPageHelper.from(page, "startDate", "id");
+            });
+        }
+        if (all != null && all) {
+            return serviceCaller.callForStreamPage((member) -> {
+                Supplier<Stream<Rally>> rallies = rallyService.streamSearch(name, relevance != null && relevance, from, to, country, region,
+                        nearLat, nearLng, radiusMiles, pageable.getSort());
+                return () -> rallies.get().map(rally -> DtoMapper.toUiRally(member, rally));
+            });
+        }
         return serviceCaller.call((member) -> {
-                Page<UiRally> page = rallyService.search(name, from, to, country, region, nearLat, nearLng, radiusMiles, all != null && all, pageable)
+                Page<UiRally> page = rallyService.search(name, relevance != null && relevance, from, to, country, region, nearLat, nearLng, radiusMiles, pageable)
                         .map(rally -> DtoMapper.toUiRally(member, rally));
                 return RestPageHelper.from(page);
             }
@@ -290,7 +327,7 @@ public class RallyController {
 
     @Operation(
         summary = "List all bonus points for a rally",
-        description = "Retrieve all bonus points associated with a specific rally",
+        description = "Retrieve all bonus points associated with a specific rally, written as they're read",
         responses = {
             @ApiResponse(responseCode = "200", description = "Bonus points retrieved successfully"),
             @ApiResponse(responseCode = "401", description = "Not authenticated"),
@@ -298,14 +335,139 @@ public class RallyController {
         }
     )
     @GetMapping("/rally/{rallyId}/bonuspoints")
-    ResponseEntity<RestResponse<List<UiBonusPoint>>> listBonusPoints(
+    ResponseEntity<StreamingResponseBody> listBonusPoints(
             @Parameter(description = "Rally ID to list bonus points for", example = "1", required = true)
             @PathVariable Integer rallyId
+    ) {
+        return serviceCaller.callForStream((member) -> {
+            Supplier<Stream<BonusPoint>> bonusPoints = rallyService.streamBonusPoints(member, rallyId);
+            return () -> bonusPoints.get().map(DtoMapper::toUiBonusPoint);
+        });
+    }
+
+    @Operation(
+        summary = "Page through a rally's bonus points",
+        description = "The rally's bonus points in id order, a page at a time by cursor. Every page costs the same however far in it is.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Bonus points retrieved successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or page size"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/bonuspoints/page")
+    ResponseEntity<RestResponse<RestPage<UiBonusPoint>>> pageBonusPoints(
+            @Parameter(description = "Rally ID to list bonus points for", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @Parameter(description = "Absent or empty for the first page, then the next cursor from the page before")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Bonus points per page, up to 500", example = "100")
+            @RequestParam(required = false, defaultValue = "100") Integer size,
+            @Parameter(description = "Whether to count the total")
+            @RequestParam(required = false) Boolean count
+    ) {
+        return serviceCaller.call((member) -> RestPageHelper.from(
+            rallyService.listBonusPoints(member, rallyId, cursor, size, count != null && count)
+                    .map(DtoMapper::toUiBonusPoint),
+            "id"));
+    }
+
+    @Operation(
+        summary = "Nearest bonus points",
+        description = "The rally's bonus points closest to a location, closest first, with great-circle miles to each.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Bonus points found"),
+            @ApiResponse(responseCode = "400", description = "Invalid location or count"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/bonuspoints/nearest")
+    ResponseEntity<RestResponse<List<UiNearbyBonusPoint>>> findNearestBonusPoints(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @Parameter(description = "Latitude", example = "39.7392", required = true)
+            @RequestParam Double latitude,
+            @Parameter(description = "Longitude", example = "-104.9903", required = true)
+            @RequestParam Double longitude,
+            @Parameter(description = "How many to return (1-500)", example = "5")
+            @RequestParam(defaultValue = "5") Integer count
     ) {
         return serviceCaller.call((member) ->
-            rallyService.listBonusPoints(member, rallyId).stream()
-                    .map(DtoMapper::toUiBonusPoint)
-                    .toList());
+            rallyService.findNearestBonusPoints(member, rallyId, latitude, longitude, count));
+    }
+
+    @Operation(
+        summary = "Bonus points within a radius",
+        description = "The rally's bonus points within a number of miles of a location, closest first.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Bonus points found"),
+            @ApiResponse(responseCode = "400", description = "Invalid location or distance"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/bonuspoints/within")
+    ResponseEntity<RestResponse<List<UiNearbyBonusPoint>>> findBonusPointsWithin(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @Parameter(description = "Latitude", example = "39.7392", required = true)
+            @RequestParam Double latitude,
+            @Parameter(description = "Longitude", example = "-104.9903", required = true)
+            @RequestParam Double longitude,
+            @Parameter(description = "Radius in miles", example = "20", required = true)
+            @RequestParam Double miles
+    ) {
+        return serviceCaller.call((member) ->
+            rallyService.findBonusPointsWithin(member, rallyId, latitude, longitude, miles));
+    }
+
+    @Operation(
+        summary = "Bonus points in a box",
+        description = "The rally's bonus points inside a latitude/longitude box, such as the visible map. " +
+                "If minLongitude is greater than maxLongitude the box crosses the date line.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Bonus points found"),
+            @ApiResponse(responseCode = "400", description = "Invalid box"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/bonuspoints/box")
+    ResponseEntity<RestResponse<List<UiBonusPoint>>> findBonusPointsInBox(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @Parameter(description = "South edge", example = "39.0", required = true)
+            @RequestParam Double minLatitude,
+            @Parameter(description = "West edge", example = "-106.0", required = true)
+            @RequestParam Double minLongitude,
+            @Parameter(description = "North edge", example = "40.5", required = true)
+            @RequestParam Double maxLatitude,
+            @Parameter(description = "East edge", example = "-104.0", required = true)
+            @RequestParam Double maxLongitude
+    ) {
+        return serviceCaller.call((member) ->
+            rallyService.findBonusPointsInBox(member, rallyId, minLatitude, minLongitude, maxLatitude, maxLongitude));
+    }
+
+    @Operation(
+        summary = "Distance matrix for a rally's bonus points",
+        description = "Great-circle miles between every pair of the rally's bonus points that have a location, " +
+                "cached until a bonus point is added, moved or deleted. Binary, big-endian: an int count, " +
+                "count int bonus point IDs, then the upper triangle row by row (diagonal skipped) as floats.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Matrix returned",
+                    content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE)),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping(value = "/rally/{rallyId}/distances", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    byte[] getDistanceMatrix(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId
+    ) {
+        return serviceCaller.callForBody((member) -> rallyService.getDistanceMatrix(member, rallyId).toBytes());
     }
 
     //======================================================================
@@ -415,6 +577,56 @@ public class RallyController {
                     .toList());
     }
 
+    @Operation(
+        summary = "Page through a rally's combinations",
+        description = "The rally's combinations in id order, a page at a time by cursor. Every page costs the same however far in it is.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Combinations retrieved successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or page size"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/combinations/page")
+    ResponseEntity<RestResponse<RestPage<UiCombination>>> pageCombinations(
+            @Parameter(description = "Rally ID to list combinations for", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @Parameter(description = "Absent or empty for the first page, then the next cursor from the page before")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Combinations per page, up to 500", example = "100")
+            @RequestParam(required = false, defaultValue = "100") Integer size,
+            @Parameter(description = "Whether to count the total")
+            @RequestParam(required = false) Boolean count
+    ) {
+        return serviceCaller.call((member) -> RestPageHelper.from(
+            rallyService.listCombinations(member, rallyId, cursor, size, count != null && count)
+                    .map(c -> DtoMapper.toUiCombination(c)),
+            "id"));
+    }
+
+    @Operation(
+        summary = "Analyze which combinations to ride for",
+        description = "Search for the best sets of the rally's combinations that fit in a time budget, counting bonus points that several combinations share only once. "
+                + "Each set comes with what every combination in it adds, and every combination comes with an estimate of what it would take on its own. "
+                + "Travel is estimated in straight lines at an average speed. Nothing is saved.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Analysis complete"),
+            @ApiResponse(responseCode = "400", description = "Invalid request, or no start location"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @PostMapping("/rally/{rallyId}/combinations/portfolio")
+    ResponseEntity<RestResponse<UiCombinationAnalysis>> analyzeCombinations(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Time budget, and optionally start, finish, speed and stop time", required = true)
+            @RequestBody CombinationPortfolioRequest request
+    ) {
+        return serviceCaller.callWithoutTransaction((member) ->
+            routePlanningService.analyzeCombinations(member, rallyId, request));
+    }
+
     //======================================================================
     // CombinationPoint CRUD
     //======================================================================
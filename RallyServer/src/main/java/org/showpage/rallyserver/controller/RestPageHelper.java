@@ -1,10 +1,13 @@
 package org.showpage.rallyserver.controller;
 
+import org.showpage.rallyserver.service.KeysetPage;
 import org.showpage.rallyserver.ui.RestPage.SortOrder;
 import org.springframework.data.domain.Page;
 
+import java.util.Arrays;
+
 /**
- * Helper class for creating RestPage from Spring's Page.
+ * Helper class for creating RestPage from Spring's Page, or from a KeysetPage.
  * The RestPage record itself is in RallyCommon for shared use.
  */
 public class RestPageHelper {
@@ -19,7 +22,28 @@ public class RestPageHelper {
                 p.isLast(),
                 p.getSort().stream()
                         .map(o -> new SortOrder(o.getProperty(), o.isAscending() ? "ASC" : "DESC"))
-                        .toList()
+                        .toList(),
+                null
+        );
+    }
+
+    /**
+     * A page read by cursor, which has no page number, sorted by these properties ascending.
+     */
+    public static <T> org.showpage.rallyserver.ui.RestPage<T> from(KeysetPage<T> p, String... sort) {
+        long total = p.totalElements() != null ? p.totalElements() : -1;
+        return new org.showpage.rallyserver.ui.RestPage<>(
+                p.content(),
+                -1,
+                p.size(),
+                total,
+                total >= 0 ? (int) ((total + p.size() - 1) / p.size()) : -1,
+                p.first(),
+                p.next() == null,
+                Arrays.stream(sort)
+                        .map(property -> new SortOrder(property, "ASC"))
+                        .toList(),
+                p.next()
         );
     }
 }
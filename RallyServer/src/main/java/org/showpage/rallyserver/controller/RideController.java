@@ -2,6 +2,7 @@ package org.showpage.rallyserver.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
@@ -9,10 +10,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.showpage.rallyserver.RestResponse;
 import org.showpage.rallyserver.service.DtoMapper;
 import org.showpage.rallyserver.service.RideService;
+import org.showpage.rallyserver.service.RoutePlanningService;
+import org.showpage.rallyserver.service.TrackService;
 import org.showpage.rallyserver.ui.*;
+import org.showpage.rallyserver.util.GeometryCodec;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -23,6 +28,8 @@ import java.util.List;
 public class RideController {
     private final ServiceCaller serviceCaller;
     private final RideService rideService;
+    private final RoutePlanningService routePlanningService;
+    private final TrackService trackService;
 
     //======================================================================
     // Ride CRUD
@@ -46,6 +53,44 @@ public class RideController {
             DtoMapper.toUiRide(rideService.createRide(member, request)));
     }
 
+    @Operation(
+        summary = "Plan My Ride",
+        description = "Create a ride for a rally, with the ride's own copy of the rally's bonus points and combinations to plan with. "
+                + "Changes to the copy don't touch the rally. The rider must be able to see the rally.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Ride created with its copy of the rally"),
+            @ApiResponse(responseCode = "400", description = "Invalid ride data, or no rally"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @PostMapping("/ride/plan")
+    ResponseEntity<RestResponse<UiRide>> planRide(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Ride details, including the rally", required = true)
+            @RequestBody CreateRideRequest request
+    ) {
+        return serviceCaller.call((member) ->
+            rideService.planRide(member, request));
+    }
+
+    @Operation(
+        summary = "Get a ride with its planning copy",
+        description = "Retrieve a ride along with its own copies of the rally's bonus points and combinations. Only the ride owner can view.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Ride found"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride not found")
+        }
+    )
+    @GetMapping("/ride/{id}/plan")
+    ResponseEntity<RestResponse<UiRide>> getRidePlan(
+            @Parameter(description = "Ride ID", example = "1", required = true)
+            @PathVariable Integer id
+    ) {
+        return serviceCaller.call((member) ->
+            rideService.getRidePlan(member, id));
+    }
+
     @Operation(
         summary = "Update a ride",
         description = "Update an existing ride. Only the ride owner can update.",
@@ -82,7 +127,7 @@ public class RideController {
             @PathVariable Integer id
     ) {
         return serviceCaller.call((member) ->
-            DtoMapper.toUiRide(rideService.getRide(member, id)));
+            rideService.getRideTree(member, id));
     }
 
     @Operation(
@@ -96,9 +141,7 @@ public class RideController {
     @GetMapping("/rides")
     ResponseEntity<RestResponse<List<UiRide>>> listRides() {
         return serviceCaller.call((member) ->
-            rideService.listRides(member).stream()
-                    .map(DtoMapper::toUiRide)
-                    .toList());
+            rideService.listRideTrees(member));
     }
 
     @Operation(
@@ -121,6 +164,48 @@ public class RideController {
         });
     }
 
+    @Operation(
+        summary = "Upload a ride's GPS track",
+        description = "Send a GPX or CSV track as the request body. It's read as it arrives and stored with the ride, " +
+            "replacing any earlier track, and every stop within range of one of the rally's bonus points is proposed " +
+            "as an unconfirmed earned bonus point at the time the rider arrived. The ride's owner or a scorer for its rally can upload.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Track stored and visits matched"),
+            @ApiResponse(responseCode = "400", description = "Unreadable or oversized track, or the ride isn't for a rally"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride not found or not yours, or the rider isn't registered")
+        }
+    )
+    @PostMapping("/ride/{id}/track")
+    ResponseEntity<RestResponse<UiTrackUpload>> uploadTrack(
+            @Parameter(description = "Ride ID", example = "1", required = true)
+            @PathVariable Integer id,
+            @Parameter(description = "GPX or CSV; worked out from the content if left off", example = "GPX")
+            @RequestParam(required = false) String format,
+            InputStream body
+    ) {
+        return serviceCaller.callWithoutTransaction((member) -> trackService.upload(member, id, format, body));
+    }
+
+    @Operation(
+        summary = "Get a ride's GPS track",
+        description = "The stored track, packed with GeometryCodec: deltas of latitude, longitude and time as zigzag " +
+            "varints, a few bytes a point. It's sent as stored. The ride's owner or a scorer for its rally can have it.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Track returned",
+                    content = @Content(mediaType = GeometryCodec.CONTENT_TYPE)),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride not found or not yours to see, or it has no track")
+        }
+    )
+    @GetMapping(value = "/ride/{id}/track", produces = GeometryCodec.CONTENT_TYPE)
+    byte[] getTrack(
+            @Parameter(description = "Ride ID", example = "1", required = true)
+            @PathVariable Integer id
+    ) {
+        return serviceCaller.callForBody((member) -> trackService.getTrack(member, id));
+    }
+
     //======================================================================
     // Route CRUD
     //======================================================================
@@ -146,6 +231,65 @@ public class RideController {
             DtoMapper.toUiRoute(rideService.createRoute(member, rideId, request)));
     }
 
+    @Operation(
+        summary = "Plan an optimized route",
+        description = "Search the ride's rally for the best-scoring set of bonus points that fits the time budget, " +
+            "counting the combinations they complete, and save it as a new route with one leg of waypoints in riding order. " +
+            "Travel is estimated from straight-line distance at an average speed.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Route planned and saved"),
+            @ApiResponse(responseCode = "400", description = "Invalid planning parameters, or the ride isn't for a rally"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride or rally not found")
+        }
+    )
+    @PostMapping("/ride/{rideId}/route/optimize")
+    ResponseEntity<RestResponse<UiRoutePlan>> optimizeRoute(
+            @Parameter(description = "Ride ID", example = "1", required = true)
+            @PathVariable Integer rideId,
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Start, finish, time budget and speed", required = true)
+            @RequestBody OptimizeRouteRequest request
+    ) {
+        return serviceCaller.callWithoutTransaction((member) -> routePlanningService.optimize(member, rideId, request));
+    }
+
+    @Operation(
+        summary = "Put a route's waypoints in the shortest order",
+        description = "Reorder the waypoints within each leg of the route to ride the fewest straight-line miles. " +
+            "Legs stay in order, and each leg keeps its first and last waypoint in place.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Waypoints reordered"),
+            @ApiResponse(responseCode = "400", description = "A waypoint has no location"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Route not found")
+        }
+    )
+    @PostMapping("/route/{id}/sequence")
+    ResponseEntity<RestResponse<UiWaypointSequence>> sequenceRoute(
+            @Parameter(description = "Route ID", example = "1", required = true)
+            @PathVariable Integer id
+    ) {
+        return serviceCaller.call((member) -> routePlanningService.sequenceRoute(member, id));
+    }
+
+    @Operation(
+        summary = "Put a leg's waypoints in the shortest order",
+        description = "Reorder the leg's waypoints to ride the fewest straight-line miles, keeping the first and last in place.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Waypoints reordered"),
+            @ApiResponse(responseCode = "400", description = "A waypoint has no location"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride leg not found")
+        }
+    )
+    @PostMapping("/leg/{id}/sequence")
+    ResponseEntity<RestResponse<UiWaypointSequence>> sequenceRideLeg(
+            @Parameter(description = "Ride leg ID", example = "1", required = true)
+            @PathVariable Integer id
+    ) {
+        return serviceCaller.call((member) -> routePlanningService.sequenceLeg(member, id));
+    }
+
     @Operation(
         summary = "Update a route",
         description = "Update an existing route",
@@ -329,6 +473,47 @@ public class RideController {
         });
     }
 
+    @Operation(
+        summary = "Store the road a ride leg follows",
+        description = "Send the leg's routed line packed with GeometryCodec as the request body. It's checked, then " +
+            "stored and served back exactly as sent. An empty body clears it.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Geometry stored"),
+            @ApiResponse(responseCode = "400", description = "Unreadable geometry"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride leg not found")
+        }
+    )
+    @PutMapping(value = "/leg/{id}/geometry", consumes = GeometryCodec.CONTENT_TYPE)
+    ResponseEntity<RestResponse<Void>> setRideLegGeometry(
+            @Parameter(description = "Ride leg ID", example = "1", required = true)
+            @PathVariable Integer id,
+            @RequestBody(required = false) byte[] body
+    ) {
+        return serviceCaller.call((member) -> {
+            rideService.setRideLegGeometry(member, id, body);
+            return null;
+        });
+    }
+
+    @Operation(
+        summary = "Get the road a ride leg follows",
+        description = "The leg's routed line, packed with GeometryCodec, as it was stored.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Geometry returned",
+                    content = @Content(mediaType = GeometryCodec.CONTENT_TYPE)),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Ride leg not found, or it has no geometry")
+        }
+    )
+    @GetMapping(value = "/leg/{id}/geometry", produces = GeometryCodec.CONTENT_TYPE)
+    byte[] getRideLegGeometry(
+            @Parameter(description = "Ride leg ID", example = "1", required = true)
+            @PathVariable Integer id
+    ) {
+        return serviceCaller.callForBody((member) -> rideService.getRideLegGeometry(member, id));
+    }
+
     //======================================================================
     // Waypoint CRUD
     //======================================================================
@@ -9,13 +9,22 @@ import org.showpage.rallyserver.RestResponse;
 import org.showpage.rallyserver.entity.EarnedBonusPoint;
 import org.showpage.rallyserver.entity.EarnedCombination;
 import org.showpage.rallyserver.service.DtoMapper;
+import org.showpage.rallyserver.service.ScoreRecomputeService;
 import org.showpage.rallyserver.service.ScoringService;
+import org.showpage.rallyserver.service.StandingsService;
 import org.showpage.rallyserver.ui.*;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Controller for scoring operations during rallies.
@@ -27,6 +36,8 @@ import java.util.List;
 public class ScoringController {
     private final ServiceCaller serviceCaller;
     private final ScoringService scoringService;
+    private final StandingsService standingsService;
+    private final ScoreRecomputeService scoreRecomputeService;
 
     @Operation(
         summary = "Update starting odometer",
@@ -94,6 +105,28 @@ public class ScoringController {
                 toUiEarnedBonusPoint(scoringService.createEarnedBonusPoint(member, rallyId, request)));
     }
 
+    @Operation(
+        summary = "Submit a claim sheet",
+        description = "Record a rider's whole claim sheet in one call, including odometer readings. " +
+            "Each claim is reported as ACCEPTED, DUPLICATE or INVALID; rejected claims don't stop the rest.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Claim sheet processed; see the per-item results"),
+            @ApiResponse(responseCode = "400", description = "Invalid request or odometer readings"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "403", description = "Not authorized to record points for this rally"),
+            @ApiResponse(responseCode = "404", description = "Rally or participant not found")
+        }
+    )
+    @PostMapping("/rally/{rallyId}/claim-sheet")
+    ResponseEntity<RestResponse<ClaimSheetResult>> submitClaimSheet(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Rider, odometer readings and claimed bonus points", required = true)
+            @RequestBody ClaimSheetRequest request
+    ) {
+        return serviceCaller.call((member) -> scoringService.submitClaimSheet(member, rallyId, request));
+    }
+
     @Operation(
         summary = "Confirm/unconfirm earned bonus point",
         description = "Update the confirmation status of an earned bonus point. Rally organizers use this to verify submitted bonus points.",
@@ -162,7 +195,7 @@ public class ScoringController {
 
     @Operation(
         summary = "Get earned bonus points",
-        description = "Retrieve all bonus points earned by a specific rally participant",
+        description = "Retrieve all bonus points earned by a specific rally participant, written as they're read",
         responses = {
             @ApiResponse(responseCode = "200", description = "Earned bonus points retrieved successfully"),
             @ApiResponse(responseCode = "401", description = "Not authenticated"),
@@ -171,19 +204,19 @@ public class ScoringController {
         }
     )
     @GetMapping("/rally-participant/{rallyParticipantId}/earned-bonus-points")
-    ResponseEntity<RestResponse<List<UiEarnedBonusPoint>>> getEarnedBonusPoints(
+    ResponseEntity<StreamingResponseBody> getEarnedBonusPoints(
             @Parameter(description = "Rally participant ID", example = "1", required = true)
             @PathVariable Integer rallyParticipantId
     ) {
-        return serviceCaller.call((member) ->
-                scoringService.getEarnedBonusPoints(member, rallyParticipantId).stream()
-                        .map(this::toUiEarnedBonusPoint)
-                        .toList());
+        return serviceCaller.callForStream((member) -> {
+            Supplier<Stream<EarnedBonusPoint>> earned = scoringService.streamEarnedBonusPoints(member, rallyParticipantId);
+            return () -> earned.get().map(this::toUiEarnedBonusPoint);
+        });
     }
 
     @Operation(
         summary = "Get earned combinations",
-        description = "Retrieve all bonus point combinations earned by a specific rally participant",
+        description = "Retrieve all bonus point combinations earned by a specific rally participant, written as they're read",
         responses = {
             @ApiResponse(responseCode = "200", description = "Earned combinations retrieved successfully"),
             @ApiResponse(responseCode = "401", description = "Not authenticated"),
@@ -192,14 +225,90 @@ public class ScoringController {
         }
     )
     @GetMapping("/rally-participant/{rallyParticipantId}/earned-combinations")
-    ResponseEntity<RestResponse<List<UiEarnedCombination>>> getEarnedCombinations(
+    ResponseEntity<StreamingResponseBody> getEarnedCombinations(
             @Parameter(description = "Rally participant ID", example = "1", required = true)
             @PathVariable Integer rallyParticipantId
     ) {
-        return serviceCaller.call((member) ->
-                scoringService.getEarnedCombinations(member, rallyParticipantId).stream()
-                        .map(this::toUiEarnedCombination)
-                        .toList());
+        return serviceCaller.callForStream((member) -> {
+            Supplier<Stream<EarnedCombination>> earned = scoringService.streamEarnedCombinations(member, rallyParticipantId);
+            return () -> earned.get().map(this::toUiEarnedCombination);
+        });
+    }
+
+    @Operation(
+        summary = "Get live standings",
+        description = "Ranked standings for a rally, kept current as bonus points and combinations are claimed and confirmed. Only confirmed points count toward the score; unconfirmed claims are reported separately as pending.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Standings retrieved successfully"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/standings")
+    ResponseEntity<RestResponse<List<UiRallyStanding>>> getStandings(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId
+    ) {
+        return serviceCaller.call((member) -> standingsService.getStandings(member, rallyId));
+    }
+
+    @Operation(
+        summary = "Recompute final scores",
+        description = "Rebuild every rider's final score for a rally from their confirmed bonus point and combination claims. " +
+            "This is a safety net; scores are normally kept current as claims are made. The response reports how long each phase took.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Scores recomputed"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found, or caller is not an organizer")
+        }
+    )
+    @PostMapping("/rally/{rallyId}/recompute")
+    ResponseEntity<RestResponse<UiScoreRecompute>> recompute(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId
+    ) {
+        return serviceCaller.call((member) -> scoreRecomputeService.recompute(member, rallyId));
+    }
+
+    @Operation(
+        summary = "Get leaderboard",
+        description = "Paged, ranked leaderboard for a rally, computed in the database from earned bonus points and combinations. " +
+            "Only confirmed points count toward the score. Ties on score are broken by fewer miles ridden, then by earliest finish; " +
+            "riders still tied share a rank.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Leaderboard retrieved successfully"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping("/rally/{rallyId}/leaderboard")
+    ResponseEntity<RestResponse<RestPage<UiRallyStanding>>> getLeaderboard(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId,
+            @Parameter(description = "Pagination parameters (page, size). Always sorted by rank.", example = "page=0&size=50")
+            @PageableDefault(size = 50) Pageable pageable
+    ) {
+        return serviceCaller.call((member) -> RestPageHelper.from(standingsService.getLeaderboard(member, rallyId, pageable)));
+    }
+
+    @Operation(
+        summary = "Stream scoring changes",
+        description = "Server-Sent Events stream of scoring changes for a rally as they are committed. " +
+            "The first event is the full standings (STANDINGS). After that come BONUS_POINT, COMBINATION, " +
+            "COMBINATION_RETIRED and RANK events. A RESYNC event means some events were dropped and the " +
+            "standings should be fetched again.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Event stream opened"),
+            @ApiResponse(responseCode = "401", description = "Not authenticated"),
+            @ApiResponse(responseCode = "404", description = "Rally not found")
+        }
+    )
+    @GetMapping(value = "/rally/{rallyId}/standings/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    SseEmitter streamStandings(
+            @Parameter(description = "Rally ID", example = "1", required = true)
+            @PathVariable Integer rallyId
+    ) {
+        return serviceCaller.callForBody((member) -> standingsService.subscribe(member, rallyId));
     }
 
     //======================================================================
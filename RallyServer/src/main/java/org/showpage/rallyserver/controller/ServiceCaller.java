@@ -1,32 +1,47 @@
 package org.showpage.rallyserver.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.showpage.rallyserver.interfaces.HasId;
 import org.showpage.rallyserver.RestResponse;
+import org.showpage.rallyserver.config.QueryCounter;
 import org.showpage.rallyserver.entity.Member;
 import org.showpage.rallyserver.exception.NotFoundException;
 import org.showpage.rallyserver.exception.UnauthorizedException;
 import org.showpage.rallyserver.exception.ValidationException;
 import org.showpage.rallyserver.repository.MemberRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class ServiceCaller {
     private final MemberRepository memberRepository;
+    private final JsonStreamer jsonStreamer;
+    private final ObjectMapper objectMapper;
+
+    @Value("${rallymaster.options.report-query-count:false}")
+    private boolean reportQueryCount;
 
     public interface Lambda<T> {
         T process() throws NotFoundException, ValidationException, UnauthorizedException, DataIntegrityViolationException;
@@ -41,14 +56,10 @@ public class ServiceCaller {
      */
     @Transactional
     public <T> ResponseEntity<RestResponse<T>> call(Lambda<T> lambda) {
+        QueryCounter.reset();
         try {
             T result = lambda.process();
-            return ResponseEntity.ok(RestResponse
-                    .<T>builder()
-                    .success(true)
-                    .data(result)
-                    .build()
-            );
+            return ok(result);
         }
         catch (NotFoundException e)   {
             log.warn("NotFoundException", e);
@@ -77,15 +88,40 @@ public class ServiceCaller {
      */
     @Transactional
     public <T> ResponseEntity<RestResponse<T>> call(MemberLambda<T> lambda) {
+        return respond(lambda);
+    }
+
+    /**
+     * The same, with no transaction around the lambda. This is for work that runs for seconds
+     * without the database, like the route searches, so it doesn't hold a connection all that time.
+     * The lambda opens its own transactions for the parts that need them.
+     */
+    public <T> ResponseEntity<RestResponse<T>> callWithoutTransaction(MemberLambda<T> lambda) {
+        return respond(lambda);
+    }
+
+    /**
+     * Use this for a create.
+     */
+    @Transactional
+    public <T extends HasId<T>> ResponseEntity<RestResponse<T>> call(String prefix, MemberLambda<T> lambda) {
+        QueryCounter.reset();
         try {
             T result = lambda.process(getCurrentMember());
 
-            return ResponseEntity.ok(RestResponse
-                    .<T>builder()
-                    .success(true)
-                    .data(result)
-                    .build()
-            );
+            URI location = ServletUriComponentsBuilder
+                    .fromCurrentContextPath()
+                    .path(prefix.endsWith("/") ? prefix + "{id}" : prefix + "/{id}")
+                    .buildAndExpand(result.getId())
+                    .toUri();
+
+            return ResponseEntity.created(location)
+                    .body(RestResponse
+                        .<T>builder()
+                        .success(true)
+                        .data(result)
+                        .build()
+                );
         }
         catch (NotFoundException e)     {
             log.warn("NotFoundException", e);
@@ -108,27 +144,98 @@ public class ServiceCaller {
         }
     }
 
+
     /**
-     * Use this for a create.
+     * For endpoints whose body isn't a RestResponse, like event streams. There's no RestResponse to
+     * put an error in, so errors become the matching HTTP status.
      */
     @Transactional
-    public <T extends HasId<T>> ResponseEntity<RestResponse<T>> call(String prefix, MemberLambda<T> lambda) {
+    public <T> T callForBody(MemberLambda<T> lambda) {
+        QueryCounter.reset();
         try {
-            T result = lambda.process(getCurrentMember());
+            return lambda.process(getCurrentMember());
+        }
+        catch (NotFoundException e)     {
+            log.warn("NotFoundException", e);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+        catch (ValidationException e)   {
+            log.warn("ValidationException", e);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        catch (UnauthorizedException e) {
+            log.warn("UnauthorizedException", e);
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, e.getMessage());
+        }
+        catch (DataIntegrityViolationException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
 
-            URI location = ServletUriComponentsBuilder
-                    .fromCurrentContextPath()
-                    .path(prefix.endsWith("/") ? prefix + "{id}" : prefix + "/{id}")
-                    .buildAndExpand(result.getId())
-                    .toUri();
+    /**
+     * For long lists, written to the client as they're read (see JsonStreamer) in the same JSON
+     * call() would give. The lambda checks access and says how to open the rows, mapped to what the
+     * client gets; they're opened once the body is written. Errors found before then come back as
+     * call() returns them. After that the 200 has gone out, so a row that fails is logged and the
+     * connection dropped: the client gets a broken response, never a list that looks complete but
+     * is short.
+     */
+    @Transactional
+    public <T> ResponseEntity<StreamingResponseBody> callForStream(MemberLambda<Supplier<Stream<T>>> lambda) {
+        return stream(lambda, jsonStreamer::writeList);
+    }
 
-            return ResponseEntity.created(location)
-                    .body(RestResponse
-                        .<T>builder()
-                        .success(true)
-                        .data(result)
-                        .build()
-                );
+    /**
+     * The same, with the rows as the content of a single RestPage.
+     */
+    @Transactional
+    public <T> ResponseEntity<StreamingResponseBody> callForStreamPage(MemberLambda<Supplier<Stream<T>>> lambda) {
+        return stream(lambda, jsonStreamer::writePage);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private interface RowWriter<T> {
+        void write(OutputStream out, Supplier<Stream<T>> rows) throws IOException;
+    }
+
+    private <T> ResponseEntity<StreamingResponseBody> stream(MemberLambda<Supplier<Stream<T>>> lambda, RowWriter<T> writer) {
+        QueryCounter.reset();
+        try {
+            Supplier<Stream<T>> rows = lambda.process(getCurrentMember());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> writer.write(out, rows));
+        }
+        catch (NotFoundException e)     {
+            log.warn("NotFoundException", e);
+            return errorBody(HttpStatus.NOT_FOUND, e);
+        }
+        catch (ValidationException e)   {
+            log.warn("ValidationException", e);
+            return errorBody(HttpStatus.BAD_REQUEST, e);
+        }
+        catch (UnauthorizedException e) {
+            log.warn("UnauthorizedException", e);
+            return errorBody(HttpStatus.UNAUTHORIZED, e);
+        }
+        catch (DataIntegrityViolationException e) {
+            return errorBody(HttpStatus.CONFLICT, e);
+        }
+        catch (Exception e)             {
+            log.warn("Exception", e);
+            return errorBody(HttpStatus.INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    private <T> ResponseEntity<RestResponse<T>> respond(MemberLambda<T> lambda) {
+        QueryCounter.reset();
+        try {
+            T result = lambda.process(getCurrentMember());
+
+            return ok(result);
         }
         catch (NotFoundException e)     {
             log.warn("NotFoundException", e);
@@ -151,10 +258,15 @@ public class ServiceCaller {
         }
     }
 
-
-    //======================================================================
-    // Helpers.
-    //======================================================================
+    /**
+     * The RestResponse error() would give, for a streaming endpoint.
+     */
+    private ResponseEntity<StreamingResponseBody> errorBody(HttpStatus httpStatus, Exception e) {
+        RestResponse<Object> body = error(httpStatus, e).getBody();
+        return ResponseEntity.status(httpStatus)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, body));
+    }
 
     /**
      * Gets the current user.
@@ -174,6 +286,19 @@ public class ServiceCaller {
         throw new UnauthorizedException("Unauthorized");
     }
 
+    private <T> ResponseEntity<RestResponse<T>> ok(T result) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (reportQueryCount) {
+            builder.header(QueryCounter.HEADER, String.valueOf(QueryCounter.count()));
+        }
+        return builder.body(RestResponse
+                .<T>builder()
+                .success(true)
+                .data(result)
+                .build()
+        );
+    }
+
     private <T> ResponseEntity<RestResponse<T>> error(HttpStatus httpStatus, Exception e) {
         return ResponseEntity.status(httpStatus).body(
                 RestResponse
@@ -9,6 +9,9 @@ import lombok.NoArgsConstructor;
 /**
  * In Rallies a stop where you earn points is referred to as a Bonus Point, which is confusing,
  * as Point in this case refers to a location. But Bonus Points have Points, which is a number.
+ *
+ * A bonus point belongs to a rally, or to a ride that's a rider's planning copy of a rally. A copy
+ * has rideId set and rallyId null, and sourceBonusPointId pointing back at the rally's original.
  */
 @Entity
 @Data
@@ -20,13 +23,19 @@ public class BonusPoint {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
 
-    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "rally_id")
     private Rally rally;
 
     @Column(name = "rally_id", insertable = false, updatable = false)
     private Integer rallyId;
 
+    @Column(name = "ride_id")
+    private Integer rideId;
+
+    @Column(name = "source_bonus_point_id")
+    private Integer sourceBonusPointId;
+
     private String code;
     private String name;
     private String description;
@@ -10,6 +10,10 @@ import lombok.NoArgsConstructor;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * A set of bonus points worth extra when visited together. Like BonusPoint, it belongs to a rally
+ * or to a ride's planning copy of one, and a copy points back at its source.
+ */
 @Entity
 @Data
 @Builder
@@ -20,13 +24,19 @@ public class Combination {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
 
-    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "rally_id")
     private Rally rally;
 
     @Column(name = "rally_id", insertable = false, updatable = false)
     private Integer rallyId;
 
+    @Column(name = "ride_id")
+    private Integer rideId;
+
+    @Column(name = "source_combination_id")
+    private Integer sourceCombinationId;
+
     private String code;
     private String name;
     private String description;
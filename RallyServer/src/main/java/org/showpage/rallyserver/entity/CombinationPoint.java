@@ -35,4 +35,8 @@ public class CombinationPoint {
     private Integer bonusPointId;
 
     private Boolean required;
+
+    /** For a ride's planning copy, the rally's original. */
+    @Column(name = "source_combination_point_id")
+    private Integer sourceCombinationPointId;
 }
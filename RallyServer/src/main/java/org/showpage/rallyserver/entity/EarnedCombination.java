@@ -34,4 +34,11 @@ public class EarnedCombination {
     private Integer combinationId;
 
     private Boolean confirmed;
+
+    /**
+     * Created by CombinationMatchService from the rider's bonus points, which may retire it again.
+     * A combination a scorer awards by hand is never touched.
+     */
+    @Builder.Default
+    private Boolean automatic = Boolean.FALSE;
 }
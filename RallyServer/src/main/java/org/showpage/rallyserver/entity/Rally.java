@@ -31,6 +31,10 @@ public class Rally implements HasId<Rally> {
     private String locationState;
     private String locationCountry; /** 2-digit code. */
 
+    /** The location's cell for proximity search (see GeoCell). The database keeps it up to date. */
+    @Column(insertable = false, updatable = false)
+    private Long geoCell;
+
     private Boolean isPublic;
     private Boolean pointsPublic;
     private Boolean ridersPublic;
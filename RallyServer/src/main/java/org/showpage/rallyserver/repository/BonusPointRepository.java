@@ -1,14 +1,40 @@
 package org.showpage.rallyserver.repository;
 
 import org.showpage.rallyserver.exception.NotFoundException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.showpage.rallyserver.entity.BonusPoint;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface BonusPointRepository extends JpaRepository<BonusPoint, Integer> {
     List<BonusPoint> findByRallyId(Integer rallyId);
 
+    /**
+     * A page of a rally's bonus points after the one with this id, by keyset.
+     */
+    List<BonusPoint> findByRallyIdAndIdGreaterThanOrderById(Integer rallyId, Integer id, Limit limit);
+
+    long countByRallyId(Integer rallyId);
+
+    /**
+     * A rally's bonus points, read as they're used. Only open inside a transaction, and close it.
+     */
+    Stream<BonusPoint> streamByRallyIdOrderById(Integer rallyId);
+
+    List<BonusPoint> findByRideIdOrderById(Integer rideId);
+
+    /**
+     * Just enough to build a distance matrix: id, latitude, longitude for every located bonus point.
+     */
+    @Query("SELECT b.id, b.latitude, b.longitude FROM BonusPoint b " +
+           "WHERE b.rallyId = :rallyId AND b.latitude IS NOT NULL AND b.longitude IS NOT NULL " +
+           "ORDER BY b.id")
+    List<Object[]> findLocationsByRallyId(@Param("rallyId") Integer rallyId);
+
     //======================================================================
     // We have some calls that should throw on failure. Let's reduce
     // boilerplate everywhere else.
@@ -2,9 +2,17 @@ package org.showpage.rallyserver.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.showpage.rallyserver.entity.CombinationPoint;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
 public interface CombinationPointRepository extends JpaRepository<CombinationPoint, Integer> {
     List<CombinationPoint> findByCombinationId(Integer combinationId);
+
+    /**
+     * The combinations this bonus point belongs to.
+     */
+    @Query("SELECT DISTINCT cp.combinationId FROM CombinationPoint cp WHERE cp.bonusPointId = :bonusPointId")
+    List<Integer> findCombinationIdsByBonusPointId(@Param("bonusPointId") Integer bonusPointId);
 }
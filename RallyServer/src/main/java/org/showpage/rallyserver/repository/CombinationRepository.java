@@ -1,10 +1,39 @@
 package org.showpage.rallyserver.repository;
 
 import org.showpage.rallyserver.entity.Combination;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
 public interface CombinationRepository extends JpaRepository<Combination, Integer> {
     List<Combination> findByRallyId(Integer rallyId);
+
+    /**
+     * A page of a rally's combinations after the one with this id, by keyset.
+     */
+    List<Combination> findByRallyIdAndIdGreaterThanOrderById(Integer rallyId, Integer id, Limit limit);
+
+    long countByRallyId(Integer rallyId);
+
+    /**
+     * A ride's planning copies, with their points, in one query.
+     */
+    @Query("SELECT DISTINCT c FROM Combination c LEFT JOIN FETCH c.combinationPoints " +
+           "WHERE c.rideId = :rideId " +
+           "ORDER BY c.id")
+    List<Combination> findByRideIdWithPoints(@Param("rideId") Integer rideId);
+
+    /**
+     * The rules for every combination in a rally, one row per combination point:
+     * [combinationId, requiresAll, numRequired, bonusPointId, required]. A combination with no
+     * points comes back once with nulls for the last two.
+     */
+    @Query("SELECT c.id, c.requiresAll, c.numRequired, cp.bonusPointId, cp.required " +
+           "FROM Combination c LEFT JOIN c.combinationPoints cp " +
+           "WHERE c.rallyId = :rallyId " +
+           "ORDER BY c.id")
+    List<Object[]> findDefinitionsByRallyId(@Param("rallyId") Integer rallyId);
 }
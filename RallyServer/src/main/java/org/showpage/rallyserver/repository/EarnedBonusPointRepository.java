@@ -2,11 +2,66 @@ package org.showpage.rallyserver.repository;
 
 import org.showpage.rallyserver.entity.EarnedBonusPoint;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface EarnedBonusPointRepository extends JpaRepository<EarnedBonusPoint, Integer> {
     List<EarnedBonusPoint> findByRallyParticipantId(Integer rallyParticipantId);
 
+    /**
+     * A rider's earned bonus points, read as they're used. Only open inside a transaction, and close it.
+     */
+    Stream<EarnedBonusPoint> streamByRallyParticipantIdOrderById(Integer rallyParticipantId);
+
     List<EarnedBonusPoint> findByRallyParticipantIdAndBonusPointId(Integer rallyParticipantId, Integer bonusPointId);
+
+    /**
+     * Just the bonus point IDs a rider has claimed, for checking a batch of new claims against.
+     */
+    @Query("SELECT e.bonusPointId FROM EarnedBonusPoint e WHERE e.rallyParticipantId = :rallyParticipantId")
+    List<Integer> findBonusPointIdsByRallyParticipantId(@Param("rallyParticipantId") Integer rallyParticipantId);
+
+    /**
+     * Riders holding a claim to any of these bonus points.
+     */
+    @Query("SELECT DISTINCT e.rallyParticipantId FROM EarnedBonusPoint e WHERE e.bonusPointId IN :bonusPointIds")
+    List<Integer> findRallyParticipantIdsByBonusPointIdIn(@Param("bonusPointIds") Collection<Integer> bonusPointIds);
+
+    /**
+     * Everything these riders have claimed, with the participant already loaded.
+     */
+    @Query("SELECT e FROM EarnedBonusPoint e " +
+           "JOIN FETCH e.rallyParticipant " +
+           "WHERE e.rallyParticipantId IN :rallyParticipantIds")
+    List<EarnedBonusPoint> findByRallyParticipantIdIn(@Param("rallyParticipantIds") Collection<Integer> rallyParticipantIds);
+
+    /**
+     * Every earned bonus point in a rally, with the bonus point and participant already loaded.
+     */
+    @Query("SELECT e FROM EarnedBonusPoint e " +
+           "JOIN FETCH e.bonusPoint " +
+           "JOIN FETCH e.rallyParticipant rp " +
+           "WHERE rp.rallyId = :rallyId")
+    List<EarnedBonusPoint> findByRallyId(@Param("rallyId") Integer rallyId);
+
+    /**
+     * Whether any rider holds this bonus point more than once.
+     */
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM earned_bonus_point WHERE bonus_point_id = :bonusPointId " +
+                   "GROUP BY rally_participant_id HAVING count(*) > 1)",
+           nativeQuery = true)
+    boolean existsRepeatedClaim(@Param("bonusPointId") Integer bonusPointId);
+
+    /**
+     * Copy a bonus point's repeatable flag onto its claims, which is what the unique claim index keys off.
+     */
+    @Modifying
+    @Query(value = "UPDATE earned_bonus_point SET repeatable = :repeatable WHERE bonus_point_id = :bonusPointId",
+           nativeQuery = true)
+    int updateRepeatable(@Param("bonusPointId") Integer bonusPointId, @Param("repeatable") boolean repeatable);
 }
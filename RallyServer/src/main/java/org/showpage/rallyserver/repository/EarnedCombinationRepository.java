@@ -2,9 +2,42 @@ package org.showpage.rallyserver.repository;
 
 import org.showpage.rallyserver.entity.EarnedCombination;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface EarnedCombinationRepository extends JpaRepository<EarnedCombination, Integer> {
     List<EarnedCombination> findByRallyParticipantId(Integer rallyParticipantId);
+
+    /**
+     * A rider's earned combinations, read as they're used. Only open inside a transaction, and close it.
+     */
+    Stream<EarnedCombination> streamByRallyParticipantIdOrderById(Integer rallyParticipantId);
+
+    List<EarnedCombination> findByRallyParticipantIdAndCombinationId(Integer rallyParticipantId, Integer combinationId);
+
+    List<EarnedCombination> findByCombinationId(Integer combinationId);
+
+    @Query("SELECT DISTINCT e.rallyParticipantId FROM EarnedCombination e WHERE e.combinationId = :combinationId")
+    List<Integer> findRallyParticipantIdsByCombinationId(@Param("combinationId") Integer combinationId);
+
+    /**
+     * Every combination these riders hold, with the participant already loaded.
+     */
+    @Query("SELECT e FROM EarnedCombination e " +
+           "JOIN FETCH e.rallyParticipant " +
+           "WHERE e.rallyParticipantId IN :rallyParticipantIds")
+    List<EarnedCombination> findByRallyParticipantIdIn(@Param("rallyParticipantIds") Collection<Integer> rallyParticipantIds);
+
+    /**
+     * Every earned combination in a rally, with the combination and participant already loaded.
+     */
+    @Query("SELECT e FROM EarnedCombination e " +
+           "JOIN FETCH e.combination " +
+           "JOIN FETCH e.rallyParticipant rp " +
+           "WHERE rp.rallyId = :rallyId")
+    List<EarnedCombination> findByRallyId(@Param("rallyId") Integer rallyId);
 }
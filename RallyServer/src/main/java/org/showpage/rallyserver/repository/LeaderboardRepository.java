@@ -0,0 +1,119 @@
+package org.showpage.rallyserver.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.showpage.rallyserver.ui.UiRallyStanding;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rally leaderboard, ranked by Postgres. Earned rows are summed per rider in the database and
+ * ranked with RANK(), so Java only ever sees one page of finished lines.
+ *
+ * Ties on score go to the rider with fewer miles (odometer_out - odometer_in), then to whoever
+ * claimed a finish bonus point first. Riders missing either are placed after those who have them.
+ * Riders still tied after all that share a rank.
+ */
+@Repository
+@RequiredArgsConstructor
+public class LeaderboardRepository {
+    private static final String SELECT_PAGE = """
+            WITH bonus_points AS (
+                SELECT e.rally_participant_id,
+                       SUM(CASE WHEN e.confirmed THEN COALESCE(b.points, 0) ELSE 0 END) AS score,
+                       SUM(CASE WHEN e.confirmed THEN 0 ELSE COALESCE(b.points, 0) END) AS pending_score,
+                       COUNT(*) AS claimed,
+                       MIN(CASE WHEN b.is_finish THEN e.earned_at END) AS finished_at
+                FROM rally_participant p
+                JOIN earned_bonus_point e ON e.rally_participant_id = p.id
+                JOIN bonus_point b ON b.id = e.bonus_point_id
+                WHERE p.rally_id = :rallyId
+                GROUP BY e.rally_participant_id
+            ),
+            combinations AS (
+                SELECT e.rally_participant_id,
+                       SUM(CASE WHEN e.confirmed THEN COALESCE(c.points, 0) ELSE 0 END) AS score,
+                       SUM(CASE WHEN e.confirmed THEN 0 ELSE COALESCE(c.points, 0) END) AS pending_score,
+                       COUNT(*) AS claimed
+                FROM rally_participant p
+                JOIN earned_combination e ON e.rally_participant_id = p.id
+                JOIN combination c ON c.id = e.combination_id
+                WHERE p.rally_id = :rallyId
+                GROUP BY e.rally_participant_id
+            ),
+            totals AS (
+                SELECT p.id AS rally_participant_id,
+                       p.member_id,
+                       COALESCE(bp.score, 0) + COALESCE(co.score, 0) AS score,
+                       COALESCE(bp.pending_score, 0) + COALESCE(co.pending_score, 0) AS pending_score,
+                       COALESCE(bp.claimed, 0) AS bonus_point_count,
+                       COALESCE(co.claimed, 0) AS combination_count,
+                       p.odometer_out - p.odometer_in AS mileage,
+                       bp.finished_at
+                FROM rally_participant p
+                LEFT JOIN bonus_points bp ON bp.rally_participant_id = p.id
+                LEFT JOIN combinations co ON co.rally_participant_id = p.id
+                WHERE p.rally_id = :rallyId AND p.participant_type = 'RIDER'
+            )
+            SELECT t.*,
+                   RANK() OVER (ORDER BY t.score DESC, t.mileage ASC NULLS LAST, t.finished_at ASC NULLS LAST) AS rank,
+                   COUNT(*) OVER () AS total
+            FROM totals t
+            ORDER BY rank, t.rally_participant_id
+            LIMIT :limit OFFSET :offset
+            """;
+
+    private static final String COUNT_RIDERS =
+            "SELECT count(*) FROM rally_participant WHERE rally_id = :rallyId AND participant_type = 'RIDER'";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * One page of the leaderboard. The page is always in rank order, whatever sort was asked for.
+     */
+    public Page<UiRallyStanding> findPage(int rallyId, Pageable pageable) {
+        Map<String, Object> params = Map.of(
+                "rallyId", rallyId,
+                "offset", pageable.getOffset(),
+                "limit", pageable.getPageSize());
+        long[] total = { -1 };
+        List<UiRallyStanding> standings = new ArrayList<>();
+
+        jdbcTemplate.query(SELECT_PAGE, params,
+                (ResultSet rs) -> {
+                    Timestamp finishedAt = rs.getTimestamp("finished_at");
+                    standings.add(UiRallyStanding
+                            .builder()
+                            .rank(rs.getInt("rank"))
+                            .rallyParticipantId(rs.getInt("rally_participant_id"))
+                            .memberId(rs.getInt("member_id"))
+                            .score(rs.getInt("score"))
+                            .pendingScore(rs.getInt("pending_score"))
+                            .bonusPointCount(rs.getInt("bonus_point_count"))
+                            .combinationCount(rs.getInt("combination_count"))
+                            .mileage((Integer) rs.getObject("mileage"))
+                            .finishedAt(finishedAt != null ? finishedAt.toInstant() : null)
+                            .build());
+                    total[0] = rs.getLong("total");
+                });
+
+        // Past the last page there are no rows to carry the total, so ask for it.
+        if (total[0] < 0) {
+            Long count = jdbcTemplate.queryForObject(COUNT_RIDERS, Map.of("rallyId", rallyId), Long.class);
+            total[0] = count != null ? count : 0;
+        }
+
+        Pageable byRank = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("rank"));
+        return new PageImpl<>(standings, byRank, total[0]);
+    }
+}
@@ -1,12 +1,27 @@
 package org.showpage.rallyserver.repository;
 
 import org.showpage.rallyserver.entity.Member;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface MemberRepository extends JpaRepository<Member, Integer> {
     Optional<Member> findByEmail(String email);
+
+    /**
+     * A page of members after the one with this id, by keyset.
+     */
+    List<Member> findByIdGreaterThanOrderById(Integer id, Limit limit);
+
+    /**
+     * Every member, read as they're used. Only open inside a transaction, and close it.
+     */
+    @Query("SELECT m FROM Member m ORDER BY m.id")
+    Stream<Member> streamAll();
 }
\ No newline at end of file
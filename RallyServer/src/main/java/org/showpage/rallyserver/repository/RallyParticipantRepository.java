@@ -13,6 +13,8 @@ import java.util.Optional;
 public interface RallyParticipantRepository extends JpaRepository<RallyParticipant, Integer> {
     Optional<RallyParticipant> findByRallyIdAndMemberId(Integer rallyId, Integer memberId);
 
+    List<RallyParticipant> findByRallyId(Integer rallyId);
+
     /**
      * Find all participations for a member where the rally hasn't ended more than 1 week ago.
      * Includes future rallies, in-progress rallies, and recently completed rallies.
@@ -0,0 +1,42 @@
+package org.showpage.rallyserver.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Types;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The routed line a leg follows, packed with GeometryCodec in ride_leg.geometry. Like ride_track,
+ * it's kept out of the entity so reading legs doesn't read their geometry, and it goes in and out
+ * as bytes without being decoded.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RideLegGeometryRepository {
+    private static final String UPDATE_GEOMETRY =
+            "UPDATE ride_leg SET geometry = :geometry WHERE id = :rideLegId";
+
+    private static final String SELECT_GEOMETRY =
+            "SELECT geometry FROM ride_leg WHERE id = :rideLegId AND geometry IS NOT NULL";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Store the leg's geometry, replacing any it had. Null clears it.
+     */
+    public void save(int rideLegId, byte[] geometry) {
+        jdbcTemplate.update(UPDATE_GEOMETRY, new MapSqlParameterSource()
+                .addValue("rideLegId", rideLegId)
+                .addValue("geometry", geometry, Types.BINARY));
+    }
+
+    public Optional<byte[]> find(int rideLegId) {
+        return jdbcTemplate.query(SELECT_GEOMETRY, Map.of("rideLegId", rideLegId), (rs, rowNum) -> rs.getBytes("geometry"))
+                .stream()
+                .findFirst();
+    }
+}
@@ -0,0 +1,92 @@
+package org.showpage.rallyserver.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.util.Map;
+
+/**
+ * Bulk writes for ride planning, where JPA would be a save() per row.
+ *
+ * Plan My Ride copies a rally's bonus points, combinations and combination points into a ride;
+ * a big rally has hundreds, and this is one INSERT ... SELECT per table however big it is. Each
+ * copy keeps the ID of the row it came from, and that's how the combination points find their new
+ * combination and bonus point.
+ *
+ * Resequencing waypoints rewrites sequence_order for a whole leg or route in one JDBC batch.
+ *
+ * This joins whatever transaction the caller is in.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RidePlanRepository {
+    private static final String COPY_BONUS_POINTS =
+            "INSERT INTO bonus_point (ride_id, source_bonus_point_id, code, name, description, latitude, longitude, " +
+            "address, points, required, repeatable, is_start, is_finish, marker_color, marker_icon) " +
+            "SELECT :rideId, b.id, b.code, b.name, b.description, b.latitude, b.longitude, " +
+            "b.address, b.points, b.required, b.repeatable, b.is_start, b.is_finish, b.marker_color, b.marker_icon " +
+            "FROM bonus_point b WHERE b.rally_id = :rallyId " +
+            "ORDER BY b.id";
+
+    private static final String COPY_COMBINATIONS =
+            "INSERT INTO combination (ride_id, source_combination_id, code, name, description, points, " +
+            "requires_all, num_required, marker_color, marker_icon) " +
+            "SELECT :rideId, c.id, c.code, c.name, c.description, c.points, " +
+            "c.requires_all, c.num_required, c.marker_color, c.marker_icon " +
+            "FROM combination c WHERE c.rally_id = :rallyId " +
+            "ORDER BY c.id";
+
+    /**
+     * Run after the other two. A combination point whose bonus point isn't in the rally has
+     * nothing to point at in the copy, so it's left out.
+     */
+    private static final String COPY_COMBINATION_POINTS =
+            "INSERT INTO combination_point (combination_id, bonus_point_id, required, source_combination_point_id) " +
+            "SELECT c.id, b.id, cp.required, cp.id " +
+            "FROM combination c " +
+            "JOIN combination_point cp ON cp.combination_id = c.source_combination_id " +
+            "JOIN bonus_point b ON b.ride_id = :rideId AND b.source_bonus_point_id = cp.bonus_point_id " +
+            "WHERE c.ride_id = :rideId " +
+            "ORDER BY cp.id";
+
+    private static final String UPDATE_WAYPOINT_ORDER =
+            "UPDATE waypoint SET sequence_order = :sequenceOrder WHERE id = :id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * How many rows of each kind were copied.
+     */
+    public record Copied(int bonusPoints, int combinations, int combinationPoints) {}
+
+    /**
+     * Copy everything the rally has into the ride. The ride should have no copies yet.
+     */
+    public Copied copyRally(int rallyId, int rideId) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("rallyId", rallyId)
+                .addValue("rideId", rideId);
+
+        int bonusPoints = jdbcTemplate.update(COPY_BONUS_POINTS, params);
+        int combinations = jdbcTemplate.update(COPY_COMBINATIONS, params);
+        int combinationPoints = jdbcTemplate.update(COPY_COMBINATION_POINTS, params);
+        return new Copied(bonusPoints, combinations, combinationPoints);
+    }
+
+    /**
+     * Set each waypoint's sequence order, by waypoint ID, in one batch.
+     */
+    public void updateWaypointOrder(Map<Integer, Integer> sequenceOrderById) {
+        SqlParameterSource[] batch = new SqlParameterSource[sequenceOrderById.size()];
+        int index = 0;
+        for (Map.Entry<Integer, Integer> entry : sequenceOrderById.entrySet()) {
+            batch[index++] = new MapSqlParameterSource()
+                    .addValue("id", entry.getKey())
+                    .addValue("sequenceOrder", entry.getValue());
+        }
+        jdbcTemplate.batchUpdate(UPDATE_WAYPOINT_ORDER, batch);
+    }
+}
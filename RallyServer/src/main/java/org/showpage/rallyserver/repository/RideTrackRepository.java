@@ -0,0 +1,61 @@
+package org.showpage.rallyserver.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A ride's GPS track, stored packed in one row. There's no entity for it: nothing should load a
+ * megabyte of points just because it touched the ride. This joins whatever transaction the caller
+ * is in.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RideTrackRepository {
+    private static final String UPSERT_TRACK =
+            "INSERT INTO ride_track (ride_id, point_count, started_at, ended_at, points) " +
+            "VALUES (:rideId, :pointCount, :startedAt, :endedAt, :points) " +
+            "ON CONFLICT (ride_id) DO UPDATE SET point_count = EXCLUDED.point_count, " +
+            "started_at = EXCLUDED.started_at, ended_at = EXCLUDED.ended_at, points = EXCLUDED.points, uploaded_at = now()";
+
+    private static final String SELECT_TRACK =
+            "SELECT points FROM ride_track WHERE ride_id = :rideId";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Store a packed track, replacing any the ride already has.
+     */
+    public void save(int rideId, int pointCount, Instant startedAt, Instant endedAt, byte[] points) {
+        jdbcTemplate.update(UPSERT_TRACK, new MapSqlParameterSource()
+                .addValue("rideId", rideId)
+                .addValue("pointCount", pointCount)
+                .addValue("startedAt", timestamp(startedAt), Types.TIMESTAMP)
+                .addValue("endedAt", timestamp(endedAt), Types.TIMESTAMP)
+                .addValue("points", points, Types.BINARY));
+    }
+
+    /**
+     * The ride's packed track, if it has one.
+     */
+    public Optional<byte[]> find(int rideId) {
+        return jdbcTemplate.query(SELECT_TRACK, Map.of("rideId", rideId), (rs, rowNum) -> rs.getBytes("points"))
+                .stream()
+                .findFirst();
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static Timestamp timestamp(Instant instant) {
+        return instant != null ? Timestamp.from(instant) : null;
+    }
+}
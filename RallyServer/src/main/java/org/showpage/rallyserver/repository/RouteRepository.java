@@ -3,13 +3,29 @@ package org.showpage.rallyserver.repository;
 import org.showpage.rallyserver.entity.Route;
 import org.showpage.rallyserver.exception.NotFoundException;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface RouteRepository extends JpaRepository<Route, Integer> {
 
     List<Route> findByRideId(Integer rideId);
 
+    /**
+     * Every route, leg and waypoint under these rides in one query, flattened: one row of
+     * [Route, RideLeg, Waypoint] per waypoint, with nulls for legs and routes that have nothing
+     * under them. Rows come in riding order. The entities' own collections aren't loaded; walking
+     * them would go back to the database one at a time.
+     */
+    @Query("SELECT r, l, w FROM Route r " +
+           "LEFT JOIN RideLeg l ON l.routeId = r.id " +
+           "LEFT JOIN Waypoint w ON w.rideLegId = l.id " +
+           "WHERE r.rideId IN :rideIds " +
+           "ORDER BY r.rideId, r.id, l.sequenceOrder, l.id, w.sequenceOrder, w.id")
+    List<Object[]> findTreesByRideIds(@Param("rideIds") Collection<Integer> rideIds);
+
     default Route findById_WithThrow(Integer id) throws NotFoundException {
         return findById(id).orElseThrow(() -> new NotFoundException("Route not found"));
     }
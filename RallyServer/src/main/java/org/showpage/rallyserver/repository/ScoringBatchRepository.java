@@ -0,0 +1,210 @@
+package org.showpage.rallyserver.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bulk reads and writes for scoring. JPA can't batch inserts into tables with IDENTITY keys, and
+ * loading a whole rally's claims as entities to add up a few integers is wasteful, so when we have
+ * a pile of rows to move at once we go straight to JDBC. Claims go through here even one at a time,
+ * since they rely on ON CONFLICT to reject duplicates. This joins whatever transaction the caller
+ * is in.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ScoringBatchRepository {
+    /**
+     * Copies the bonus point's repeatable flag onto the claim, which is what the unique index keys
+     * off. A rider claiming a non-repeatable point they already hold inserts nothing and returns no ID.
+     */
+    private static final String INSERT_EARNED_BONUS_POINT =
+            "INSERT INTO earned_bonus_point (rally_participant_id, bonus_point_id, odometer, earned_at, confirmed, repeatable) " +
+            "SELECT :rallyParticipantId, b.id, :odometer, :earnedAt, :confirmed, b.repeatable " +
+            "FROM bonus_point b WHERE b.id = :bonusPointId " +
+            "ON CONFLICT (rally_participant_id, bonus_point_id) WHERE NOT repeatable DO NOTHING";
+
+    private static final String SELECT_RIDER_SCORES =
+            "SELECT id, final_score FROM rally_participant " +
+            "WHERE rally_id = :rallyId AND participant_type = 'RIDER' " +
+            "ORDER BY id";
+
+    private static final String SELECT_BONUS_POINT_VALUES =
+            "SELECT id, points FROM bonus_point WHERE rally_id = :rallyId";
+
+    private static final String SELECT_COMBINATION_VALUES =
+            "SELECT id, points FROM combination WHERE rally_id = :rallyId";
+
+    private static final String SELECT_CONFIRMED_BONUS_POINTS =
+            "SELECT e.rally_participant_id, e.bonus_point_id " +
+            "FROM earned_bonus_point e JOIN rally_participant p ON p.id = e.rally_participant_id " +
+            "WHERE p.rally_id = :rallyId AND e.confirmed";
+
+    private static final String SELECT_CONFIRMED_COMBINATIONS =
+            "SELECT e.rally_participant_id, e.combination_id " +
+            "FROM earned_combination e JOIN rally_participant p ON p.id = e.rally_participant_id " +
+            "WHERE p.rally_id = :rallyId AND e.confirmed";
+
+    private static final String UPDATE_FINAL_SCORE =
+            "UPDATE rally_participant SET final_score = :finalScore WHERE id = :id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * One earned bonus point to insert.
+     */
+    public record EarnedBonusPointRow(
+            int rallyParticipantId,
+            int bonusPointId,
+            Integer odometer,
+            Instant earnedAt,
+            boolean confirmed
+    ) {}
+
+    /**
+     * Receives claims one row at a time: who holds it, and which bonus point or combination it is.
+     */
+    @FunctionalInterface
+    public interface ClaimHandler {
+        void claim(int rallyParticipantId, int definitionId);
+    }
+
+    /**
+     * Insert one claim. Returns the new ID, or empty if the rider already holds this bonus point and
+     * it isn't repeatable.
+     */
+    public Optional<Integer> insertEarnedBonusPoint(EarnedBonusPointRow row) {
+        List<Integer> ids = insertEarnedBonusPoints(List.of(row));
+        return Optional.ofNullable(ids.get(0));
+    }
+
+    /**
+     * Insert these as one JDBC batch. Returns the new IDs in the same order, with null for any claim
+     * that was already held.
+     */
+    public List<Integer> insertEarnedBonusPoints(List<EarnedBonusPointRow> rows) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        SqlParameterSource[] batch = new SqlParameterSource[rows.size()];
+        for (int index = 0; index < rows.size(); ++index) {
+            EarnedBonusPointRow row = rows.get(index);
+            batch[index] = new MapSqlParameterSource()
+                    .addValue("rallyParticipantId", row.rallyParticipantId())
+                    .addValue("bonusPointId", row.bonusPointId())
+                    .addValue("odometer", row.odometer(), Types.INTEGER)
+                    .addValue("earnedAt", row.earnedAt() != null ? Timestamp.from(row.earnedAt()) : null, Types.TIMESTAMP)
+                    .addValue("confirmed", row.confirmed());
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        int[] counts = jdbcTemplate.batchUpdate(INSERT_EARNED_BONUS_POINT, batch, keyHolder, new String[] { "id" });
+
+        // Rows skipped by ON CONFLICT report 0 and return no key, so keys only line up with the
+        // rows that went in.
+        Iterator<Map<String, Object>> keys = keyHolder.getKeyList().iterator();
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (int count : counts) {
+            ids.add(count > 0 ? ((Number) keys.next().get("id")).intValue() : null);
+        }
+        return ids;
+    }
+
+    /**
+     * Every rider in the rally with their current final score, which may be null.
+     */
+    public Map<Integer, Integer> findRiderScores(Integer rallyId) {
+        Map<Integer, Integer> scores = new LinkedHashMap<>();
+        jdbcTemplate.query(SELECT_RIDER_SCORES, Map.of("rallyId", rallyId),
+                (ResultSet rs) -> {
+                    scores.put(rs.getInt(1), (Integer) rs.getObject(2));
+                });
+        return scores;
+    }
+
+    /**
+     * What each of the rally's bonus points is worth. A point with no value is worth nothing.
+     */
+    public Map<Integer, Integer> findBonusPointValues(Integer rallyId) {
+        return findValues(SELECT_BONUS_POINT_VALUES, rallyId);
+    }
+
+    /**
+     * What each of the rally's combinations is worth.
+     */
+    public Map<Integer, Integer> findCombinationValues(Integer rallyId) {
+        return findValues(SELECT_COMBINATION_VALUES, rallyId);
+    }
+
+    /**
+     * Stream every confirmed bonus point claim in the rally to the handler. Returns how many there were.
+     */
+    public int forEachConfirmedBonusPoint(Integer rallyId, ClaimHandler handler) {
+        return forEachClaim(SELECT_CONFIRMED_BONUS_POINTS, rallyId, handler);
+    }
+
+    /**
+     * Stream every confirmed combination claim in the rally to the handler. Returns how many there were.
+     */
+    public int forEachConfirmedCombination(Integer rallyId, ClaimHandler handler) {
+        return forEachClaim(SELECT_CONFIRMED_COMBINATIONS, rallyId, handler);
+    }
+
+    /**
+     * Write final scores, keyed by rally participant ID, as one JDBC batch.
+     */
+    public void updateFinalScores(Map<Integer, Integer> scores) {
+        if (scores.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batch = new SqlParameterSource[scores.size()];
+        int index = 0;
+        for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+            batch[index++] = new MapSqlParameterSource()
+                    .addValue("id", entry.getKey())
+                    .addValue("finalScore", entry.getValue());
+        }
+        jdbcTemplate.batchUpdate(UPDATE_FINAL_SCORE, batch);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private Map<Integer, Integer> findValues(String sql, Integer rallyId) {
+        Map<Integer, Integer> values = new HashMap<>();
+        jdbcTemplate.query(sql, Map.of("rallyId", rallyId),
+                (ResultSet rs) -> {
+                    values.put(rs.getInt(1), rs.getInt(2));
+                });
+        return values;
+    }
+
+    private int forEachClaim(String sql, Integer rallyId, ClaimHandler handler) {
+        int[] count = { 0 };
+        jdbcTemplate.query(sql, Map.of("rallyId", rallyId),
+                (ResultSet rs) -> {
+                    handler.claim(rs.getInt(1), rs.getInt(2));
+                    ++count[0];
+                });
+        return count[0];
+    }
+}
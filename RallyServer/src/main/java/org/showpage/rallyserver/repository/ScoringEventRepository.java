@@ -0,0 +1,178 @@
+package org.showpage.rallyserver.repository;
+
+import lombok.Builder;
+import lombok.RequiredArgsConstructor;
+import org.showpage.rallyserver.entity.ScoringLogType;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * The scoring log and its snapshots. Rows are only ever inserted, never updated, and they're
+ * read back in ID order, so plain JDBC is all we need. This joins whatever transaction the
+ * caller is in.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ScoringEventRepository {
+    /** First key of the advisory lock we take per rally; the rally ID is the second. */
+    private static final int LOCK_NAMESPACE = 0x5C0E;
+
+    private static final String LOCK_RALLY =
+            "SELECT pg_advisory_xact_lock(:namespace, :rallyId)";
+
+    private static final String INSERT_EVENT =
+            "INSERT INTO scoring_event (rally_id, event_type, rally_participant_id, member_id, earned_id, definition_id, points, confirmed, odometer) " +
+            "VALUES (:rallyId, CAST(:type AS scoring_log_type), :rallyParticipantId, :memberId, :earnedId, :definitionId, :points, :confirmed, :odometer)";
+
+    private static final String SELECT_EVENTS_AFTER =
+            "SELECT id, rally_id, event_type, rally_participant_id, member_id, earned_id, definition_id, points, confirmed, odometer, recorded_at " +
+            "FROM scoring_event WHERE rally_id = :rallyId AND id > :afterId " +
+            "ORDER BY id";
+
+    private static final String COUNT_EVENTS_AFTER =
+            "SELECT count(*) FROM scoring_event WHERE rally_id = :rallyId AND id > :afterId";
+
+    private static final String SELECT_LATEST_SNAPSHOT =
+            "SELECT last_event_id, state FROM scoring_snapshot WHERE rally_id = :rallyId " +
+            "ORDER BY last_event_id DESC LIMIT 1";
+
+    private static final String INSERT_SNAPSHOT =
+            "INSERT INTO scoring_snapshot (rally_id, last_event_id, state) VALUES (:rallyId, :lastEventId, :state)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * One entry in the log. Which fields are set depends on the type. For claims, earnedId is the
+     * earned_bonus_point or earned_combination row and definitionId the bonus point or combination.
+     */
+    @Builder(toBuilder = true)
+    public record ScoringEventRow(
+            Long id,
+            int rallyId,
+            ScoringLogType type,
+            Integer rallyParticipantId,
+            Integer memberId,
+            Integer earnedId,
+            Integer definitionId,
+            Integer points,
+            Boolean confirmed,
+            Integer odometer,
+            Instant recordedAt
+    ) {}
+
+    /**
+     * A rally's standings as of lastEventId, in RallyStandings.writeTo() form.
+     */
+    public record SnapshotRow(long lastEventId, byte[] state) {}
+
+    /**
+     * Serialize writers to this rally's log until the transaction ends. With this held, nothing
+     * with a lower event ID can still be waiting to commit, so a snapshot taken now is complete.
+     */
+    public void lockRally(int rallyId) {
+        jdbcTemplate.execute(LOCK_RALLY,
+                Map.of("namespace", LOCK_NAMESPACE, "rallyId", rallyId),
+                ps -> ps.execute());
+    }
+
+    /**
+     * Append these as one JDBC batch. Returns them again with their IDs filled in.
+     */
+    public List<ScoringEventRow> append(List<ScoringEventRow> rows) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        SqlParameterSource[] batch = new SqlParameterSource[rows.size()];
+        for (int index = 0; index < rows.size(); ++index) {
+            ScoringEventRow row = rows.get(index);
+            batch[index] = new MapSqlParameterSource()
+                    .addValue("rallyId", row.rallyId())
+                    .addValue("type", row.type().name())
+                    .addValue("rallyParticipantId", row.rallyParticipantId(), Types.INTEGER)
+                    .addValue("memberId", row.memberId(), Types.INTEGER)
+                    .addValue("earnedId", row.earnedId(), Types.INTEGER)
+                    .addValue("definitionId", row.definitionId(), Types.INTEGER)
+                    .addValue("points", row.points(), Types.INTEGER)
+                    .addValue("confirmed", row.confirmed(), Types.BOOLEAN)
+                    .addValue("odometer", row.odometer(), Types.INTEGER);
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(INSERT_EVENT, batch, keyHolder, new String[] { "id" });
+
+        List<ScoringEventRow> appended = new ArrayList<>(rows.size());
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int index = 0; index < rows.size(); ++index) {
+            long id = ((Number) keys.get(index).get("id")).longValue();
+            appended.add(rows.get(index).toBuilder().id(id).build());
+        }
+        return appended;
+    }
+
+    /**
+     * Stream a rally's events after this ID, oldest first.
+     */
+    public void forEachEventAfter(int rallyId, long afterId, Consumer<ScoringEventRow> handler) {
+        jdbcTemplate.query(SELECT_EVENTS_AFTER, Map.of("rallyId", rallyId, "afterId", afterId),
+                (ResultSet rs) -> {
+                    handler.accept(toRow(rs));
+                });
+    }
+
+    public long countEventsAfter(int rallyId, long afterId) {
+        Long count = jdbcTemplate.queryForObject(COUNT_EVENTS_AFTER,
+                Map.of("rallyId", rallyId, "afterId", afterId), Long.class);
+        return count != null ? count : 0;
+    }
+
+    public Optional<SnapshotRow> findLatestSnapshot(int rallyId) {
+        List<SnapshotRow> rows = jdbcTemplate.query(SELECT_LATEST_SNAPSHOT, Map.of("rallyId", rallyId),
+                (rs, rowNum) -> new SnapshotRow(rs.getLong(1), rs.getBytes(2)));
+        return rows.stream().findFirst();
+    }
+
+    public void insertSnapshot(int rallyId, long lastEventId, byte[] state) {
+        jdbcTemplate.update(INSERT_SNAPSHOT, new MapSqlParameterSource()
+                .addValue("rallyId", rallyId)
+                .addValue("lastEventId", lastEventId)
+                .addValue("state", state, Types.BINARY));
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static ScoringEventRow toRow(ResultSet rs) throws SQLException {
+        Timestamp recordedAt = rs.getTimestamp("recorded_at");
+        return ScoringEventRow
+                .builder()
+                .id(rs.getLong("id"))
+                .rallyId(rs.getInt("rally_id"))
+                .type(ScoringLogType.valueOf(rs.getString("event_type")))
+                .rallyParticipantId((Integer) rs.getObject("rally_participant_id"))
+                .memberId((Integer) rs.getObject("member_id"))
+                .earnedId((Integer) rs.getObject("earned_id"))
+                .definitionId((Integer) rs.getObject("definition_id"))
+                .points((Integer) rs.getObject("points"))
+                .confirmed((Boolean) rs.getObject("confirmed"))
+                .odometer((Integer) rs.getObject("odometer"))
+                .recordedAt(recordedAt != null ? recordedAt.toInstant() : null)
+                .build();
+    }
+}
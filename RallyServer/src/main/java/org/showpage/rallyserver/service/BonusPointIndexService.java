@@ -0,0 +1,191 @@
+package org.showpage.rallyserver.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.BonusPoint;
+import org.showpage.rallyserver.repository.BonusPointRepository;
+import org.showpage.rallyserver.ui.UiBonusPoint;
+import org.showpage.rallyserver.ui.UiNearbyBonusPoint;
+import org.showpage.rallyserver.util.TransactionHooks;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps a SpatialIndex of each rally's bonus points, along with the points themselves, so "what's
+ * near here" never goes to the database. Built on first use and kept until a bonus point in the
+ * rally is created, changed or deleted. Only index-cache-size rallies are kept, and the least
+ * recently used goes to make room.
+ *
+ * Anything that changes a rally's bonus points must call invalidate(), which evicts the entry as
+ * TransactionHooks.evict() describes. An index that was being built when invalidate() was called
+ * isn't kept.
+ */
+@Service
+@Slf4j
+public class BonusPointIndexService {
+    private final Function<Integer, List<UiBonusPoint>> loader;
+    private final int maxEntries;
+
+    private final Map<Integer, Indexed> indexesByRally;
+    private long generation;
+
+    @Autowired
+    public BonusPointIndexService(
+            BonusPointRepository bonusPointRepository,
+            @Value("${rallymaster.options.index-cache-size:1000}") int maxEntries
+    ) {
+        this(rallyId -> located(bonusPointRepository, rallyId), maxEntries);
+    }
+
+    BonusPointIndexService(Function<Integer, List<UiBonusPoint>> loader, int maxEntries) {
+        this.loader = loader;
+        this.maxEntries = maxEntries;
+        this.indexesByRally = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Indexed> eldest) {
+                return size() > BonusPointIndexService.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * A rally's located bonus points and the index over them. Positions in the index are positions
+     * in the list.
+     */
+    private record Indexed(List<UiBonusPoint> bonusPoints, SpatialIndex index) {}
+
+    /**
+     * A track's visit to a bonus point.
+     */
+    public record Visit(UiBonusPoint bonusPoint, Instant arrivedAt, Instant departedAt, double closestMiles) {}
+
+    /**
+     * The count bonus points closest to the location, closest first.
+     */
+    public List<UiNearbyBonusPoint> nearest(Integer rallyId, double latitude, double longitude, int count) {
+        Indexed indexed = get(rallyId);
+        return toNearby(indexed, indexed.index().nearest(latitude, longitude, count));
+    }
+
+    /**
+     * Every bonus point within this many miles of the location, closest first.
+     */
+    public List<UiNearbyBonusPoint> within(Integer rallyId, double latitude, double longitude, double miles) {
+        Indexed indexed = get(rallyId);
+        return toNearby(indexed, indexed.index().within(latitude, longitude, miles));
+    }
+
+    /**
+     * Every bonus point inside the box.
+     */
+    public List<UiBonusPoint> inBox(Integer rallyId, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        Indexed indexed = get(rallyId);
+        return indexed.index()
+                .inBox(minLatitude, minLongitude, maxLatitude, maxLongitude)
+                .stream()
+                .map(indexed.bonusPoints()::get)
+                .toList();
+    }
+
+    /**
+     * Every time the track came within this many miles of one of the rally's bonus points, in the
+     * order they happened. See TrackMatcher.
+     */
+    public List<Visit> visits(Integer rallyId, Track track, double miles, long gapSeconds) {
+        Indexed indexed = get(rallyId);
+        return TrackMatcher.match(indexed.index(), track, miles, gapSeconds)
+                .stream()
+                .map(visit -> new Visit(
+                        indexed.bonusPoints().get(visit.index()),
+                        Instant.ofEpochSecond(visit.arrivedAt()),
+                        Instant.ofEpochSecond(visit.departedAt()),
+                        visit.closestMiles()))
+                .toList();
+    }
+
+    /**
+     * A bonus point in the rally was created, changed or deleted, or the rally is gone.
+     */
+    public void invalidate(Integer rallyId) {
+        TransactionHooks.evict(() -> {
+            synchronized (this) {
+                ++generation;
+                indexesByRally.remove(rallyId);
+            }
+        });
+    }
+
+    /**
+     * Rallies indexed.
+     */
+    public synchronized int size() {
+        return indexesByRally.size();
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private Indexed get(Integer rallyId) {
+        long generation;
+        synchronized (this) {
+            Indexed indexed = indexesByRally.get(rallyId);
+            if (indexed != null) {
+                return indexed;
+            }
+            generation = this.generation;
+        }
+
+        // The query runs outside the lock: a slow one would otherwise stall every other rally's lookups.
+        Indexed indexed = build(rallyId, loader.apply(rallyId));
+        synchronized (this) {
+            if (generation == this.generation && maxEntries > 0) {
+                indexesByRally.putIfAbsent(rallyId, indexed);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * The rally's bonus points that have a location.
+     */
+    private static List<UiBonusPoint> located(BonusPointRepository bonusPointRepository, Integer rallyId) {
+        List<UiBonusPoint> bonusPoints = new ArrayList<>();
+        for (BonusPoint bonusPoint : bonusPointRepository.findByRallyId(rallyId)) {
+            if (bonusPoint.getLatitude() != null && bonusPoint.getLongitude() != null) {
+                bonusPoints.add(DtoMapper.toUiBonusPoint(bonusPoint));
+            }
+        }
+        return bonusPoints;
+    }
+
+    private static Indexed build(Integer rallyId, List<UiBonusPoint> bonusPoints) {
+        double[] latitudes = new double[bonusPoints.size()];
+        double[] longitudes = new double[bonusPoints.size()];
+        for (int i = 0; i < bonusPoints.size(); ++i) {
+            latitudes[i] = bonusPoints.get(i).getLatitude();
+            longitudes[i] = bonusPoints.get(i).getLongitude();
+        }
+
+        log.info("Indexed {} bonus points for rally {}", bonusPoints.size(), rallyId);
+        return new Indexed(List.copyOf(bonusPoints), SpatialIndex.of(latitudes, longitudes));
+    }
+
+    private static List<UiNearbyBonusPoint> toNearby(Indexed indexed, List<SpatialIndex.Hit> hits) {
+        return hits
+                .stream()
+                .map(hit -> UiNearbyBonusPoint
+                        .builder()
+                        .bonusPoint(indexed.bonusPoints().get(hit.index()))
+                        .miles(hit.miles())
+                        .build())
+                .toList();
+    }
+}
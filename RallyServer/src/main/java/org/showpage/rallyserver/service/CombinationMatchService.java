@@ -0,0 +1,246 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.*;
+import org.showpage.rallyserver.repository.CombinationRepository;
+import org.showpage.rallyserver.repository.EarnedBonusPointRepository;
+import org.showpage.rallyserver.repository.EarnedCombinationRepository;
+import org.showpage.rallyserver.util.TransactionHooks;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Works out which combinations a rider has earned from the bonus points they hold, and keeps the
+ * EarnedCombination rows in line with that. A combination is claimed as soon as the rider's claimed
+ * points satisfy it, and confirmed once their confirmed points do. If a rider stops satisfying it
+ * (a claim was unconfirmed, or the organizer changed the combination) the row is retired.
+ *
+ * Only rows we created are ours to change. A combination a scorer awarded by hand stays as they
+ * left it, and so does any combination the matcher can't evaluate (no points, or none needed).
+ *
+ * Each rally's combinations are compiled once into a CombinationMatcher and cached until the
+ * organizer edits them.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class CombinationMatchService {
+    private final CombinationRepository combinationRepository;
+    private final EarnedBonusPointRepository earnedBonusPointRepository;
+    private final EarnedCombinationRepository earnedCombinationRepository;
+    private final StandingsService standingsService;
+
+    private final ConcurrentMap<Integer, CombinationMatcher> matchersByRally = new ConcurrentHashMap<>();
+
+    /**
+     * A rider's earned bonus point was created or its confirmation changed. Only the combinations
+     * containing that point are looked at.
+     */
+    public void bonusPointChanged(RallyParticipant participant, Integer bonusPointId) {
+        bonusPointsChanged(participant, List.of(bonusPointId));
+    }
+
+    /**
+     * Several of a rider's earned bonus points changed at once. We look at each combination touched
+     * by any of them, once.
+     */
+    public void bonusPointsChanged(RallyParticipant participant, Collection<Integer> bonusPointIds) {
+        CombinationMatcher matcher = getMatcher(participant.getRallyId());
+        int[] offsets = bonusPointIds
+                .stream()
+                .flatMapToInt(bonusPointId -> Arrays.stream(matcher.combinationsContaining(bonusPointId)))
+                .distinct()
+                .toArray();
+        if (offsets.length == 0) {
+            return;
+        }
+
+        reconcile(
+                participant,
+                matcher,
+                offsets,
+                earnedBonusPointRepository.findByRallyParticipantId(participant.getId()),
+                earnedCombinationRepository.findByRallyParticipantId(participant.getId()));
+    }
+
+    /**
+     * The organizer created a combination or changed its rules. Recompile the rally and rescan that
+     * combination, but only for riders who hold it or hold one of its bonus points.
+     */
+    public void definitionChanged(Combination combination) {
+        definitionChanged(combination.getRallyId(), combination.getId());
+    }
+
+    public void definitionChanged(Integer rallyId, Integer combinationId) {
+        forget(rallyId);
+
+        CombinationMatcher matcher = getMatcher(rallyId);
+        int[] offsets = matcher.offsetsOf(combinationId);
+        if (offsets.length == 0) {
+            return;
+        }
+
+        List<Integer> bonusPointIds = matcher.bonusPointIdsAt(offsets[0]);
+        Set<Integer> affected = standingsService
+                .findHolders(rallyId, bonusPointIds, combinationId)
+                .orElseGet(() -> findHolders(bonusPointIds, combinationId));
+        if (affected.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, RallyParticipant> participants = new LinkedHashMap<>();
+        Map<Integer, List<EarnedBonusPoint>> pointsByParticipant = new HashMap<>();
+        Map<Integer, List<EarnedCombination>> combinationsByParticipant = new HashMap<>();
+
+        for (EarnedBonusPoint earned : earnedBonusPointRepository.findByRallyParticipantIdIn(affected)) {
+            participants.putIfAbsent(earned.getRallyParticipantId(), earned.getRallyParticipant());
+            pointsByParticipant.computeIfAbsent(earned.getRallyParticipantId(), id -> new ArrayList<>()).add(earned);
+        }
+        for (EarnedCombination earned : earnedCombinationRepository.findByRallyParticipantIdIn(affected)) {
+            participants.putIfAbsent(earned.getRallyParticipantId(), earned.getRallyParticipant());
+            combinationsByParticipant.computeIfAbsent(earned.getRallyParticipantId(), id -> new ArrayList<>()).add(earned);
+        }
+
+        for (RallyParticipant participant : participants.values()) {
+            reconcile(
+                    participant,
+                    matcher,
+                    offsets,
+                    pointsByParticipant.getOrDefault(participant.getId(), List.of()),
+                    combinationsByParticipant.getOrDefault(participant.getId(), List.of()));
+        }
+        log.info("Rescanned combination {} for {} riders", combinationId, participants.size());
+    }
+
+    /**
+     * A combination is about to be deleted. Retire everyone's claim to it.
+     */
+    public void combinationDeleted(Combination combination) {
+        for (EarnedCombination earned : earnedCombinationRepository.findByCombinationId(combination.getId())) {
+            earnedCombinationRepository.delete(earned);
+            standingsService.combinationRemoved(combination.getRallyId(), earned.getRallyParticipantId(), earned.getId());
+        }
+        forget(combination.getRallyId());
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Recompile the rally's combinations next time (see TransactionHooks.evict()).
+     */
+    private void forget(Integer rallyId) {
+        TransactionHooks.evict(() -> matchersByRally.remove(rallyId));
+    }
+
+    /**
+     * The database's answer to who holds these, for when the standings aren't loaded.
+     */
+    private Set<Integer> findHolders(Collection<Integer> bonusPointIds, Integer combinationId) {
+        Set<Integer> holders = new HashSet<>(earnedCombinationRepository.findRallyParticipantIdsByCombinationId(combinationId));
+        if (!bonusPointIds.isEmpty()) {
+            holders.addAll(earnedBonusPointRepository.findRallyParticipantIdsByBonusPointIdIn(bonusPointIds));
+        }
+        return holders;
+    }
+
+    /**
+     * The rally's compiled combinations, for planners that want to score a set of points.
+     */
+    public CombinationMatcher getMatcher(Integer rallyId) {
+        return matchersByRally.computeIfAbsent(rallyId, this::compile);
+    }
+
+    /**
+     * Compile a rally's combinations. One query, no entities.
+     */
+    private CombinationMatcher compile(Integer rallyId) {
+        CombinationMatcher.Builder builder = CombinationMatcher.builder();
+        for (Object[] row : combinationRepository.findDefinitionsByRallyId(rallyId)) {
+            Integer combinationId = (Integer) row[0];
+            builder.combination(combinationId, (Boolean) row[1], (Integer) row[2]);
+            if (row[3] != null) {
+                builder.point(combinationId, (Integer) row[3], (Boolean) row[4]);
+            }
+        }
+
+        CombinationMatcher matcher = builder.build();
+        log.info("Compiled {} combinations for rally {}", matcher.size(), rallyId);
+        return matcher;
+    }
+
+    /**
+     * Bring one rider's earned combinations in line with their earned bonus points, looking only at
+     * the combinations at these offsets.
+     */
+    private void reconcile(
+            RallyParticipant participant,
+            CombinationMatcher matcher,
+            int[] offsets,
+            List<EarnedBonusPoint> earnedPoints,
+            List<EarnedCombination> earnedCombinations
+    ) {
+        long[] claimed = matcher.newHeldSet();
+        long[] confirmed = matcher.newHeldSet();
+        for (EarnedBonusPoint earned : earnedPoints) {
+            matcher.hold(claimed, earned.getBonusPointId());
+            if (Boolean.TRUE.equals(earned.getConfirmed())) {
+                matcher.hold(confirmed, earned.getBonusPointId());
+            }
+        }
+
+        Map<Integer, EarnedCombination> existing = new HashMap<>();
+        for (EarnedCombination earned : earnedCombinations) {
+            existing.putIfAbsent(earned.getCombinationId(), earned);
+        }
+
+        for (int offset : offsets) {
+            int combinationId = matcher.combinationIdAt(offset);
+            EarnedCombination earned = existing.get(combinationId);
+            if (matcher.neededAt(offset) == 0 || earned != null && !Boolean.TRUE.equals(earned.getAutomatic())) {
+                continue;
+            }
+
+            if (matcher.isSatisfied(offset, claimed)) {
+                boolean isConfirmed = matcher.isSatisfied(offset, confirmed);
+                if (earned == null) {
+                    Combination combination = combinationRepository.getReferenceById(combinationId);
+                    earned = earnedCombinationRepository.save(EarnedCombination
+                            .builder()
+                            .rallyParticipant(participant)
+                            .rallyParticipantId(participant.getId())
+                            .combination(combination)
+                            .combinationId(combinationId)
+                            .confirmed(isConfirmed)
+                            .automatic(true)
+                            .build());
+                    log.info("Participant {} earned combination {}", participant.getId(), combinationId);
+                } else if (Boolean.TRUE.equals(earned.getConfirmed()) != isConfirmed) {
+                    earned.setConfirmed(isConfirmed);
+                    earned = earnedCombinationRepository.save(earned);
+                } else {
+                    continue;
+                }
+                standingsService.combinationChanged(
+                        participant, earned, StandingsService.pointsOf(earned.getCombination().getPoints()));
+            } else if (earned != null) {
+                earnedCombinationRepository.delete(earned);
+                standingsService.combinationRemoved(participant.getRallyId(), participant.getId(), earned.getId());
+                log.info("Participant {} no longer holds combination {}", participant.getId(), combinationId);
+            }
+        }
+    }
+}
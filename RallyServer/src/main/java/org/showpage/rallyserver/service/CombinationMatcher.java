@@ -0,0 +1,271 @@
+package org.showpage.rallyserver.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One rally's combinations compiled into bitsets. Every bonus point that appears in any combination
+ * gets an index, each combination becomes a mask over those indices plus a mask of the points it
+ * insists on, and we remember which combinations each point belongs to. Testing a rider is then a
+ * handful of ANDs and bit counts, and a newly earned point only looks at the combinations that
+ * contain it.
+ *
+ * The rules we honor:
+ * <ul>
+ *     <li>requiresAll: every point in the combination.</li>
+ *     <li>Otherwise every point flagged required, plus enough points overall to reach numRequired.
+ *         A missing numRequired means all of them.</li>
+ * </ul>
+ *
+ * Instances are immutable once built, so they can be shared across threads.
+ */
+public class CombinationMatcher {
+    private static final int[] NONE = new int[0];
+
+    private final Map<Integer, Integer> indexByBonusPoint;
+    private final int words;
+
+    private final int[] combinationIds;
+    private final long[][] members;
+    private final long[][] required;
+    private final int[] needed;
+    private final List<List<Integer>> bonusPointIds;
+    private final List<List<Integer>> requiredBonusPointIds;
+
+    /** Combination offsets (into combinationIds) for each bonus point index. */
+    private final int[][] combinationsByPoint;
+
+    private CombinationMatcher(Builder builder) {
+        indexByBonusPoint = new HashMap<>();
+        for (Definition definition : builder.definitions.values()) {
+            for (Integer bonusPointId : definition.bonusPointIds) {
+                indexByBonusPoint.putIfAbsent(bonusPointId, indexByBonusPoint.size());
+            }
+        }
+        words = Math.max(1, (indexByBonusPoint.size() + 63) / 64);
+
+        int count = builder.definitions.size();
+        combinationIds = new int[count];
+        members = new long[count][];
+        required = new long[count][];
+        needed = new int[count];
+        bonusPointIds = new ArrayList<>(count);
+        requiredBonusPointIds = new ArrayList<>(count);
+
+        List<List<Integer>> byPoint = new ArrayList<>();
+        for (int i = 0; i < indexByBonusPoint.size(); ++i) {
+            byPoint.add(new ArrayList<>());
+        }
+
+        int offset = 0;
+        for (Definition definition : builder.definitions.values()) {
+            long[] memberMask = new long[words];
+            long[] requiredMask = new long[words];
+            List<Integer> requiredIds = new ArrayList<>();
+
+            for (int i = 0; i < definition.bonusPointIds.size(); ++i) {
+                int index = indexByBonusPoint.get(definition.bonusPointIds.get(i));
+                set(memberMask, index);
+                if (definition.requiresAll || definition.required.get(i)) {
+                    set(requiredMask, index);
+                    requiredIds.add(definition.bonusPointIds.get(i));
+                }
+                byPoint.get(index).add(offset);
+            }
+
+            int size = bitCount(memberMask);
+            combinationIds[offset] = definition.combinationId;
+            members[offset] = memberMask;
+            required[offset] = requiredMask;
+            bonusPointIds.add(List.copyOf(definition.bonusPointIds));
+            requiredBonusPointIds.add(List.copyOf(requiredIds));
+            needed[offset] = definition.requiresAll || definition.numRequired == null
+                    ? size
+                    : Math.min(Math.max(definition.numRequired, bitCount(requiredMask)), size);
+            ++offset;
+        }
+
+        combinationsByPoint = new int[byPoint.size()][];
+        for (int i = 0; i < byPoint.size(); ++i) {
+            combinationsByPoint[i] = byPoint.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * An empty set of points, sized for this rally.
+     */
+    public long[] newHeldSet() {
+        return new long[words];
+    }
+
+    /**
+     * Mark a bonus point as held. Points that aren't in any combination are ignored.
+     */
+    public void hold(long[] held, Integer bonusPointId) {
+        Integer index = indexByBonusPoint.get(bonusPointId);
+        if (index != null) {
+            set(held, index);
+        }
+    }
+
+    /**
+     * Take a bonus point back out of a held set.
+     */
+    public void release(long[] held, Integer bonusPointId) {
+        Integer index = indexByBonusPoint.get(bonusPointId);
+        if (index != null) {
+            held[index >>> 6] &= ~(1L << (index & 63));
+        }
+    }
+
+    /**
+     * Offsets of the combinations that contain this bonus point. Use with combinationIdAt() and
+     * isSatisfied().
+     */
+    public int[] combinationsContaining(Integer bonusPointId) {
+        Integer index = indexByBonusPoint.get(bonusPointId);
+        return index != null ? combinationsByPoint[index] : NONE;
+    }
+
+    /**
+     * The offset of one combination, as an array so it can go wherever combinationsContaining() does.
+     * Empty if we don't know it.
+     */
+    public int[] offsetsOf(Integer combinationId) {
+        for (int i = 0; i < combinationIds.length; ++i) {
+            if (combinationIds[i] == combinationId) {
+                return new int[] { i };
+            }
+        }
+        return NONE;
+    }
+
+    public int combinationIdAt(int offset) {
+        return combinationIds[offset];
+    }
+
+    /**
+     * The bonus points that make up the combination at this offset.
+     */
+    public List<Integer> bonusPointIdsAt(int offset) {
+        return bonusPointIds.get(offset);
+    }
+
+    /**
+     * The bonus points the combination at this offset can't be earned without.
+     */
+    public List<Integer> requiredBonusPointIdsAt(int offset) {
+        return requiredBonusPointIds.get(offset);
+    }
+
+    /**
+     * How many of its points the combination at this offset takes, required ones included.
+     */
+    public int neededAt(int offset) {
+        return needed[offset];
+    }
+
+    public int size() {
+        return combinationIds.length;
+    }
+
+    /**
+     * Does this set of points earn the combination at this offset?
+     */
+    public boolean isSatisfied(int offset, long[] held) {
+        long[] memberMask = members[offset];
+        long[] requiredMask = required[offset];
+
+        int count = 0;
+        for (int w = 0; w < words; ++w) {
+            long have = held[w] & memberMask[w];
+            if ((have & requiredMask[w]) != requiredMask[w]) {
+                return false;
+            }
+            count += Long.bitCount(have);
+        }
+
+        // A combination with no points can never be earned automatically.
+        return needed[offset] > 0 && count >= needed[offset];
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << (index & 63);
+    }
+
+    private static int bitCount(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static class Definition {
+        final int combinationId;
+        final boolean requiresAll;
+        final Integer numRequired;
+        final List<Integer> bonusPointIds = new ArrayList<>();
+        final List<Boolean> required = new ArrayList<>();
+
+        Definition(int combinationId, boolean requiresAll, Integer numRequired) {
+            this.combinationId = combinationId;
+            this.requiresAll = requiresAll;
+            this.numRequired = numRequired;
+        }
+    }
+
+    /**
+     * Collects combination definitions a row at a time, which is how they come back from the database.
+     */
+    public static class Builder {
+        private final Map<Integer, Definition> definitions = new LinkedHashMap<>();
+
+        /**
+         * Declare a combination. Safe to call more than once for the same ID.
+         */
+        public Builder combination(Integer combinationId, Boolean requiresAll, Integer numRequired) {
+            definitions.computeIfAbsent(combinationId,
+                    id -> new Definition(id, Boolean.TRUE.equals(requiresAll), numRequired));
+            return this;
+        }
+
+        /**
+         * Add one of the combination's bonus points. The combination must already be declared.
+         */
+        public Builder point(Integer combinationId, Integer bonusPointId, Boolean required) {
+            Definition definition = definitions.get(combinationId);
+            if (definition == null) {
+                throw new IllegalArgumentException("Unknown combination " + combinationId);
+            }
+            if (!definition.bonusPointIds.contains(bonusPointId)) {
+                definition.bonusPointIds.add(bonusPointId);
+                definition.required.add(Boolean.TRUE.equals(required));
+            }
+            return this;
+        }
+
+        public Builder points(Integer combinationId, Collection<Integer> bonusPointIds) {
+            for (Integer bonusPointId : bonusPointIds) {
+                point(combinationId, bonusPointId, false);
+            }
+            return this;
+        }
+
+        public CombinationMatcher build() {
+            return new CombinationMatcher(this);
+        }
+    }
+}
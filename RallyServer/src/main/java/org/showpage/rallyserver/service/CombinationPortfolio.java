@@ -0,0 +1,753 @@
+package org.showpage.rallyserver.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+/**
+ * Picks which sets of combinations are worth chasing. The biggest combination can be a sucker: its
+ * points may be nowhere near anything else. Several medium combinations that share stops are often
+ * worth more for the same riding, and this finds those sets.
+ *
+ * Each combination is costed by the detour it adds: its points are inserted into a rough tour from
+ * start to finish at the cheapest place, picking among optional points the ones that are cheapest
+ * to add, and preferring points the tour already visits. Shared points are only ridden and counted
+ * once, and any combination the tour happens to complete counts too.
+ *
+ * The search is branch and bound over include/exclude decisions, best points-per-hour first. Every
+ * combination is tried as the first one picked (the anchor), each as a task on the executor the
+ * caller gives; each anchor only looks at combinations after it, so no set is explored twice. States
+ * are memoized by the points held and the next decision, across all anchors, so overlapping
+ * combinations that reach the same stops by different routes are only explored once. A state is
+ * pruned when even collecting every remaining combination at nothing but stop time couldn't beat the
+ * worst plan we'd keep.
+ *
+ * Travel is straight-line miles at an average speed, as in RouteOptimizer. Instances are immutable
+ * once built and can be shared.
+ */
+public class CombinationPortfolio {
+    /** Only the best this many, by points per hour on their own, are searched; more never finishes. */
+    static final int MAX_CANDIDATES = 60;
+    private static final int MAX_MEMO = 1_000_000;
+    private static final double EPSILON = 1e-9;
+
+    private final int pointCount;
+    private final int[] bonusPointIds;
+    private final int[] pointValues;
+    private final double[] travel;
+    private final int nodes;
+    private final int start;
+    private final int finish;
+    private final double milesPerHour;
+    private final double stopMinutes;
+    private final double budgetMinutes;
+
+    /** Every combination we know of, by offset. Unreachable ones need a point we can't locate. */
+    private final int[] combinationIds;
+    private final int[] combinationValues;
+    private final int[][] members;
+    private final int[][] requiredMembers;
+    private final int[] needed;
+    private final int[][] combinationsByPoint;
+    private final boolean[] reachable;
+
+    /**
+     * What one combination is worth on its own: the points it takes, its value with those points,
+     * and the extra riding and stopping it adds to going straight from start to finish.
+     */
+    public record Estimate(
+            int combinationId,
+            List<Integer> bonusPointIds,
+            int points,
+            double extraMiles,
+            double extraMinutes,
+            boolean fits
+    ) {}
+
+    /**
+     * What a combination adds to a portfolio: what the portfolio loses, and saves, without it.
+     */
+    public record Pick(int combinationId, int marginalPoints, double marginalMiles, double marginalMinutes) {}
+
+    /**
+     * A set of combinations that fits the budget. Points include the bonus points' own values.
+     * Miles and minutes are for the whole ride; the extras are over going straight from start to
+     * finish.
+     */
+    public record Portfolio(
+            List<Pick> combinations,
+            List<Integer> bonusPointIds,
+            int points,
+            double miles,
+            double minutes,
+            double extraMiles,
+            double extraMinutes
+    ) {}
+
+    /**
+     * The best portfolios, best first, and the estimate for every combination. Complete is false if
+     * the time limit ran out before the search did.
+     */
+    public record Analysis(List<Portfolio> portfolios, List<Estimate> combinations, boolean complete) {}
+
+    private CombinationPortfolio(Builder builder) {
+        CombinationMatcher matcher = builder.matcher != null ? builder.matcher : CombinationMatcher.builder().build();
+        int combinationCount = matcher.size();
+
+        // Only points some combination uses, and that we know where they are, become nodes.
+        Map<Integer, Integer> nodeByBonusPoint = new LinkedHashMap<>();
+        for (int offset = 0; offset < combinationCount; ++offset) {
+            for (Integer bonusPointId : matcher.bonusPointIdsAt(offset)) {
+                if (builder.locations.containsKey(bonusPointId)) {
+                    nodeByBonusPoint.putIfAbsent(bonusPointId, nodeByBonusPoint.size());
+                }
+            }
+        }
+
+        pointCount = nodeByBonusPoint.size();
+        nodes = pointCount + 2;
+        start = pointCount;
+        finish = pointCount + 1;
+        bonusPointIds = new int[pointCount];
+        pointValues = new int[pointCount];
+        double[] latitudes = new double[nodes];
+        double[] longitudes = new double[nodes];
+        for (Map.Entry<Integer, Integer> entry : nodeByBonusPoint.entrySet()) {
+            int node = entry.getValue();
+            Location location = builder.locations.get(entry.getKey());
+            bonusPointIds[node] = entry.getKey();
+            pointValues[node] = location.points;
+            latitudes[node] = location.latitude;
+            longitudes[node] = location.longitude;
+        }
+        latitudes[start] = builder.startLatitude;
+        longitudes[start] = builder.startLongitude;
+        latitudes[finish] = builder.finishLatitude;
+        longitudes[finish] = builder.finishLongitude;
+
+        milesPerHour = builder.milesPerHour;
+        stopMinutes = builder.stopMinutes;
+        budgetMinutes = builder.budgetMinutes;
+
+        int[] matrixIndex = new int[nodes];
+        Arrays.fill(matrixIndex, -1);
+        if (builder.distances != null) {
+            for (int node = 0; node < pointCount; ++node) {
+                matrixIndex[node] = builder.distances.indexOf(bonusPointIds[node]);
+            }
+        }
+        travel = new double[nodes * nodes];
+        for (int a = 0; a < nodes; ++a) {
+            for (int b = a + 1; b < nodes; ++b) {
+                double miles = matrixIndex[a] >= 0 && matrixIndex[b] >= 0
+                        ? builder.distances.milesAt(matrixIndex[a], matrixIndex[b])
+                        : DistanceMatrix.miles(latitudes[a], longitudes[a], latitudes[b], longitudes[b]);
+                double minutes = miles / milesPerHour * 60.0;
+                travel[a * nodes + b] = minutes;
+                travel[b * nodes + a] = minutes;
+            }
+        }
+
+        combinationIds = new int[combinationCount];
+        combinationValues = new int[combinationCount];
+        members = new int[combinationCount][];
+        requiredMembers = new int[combinationCount][];
+        needed = new int[combinationCount];
+        reachable = new boolean[combinationCount];
+        List<List<Integer>> byPoint = new ArrayList<>();
+        for (int node = 0; node < pointCount; ++node) {
+            byPoint.add(new ArrayList<>());
+        }
+
+        for (int offset = 0; offset < combinationCount; ++offset) {
+            combinationIds[offset] = matcher.combinationIdAt(offset);
+            Integer value = builder.combinationValues.get(combinationIds[offset]);
+            combinationValues[offset] = value != null ? value : 0;
+            members[offset] = toNodes(matcher.bonusPointIdsAt(offset), nodeByBonusPoint);
+            requiredMembers[offset] = toNodes(matcher.requiredBonusPointIdsAt(offset), nodeByBonusPoint);
+            needed[offset] = matcher.neededAt(offset);
+            for (int node : members[offset]) {
+                byPoint.get(node).add(offset);
+            }
+
+            // A point we can't locate can't be ridden to.
+            reachable[offset] = needed[offset] > 0
+                    && members[offset].length >= needed[offset]
+                    && requiredMembers[offset].length == matcher.requiredBonusPointIdsAt(offset).stream().distinct().count();
+        }
+
+        combinationsByPoint = new int[pointCount][];
+        for (int node = 0; node < pointCount; ++node) {
+            combinationsByPoint[node] = byPoint.get(node).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Search on this thread, one anchor after another, until done or the time limit runs out.
+     */
+    public Analysis solve(Duration timeLimit, int count) {
+        return solve(timeLimit, count, Runnable::run);
+    }
+
+    /**
+     * Search until done or the time limit runs out, each anchor a task on the executor, and return
+     * the best count portfolios.
+     */
+    public Analysis solve(Duration timeLimit, int count, Executor executor) {
+        long deadline = System.nanoTime() + timeLimit.toNanos();
+        State base = State.empty(this);
+
+        // Every combination on its own, unlimited, so the caller can see the sucker combos too.
+        List<Estimate> estimates = new ArrayList<>();
+        List<Integer> candidates = new ArrayList<>();
+        double[] ratio = new double[combinationIds.length];
+        for (int offset = 0; offset < combinationIds.length; ++offset) {
+            if (!reachable[offset]) {
+                estimates.add(new Estimate(combinationIds[offset], List.of(), combinationValues[offset], 0, 0, false));
+                continue;
+            }
+            State alone = add(base, offset, Double.MAX_VALUE);
+            double extraMinutes = alone.minutes() - base.minutes();
+            boolean fits = alone.minutes() <= budgetMinutes + EPSILON;
+            estimates.add(new Estimate(combinationIds[offset], alone.bonusPointIds(), alone.value,
+                    toMiles(alone.travel - base.travel), extraMinutes, fits));
+            if (fits) {
+                candidates.add(offset);
+                ratio[offset] = alone.value / Math.max(extraMinutes, EPSILON);
+            }
+        }
+        if (base.minutes() > budgetMinutes + EPSILON || candidates.isEmpty()) {
+            return new Analysis(List.of(), estimates, true);
+        }
+
+        candidates.sort(Comparator.comparingDouble((Integer offset) -> -ratio[offset]));
+        int[] order = candidates.stream().limit(MAX_CANDIDATES).mapToInt(Integer::intValue).toArray();
+
+        ConcurrentMap<Key, Double> memo = new ConcurrentHashMap<>();
+        List<Search> searches = IntStream.range(0, order.length)
+                .mapToObj(anchor -> CompletableFuture.supplyAsync(() -> {
+                    Search search = new Search(order, memo, deadline, count);
+                    State first = add(base, order[anchor], budgetMinutes);
+                    if (first != null) {
+                        search.run(first, anchor + 1);
+                    }
+                    return search;
+                }, executor))
+                .toList()
+                .stream()
+                .map(CompletableFuture::join)
+                .toList();
+
+        // Merge, keeping one of each set of points held.
+        List<State> best = new ArrayList<>();
+        boolean complete = candidates.size() <= MAX_CANDIDATES;
+        for (Search search : searches) {
+            complete &= search.complete;
+            for (State state : search.best) {
+                if (best.stream().noneMatch(other -> Arrays.equals(other.held, state.held))) {
+                    best.add(state);
+                }
+            }
+        }
+        best.sort(State.BEST_FIRST);
+
+        List<Portfolio> portfolios = best
+                .stream()
+                .limit(count)
+                .map(state -> toPortfolio(state, base))
+                .toList();
+        return new Analysis(portfolios, estimates, complete);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private double travel(int from, int to) {
+        return travel[from * nodes + to];
+    }
+
+    private double toMiles(double travelMinutes) {
+        return travelMinutes * milesPerHour / 60.0;
+    }
+
+    private static int[] toNodes(List<Integer> bonusPointIds, Map<Integer, Integer> nodeByBonusPoint) {
+        return bonusPointIds
+                .stream()
+                .map(nodeByBonusPoint::get)
+                .filter(node -> node != null)
+                .distinct()
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * The state with this combination's points added, or null if that goes over the limit.
+     * Required points go in first, cheapest first, then optional points until there are enough,
+     * counting any the tour already has.
+     */
+    private State add(State state, int offset, double limitMinutes) {
+        State next = state.copy();
+        int have = 0;
+        for (int node : members[offset]) {
+            if (next.holds(node)) {
+                ++have;
+            }
+        }
+
+        List<Integer> mustAdd = new ArrayList<>();
+        for (int node : requiredMembers[offset]) {
+            if (!next.holds(node)) {
+                mustAdd.add(node);
+            }
+        }
+        while (!mustAdd.isEmpty()) {
+            int bestIndex = 0;
+            double bestCost = Double.MAX_VALUE;
+            for (int i = 0; i < mustAdd.size(); ++i) {
+                double cost = next.insertionCost(mustAdd.get(i));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestIndex = i;
+                }
+            }
+            next.insert(mustAdd.remove(bestIndex));
+            ++have;
+        }
+
+        while (have < needed[offset]) {
+            int bestNode = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int node : members[offset]) {
+                if (!next.holds(node)) {
+                    double cost = next.insertionCost(node);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestNode = node;
+                    }
+                }
+            }
+            next.insert(bestNode);
+            ++have;
+        }
+
+        return next.minutes() <= limitMinutes + EPSILON ? next : null;
+    }
+
+    /**
+     * Tighten the tour, then work out what each combination adds by taking it out and rebuilding.
+     */
+    private Portfolio toPortfolio(State state, State base) {
+        State tightened = state.copy();
+        tightened.twoOpt();
+
+        List<Integer> offsets = new ArrayList<>();
+        for (int offset = 0; offset < combinationIds.length; ++offset) {
+            if (state.hasSatisfied(offset)) {
+                offsets.add(offset);
+            }
+        }
+
+        List<Pick> combinations = new ArrayList<>();
+        for (int offset : offsets) {
+            State without = base;
+            for (int other : offsets) {
+                if (other != offset && !without.isSatisfied(other)) {
+                    without = add(without, other, Double.MAX_VALUE);
+                }
+            }
+            without = without.copy();
+            without.twoOpt();
+            combinations.add(new Pick(
+                    combinationIds[offset],
+                    tightened.value - without.value,
+                    toMiles(tightened.travel - without.travel),
+                    tightened.minutes() - without.minutes()));
+        }
+
+        return new Portfolio(
+                combinations,
+                tightened.bonusPointIds(),
+                tightened.value,
+                toMiles(tightened.travel),
+                tightened.minutes(),
+                toMiles(tightened.travel - base.travel),
+                tightened.minutes() - base.minutes());
+    }
+
+    /**
+     * Memo key: the points held and the next decision.
+     */
+    private record Key(long[] held, int index) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.index == index && Arrays.equals(key.held, held);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(held) + index;
+        }
+    }
+
+    /**
+     * A tour from start to finish through the points held, what they're worth with the combinations
+     * they complete, and the riding it takes.
+     */
+    private static class State {
+        static final Comparator<State> BEST_FIRST = Comparator
+                .comparingInt((State state) -> -state.value)
+                .thenComparingDouble(State::minutes);
+
+        final CombinationPortfolio problem;
+        int[] tour;
+        int length;
+        long[] held;
+        double travel;
+        int value;
+
+        /** Bit per combination offset: completed and counted in value. */
+        long[] satisfied;
+
+        State(CombinationPortfolio problem) {
+            this.problem = problem;
+        }
+
+        static State empty(CombinationPortfolio problem) {
+            State state = new State(problem);
+            state.tour = new int[] { problem.start, problem.finish };
+            state.length = 2;
+            state.held = new long[Math.max(1, (problem.pointCount + 63) / 64)];
+            state.travel = problem.travel(problem.start, problem.finish);
+            state.satisfied = new long[Math.max(1, (problem.combinationIds.length + 63) / 64)];
+            return state;
+        }
+
+        State copy() {
+            State state = new State(problem);
+            state.tour = Arrays.copyOf(tour, Math.max(length + 4, tour.length));
+            state.length = length;
+            state.held = held.clone();
+            state.travel = travel;
+            state.value = value;
+            state.satisfied = satisfied.clone();
+            return state;
+        }
+
+        double minutes() {
+            return travel + (length - 2) * problem.stopMinutes;
+        }
+
+        boolean holds(int node) {
+            return (held[node >>> 6] & (1L << (node & 63))) != 0;
+        }
+
+        double insertionCost(int node) {
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i + 1 < length; ++i) {
+                double cost = problem.travel(tour[i], node) + problem.travel(node, tour[i + 1])
+                        - problem.travel(tour[i], tour[i + 1]);
+                best = Math.min(best, cost);
+            }
+            return best;
+        }
+
+        /**
+         * Put the node in the cheapest place, count its value, and count any combination it completes.
+         */
+        void insert(int node) {
+            int bestAt = 1;
+            double bestCost = Double.MAX_VALUE;
+            for (int i = 0; i + 1 < length; ++i) {
+                double cost = problem.travel(tour[i], node) + problem.travel(node, tour[i + 1])
+                        - problem.travel(tour[i], tour[i + 1]);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAt = i + 1;
+                }
+            }
+            if (length == tour.length) {
+                tour = Arrays.copyOf(tour, length * 2);
+            }
+            System.arraycopy(tour, bestAt, tour, bestAt + 1, length - bestAt);
+            tour[bestAt] = node;
+            ++length;
+            travel += bestCost;
+
+            held[node >>> 6] |= 1L << (node & 63);
+            value += problem.pointValues[node];
+            for (int offset : problem.combinationsByPoint[node]) {
+                if (problem.reachable[offset] && !hasSatisfied(offset) && isSatisfied(offset)) {
+                    satisfied[offset >>> 6] |= 1L << (offset & 63);
+                    value += problem.combinationValues[offset];
+                }
+            }
+        }
+
+        boolean hasSatisfied(int offset) {
+            return (satisfied[offset >>> 6] & (1L << (offset & 63))) != 0;
+        }
+
+        boolean hasAny() {
+            for (long word : satisfied) {
+                if (word != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isSatisfied(int offset) {
+            int have = 0;
+            for (int node : problem.members[offset]) {
+                if (holds(node)) {
+                    ++have;
+                }
+            }
+            for (int node : problem.requiredMembers[offset]) {
+                if (!holds(node)) {
+                    return false;
+                }
+            }
+            return have >= problem.needed[offset];
+        }
+
+        /**
+         * Reverse segments while that shortens the tour. The ends stay put.
+         */
+        void twoOpt() {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 1; i < length - 2; ++i) {
+                    for (int j = i + 1; j < length - 1; ++j) {
+                        double delta = problem.travel(tour[i - 1], tour[j]) + problem.travel(tour[i], tour[j + 1])
+                                - problem.travel(tour[i - 1], tour[i]) - problem.travel(tour[j], tour[j + 1]);
+                        if (delta < -EPSILON) {
+                            for (int a = i, b = j; a < b; ++a, --b) {
+                                int swap = tour[a];
+                                tour[a] = tour[b];
+                                tour[b] = swap;
+                            }
+                            travel += delta;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Integer> bonusPointIds() {
+            List<Integer> ids = new ArrayList<>(length - 2);
+            for (int i = 1; i < length - 1; ++i) {
+                ids.add(problem.bonusPointIds[tour[i]]);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * One anchor's depth-first search. Keeps its own best few; the memo is shared.
+     */
+    private class Search {
+        final int[] order;
+        final ConcurrentMap<Key, Double> memo;
+        final long deadline;
+        final int count;
+        final List<State> best = new ArrayList<>();
+        boolean complete = true;
+        long visited;
+
+        Search(int[] order, ConcurrentMap<Key, Double> memo, long deadline, int count) {
+            this.order = order;
+            this.memo = memo;
+            this.deadline = deadline;
+            this.count = Math.max(1, count);
+        }
+
+        void run(State state, int index) {
+            if ((++visited & 1023) == 0 && System.nanoTime() > deadline) {
+                complete = false;
+            }
+            if (!complete) {
+                return;
+            }
+
+            keep(state);
+            if (index >= order.length || bound(state) < worstKept()) {
+                return;
+            }
+
+            Key key = new Key(state.held, index);
+            Double seen = memo.get(key);
+            if (seen != null && seen <= state.minutes() + EPSILON) {
+                return;
+            }
+            if (seen != null || memo.size() < MAX_MEMO) {
+                memo.put(key, state.minutes());
+            }
+
+            int offset = order[index];
+            if (!state.hasSatisfied(offset)) {
+                State with = add(state, offset, budgetMinutes);
+                if (with != null) {
+                    run(with, index + 1);
+                }
+            }
+            run(state, index + 1);
+        }
+
+        /**
+         * The most this state could reach: everything it has, plus every combination not yet
+         * complete whose missing stops alone would still fit.
+         */
+        int bound(State state) {
+            double spare = budgetMinutes - state.minutes();
+            int bound = state.value;
+            for (int offset : order) {
+                if (state.hasSatisfied(offset)) {
+                    continue;
+                }
+                int have = 0;
+                int missingRequired = 0;
+                for (int node : members[offset]) {
+                    if (state.holds(node)) {
+                        ++have;
+                    }
+                }
+                for (int node : requiredMembers[offset]) {
+                    if (!state.holds(node)) {
+                        ++missingRequired;
+                    }
+                }
+                int stops = Math.max(missingRequired, needed[offset] - have);
+                if (stops * stopMinutes <= spare + EPSILON) {
+                    bound += combinationValues[offset];
+                    for (int node : members[offset]) {
+                        if (!state.holds(node)) {
+                            bound += pointValues[node];
+                        }
+                    }
+                }
+            }
+            return bound;
+        }
+
+        int worstKept() {
+            return best.size() < count ? Integer.MIN_VALUE : best.get(best.size() - 1).value;
+        }
+
+        void keep(State state) {
+            if (!state.hasAny() || (best.size() >= count && state.value <= worstKept())) {
+                return;
+            }
+            for (int i = 0; i < best.size(); ++i) {
+                if (Arrays.equals(best.get(i).held, state.held)) {
+                    if (State.BEST_FIRST.compare(state, best.get(i)) < 0) {
+                        best.set(i, state);
+                        best.sort(State.BEST_FIRST);
+                    }
+                    return;
+                }
+            }
+            best.add(state);
+            best.sort(State.BEST_FIRST);
+            if (best.size() > count) {
+                best.remove(best.size() - 1);
+            }
+        }
+    }
+
+    private record Location(double latitude, double longitude, int points) {}
+
+    /**
+     * Collects the problem. Start, finish, budget and speed are required; stop time defaults to none.
+     */
+    public static class Builder {
+        private final Map<Integer, Location> locations = new HashMap<>();
+        private double startLatitude;
+        private double startLongitude;
+        private double finishLatitude;
+        private double finishLongitude;
+        private double budgetMinutes;
+        private double stopMinutes;
+        private double milesPerHour;
+        private CombinationMatcher matcher;
+        private Map<Integer, Integer> combinationValues = Map.of();
+        private DistanceMatrix distances;
+
+        public Builder start(double latitude, double longitude) {
+            startLatitude = latitude;
+            startLongitude = longitude;
+            return this;
+        }
+
+        public Builder finish(double latitude, double longitude) {
+            finishLatitude = latitude;
+            finishLongitude = longitude;
+            return this;
+        }
+
+        /**
+         * Where a bonus point is and what it's worth on its own. Points no combination uses are
+         * ignored.
+         */
+        public Builder point(int bonusPointId, double latitude, double longitude, Integer points) {
+            locations.put(bonusPointId, new Location(latitude, longitude, points != null ? points : 0));
+            return this;
+        }
+
+        /**
+         * The rally's combinations and what each is worth, by combination ID.
+         */
+        public Builder combinations(CombinationMatcher matcher, Map<Integer, Integer> valuesById) {
+            this.matcher = matcher;
+            this.combinationValues = valuesById;
+            return this;
+        }
+
+        /**
+         * The rally's distance matrix, so point-to-point miles don't have to be worked out again.
+         */
+        public Builder distances(DistanceMatrix distances) {
+            this.distances = distances;
+            return this;
+        }
+
+        public Builder budgetMinutes(double budgetMinutes) {
+            this.budgetMinutes = budgetMinutes;
+            return this;
+        }
+
+        public Builder stopMinutes(double stopMinutes) {
+            this.stopMinutes = stopMinutes;
+            return this;
+        }
+
+        public Builder milesPerHour(double milesPerHour) {
+            this.milesPerHour = milesPerHour;
+            return this;
+        }
+
+        public CombinationPortfolio build() {
+            if (milesPerHour <= 0) {
+                throw new IllegalArgumentException("Average speed must be positive");
+            }
+            return new CombinationPortfolio(this);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.showpage.rallyserver.service;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Great-circle miles between every pair of a rally's bonus points, worked out once. The N x N table
+ * is one flat double[] so a lookup is an index, not a trip through sin and cos. Big rallies are
+ * filled a row at a time in parallel.
+ *
+ * The wire form is big-endian: an int count, then count bonus point IDs, then the upper triangle
+ * (row by row, skipping the diagonal) as floats. The table is symmetric, so that's all a client
+ * needs, and floats are good to a few feet at rally distances.
+ *
+ * Instances are immutable and can be shared.
+ */
+public class DistanceMatrix {
+    private static final double EARTH_RADIUS_MILES = 3958.7613;
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final int[] bonusPointIds;
+    private final Map<Integer, Integer> indexById;
+    private final double[] miles;
+    private final int size;
+
+    private DistanceMatrix(int[] bonusPointIds, double[] miles) {
+        this.bonusPointIds = bonusPointIds;
+        this.miles = miles;
+        this.size = bonusPointIds.length;
+
+        indexById = new HashMap<>(size * 2);
+        for (int i = 0; i < size; ++i) {
+            indexById.put(bonusPointIds[i], i);
+        }
+    }
+
+    /**
+     * Build the matrix for these bonus points. The arrays are parallel; latitude and longitude are
+     * in degrees.
+     */
+    public static DistanceMatrix of(int[] bonusPointIds, double[] latitudes, double[] longitudes) {
+        int size = bonusPointIds.length;
+        if (latitudes.length != size || longitudes.length != size) {
+            throw new IllegalArgumentException("Need a latitude and longitude for every bonus point");
+        }
+
+        // The trig that only depends on one end is done once per point, not once per pair.
+        double[] phi = new double[size];
+        double[] lambda = new double[size];
+        double[] cosPhi = new double[size];
+        for (int i = 0; i < size; ++i) {
+            phi[i] = Math.toRadians(latitudes[i]);
+            lambda[i] = Math.toRadians(longitudes[i]);
+            cosPhi[i] = Math.cos(phi[i]);
+        }
+
+        double[] miles = new double[size * size];
+        IntStream rows = IntStream.range(0, size);
+        if (size >= PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        rows.forEach(a -> {
+            for (int b = a + 1; b < size; ++b) {
+                double distance = haversine(phi[a], lambda[a], cosPhi[a], phi[b], lambda[b], cosPhi[b]);
+                miles[a * size + b] = distance;
+                miles[b * size + a] = distance;
+            }
+        });
+
+        return new DistanceMatrix(bonusPointIds.clone(), miles);
+    }
+
+    /**
+     * Read the wire form back.
+     */
+    public static DistanceMatrix fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int size = buffer.getInt();
+        int[] bonusPointIds = new int[size];
+        for (int i = 0; i < size; ++i) {
+            bonusPointIds[i] = buffer.getInt();
+        }
+
+        double[] miles = new double[size * size];
+        for (int a = 0; a < size; ++a) {
+            for (int b = a + 1; b < size; ++b) {
+                double distance = buffer.getFloat();
+                miles[a * size + b] = distance;
+                miles[b * size + a] = distance;
+            }
+        }
+        return new DistanceMatrix(bonusPointIds, miles);
+    }
+
+    /**
+     * Great-circle distance in miles, for one-off pairs that aren't in a matrix.
+     */
+    public static double miles(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        return haversine(phi1, Math.toRadians(lon1), Math.cos(phi1), phi2, Math.toRadians(lon2), Math.cos(phi2));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int bonusPointIdAt(int index) {
+        return bonusPointIds[index];
+    }
+
+    /**
+     * Where this bonus point is in the matrix, or -1 if it isn't (it has no location, or it's newer
+     * than the matrix).
+     */
+    public int indexOf(int bonusPointId) {
+        Integer index = indexById.get(bonusPointId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Miles between the bonus points at these indexes.
+     */
+    public double milesAt(int from, int to) {
+        return miles[from * size + to];
+    }
+
+    /**
+     * Miles between these two bonus points.
+     */
+    public double milesBetween(int fromBonusPointId, int toBonusPointId) {
+        int from = indexOf(fromBonusPointId);
+        int to = indexOf(toBonusPointId);
+        if (from < 0 || to < 0) {
+            throw new IllegalArgumentException("Bonus point is not in the matrix");
+        }
+        return milesAt(from, to);
+    }
+
+    /**
+     * The wire form described above.
+     */
+    public byte[] toBytes() {
+        int pairs = size * (size - 1) / 2;
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * (1 + size) + Float.BYTES * pairs);
+        buffer.putInt(size);
+        for (int bonusPointId : bonusPointIds) {
+            buffer.putInt(bonusPointId);
+        }
+        for (int a = 0; a < size; ++a) {
+            for (int b = a + 1; b < size; ++b) {
+                buffer.putFloat((float) miles[a * size + b]);
+            }
+        }
+        return buffer.array();
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static double haversine(double phi1, double lambda1, double cosPhi1, double phi2, double lambda2, double cosPhi2) {
+        double sinLat = Math.sin((phi2 - phi1) / 2);
+        double sinLon = Math.sin((lambda2 - lambda1) / 2);
+        double a = sinLat * sinLat + cosPhi1 * cosPhi2 * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,133 @@
+package org.showpage.rallyserver.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.repository.BonusPointRepository;
+import org.showpage.rallyserver.util.TransactionHooks;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps one DistanceMatrix per rally. Bonus points hardly ever move once a rally is published, and
+ * every planner wants the same table, so we build it on first use and keep it until a bonus point
+ * is added, moved or deleted.
+ *
+ * A matrix is size squared doubles, so a big rally costs megabytes. What's kept is held to
+ * distance-cache-megabytes all told, and the least recently used matrices go first to make room. A
+ * matrix bigger than that on its own is built for each caller and not kept.
+ *
+ * Anything that changes where a rally's bonus points are must call invalidate(), which evicts the
+ * entry as TransactionHooks.evict() describes. A matrix that was being built when invalidate() was
+ * called isn't kept.
+ */
+@Service
+@Slf4j
+public class DistanceMatrixService {
+    private final Function<Integer, DistanceMatrix> loader;
+    private final long maxBytes;
+
+    private final Map<Integer, DistanceMatrix> matricesByRally = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long generation;
+
+    @Autowired
+    public DistanceMatrixService(
+            BonusPointRepository bonusPointRepository,
+            @Value("${rallymaster.options.distance-cache-megabytes:256}") long maxMegabytes
+    ) {
+        this(rallyId -> build(bonusPointRepository, rallyId), maxMegabytes * 1024 * 1024);
+    }
+
+    DistanceMatrixService(Function<Integer, DistanceMatrix> loader, long maxBytes) {
+        this.loader = loader;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The rally's matrix, covering every bonus point that has a location.
+     */
+    public DistanceMatrix getMatrix(Integer rallyId) {
+        long generation;
+        synchronized (this) {
+            DistanceMatrix matrix = matricesByRally.get(rallyId);
+            if (matrix != null) {
+                return matrix;
+            }
+            generation = this.generation;
+        }
+
+        // Built without the lock held, so one big rally doesn't hold up everyone else.
+        DistanceMatrix matrix = loader.apply(rallyId);
+        long weight = weight(matrix);
+        synchronized (this) {
+            if (generation == this.generation && weight <= maxBytes && !matricesByRally.containsKey(rallyId)) {
+                matricesByRally.put(rallyId, matrix);
+                bytes += weight;
+                Iterator<DistanceMatrix> eldest = matricesByRally.values().iterator();
+                while (bytes > maxBytes) {
+                    bytes -= weight(eldest.next());
+                    eldest.remove();
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * A bonus point in the rally was added, moved or deleted, or the rally is gone.
+     */
+    public void invalidate(Integer rallyId) {
+        TransactionHooks.evict(() -> {
+            synchronized (this) {
+                ++generation;
+                DistanceMatrix matrix = matricesByRally.remove(rallyId);
+                if (matrix != null) {
+                    bytes -= weight(matrix);
+                }
+            }
+        });
+    }
+
+    /**
+     * Bytes held in matrices.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static long weight(DistanceMatrix matrix) {
+        return (long) matrix.size() * matrix.size() * Double.BYTES;
+    }
+
+    /**
+     * One query for the locations, no entities.
+     */
+    private static DistanceMatrix build(BonusPointRepository bonusPointRepository, Integer rallyId) {
+        List<Object[]> rows = bonusPointRepository.findLocationsByRallyId(rallyId);
+        int[] bonusPointIds = new int[rows.size()];
+        double[] latitudes = new double[rows.size()];
+        double[] longitudes = new double[rows.size()];
+        for (int i = 0; i < rows.size(); ++i) {
+            Object[] row = rows.get(i);
+            bonusPointIds[i] = (Integer) row[0];
+            latitudes[i] = (Double) row[1];
+            longitudes[i] = (Double) row[2];
+        }
+
+        long start = System.nanoTime();
+        DistanceMatrix matrix = DistanceMatrix.of(bonusPointIds, latitudes, longitudes);
+        log.info("Built {}x{} distance matrix for rally {} in {} ms",
+                matrix.size(), matrix.size(), rallyId, (System.nanoTime() - start) / 1_000_000);
+        return matrix;
+    }
+}
@@ -104,6 +104,8 @@ public class DtoMapper {
                 .builder()
                 .id(bonusPoint.getId())
                 .rallyId(bonusPoint.getRallyId())
+                .rideId(bonusPoint.getRideId())
+                .sourceBonusPointId(bonusPoint.getSourceBonusPointId())
                 .code(bonusPoint.getCode())
                 .name(bonusPoint.getName())
                 .description(bonusPoint.getDescription())
@@ -150,6 +152,8 @@ public class DtoMapper {
                 .builder()
                 .id(combination.getId())
                 .rallyId(combination.getRallyId())
+                .rideId(combination.getRideId())
+                .sourceCombinationId(combination.getSourceCombinationId())
                 .code(combination.getCode())
                 .name(combination.getName())
                 .description(combination.getDescription())
@@ -252,6 +256,13 @@ public class DtoMapper {
                     .collect(Collectors.toList());
         }
 
+        return toUiRide(ride, routes);
+    }
+
+    /**
+     * The ride with routes already mapped, so the ride's own collection isn't touched.
+     */
+    public static UiRide toUiRide(Ride ride, List<UiRoute> routes) {
         return UiRide
                 .builder()
                 .id(ride.getId())
@@ -266,11 +277,23 @@ public class DtoMapper {
                 .actualEnd(ride.getActualEnd())
                 .spotwallaLink(ride.getSpotwallaLink())
                 .stopDuration(ride.getStopDuration())
-                .expectedStart(ride.getExpectedStart())
+                .odometerStart(ride.getOdometerStart())
                 .odometerEnd(ride.getOdometerEnd())
                 .build();
     }
 
+    /**
+     * A ride along with its planning copies of the rally's bonus points and combinations.
+     */
+    public static UiRide toUiRide(Ride ride, List<BonusPoint> bonusPoints, List<Combination> combinations) {
+        UiRide uiRide = toUiRide(ride);
+        if (uiRide != null) {
+            uiRide.setBonusPoints(bonusPoints.stream().map(DtoMapper::toUiBonusPoint).toList());
+            uiRide.setCombinations(combinations.stream().map(DtoMapper::toUiCombination).toList());
+        }
+        return uiRide;
+    }
+
     public static UiRoute toUiRoute(Route route) {
         if (route == null) {
             return null;
@@ -283,6 +306,13 @@ public class DtoMapper {
                     .collect(Collectors.toList());
         }
 
+        return toUiRoute(route, rideLegs);
+    }
+
+    /**
+     * The route with legs already mapped, so the route's own collection isn't touched.
+     */
+    public static UiRoute toUiRoute(Route route, List<UiRideLeg> rideLegs) {
         return UiRoute
                 .builder()
                 .id(route.getId())
@@ -306,6 +336,13 @@ public class DtoMapper {
                     .collect(Collectors.toList());
         }
 
+        return toUiRideLeg(rideLeg, waypoints);
+    }
+
+    /**
+     * The leg with waypoints already mapped, so the leg's own collection isn't touched.
+     */
+    public static UiRideLeg toUiRideLeg(RideLeg rideLeg, List<UiWaypoint> waypoints) {
         return UiRideLeg
                 .builder()
                 .id(rideLeg.getId())
@@ -0,0 +1,148 @@
+package org.showpage.rallyserver.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a location into one number that a B-tree can search by area, and a circle into the few
+ * ranges of those numbers that cover it.
+ *
+ * The number is a geohash in binary: latitude and longitude are each cut into 2^31 steps, and their
+ * bits are interleaved, latitude first. Every cell of a geohash grid is then one unbroken range of
+ * numbers, so "rallies in these cells" is a handful of index range scans. The database works out
+ * the same number for each rally with rally_geo_cell() (see the GeoCell migration); the two must
+ * agree.
+ *
+ * Cells are rectangles in degrees, so a cover is a superset. Callers still check the distance.
+ */
+public final class GeoCell {
+    static final int BITS = 31;
+    private static final long STEPS = 1L << BITS;
+    private static final double EARTH_RADIUS_MILES = 3958.7613;
+
+    private GeoCell() {
+    }
+
+    /**
+     * Cell numbers from and to, inclusive.
+     */
+    public record Range(long from, long to) {}
+
+    /**
+     * The cell a location falls in, at the finest level.
+     */
+    public static long of(double latitude, double longitude) {
+        return interleave(step(latitude, -90, 180), step(longitude, -180, 360));
+    }
+
+    /**
+     * Ranges of cells that between them hold every location within radiusMiles of the point. They
+     * are sorted and don't overlap. There are at most 25 cells, usually five or so ranges once
+     * neighbours are merged, and two sets of them if the circle crosses the date line.
+     */
+    public static List<Range> cover(double latitude, double longitude, double radiusMiles) {
+        double angle = radiusMiles / EARTH_RADIUS_MILES;
+        double minLatitude = latitude - Math.toDegrees(angle);
+        double maxLatitude = latitude + Math.toDegrees(angle);
+
+        // The widest the circle gets in longitude. If it takes in a pole, it's every longitude.
+        double latitudeRadians = Math.toRadians(latitude);
+        double minLongitude = -180;
+        double maxLongitude = 180;
+        if (minLatitude > -90 && maxLatitude < 90 && Math.sin(angle) < Math.cos(latitudeRadians)) {
+            double halfWidth = Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(latitudeRadians)));
+            minLongitude = longitude - halfWidth;
+            maxLongitude = longitude + halfWidth;
+        }
+        minLatitude = Math.max(-90, minLatitude);
+        maxLatitude = Math.min(90, maxLatitude);
+
+        List<Range> ranges = new ArrayList<>();
+        if (maxLongitude - minLongitude >= 360) {
+            cover(ranges, minLatitude, maxLatitude, -180, 180);
+        } else if (minLongitude < -180) {
+            cover(ranges, minLatitude, maxLatitude, minLongitude + 360, 180);
+            cover(ranges, minLatitude, maxLatitude, -180, maxLongitude);
+        } else if (maxLongitude > 180) {
+            cover(ranges, minLatitude, maxLatitude, minLongitude, 180);
+            cover(ranges, minLatitude, maxLatitude, -180, maxLongitude - 360);
+        } else {
+            cover(ranges, minLatitude, maxLatitude, minLongitude, maxLongitude);
+        }
+        return merge(ranges);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Cover a box that doesn't cross the date line. Pick the finest level whose cells are bigger
+     * than the box, so it touches no more than two on each side, then go two finer: at most five on
+     * a side, which fits the circle closely enough that about a third of the rows read are in it.
+     */
+    private static void cover(List<Range> ranges, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        long minLat = step(minLatitude, -90, 180);
+        long maxLat = step(maxLatitude, -90, 180);
+        long minLng = step(minLongitude, -180, 360);
+        long maxLng = step(maxLongitude, -180, 360);
+
+        int level = 0;
+        long span = Math.max(maxLat - minLat, maxLng - minLng);
+        while (level < BITS && STEPS >> (level + 1) > span) {
+            ++level;
+        }
+        level = Math.min(BITS, level + 2);
+
+        int shift = BITS - level;
+        int rangeShift = 2 * shift;
+        for (long lat = minLat >> shift; lat <= maxLat >> shift; ++lat) {
+            for (long lng = minLng >> shift; lng <= maxLng >> shift; ++lng) {
+                long prefix = interleave(lat, lng);
+                ranges.add(new Range(prefix << rangeShift, ((prefix + 1) << rangeShift) - 1));
+            }
+        }
+    }
+
+    private static List<Range> merge(List<Range> ranges) {
+        ranges.sort((a, b) -> Long.compare(a.from(), b.from()));
+        List<Range> merged = new ArrayList<>();
+        for (Range range : ranges) {
+            Range last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range.from() <= last.to() + 1) {
+                merged.set(merged.size() - 1, new Range(last.from(), Math.max(last.to(), range.to())));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Which of the 2^31 steps across the range a value is in. Matches rally_geo_cell().
+     */
+    private static long step(double value, double min, double extent) {
+        long step = (long) Math.floor((value - min) / extent * STEPS);
+        return Math.max(0, Math.min(STEPS - 1, step));
+    }
+
+    /**
+     * Latitude's bits in the odd places, longitude's in the even.
+     */
+    private static long interleave(long latitude, long longitude) {
+        return spread(latitude) << 1 | spread(longitude);
+    }
+
+    /**
+     * Move each of the low 32 bits to twice its place.
+     */
+    private static long spread(long value) {
+        value &= 0xFFFFFFFFL;
+        value = (value | value << 16) & 0x0000FFFF0000FFFFL;
+        value = (value | value << 8) & 0x00FF00FF00FF00FFL;
+        value = (value | value << 4) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | value << 2) & 0x3333333333333333L;
+        value = (value | value << 1) & 0x5555555555555555L;
+        return value;
+    }
+}
@@ -0,0 +1,103 @@
+package org.showpage.rallyserver.service;
+
+import org.showpage.rallyserver.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page read by keyset: the rows after a cursor, in key order. The database seeks straight to the
+ * first of them through an index, so the thousandth page costs what the first does, where an offset
+ * reads and throws away every row before it.
+ *
+ * next is the cursor for the following page, or null on the last. totalElements is null unless the
+ * caller asked for a count, since counting reads every row the offset would have.
+ *
+ * A cursor is the key of the last row on the page, for the client to send back as it is. It's
+ * encoded so clients don't come to depend on what's in it.
+ */
+public record KeysetPage<T>(List<T> content, int size, boolean first, String next, Long totalElements) {
+    public static final int MAX_SIZE = 500;
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * The page from what a query returned when asked for size + 1 rows. The extra row, if it came,
+     * isn't shown; it only says there is a next page.
+     */
+    public static <T> KeysetPage<T> of(List<T> rows, int size, boolean first, Function<T, String> cursor, Long totalElements) {
+        if (rows.size() <= size) {
+            return new KeysetPage<>(rows, size, first, null, totalElements);
+        }
+        List<T> content = rows.subList(0, size);
+        return new KeysetPage<>(content, size, first, cursor.apply(content.get(size - 1)), totalElements);
+    }
+
+    public <U> KeysetPage<U> map(Function<? super T, ? extends U> mapper) {
+        return new KeysetPage<U>(content.stream().<U>map(mapper).toList(), size, first, next, totalElements);
+    }
+
+    /**
+     * Throw ValidationException unless the page size is 1 to MAX_SIZE.
+     */
+    public static int checkSize(int size) throws ValidationException {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new ValidationException("Page size must be 1 to " + MAX_SIZE);
+        }
+        return size;
+    }
+
+    /**
+     * A cursor holding these keys. A null key is kept as null.
+     */
+    public static String cursor(Object... keys) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0) {
+                text.append(SEPARATOR);
+            }
+            if (keys[i] != null) {
+                text.append(keys[i]);
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The keys from a cursor, as text, with null for a null key. Throws ValidationException if it
+     * isn't a cursor with this many keys.
+     */
+    public static String[] keys(String cursor, int count) throws ValidationException {
+        String text;
+        try {
+            text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid page cursor");
+        }
+
+        String[] keys = text.split("\\" + SEPARATOR, -1);
+        if (keys.length != count) {
+            throw new ValidationException("Invalid page cursor");
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].isEmpty()) {
+                keys[i] = null;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The one key of an id cursor.
+     */
+    public static Integer id(String cursor) throws ValidationException {
+        String key = keys(cursor, 1)[0];
+        try {
+            return key != null ? Integer.valueOf(key) : null;
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid page cursor");
+        }
+    }
+}
@@ -16,6 +16,7 @@ import org.showpage.rallyserver.ui.CreateMotorcycleRequest;
 import org.showpage.rallyserver.ui.UpdateMemberRequest;
 import org.showpage.rallyserver.ui.UpdateMotorcycleRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -24,9 +25,10 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -42,10 +44,11 @@ public class MemberService implements UserDetailsService {
         Member member = memberRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found: " + email));
 
+        // Admin is the only role checked by URL; rally roles are checked per rally.
         return User.builder()
                 .username(member.getEmail())
                 .password(member.getPassword())
-                .authorities(Collections.emptyList())
+                .roles(Boolean.TRUE.equals(member.getIsAdmin()) ? new String[] { "ADMIN" } : new String[0])
                 .build();
     }
 
@@ -108,13 +111,33 @@ public class MemberService implements UserDetailsService {
     //----------------------------------------------------------------------
 
     /**
-     * Get all members. Admin-only operation.
+     * All members a page at a time, in id order. A null or empty cursor starts from the beginning.
+     * Admin-only operation.
      */
-    public List<Member> getAllMembers(Member currentMember) throws UnauthorizedException {
+    public KeysetPage<Member> getAllMembers(Member currentMember, String cursor, int size, boolean count)
+            throws UnauthorizedException, ValidationException
+    {
+        if (!Boolean.TRUE.equals(currentMember.getIsAdmin())) {
+            throw new UnauthorizedException("Only admins can retrieve all members");
+        }
+        KeysetPage.checkSize(size);
+
+        boolean first = cursor == null || cursor.isEmpty();
+        List<Member> rows = memberRepository.findByIdGreaterThanOrderById(first ? 0 : KeysetPage.id(cursor), Limit.of(size + 1));
+        Long total = count ? memberRepository.count() : null;
+        return KeysetPage.of(rows, size, first, member -> KeysetPage.cursor(member.getId()), total);
+    }
+
+    /**
+     * Every member in id order, read as they're used rather than all at once. The rows are opened
+     * when the supplier is called, which must be in a transaction, and the stream must be closed.
+     * Admin-only operation.
+     */
+    public Supplier<Stream<Member>> streamAllMembers(Member currentMember) throws UnauthorizedException {
         if (!Boolean.TRUE.equals(currentMember.getIsAdmin())) {
             throw new UnauthorizedException("Only admins can retrieve all members");
         }
-        return memberRepository.findAll();
+        return memberRepository::streamAll;
     }
 
     /**
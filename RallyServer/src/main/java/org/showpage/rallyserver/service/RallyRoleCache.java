@@ -0,0 +1,139 @@
+package org.showpage.rallyserver.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.RallyParticipant;
+import org.showpage.rallyserver.entity.RallyParticipantType;
+import org.showpage.rallyserver.repository.RallyParticipantRepository;
+import org.showpage.rallyserver.util.TransactionHooks;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Who is what in each rally. Every permission check wants to know whether a member is an organizer,
+ * aide or rider of a rally, and the answer almost never changes, so we remember it per
+ * (rallyId, memberId) instead of asking the database on every request.
+ *
+ * Only roles are remembered, not "not a participant": anyone can ask about any rally, and we don't
+ * want them filling the cache. Entries expire after a while regardless, and once there are too many
+ * the least recently used goes.
+ *
+ * Anything that changes a participant's role must call invalidate(), which evicts the entry as
+ * TransactionHooks.evict() describes. A lookup that was running when invalidate() was called isn't
+ * kept.
+ */
+@Service
+@Slf4j
+public class RallyRoleCache {
+    private record Key(Integer rallyId, Integer memberId) {}
+
+    private record Entry(RallyParticipantType role, long storedAt) {}
+
+    private final BiFunction<Integer, Integer, Optional<RallyParticipantType>> lookup;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+
+    private final Map<Key, Entry> entries;
+    private long generation;
+
+    @Autowired
+    public RallyRoleCache(
+            RallyParticipantRepository rallyParticipantRepository,
+            @Value("${rallymaster.options.role-cache-size:10000}") int maxEntries,
+            @Value("${rallymaster.options.role-cache-seconds:600}") long ttlSeconds
+    ) {
+        this((rallyId, memberId) -> rallyParticipantRepository
+                        .findByRallyIdAndMemberId(rallyId, memberId)
+                        .map(RallyParticipant::getParticipantType),
+                maxEntries, TimeUnit.SECONDS.toNanos(ttlSeconds), System::nanoTime);
+    }
+
+    RallyRoleCache(BiFunction<Integer, Integer, Optional<RallyParticipantType>> lookup, int maxEntries, long ttlNanos,
+                   LongSupplier ticker) {
+        this.lookup = lookup;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > RallyRoleCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * This member's role in the rally, or empty if they aren't part of it.
+     */
+    public Optional<RallyParticipantType> getRole(Integer rallyId, Integer memberId) {
+        Key key = new Key(rallyId, memberId);
+        long generation;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && ticker.getAsLong() - entry.storedAt() < ttlNanos) {
+                return Optional.of(entry.role());
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            generation = this.generation;
+        }
+
+        // Asked without the lock held, so one slow query doesn't hold up everyone else.
+        Optional<RallyParticipantType> role = lookup.apply(rallyId, memberId);
+        if (role.isPresent()) {
+            synchronized (this) {
+                if (generation == this.generation && maxEntries > 0) {
+                    entries.put(key, new Entry(role.get(), ticker.getAsLong()));
+                }
+            }
+        }
+        return role;
+    }
+
+    /**
+     * Is this member an ORGANIZER or AIDE for the rally?
+     */
+    public boolean isScorer(Integer rallyId, Integer memberId) {
+        return getRole(rallyId, memberId)
+                .map(type -> type == RallyParticipantType.ORGANIZER || type == RallyParticipantType.AIDE)
+                .orElse(false);
+    }
+
+    /**
+     * A member joined the rally or their role changed.
+     */
+    public void invalidate(Integer rallyId, Integer memberId) {
+        Key key = new Key(rallyId, memberId);
+        TransactionHooks.evict(() -> {
+            synchronized (this) {
+                ++generation;
+                entries.remove(key);
+            }
+        });
+    }
+
+    /**
+     * The rally is gone, or everything about who is in it changed.
+     */
+    public void invalidate(Integer rallyId) {
+        TransactionHooks.evict(() -> {
+            synchronized (this) {
+                ++generation;
+                entries.keySet().removeIf(key -> key.rallyId().equals(rallyId));
+            }
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,149 @@
+package org.showpage.rallyserver.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.util.TransactionHooks;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Recent rally search results. The home screen and every rider ask the same few searches over and
+ * over ("upcoming in the US", "near me"), and the answer only changes when a rally is created,
+ * changed or deleted.
+ *
+ * We keep the ids of the rallies found and the total, not the rallies: the caller reads them back
+ * by id in its own transaction, which is one primary key lookup instead of the search and count.
+ * Entries expire after a while regardless, and once there are too many the least recently used
+ * goes.
+ *
+ * Anything that changes a rally must call invalidate(), which evicts everything as
+ * TransactionHooks.evict() describes. A search that was running when invalidate() was called isn't
+ * kept either.
+ *
+ * Hits and misses are the rally.search.cache meter, tagged result=hit or miss, and the number of
+ * entries is rally.search.cache.size.
+ */
+@Service
+@Slf4j
+public class RallySearchCache {
+    /**
+     * A search with its parameters normalized, so searches that must give the same answer are equal.
+     * Pageable includes the page, size and sort.
+     */
+    public record Key(String name, boolean relevance, LocalDate from, LocalDate to, String country, String region,
+                      Double nearLat, Double nearLng, Double radiusMiles, Pageable pageable) {}
+
+    /**
+     * The rallies found, in order, and how many there are over all pages.
+     */
+    public record Result(List<Integer> ids, long total) {}
+
+    private record Entry(Result result, long storedAt) {}
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+
+    private final Map<Key, Entry> entries;
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public RallySearchCache(
+            MeterRegistry meterRegistry,
+            @Value("${rallymaster.options.search-cache-size:500}") int maxEntries,
+            @Value("${rallymaster.options.search-cache-seconds:300}") long ttlSeconds
+    ) {
+        this(maxEntries, TimeUnit.SECONDS.toNanos(ttlSeconds), System::nanoTime);
+        FunctionCounter.builder("rally.search.cache", hits, AtomicLong::get)
+                .description("Rally searches answered from the cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("rally.search.cache", misses, AtomicLong::get)
+                .description("Rally searches that went to the database")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("rally.search.cache.size", this, RallySearchCache::size)
+                .description("Rally searches in the cache")
+                .register(meterRegistry);
+    }
+
+    RallySearchCache(int maxEntries, long ttlNanos, LongSupplier ticker) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > RallySearchCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Call before searching, and hand the answer to put().
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * The result of this search if we have a fresh one, or null.
+     */
+    public synchronized Result find(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && ticker.getAsLong() - entry.storedAt() >= ttlNanos) {
+            entries.remove(key);
+            entry = null;
+        }
+        (entry != null ? hits : misses).incrementAndGet();
+        return entry != null ? entry.result() : null;
+    }
+
+    /**
+     * Keep a result, unless the rallies changed since generation() was called.
+     */
+    public synchronized void put(Key key, long generation, Result result) {
+        if (generation == this.generation && maxEntries > 0) {
+            entries.put(key, new Entry(result, ticker.getAsLong()));
+        }
+    }
+
+    /**
+     * A rally was created, changed or deleted.
+     */
+    public void invalidate() {
+        TransactionHooks.evict(() -> {
+            synchronized (this) {
+                ++generation;
+                entries.clear();
+            }
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+}
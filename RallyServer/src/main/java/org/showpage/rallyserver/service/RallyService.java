@@ -5,22 +5,37 @@ import jakarta.persistence.criteria.Path;
 import jakarta.persistence.criteria.Predicate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
 import org.showpage.rallyserver.entity.*;
 import org.showpage.rallyserver.repository.*;
 import org.showpage.rallyserver.exception.NotFoundException;
 import org.showpage.rallyserver.exception.ValidationException;
 import org.showpage.rallyserver.ui.*;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.showpage.rallyserver.util.DataValidator;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * CRUD on Rallies -- but not on riding one.
@@ -29,6 +44,14 @@ import java.util.Optional;
 @Slf4j
 @RequiredArgsConstructor
 public class RallyService {
+    static final int MAX_NEARBY_BONUS_POINTS = 500;
+
+    /**
+     * Rallies streamSearch() reads before loading their collections: as many as JsonStreamer writes
+     * between clears, so a chunk is never cleared while it's being written.
+     */
+    static final int STREAM_CHUNK = 100;
+
     private final RallyRepository rallyRepository;
     private final RallyParticipantRepository rallyParticipantRepository;
     private final BonusPointRepository bonusPointRepository;
@@ -36,6 +59,12 @@ public class RallyService {
     private final CombinationPointRepository combinationPointRepository;
     private final EarnedCombinationRepository earnedCombinationRepository;
     private final EarnedBonusPointRepository earnedBonusPointRepository;
+    private final StandingsService standingsService;
+    private final CombinationMatchService combinationMatchService;
+    private final RallyRoleCache rallyRoleCache;
+    private final DistanceMatrixService distanceMatrixService;
+    private final BonusPointIndexService bonusPointIndexService;
+    private final RallySearchCache rallySearchCache;
 
     @Value("${rallymaster.options.can-delete-rallies:false}")
     private boolean canDeleteRallies;
@@ -84,6 +113,7 @@ public class RallyService {
                 .build();
 
         RallyParticipant createdParticipant = rallyParticipantRepository.save(participant);
+        rallySearchCache.invalidate();
 
         return created;
     }
@@ -160,6 +190,7 @@ public class RallyService {
         }
 
         Rally updated = rallyRepository.save(rally);
+        rallySearchCache.invalidate();
 
         return updated;
     }
@@ -193,6 +224,11 @@ public class RallyService {
         bonusPointRepository.deleteAll(rally.getBonusPoints());
 
         rallyRepository.delete(rally);
+        rallyRoleCache.invalidate(rallyId);
+        distanceMatrixService.invalidate(rallyId);
+        bonusPointIndexService.invalidate(rallyId);
+        standingsService.evict(rallyId);
+        rallySearchCache.invalidate();
 
         return true;
     }
@@ -205,8 +241,7 @@ public class RallyService {
                 .orElseThrow(() -> new NotFoundException("Rally not found"));
 
         // Check if rider is already registered
-        Optional<RallyParticipant> existing = rallyParticipantRepository.findByRallyIdAndMemberId(rallyId, member.getId());
-        if (existing.isPresent()) {
+        if (rallyRoleCache.getRole(rallyId, member.getId()).isPresent()) {
             throw new ValidationException("Member is already registered for this rally");
         }
 
@@ -217,7 +252,11 @@ public class RallyService {
                 .participantType(RallyParticipantType.RIDER)
                 .build();
 
-        return rallyParticipantRepository.save(participant);
+        participant = rallyParticipantRepository.save(participant);
+        rallyRoleCache.invalidate(rallyId, member.getId());
+        standingsService.riderJoined(participant);
+
+        return participant;
     }
 
     /**
@@ -232,8 +271,18 @@ public class RallyService {
         // Find the target participant
         RallyParticipant targetParticipant = rallyParticipantRepository.getRiderForRally(rallyId, targetMemberId);
 
+        RallyParticipantType oldType = targetParticipant.getParticipantType();
         targetParticipant.setParticipantType(newType);
-        return rallyParticipantRepository.save(targetParticipant);
+        targetParticipant = rallyParticipantRepository.save(targetParticipant);
+        rallyRoleCache.invalidate(rallyId, targetMemberId);
+
+        if (oldType != RallyParticipantType.RIDER && newType == RallyParticipantType.RIDER) {
+            standingsService.riderJoined(targetParticipant);
+        } else if (oldType == RallyParticipantType.RIDER && newType != RallyParticipantType.RIDER) {
+            standingsService.riderLeft(targetParticipant);
+        }
+
+        return targetParticipant;
     }
 
     //======================================================================
@@ -268,7 +317,12 @@ public class RallyService {
                 .markerIcon(request.getMarkerIcon())
                 .build();
 
-        return bonusPointRepository.save(bonusPoint);
+        bonusPoint = bonusPointRepository.save(bonusPoint);
+        if (bonusPoint.getLatitude() != null && bonusPoint.getLongitude() != null) {
+            distanceMatrixService.invalidate(rallyId);
+        }
+        bonusPointIndexService.invalidate(rallyId);
+        return bonusPoint;
     }
 
     /**
@@ -279,10 +333,15 @@ public class RallyService {
         BonusPoint bonusPoint = bonusPointRepository.findById(bonusPointId)
                 .orElseThrow(() -> new NotFoundException("Bonus point not found"));
 
-        Rally rally = rallyRepository.findById(bonusPoint.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(bonusPoint.getRallyId());
         checkAccess(member, rally, true);
 
+        // Check this before changing anything else, since the claims can't be made unique once a rider holds two.
+        boolean repeatableChanged = request.getRepeatable() != null && !request.getRepeatable().equals(bonusPoint.getRepeatable());
+        if (repeatableChanged && !request.getRepeatable() && earnedBonusPointRepository.existsRepeatedClaim(bonusPoint.getId())) {
+            throw new ValidationException("Riders have already claimed this bonus point more than once");
+        }
+
         if (DataValidator.nonEmpty(request.getCode())) {
             bonusPoint.setCode(request.getCode());
         }
@@ -298,17 +357,22 @@ public class RallyService {
         if (request.getLongitude() != null) {
             bonusPoint.setLongitude(request.getLongitude());
         }
+        if (request.getLatitude() != null || request.getLongitude() != null) {
+            distanceMatrixService.invalidate(rally.getId());
+        }
         if (DataValidator.nonEmpty(request.getAddress())) {
             bonusPoint.setAddress(request.getAddress());
         }
         if (request.getPoints() != null) {
             bonusPoint.setPoints(request.getPoints());
+            standingsService.bonusPointRepriced(rally.getId(), bonusPoint.getId(), request.getPoints());
         }
         if (request.getRequired() != null) {
             bonusPoint.setRequired(request.getRequired());
         }
-        if (request.getRepeatable() != null) {
+        if (repeatableChanged) {
             bonusPoint.setRepeatable(request.getRepeatable());
+            earnedBonusPointRepository.updateRepeatable(bonusPoint.getId(), request.getRepeatable());
         }
         if (request.getIsStart() != null) {
             bonusPoint.setIsStart(request.getIsStart());
@@ -323,6 +387,7 @@ public class RallyService {
             bonusPoint.setMarkerIcon(request.getMarkerIcon());
         }
 
+        bonusPointIndexService.invalidate(rally.getId());
         return bonusPointRepository.save(bonusPoint);
     }
 
@@ -333,11 +398,21 @@ public class RallyService {
         BonusPoint bonusPoint = bonusPointRepository.findById(bonusPointId)
                 .orElseThrow(() -> new NotFoundException("Bonus point not found"));
 
-        Rally rally = rallyRepository.findById(bonusPoint.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(bonusPoint.getRallyId());
         checkAccess(member, rally, true);
 
+        // The database cascades the delete to claims and combination points. Flush so it has, then
+        // rescan only the combinations that lost this point.
+        List<Integer> combinationIds = combinationPointRepository.findCombinationIdsByBonusPointId(bonusPointId);
         bonusPointRepository.delete(bonusPoint);
+        bonusPointRepository.flush();
+
+        standingsService.bonusPointDeleted(rally.getId(), bonusPointId);
+        distanceMatrixService.invalidate(rally.getId());
+        bonusPointIndexService.invalidate(rally.getId());
+        for (Integer combinationId : combinationIds) {
+            combinationMatchService.definitionChanged(rally.getId(), combinationId);
+        }
     }
 
     /**
@@ -347,8 +422,7 @@ public class RallyService {
         BonusPoint bonusPoint = bonusPointRepository.findById(bonusPointId)
                 .orElseThrow(() -> new NotFoundException("Bonus point not found"));
 
-        Rally rally = rallyRepository.findById(bonusPoint.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(bonusPoint.getRallyId());
         checkAccess(member, rally, false);
 
         return bonusPoint;
@@ -365,6 +439,93 @@ public class RallyService {
         return bonusPointRepository.findByRallyId(rallyId);
     }
 
+    /**
+     * A rally's bonus points a page at a time, in id order. A null or empty cursor starts from the
+     * beginning.
+     */
+    public KeysetPage<BonusPoint> listBonusPoints(Member member, Integer rallyId, String cursor, int size, boolean count)
+            throws NotFoundException, ValidationException
+    {
+        Rally rally = findRally(rallyId);
+        checkAccess(member, rally, false);
+        KeysetPage.checkSize(size);
+
+        boolean first = cursor == null || cursor.isEmpty();
+        List<BonusPoint> rows = bonusPointRepository.findByRallyIdAndIdGreaterThanOrderById(
+                rallyId, first ? 0 : KeysetPage.id(cursor), Limit.of(size + 1));
+        Long total = count ? bonusPointRepository.countByRallyId(rallyId) : null;
+        return KeysetPage.of(rows, size, first, bonusPoint -> KeysetPage.cursor(bonusPoint.getId()), total);
+    }
+
+    /**
+     * All of a rally's bonus points in id order, read as they're used rather than all at once. Access
+     * is checked now; the rows are opened when the supplier is called, which must be in a
+     * transaction, and the stream must be closed.
+     */
+    public Supplier<Stream<BonusPoint>> streamBonusPoints(Member member, Integer rallyId) throws NotFoundException {
+        Rally rally = findRally(rallyId);
+        checkAccess(member, rally, false);
+
+        return () -> bonusPointRepository.streamByRallyIdOrderById(rallyId);
+    }
+
+    /**
+     * Miles between every pair of the rally's located bonus points. Anyone who can see the rally can
+     * have this.
+     */
+    public DistanceMatrix getDistanceMatrix(Member member, Integer rallyId) throws NotFoundException {
+        Rally rally = rallyRepository.findById(rallyId)
+                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        checkAccess(member, rally, false);
+
+        return distanceMatrixService.getMatrix(rallyId);
+    }
+
+    /**
+     * The rally's bonus points closest to a location, closest first.
+     */
+    public List<UiNearbyBonusPoint> findNearestBonusPoints(Member member, Integer rallyId, Double latitude, Double longitude, Integer count)
+            throws NotFoundException, ValidationException {
+        checkLocation(latitude, longitude);
+        if (count == null || count < 1 || count > MAX_NEARBY_BONUS_POINTS) {
+            throw new ValidationException("Count must be between 1 and " + MAX_NEARBY_BONUS_POINTS);
+        }
+        getRally(member, rallyId);
+
+        return bonusPointIndexService.nearest(rallyId, latitude, longitude, count);
+    }
+
+    /**
+     * The rally's bonus points within a distance of a location, closest first.
+     */
+    public List<UiNearbyBonusPoint> findBonusPointsWithin(Member member, Integer rallyId, Double latitude, Double longitude, Double miles)
+            throws NotFoundException, ValidationException {
+        checkLocation(latitude, longitude);
+        if (miles == null || miles < 0) {
+            throw new ValidationException("Distance must be zero or more miles");
+        }
+        getRally(member, rallyId);
+
+        return bonusPointIndexService.within(rallyId, latitude, longitude, miles);
+    }
+
+    /**
+     * The rally's bonus points inside a box. If minLongitude is east of maxLongitude the box
+     * crosses the date line.
+     */
+    public List<UiBonusPoint> findBonusPointsInBox(
+            Member member, Integer rallyId, Double minLatitude, Double minLongitude, Double maxLatitude, Double maxLongitude
+    ) throws NotFoundException, ValidationException {
+        checkLocation(minLatitude, minLongitude);
+        checkLocation(maxLatitude, maxLongitude);
+        if (minLatitude > maxLatitude) {
+            throw new ValidationException("Minimum latitude must not be north of maximum latitude");
+        }
+        getRally(member, rallyId);
+
+        return bonusPointIndexService.inBox(rallyId, minLatitude, minLongitude, maxLatitude, maxLongitude);
+    }
+
     //======================================================================
     // Combination CRUD
     //======================================================================
@@ -409,6 +570,7 @@ public class RallyService {
         if (request.getCombinationPoints() != null) {
             for (CreateCombinationPointRequest cpRequest : request.getCombinationPoints()) {
                 BonusPoint bonusPoint = bonusPointRepository.findById(cpRequest.getBonusPointId())
+                        .filter(bp -> rallyId.equals(bp.getRallyId()))
                         .orElseThrow(() -> new NotFoundException("Bonus point not found: " + cpRequest.getBonusPointId()));
 
                 CombinationPoint cp = CombinationPoint
@@ -428,6 +590,9 @@ public class RallyService {
                     saved.getCombinationPoints() != null ? saved.getCombinationPoints().size() : 0);
         }
 
+        // Riders may already hold everything this one asks for.
+        combinationMatchService.definitionChanged(saved);
+
         return saved;
     }
 
@@ -439,8 +604,7 @@ public class RallyService {
         Combination combination = combinationRepository.findById(combinationId)
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        Rally rally = rallyRepository.findById(combination.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(combination.getRallyId());
         checkAccess(member, rally, true);
 
         if (DataValidator.nonEmpty(request.getCode())) {
@@ -454,12 +618,16 @@ public class RallyService {
         }
         if (request.getPoints() != null) {
             combination.setPoints(request.getPoints());
+            standingsService.combinationRepriced(rally.getId(), combination.getId(), request.getPoints());
         }
+        boolean rulesChanged = false;
         if (request.getRequiresAll() != null) {
             combination.setRequiresAll(request.getRequiresAll());
+            rulesChanged = true;
         }
         if (request.getNumRequired() != null) {
             combination.setNumRequired(request.getNumRequired());
+            rulesChanged = true;
         }
         if (DataValidator.nonEmpty(request.getMarkerColor())) {
             combination.setMarkerColor(request.getMarkerColor());
@@ -468,7 +636,12 @@ public class RallyService {
             combination.setMarkerIcon(request.getMarkerIcon());
         }
 
-        return combinationRepository.save(combination);
+        combination = combinationRepository.save(combination);
+        if (rulesChanged) {
+            combinationMatchService.definitionChanged(combination);
+        }
+
+        return combination;
     }
 
     /**
@@ -478,14 +651,14 @@ public class RallyService {
         Combination combination = combinationRepository.findById(combinationId)
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        Rally rally = rallyRepository.findById(combination.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(combination.getRallyId());
         checkAccess(member, rally, true);
 
         // Delete all combination points first
         List<CombinationPoint> points = combinationPointRepository.findByCombinationId(combinationId);
         combinationPointRepository.deleteAll(points);
 
+        combinationMatchService.combinationDeleted(combination);
         combinationRepository.delete(combination);
     }
 
@@ -496,8 +669,7 @@ public class RallyService {
         Combination combination = combinationRepository.findById(combinationId)
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        Rally rally = rallyRepository.findById(combination.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(combination.getRallyId());
         checkAccess(member, rally, false);
 
         return combination;
@@ -514,6 +686,24 @@ public class RallyService {
         return combinationRepository.findByRallyId(rallyId);
     }
 
+    /**
+     * A rally's combinations a page at a time, in id order. A null or empty cursor starts from the
+     * beginning.
+     */
+    public KeysetPage<Combination> listCombinations(Member member, Integer rallyId, String cursor, int size, boolean count)
+            throws NotFoundException, ValidationException
+    {
+        Rally rally = findRally(rallyId);
+        checkAccess(member, rally, false);
+        KeysetPage.checkSize(size);
+
+        boolean first = cursor == null || cursor.isEmpty();
+        List<Combination> rows = combinationRepository.findByRallyIdAndIdGreaterThanOrderById(
+                rallyId, first ? 0 : KeysetPage.id(cursor), Limit.of(size + 1));
+        Long total = count ? combinationRepository.countByRallyId(rallyId) : null;
+        return KeysetPage.of(rows, size, first, combination -> KeysetPage.cursor(combination.getId()), total);
+    }
+
     //======================================================================
     // CombinationPoint CRUD
     //======================================================================
@@ -526,11 +716,11 @@ public class RallyService {
         Combination combination = combinationRepository.findById(combinationId)
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        Rally rally = rallyRepository.findById(combination.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(combination.getRallyId());
         checkAccess(member, rally, true);
 
         BonusPoint bonusPoint = bonusPointRepository.findById(request.getBonusPointId())
+                .filter(bp -> combination.getRallyId().equals(bp.getRallyId()))
                 .orElseThrow(() -> new NotFoundException("Bonus point not found"));
 
         CombinationPoint cp = new CombinationPoint();
@@ -540,7 +730,10 @@ public class RallyService {
         cp.setBonusPointId(bonusPoint.getId());
         cp.setRequired(request.getRequired());
 
-        return combinationPointRepository.save(cp);
+        cp = combinationPointRepository.save(cp);
+        combinationMatchService.definitionChanged(combination);
+
+        return cp;
     }
 
     /**
@@ -553,11 +746,11 @@ public class RallyService {
         Combination combination = combinationRepository.findById(cp.getCombinationId())
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        Rally rally = rallyRepository.findById(combination.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(combination.getRallyId());
         checkAccess(member, rally, true);
 
         combinationPointRepository.delete(cp);
+        combinationMatchService.definitionChanged(combination);
     }
 
     /**
@@ -567,8 +760,7 @@ public class RallyService {
         Combination combination = combinationRepository.findById(combinationId)
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        Rally rally = rallyRepository.findById(combination.getRallyId())
-                .orElseThrow(() -> new NotFoundException("Rally not found"));
+        Rally rally = findRally(combination.getRallyId());
         checkAccess(member, rally, false);
 
         return combinationPointRepository.findByCombinationId(combinationId);
@@ -576,10 +768,17 @@ public class RallyService {
 
     /**
      * A fairly full-featured search.
+     *
+     * By relevance, each word of the name can appear anywhere in it, and the best matches come
+     * first, in place of the pageable's sort.
+     *
+     * Results are cached (see RallySearchCache) under the normalized parameters, so "USA" and
+     * "United States" share an entry.
      */
     public Page<Rally> search(
           // text search: case-insensitive "contains"
           String name,
+          boolean relevance,
 
           // date range (inclusive)
           LocalDate from,
@@ -594,29 +793,182 @@ public class RallyService {
           Double nearLng,
           Double radiusMiles,
 
-          boolean all,
           Pageable pageable
     ){
-        Specification<Rally> spec = Specification.<Rally>unrestricted()
-                .and(nameContains(name))
-                .and(dateOverlaps(from, to))
-                .and(countryMatches(country))
-                .and(regionMatches(region))
-                .and(withinRadius(nearLat, nearLng, radiusMiles))
-                ;
+        boolean ranked = relevance && name != null && !name.isBlank();
+        Specification<Rally> spec = filters(name, ranked, from, to, country, region, nearLat, nearLng, radiusMiles);
+
+        if (ranked) {
+            spec = spec.and(byRelevance(name));
+            if (pageable.isPaged()) {
+                pageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize());
+            }
+        }
+
+        RallySearchCache.Key key = searchKey(name, ranked, from, to, country, region, nearLat, nearLng, radiusMiles, pageable);
+        long generation = rallySearchCache.generation();
+        RallySearchCache.Result cached = rallySearchCache.find(key);
+        if (cached != null) {
+            return new PageImpl<>(findInOrder(cached.ids()), pageable, cached.total());
+        }
 
+        Page<Rally> page = rallyRepository.findAll(spec, pageable);
+        rallySearchCache.put(key, generation, new RallySearchCache.Result(
+                page.getContent().stream().map(Rally::getId).toList(), page.getTotalElements()));
+        return page;
+    }
+
+    /**
+     * The same search a page at a time by keyset, in start date then id order, with rallies that
+     * have no start date last. A null or empty cursor starts from the beginning. The total is only
+     * counted if asked for.
+     */
+    public KeysetPage<Rally> searchAfter(
+          String name,
+          LocalDate from,
+          LocalDate to,
+          String country,
+          String region,
+          Double nearLat,
+          Double nearLng,
+          Double radiusMiles,
+          String cursor,
+          int size,
+          boolean count
+    ) throws ValidationException {
+        KeysetPage.checkSize(size);
+        Specification<Rally> spec = filters(name, false, from, to, country, region, nearLat, nearLng, radiusMiles);
+        boolean first = cursor == null || cursor.isEmpty();
+
+        LocalDate startDate = null;
+        Integer id = null;
+        if (!first) {
+            String[] keys = KeysetPage.keys(cursor, 2);
+            try {
+                startDate = keys[0] != null ? LocalDate.parse(keys[0]) : null;
+                id = Integer.valueOf(keys[1]);
+            } catch (RuntimeException e) {
+                throw new ValidationException("Invalid page cursor");
+            }
+        }
 
-        if (all) {
-            List<Rally> list = rallyRepository.findAll(spec); // unpaged
-            return new PageImpl<>(list, Pageable.unpaged(), list.size());
+        // The dated rallies and the undated ones after them are read separately, so each query can
+        // seek the (start_date, id) index instead of filtering its way there.
+        List<Rally> rows = new ArrayList<>();
+        if (first || startDate != null) {
+            rows.addAll(firstRows(first ? spec.and(dated()) : spec.and(startsAfter(startDate, id)),
+                    Sort.by("startDate", "id"), size + 1));
+        }
+        if (rows.size() <= size) {
+            Specification<Rally> undated = first || startDate != null ? spec.and(undated()) : spec.and(undated()).and(idAfter(id));
+            rows.addAll(firstRows(undated, Sort.by("id"), size + 1 - rows.size()));
         }
-        return rallyRepository.findAll(spec, pageable);
+        Long total = count ? rallyRepository.count(spec) : null;
+        return KeysetPage.of(rows, size, first, rally -> KeysetPage.cursor(rally.getStartDate(), rally.getId()), total);
+    }
+
+    /**
+     * Every match of the search, in this sort or by relevance, read as they're used rather than all
+     * at once. The rows are opened when the supplier is called, which must be in a transaction, and
+     * the stream must be closed. This isn't cached: it's for when there are too many to hold.
+     *
+     * The rallies come with their participants, bonus points and combinations loaded. Each rally
+     * on its own would take a query for each, so they're read STREAM_CHUNK rallies at a time and
+     * the collections loaded for the lot together.
+     */
+    public Supplier<Stream<Rally>> streamSearch(
+          String name,
+          boolean relevance,
+          LocalDate from,
+          LocalDate to,
+          String country,
+          String region,
+          Double nearLat,
+          Double nearLng,
+          Double radiusMiles,
+          Sort sort
+    ) {
+        boolean ranked = relevance && name != null && !name.isBlank();
+        Specification<Rally> filtered = filters(name, ranked, from, to, country, region, nearLat, nearLng, radiusMiles);
+        Specification<Rally> spec = ranked ? filtered.and(byRelevance(name)) : filtered;
+        Sort order = ranked ? Sort.unsorted() : sort;
+
+        return () -> inChunks(rallyRepository.findBy(spec, q -> q.sortBy(order).stream()))
+                .flatMap(chunk -> {
+                    loadCollections(chunk);
+                    return chunk.stream();
+                });
     }
 
     //======================================================================
     // General helpers.
     //======================================================================
 
+    /**
+     * The rows STREAM_CHUNK at a time, in order. Closing this closes the rows.
+     */
+    private static <T> Stream<List<T>> inChunks(Stream<T> rows) {
+        Iterator<T> iterator = rows.iterator();
+        Iterator<List<T>> chunks = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                List<T> chunk = new ArrayList<>(STREAM_CHUNK);
+                while (chunk.size() < STREAM_CHUNK && iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                }
+                return chunk;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                .onClose(rows::close);
+    }
+
+    /**
+     * Load what DtoMapper.toUiRally() reads for all these rallies. Touching the first uninitialized
+     * collection fetches it for up to default_batch_fetch_size of the others in one query.
+     */
+    private static void loadCollections(List<Rally> rallies) {
+        for (Rally rally : rallies) {
+            Hibernate.initialize(rally.getParticipants());
+            Hibernate.initialize(rally.getBonusPoints());
+            Hibernate.initialize(rally.getCombinations());
+        }
+        for (Rally rally : rallies) {
+            for (Combination combination : rally.getCombinations()) {
+                Hibernate.initialize(combination.getCombinationPoints());
+            }
+        }
+    }
+
+    private List<Rally> firstRows(Specification<Rally> spec, Sort sort, int limit) {
+        return rallyRepository.findBy(spec, q -> q.sortBy(sort).limit(limit).all());
+    }
+
+    /**
+     * These rallies, in this order, skipping any that are gone.
+     */
+    private List<Rally> findInOrder(List<Integer> ids) {
+        Map<Integer, Rally> byId = rallyRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Rally::getId, rally -> rally));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * The rally a bonus point or combination belongs to. A ride's planning copies don't belong to
+     * one, and aren't reachable from here.
+     */
+    private Rally findRally(Integer rallyId) throws NotFoundException {
+        if (rallyId == null) {
+            throw new NotFoundException("Rally not found");
+        }
+        return rallyRepository.findById(rallyId).orElseThrow(() -> new NotFoundException("Rally not found"));
+    }
+
     /**
      * Throw NotFoundException if this is a private rally and this person isn't
      * registered.
@@ -626,20 +978,23 @@ public class RallyService {
             return;
         }
 
-        List<RallyParticipant> participants = rally.getParticipants();
-        if (participants != null) {
-            for (RallyParticipant participant : participants) {
-                if (participant.getMemberId().equals(member.getId()) &&
-                        (!mustBeMaster || participant.isRallyMaster())
-                ) {
-                    return;
-                }
-            }
+        Optional<RallyParticipantType> role = rallyRoleCache.getRole(rally.getId(), member.getId());
+        if (role.isPresent() && (!mustBeMaster || role.get() == RallyParticipantType.ORGANIZER)) {
+            return;
         }
 
         throw new NotFoundException("Rally not found");
     }
 
+    private static void checkLocation(Double latitude, Double longitude) throws ValidationException {
+        if (latitude == null || longitude == null) {
+            throw new ValidationException("Latitude and longitude are required");
+        }
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new ValidationException("Latitude or longitude is out of range");
+        }
+    }
+
     //======================================================================
     // Produce the fetch spec for rally search.
     //======================================================================
@@ -650,6 +1005,101 @@ public class RallyService {
         return (root, q, cb) -> cb.like(cb.lower(root.get("name")), like);
     }
 
+    /**
+     * The cache key for a search: the parameters as the filters will use them. Names keep their
+     * case-insensitive text (or just the words, by relevance), countries go through
+     * normalizeCountry(), and a radius without a centre is dropped.
+     */
+    private static RallySearchCache.Key searchKey(String name, boolean words, LocalDate from, LocalDate to, String country,
+                                                  String region, Double nearLat, Double nearLng, Double radiusMiles,
+                                                  Pageable pageable)
+    {
+        String nameKey = null;
+        if (name != null && !name.isBlank()) {
+            nameKey = words ? String.join(" ", name.toLowerCase().trim().split("\\s+")) : name.toLowerCase();
+        }
+        String countryKey = country != null && !country.isBlank() ? normalizeCountry(country) : null;
+        String regionKey = region != null && !region.isBlank() ? region.toLowerCase() : null;
+        boolean near = nearLat != null && nearLng != null && radiusMiles != null && radiusMiles > 0;
+        return new RallySearchCache.Key(nameKey, words, from, to, countryKey, regionKey,
+                near ? nearLat : null, near ? nearLng : null, near ? radiusMiles : null, pageable);
+    }
+
+    /**
+     * Everything search() filters on. With words, each word of the name is matched on its own.
+     */
+    private static Specification<Rally> filters(String name, boolean words, LocalDate from, LocalDate to, String country,
+                                                String region, Double nearLat, Double nearLng, Double radiusMiles)
+    {
+        return Specification.<Rally>unrestricted()
+                .and(words ? nameHasWords(name) : nameContains(name))
+                .and(dateOverlaps(from, to))
+                .and(countryMatches(country))
+                .and(regionMatches(region))
+                .and(withinRadius(nearLat, nearLng, radiusMiles));
+    }
+
+    /**
+     * Every word somewhere in the name, in any order. Each is its own LIKE, so each can use the
+     * trigram index.
+     */
+    private static Specification<Rally> nameHasWords(String name) {
+        List<String> likes = Arrays.stream(name.toLowerCase().trim().split("\\s+"))
+                .map(word -> "%" + word + "%")
+                .toList();
+        return (root, q, cb) -> {
+            Expression<String> lowerName = cb.lower(root.get("name"));
+            return cb.and(likes.stream().map(like -> cb.like(lowerName, like)).toArray(Predicate[]::new));
+        };
+    }
+
+    /**
+     * Best match first: how well the text matches the closest part of the name, then how close the
+     * whole name is to it, so "Iron Butt" puts "Iron Butt Rally" ahead of "Iron Butt Saddle Sore
+     * 1000". Adds no condition. The count query is left unsorted.
+     */
+    private static Specification<Rally> byRelevance(String name) {
+        String text = name.toLowerCase().trim();
+        return (root, q, cb) -> {
+            if (!Long.class.equals(q.getResultType())) {
+                Expression<String> lowerName = cb.lower(root.get("name"));
+                q.orderBy(
+                        cb.desc(cb.function("word_similarity", Double.class, cb.literal(text), lowerName)),
+                        cb.desc(cb.function("similarity", Double.class, lowerName, cb.literal(text))),
+                        cb.asc(root.get("startDate")),
+                        cb.asc(root.get("id")));
+            }
+            return null;
+        };
+    }
+
+
+    /**
+     * Dated rallies after this one in start date then id order, as the row comparison
+     * (start_date, id) > (:startDate, :id). Postgres seeks the index to that, where the same thing
+     * spelled out with OR reads from the start. JPA has no row values, so row() goes through as a
+     * function the way similarity() does. It's never true for a null start date.
+     */
+    private static Specification<Rally> startsAfter(LocalDate startDate, Integer id) {
+        return (root, q, cb) -> cb.greaterThan(
+                cb.function("row", String.class, root.get("startDate"), root.get("id")),
+                cb.function("row", String.class, cb.literal(startDate), cb.literal(id)));
+    }
+
+    private static Specification<Rally> idAfter(Integer id) {
+        return (root, q, cb) -> cb.greaterThan(root.get("id"), id);
+    }
+
+    private static Specification<Rally> dated() {
+        return (root, q, cb) -> cb.isNotNull(root.get("startDate"));
+    }
+
+    /**
+     * Postgres sorts a null start date last, so these come after all the dated rallies.
+     */
+    private static Specification<Rally> undated() {
+        return (root, q, cb) -> cb.isNull(root.get("startDate"));
+    }
 
     /**
      * Inclusive overlap with [from, to]:
@@ -696,38 +1146,28 @@ public class RallyService {
     private static Specification<Rally> regionMatches(String regionInput) {
         if (regionInput == null || regionInput.isBlank()) return null;
         String like = "%" + regionInput.toLowerCase() + "%";
-        return (root, q, cb) -> cb.like(cb.lower(root.get("region")), like);
+        return (root, q, cb) -> cb.like(cb.lower(root.get("locationState")), like);
     }
 
     /**
-     * Portable “no PostGIS” radius using:
-     * 1) fast bounding box to leverage indexes
-     * 2) precise Haversine predicate with SQL trig functions
-     *
-     * Assumes entity has latitude (double) and longitude (double).
-     * Works on PostgreSQL/MySQL/MariaDB where COS/SIN/ACOS/RADIANS exist.
+     * Radius search without PostGIS:
+     * 1) the few geo_cell ranges that cover the circle (GeoCell), which the index answers
+     * 2) precise Haversine predicate with SQL trig functions, on just those rows
      */
     private static Specification<Rally> withinRadius(Double lat, Double lng, Double radiusMiles) {
         if (lat == null || lng == null || radiusMiles == null || radiusMiles <= 0) return null;
 
-        // 1) bounding box in degrees
-        double milesPerDegLat = 69.0;           // approx
-        double milesPerDegLng = 69.172 * Math.cos(Math.toRadians(lat)); // varies with latitude
-        double dLat = radiusMiles / milesPerDegLat;
-        double dLng = radiusMiles / Math.max(0.000001, milesPerDegLng);
-
-        double minLat = lat - dLat, maxLat = lat + dLat;
-        double minLng = lng - dLng, maxLng = lng + dLng;
+        // 1) cell ranges
+        List<GeoCell.Range> ranges = GeoCell.cover(lat, lng, radiusMiles);
 
         return (root, q, cb) -> {
             Path<Double> rLat = root.get("latitude");
             Path<Double> rLng = root.get("longitude");
+            Path<Long> rCell = root.get("geoCell");
 
-            // bounding box
-            Predicate box = cb.and(
-                    cb.between(rLat, minLat, maxLat),
-                    cb.between(rLng, minLng, maxLng)
-            );
+            Predicate cells = cb.or(ranges.stream()
+                    .map(range -> cb.between(rCell, range.from(), range.to()))
+                    .toArray(Predicate[]::new));
 
             // 2) precise Haversine (in miles): 3958.7613 * acos(…)
             // Build with SQL functions via CriteriaBuilder.function
@@ -766,7 +1206,7 @@ public class RallyService {
             Expression<Double> miles = cb.prod(cb.literal(3958.7613), angle);
 
             Predicate circle = cb.le(miles, radiusMiles);
-            return cb.and(box, circle);
+            return cb.and(cells, circle);
         };
     }
 
@@ -0,0 +1,360 @@
+package org.showpage.rallyserver.service;
+
+import org.showpage.rallyserver.ui.UiRallyStanding;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The in-memory score table for one rally. Every earned row is remembered by ID along with the
+ * points and confirmed flag we last applied, so putting the same row twice is harmless and a
+ * change of state only moves the difference. Running totals are kept per rider, which means
+ * ranking only has to look at the riders and never at the earned rows.
+ *
+ * We also index the earned rows by the bonus point or combination they are for. When the
+ * organizer changes what something is worth, only the riders holding it are touched.
+ *
+ * The whole table can be written out and read back (writeTo / readFrom), which is what the scoring
+ * log's snapshots hold.
+ */
+public class RallyStandings {
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Integer rallyId;
+
+    private final Map<Integer, Rider> riders = new HashMap<>();
+    private final Ledger bonusPoints = new Ledger(false);
+    private final Ledger combinations = new Ledger(true);
+
+    /** Cached ranking. Null whenever something has changed since we last ranked. */
+    private List<UiRallyStanding> ranked;
+
+    public RallyStandings(Integer rallyId) {
+        this.rallyId = rallyId;
+    }
+
+    public Integer getRallyId() {
+        return rallyId;
+    }
+
+    /**
+     * Make sure a rider shows up in the standings even before they've claimed anything.
+     */
+    public synchronized void addRider(int rallyParticipantId, int memberId) {
+        rider(rallyParticipantId, memberId);
+    }
+
+    /**
+     * A rider is no longer a rider. They drop out of the standings along with their claims.
+     */
+    public synchronized void removeRider(int rallyParticipantId) {
+        bonusPoints.removeRider(rallyParticipantId);
+        combinations.removeRider(rallyParticipantId);
+        if (riders.remove(rallyParticipantId) != null) {
+            ranked = null;
+        }
+    }
+
+    public synchronized void putBonusPoint(int earnedId, int bonusPointId, int rallyParticipantId, int memberId, int points, boolean confirmed) {
+        bonusPoints.put(earnedId, new Earned(bonusPointId, rallyParticipantId, points, confirmed), memberId);
+    }
+
+    public synchronized void putCombination(int earnedId, int combinationId, int rallyParticipantId, int memberId, int points, boolean confirmed) {
+        combinations.put(earnedId, new Earned(combinationId, rallyParticipantId, points, confirmed), memberId);
+    }
+
+    /**
+     * An earned combination was retired. Harmless if we never saw it.
+     */
+    public synchronized void removeCombination(int earnedId) {
+        combinations.remove(earnedId);
+    }
+
+    /**
+     * The organizer changed what a bonus point is worth. Returns the riders affected.
+     */
+    public synchronized Set<Integer> repriceBonusPoint(int bonusPointId, int points) {
+        return bonusPoints.reprice(bonusPointId, points);
+    }
+
+    /**
+     * The organizer changed what a combination is worth. Returns the riders affected.
+     */
+    public synchronized Set<Integer> repriceCombination(int combinationId, int points) {
+        return combinations.reprice(combinationId, points);
+    }
+
+    /**
+     * A bonus point was deleted, taking everyone's claims to it along. Returns the riders affected.
+     */
+    public synchronized Set<Integer> removeBonusPoint(int bonusPointId) {
+        return bonusPoints.removeDefinition(bonusPointId);
+    }
+
+    /**
+     * Riders holding a claim to this bonus point, confirmed or not.
+     */
+    public synchronized Set<Integer> holdersOfBonusPoint(int bonusPointId) {
+        return bonusPoints.holders(bonusPointId);
+    }
+
+    /**
+     * Riders holding this combination, confirmed or not.
+     */
+    public synchronized Set<Integer> holdersOfCombination(int combinationId) {
+        return combinations.holders(combinationId);
+    }
+
+    /**
+     * Ranked standings, best score first. Riders with equal scores share a rank (1, 1, 3).
+     */
+    public synchronized List<UiRallyStanding> getRanked() {
+        if (ranked == null) {
+            List<Rider> sorted = new ArrayList<>(riders.values());
+            sorted.sort(Comparator
+                    .comparingInt((Rider r) -> r.score).reversed()
+                    .thenComparing(Comparator.comparingInt((Rider r) -> r.pendingScore).reversed())
+                    .thenComparingInt(r -> r.rallyParticipantId));
+
+            List<UiRallyStanding> list = new ArrayList<>(sorted.size());
+            int rank = 0;
+            Integer lastScore = null;
+            for (int index = 0; index < sorted.size(); ++index) {
+                Rider rider = sorted.get(index);
+                if (lastScore == null || rider.score != lastScore) {
+                    rank = index + 1;
+                    lastScore = rider.score;
+                }
+                list.add(UiRallyStanding
+                        .builder()
+                        .rank(rank)
+                        .rallyParticipantId(rider.rallyParticipantId)
+                        .memberId(rider.memberId)
+                        .score(rider.score)
+                        .pendingScore(rider.pendingScore)
+                        .bonusPointCount(rider.bonusPointCount)
+                        .combinationCount(rider.combinationCount)
+                        .build());
+            }
+            ranked = List.copyOf(list);
+        }
+        return ranked;
+    }
+
+    /**
+     * Write the table out in a compact binary form. Running totals aren't written; they're rebuilt
+     * from the earned rows on the way back in.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(riders.size());
+        for (Rider rider : riders.values()) {
+            out.writeInt(rider.rallyParticipantId);
+            out.writeInt(rider.memberId);
+        }
+        bonusPoints.writeTo(out);
+        combinations.writeTo(out);
+    }
+
+    /**
+     * Read back a table written by writeTo().
+     */
+    public static RallyStandings readFrom(Integer rallyId, DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("Unknown standings snapshot version " + version);
+        }
+
+        RallyStandings standings = new RallyStandings(rallyId);
+        int riderCount = in.readInt();
+        for (int i = 0; i < riderCount; ++i) {
+            int rallyParticipantId = in.readInt();
+            standings.addRider(rallyParticipantId, in.readInt());
+        }
+        standings.bonusPoints.readFrom(in);
+        standings.combinations.readFrom(in);
+        return standings;
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private Rider rider(int rallyParticipantId, int memberId) {
+        Rider rider = riders.get(rallyParticipantId);
+        if (rider == null) {
+            rider = new Rider(rallyParticipantId, memberId);
+            riders.put(rallyParticipantId, rider);
+            ranked = null;
+        }
+        return rider;
+    }
+
+    /**
+     * One earned row. The definition is the bonus point or combination it's for.
+     */
+    private record Earned(int definitionId, int rallyParticipantId, int points, boolean confirmed) {
+        Earned withPoints(int newPoints) {
+            return new Earned(definitionId, rallyParticipantId, newPoints, confirmed);
+        }
+    }
+
+    /**
+     * The earned rows of one kind, by ID and by what they are for. Callers hold the table's lock.
+     */
+    private class Ledger {
+        final boolean isCombination;
+        final Map<Integer, Earned> byEarnedId = new HashMap<>();
+        final Map<Integer, Set<Integer>> earnedIdsByDefinition = new HashMap<>();
+
+        Ledger(boolean isCombination) {
+            this.isCombination = isCombination;
+        }
+
+        void put(int earnedId, Earned updated, int memberId) {
+            Earned previous = byEarnedId.put(earnedId, updated);
+            if (updated.equals(previous)) {
+                return;
+            }
+
+            if (previous != null) {
+                riders.get(previous.rallyParticipantId()).apply(previous, -1, isCombination);
+                if (previous.definitionId() != updated.definitionId()) {
+                    unindex(earnedId, previous.definitionId());
+                }
+            }
+            earnedIdsByDefinition.computeIfAbsent(updated.definitionId(), id -> new HashSet<>()).add(earnedId);
+            rider(updated.rallyParticipantId(), memberId).apply(updated, 1, isCombination);
+            ranked = null;
+        }
+
+        void remove(int earnedId) {
+            Earned previous = byEarnedId.remove(earnedId);
+            if (previous != null) {
+                riders.get(previous.rallyParticipantId()).apply(previous, -1, isCombination);
+                unindex(earnedId, previous.definitionId());
+                ranked = null;
+            }
+        }
+
+        Set<Integer> reprice(int definitionId, int points) {
+            Set<Integer> affected = new HashSet<>();
+            for (Integer earnedId : earnedIdsByDefinition.getOrDefault(definitionId, Set.of())) {
+                Earned previous = byEarnedId.get(earnedId);
+                if (previous.points() == points) {
+                    continue;
+                }
+                Rider rider = riders.get(previous.rallyParticipantId());
+                Earned updated = previous.withPoints(points);
+                rider.apply(previous, -1, isCombination);
+                rider.apply(updated, 1, isCombination);
+                byEarnedId.put(earnedId, updated);
+                affected.add(previous.rallyParticipantId());
+            }
+            if (!affected.isEmpty()) {
+                ranked = null;
+            }
+            return affected;
+        }
+
+        Set<Integer> removeDefinition(int definitionId) {
+            Set<Integer> affected = holders(definitionId);
+            for (Integer earnedId : List.copyOf(earnedIdsByDefinition.getOrDefault(definitionId, Set.of()))) {
+                remove(earnedId);
+            }
+            return affected;
+        }
+
+        void removeRider(int rallyParticipantId) {
+            List<Integer> earnedIds = new ArrayList<>();
+            for (Map.Entry<Integer, Earned> entry : byEarnedId.entrySet()) {
+                if (entry.getValue().rallyParticipantId() == rallyParticipantId) {
+                    earnedIds.add(entry.getKey());
+                }
+            }
+            for (Integer earnedId : earnedIds) {
+                remove(earnedId);
+            }
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(byEarnedId.size());
+            for (Map.Entry<Integer, Earned> entry : byEarnedId.entrySet()) {
+                Earned earned = entry.getValue();
+                out.writeInt(entry.getKey());
+                out.writeInt(earned.definitionId());
+                out.writeInt(earned.rallyParticipantId());
+                out.writeInt(earned.points());
+                out.writeBoolean(earned.confirmed());
+            }
+        }
+
+        /**
+         * Riders are read before either ledger, so every row's rider is already there.
+         */
+        void readFrom(DataInput in) throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                int earnedId = in.readInt();
+                Earned earned = new Earned(in.readInt(), in.readInt(), in.readInt(), in.readBoolean());
+                put(earnedId, earned, riders.get(earned.rallyParticipantId()).memberId);
+            }
+        }
+
+        Set<Integer> holders(int definitionId) {
+            Set<Integer> holders = new HashSet<>();
+            for (Integer earnedId : earnedIdsByDefinition.getOrDefault(definitionId, Set.of())) {
+                holders.add(byEarnedId.get(earnedId).rallyParticipantId());
+            }
+            return holders;
+        }
+
+        private void unindex(int earnedId, int definitionId) {
+            Set<Integer> earnedIds = earnedIdsByDefinition.get(definitionId);
+            if (earnedIds != null) {
+                earnedIds.remove(earnedId);
+                if (earnedIds.isEmpty()) {
+                    earnedIdsByDefinition.remove(definitionId);
+                }
+            }
+        }
+    }
+
+    private static class Rider {
+        final int rallyParticipantId;
+        final int memberId;
+        int score;
+        int pendingScore;
+        int bonusPointCount;
+        int combinationCount;
+
+        Rider(int rallyParticipantId, int memberId) {
+            this.rallyParticipantId = rallyParticipantId;
+            this.memberId = memberId;
+        }
+
+        /**
+         * Add (sign = 1) or remove (sign = -1) the contribution of one earned row.
+         */
+        void apply(Earned earned, int sign, boolean isCombination) {
+            if (earned.confirmed()) {
+                score += sign * earned.points();
+            } else {
+                pendingScore += sign * earned.points();
+            }
+            if (isCombination) {
+                combinationCount += sign;
+            } else {
+                bonusPointCount += sign;
+            }
+        }
+    }
+}
@@ -8,9 +8,13 @@ import org.showpage.rallyserver.exception.ValidationException;
 import org.showpage.rallyserver.repository.*;
 import org.showpage.rallyserver.ui.*;
 import org.showpage.rallyserver.util.DataValidator;
+import org.showpage.rallyserver.util.GeometryCodec;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * CRUD operations for Rides and associated entities (Routes, RideLegs, Waypoints).
@@ -25,6 +29,10 @@ public class RideService {
     private final RideLegRepository rideLegRepository;
     private final WaypointRepository waypointRepository;
     private final BonusPointRepository bonusPointRepository;
+    private final CombinationRepository combinationRepository;
+    private final RidePlanRepository ridePlanRepository;
+    private final RideLegGeometryRepository rideLegGeometryRepository;
+    private final RallyService rallyService;
 
     //======================================================================
     // Ride CRUD
@@ -51,6 +59,47 @@ public class RideService {
         return rideRepository.save(ride);
     }
 
+    /**
+     * Plan My Ride: create a ride for a rally and give it its own copy of the rally's bonus points
+     * and combinations to plan with. The rider has to be able to see the rally. The copy is a few
+     * INSERT ... SELECTs, not a save per row.
+     */
+    public UiRide planRide(Member member, CreateRideRequest request)
+            throws NotFoundException, ValidationException
+    {
+        request.checkValid();
+        if (request.getRallyId() == null) {
+            throw new ValidationException("Rally is required");
+        }
+        rallyService.getRally(member, request.getRallyId());
+
+        Ride ride = createRide(member, request);
+        long start = System.nanoTime();
+        RidePlanRepository.Copied copied = ridePlanRepository.copyRally(ride.getRallyId(), ride.getId());
+        log.info("Copied rally {} into ride {} in {} ms: {} bonus points, {} combinations, {} combination points",
+                ride.getRallyId(), ride.getId(), (System.nanoTime() - start) / 1_000_000,
+                copied.bonusPoints(), copied.combinations(), copied.combinationPoints());
+
+        return DtoMapper.toUiRide(ride,
+                bonusPointRepository.findByRideIdOrderById(ride.getId()),
+                combinationRepository.findByRideIdWithPoints(ride.getId()));
+    }
+
+    /**
+     * A ride with its planning copies of the rally's bonus points and combinations. Only the owner
+     * can view.
+     */
+    public UiRide getRidePlan(Member member, Integer rideId) throws NotFoundException {
+        UiRide ride = getRideTree(member, rideId);
+        ride.setBonusPoints(bonusPointRepository.findByRideIdOrderById(rideId).stream()
+                .map(DtoMapper::toUiBonusPoint)
+                .toList());
+        ride.setCombinations(combinationRepository.findByRideIdWithPoints(rideId).stream()
+                .map(DtoMapper::toUiCombination)
+                .toList());
+        return ride;
+    }
+
     /**
      * Update an existing ride. Only the owner can update.
      */
@@ -117,6 +166,22 @@ public class RideService {
         return rideRepository.findByMemberId(member.getId());
     }
 
+    /**
+     * A ride with all its routes, legs and waypoints, read in one query rather than a collection
+     * at a time. Only the owner can view.
+     */
+    public UiRide getRideTree(Member member, Integer rideId) throws NotFoundException {
+        return toUiRideTrees(List.of(getRide(member, rideId))).get(0);
+    }
+
+    /**
+     * All the member's rides with their routes, legs and waypoints, in two queries however many
+     * there are.
+     */
+    public List<UiRide> listRideTrees(Member member) {
+        return toUiRideTrees(listRides(member));
+    }
+
     /**
      * Delete a ride. Only the owner can delete.
      */
@@ -326,6 +391,35 @@ public class RideService {
         rideLegRepository.delete(rideLeg);
     }
 
+    /**
+     * The road the leg follows, packed with GeometryCodec, exactly as it was stored.
+     */
+    public byte[] getRideLegGeometry(Member member, Integer rideLegId) throws NotFoundException {
+        RideLeg rideLeg = getRideLeg(member, rideLegId);
+        return rideLegGeometryRepository.find(rideLeg.getId())
+                .orElseThrow(() -> new NotFoundException("This leg has no geometry"));
+    }
+
+    /**
+     * Store the road the leg follows, as routed on the desktop. It's checked and kept as sent. Empty
+     * clears it.
+     */
+    public void setRideLegGeometry(Member member, Integer rideLegId, byte[] geometry)
+            throws NotFoundException, ValidationException
+    {
+        RideLeg rideLeg = getRideLeg(member, rideLegId);
+        if (geometry == null || geometry.length == 0) {
+            rideLegGeometryRepository.save(rideLeg.getId(), null);
+            return;
+        }
+        try {
+            GeometryCodec.decode(geometry);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Unreadable geometry: " + e.getMessage());
+        }
+        rideLegGeometryRepository.save(rideLeg.getId(), geometry);
+    }
+
     //======================================================================
     // Waypoint CRUD
     //======================================================================
@@ -447,6 +541,49 @@ public class RideService {
     // Helper methods
     //======================================================================
 
+    /**
+     * Build each ride's tree from the flattened route, leg and waypoint rows. The rows are in order,
+     * so appending as they come keeps routes, legs and waypoints in order too.
+     */
+    private List<UiRide> toUiRideTrees(List<Ride> rides) {
+        if (rides.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Integer, List<UiRoute>> routesByRide = new HashMap<>();
+        Map<Integer, UiRoute> routes = new HashMap<>();
+        Map<Integer, UiRideLeg> legs = new HashMap<>();
+        List<Integer> rideIds = rides.stream().map(Ride::getId).toList();
+
+        for (Object[] row : routeRepository.findTreesByRideIds(rideIds)) {
+            Route route = (Route) row[0];
+            RideLeg leg = (RideLeg) row[1];
+            Waypoint waypoint = (Waypoint) row[2];
+
+            UiRoute uiRoute = routes.computeIfAbsent(route.getId(), id -> {
+                UiRoute mapped = DtoMapper.toUiRoute(route, new ArrayList<>());
+                routesByRide.computeIfAbsent(route.getRideId(), rideId -> new ArrayList<>()).add(mapped);
+                return mapped;
+            });
+            if (leg == null) {
+                continue;
+            }
+
+            UiRideLeg uiLeg = legs.computeIfAbsent(leg.getId(), id -> {
+                UiRideLeg mapped = DtoMapper.toUiRideLeg(leg, new ArrayList<>());
+                uiRoute.getRideLegs().add(mapped);
+                return mapped;
+            });
+            if (waypoint != null) {
+                uiLeg.getWaypoints().add(DtoMapper.toUiWaypoint(waypoint));
+            }
+        }
+
+        return rides.stream()
+                .map(ride -> DtoMapper.toUiRide(ride, routesByRide.getOrDefault(ride.getId(), new ArrayList<>())))
+                .toList();
+    }
+
     /**
      * Check that the member owns the ride. Throws NotFoundException if not.
      */
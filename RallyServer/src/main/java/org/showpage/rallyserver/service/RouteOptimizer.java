@@ -0,0 +1,662 @@
+package org.showpage.rallyserver.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+/**
+ * Plans which bonus points to ride to, and in what order, to score the most inside a time budget.
+ * This is the orienteering problem with a twist: combinations only pay out once enough of their
+ * points are in the plan, so what a point is worth depends on what else is in it.
+ *
+ * Travel time is straight-line miles at an average speed, plus a fixed stop at every point. The
+ * search is a multi-start iterated local search. Each start builds a plan greedily with a little
+ * noise, then keeps kicking it (drop a few stops, or force in the rest of a combination), cuts it
+ * back under budget, tightens the order with 2-opt and fills any time left over. Starts run in
+ * parallel on whatever executor the caller gives, and the best plan wins. Starts are seeded by
+ * number, so a given problem always gets much the same answer, and exactly the same one when the
+ * kicks are capped with iterations() rather than left to the clock.
+ *
+ * Points flagged required are always in the plan, even if that breaks the budget.
+ *
+ * Instances are immutable once built and can be shared; each start keeps its own working state.
+ */
+public class RouteOptimizer {
+    private static final double EPSILON = 1e-9;
+
+    private final int count;
+    private final int[] bonusPointIds;
+    private final int[] points;
+    private final boolean[] required;
+
+    /** Travel minutes between nodes, flattened. Stops are 0..count-1, then the start, then the finish. */
+    private final double[] travel;
+    private final int nodes;
+    private final double milesPerHour;
+    private final double stopMinutes;
+    private final double budgetMinutes;
+    private final int maxIterations;
+
+    private final CombinationMatcher matcher;
+    private final int[] combinationValues;
+    private final int[][] combinationsByStop;
+    private final int[][] stopsByCombination;
+
+    /**
+     * The answer: bonus points in riding order, what they're worth with the combinations they
+     * complete, and how far and long the ride is including stops. Iterations is how many times the
+     * search kicked a plan, over all starts.
+     */
+    public record Plan(
+            List<Integer> bonusPointIds,
+            int score,
+            double miles,
+            double minutes,
+            List<Integer> combinationIds,
+            long iterations
+    ) {}
+
+    private RouteOptimizer(Builder builder) {
+        count = builder.stops.size();
+        bonusPointIds = new int[count];
+        points = new int[count];
+        required = new boolean[count];
+
+        nodes = count + 2;
+        double[] latitudes = new double[nodes];
+        double[] longitudes = new double[nodes];
+        for (int i = 0; i < count; ++i) {
+            Stop stop = builder.stops.get(i);
+            bonusPointIds[i] = stop.bonusPointId;
+            points[i] = stop.points;
+            required[i] = stop.required;
+            latitudes[i] = stop.latitude;
+            longitudes[i] = stop.longitude;
+        }
+        latitudes[count] = builder.startLatitude;
+        longitudes[count] = builder.startLongitude;
+        latitudes[count + 1] = builder.finishLatitude;
+        longitudes[count + 1] = builder.finishLongitude;
+
+        milesPerHour = builder.milesPerHour;
+        stopMinutes = builder.stopMinutes;
+        budgetMinutes = builder.budgetMinutes;
+        maxIterations = builder.iterations;
+
+        // Pairs of stops come out of the rally's distance matrix when we have one; the start and
+        // finish usually aren't bonus points, so their legs are worked out here.
+        int[] matrixIndex = new int[nodes];
+        Arrays.fill(matrixIndex, -1);
+        if (builder.distances != null) {
+            for (int i = 0; i < count; ++i) {
+                matrixIndex[i] = builder.distances.indexOf(bonusPointIds[i]);
+            }
+        }
+
+        travel = new double[nodes * nodes];
+        for (int a = 0; a < nodes; ++a) {
+            for (int b = a + 1; b < nodes; ++b) {
+                double miles = matrixIndex[a] >= 0 && matrixIndex[b] >= 0
+                        ? builder.distances.milesAt(matrixIndex[a], matrixIndex[b])
+                        : DistanceMatrix.miles(latitudes[a], longitudes[a], latitudes[b], longitudes[b]);
+                double minutes = miles / milesPerHour * 60.0;
+                travel[a * nodes + b] = minutes;
+                travel[b * nodes + a] = minutes;
+            }
+        }
+
+        matcher = builder.matcher != null ? builder.matcher : CombinationMatcher.builder().build();
+        combinationValues = new int[matcher.size()];
+        for (int offset = 0; offset < matcher.size(); ++offset) {
+            Integer value = builder.combinationValues.get(matcher.combinationIdAt(offset));
+            combinationValues[offset] = value != null ? value : 0;
+        }
+
+        combinationsByStop = new int[count][];
+        List<List<Integer>> byCombination = new ArrayList<>();
+        for (int offset = 0; offset < matcher.size(); ++offset) {
+            byCombination.add(new ArrayList<>());
+        }
+        for (int i = 0; i < count; ++i) {
+            combinationsByStop[i] = matcher.combinationsContaining(bonusPointIds[i]);
+            for (int offset : combinationsByStop[i]) {
+                byCombination.get(offset).add(i);
+            }
+        }
+        stopsByCombination = new int[matcher.size()][];
+        for (int offset = 0; offset < matcher.size(); ++offset) {
+            stopsByCombination[offset] = byCombination.get(offset).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Search on this thread, one start after another, until the time limit runs out.
+     */
+    public Plan solve(Duration timeLimit, int starts) {
+        return solve(timeLimit, starts, Runnable::run);
+    }
+
+    /**
+     * Search until the time limit runs out, each start a task on the executor, and return the best
+     * plan found. Starts the executor doesn't get to in time still build their greedy plan.
+     */
+    public Plan solve(Duration timeLimit, int starts, Executor executor) {
+        long deadline = System.nanoTime() + timeLimit.toNanos();
+
+        List<CompletableFuture<Search>> searches = IntStream.range(0, Math.max(1, starts))
+                .mapToObj(seed -> CompletableFuture.supplyAsync(() -> new Search(seed).run(deadline), executor))
+                .toList();
+
+        Search best = null;
+        long kicks = 0;
+        for (CompletableFuture<Search> future : searches) {
+            Search search = future.join();
+            kicks += search.iterations;
+            if (best == null || search.isBetterThan(best)) {
+                best = search;
+            }
+        }
+        return best.toPlan(kicks);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private double travel(int from, int to) {
+        return travel[from * nodes + to];
+    }
+
+    private record Stop(int bonusPointId, double latitude, double longitude, int points, boolean required) {}
+
+    /**
+     * One start's working plan. The tour is stop indices in riding order; the start and finish are
+     * implied at either end.
+     */
+    private class Search {
+        private final Random random;
+        private final boolean noisy;
+
+        private final int[] tour = new int[count];
+        private int size;
+        private final boolean[] inTour = new boolean[count];
+        private final long[] held = matcher.newHeldSet();
+        private final boolean[] satisfied = new boolean[combinationValues.length];
+        private final int[] heldCount = new int[combinationValues.length];
+        private int score;
+        private double minutes;
+
+        private int[] bestTour = new int[0];
+        private int bestScore;
+        private double bestMinutes;
+        private long iterations;
+
+        Search(int seed) {
+            random = new Random(0x5EED_0000L + seed);
+            noisy = seed > 0;
+        }
+
+        Search run(long deadline) {
+            restore(new int[0]);
+            for (int stop = 0; stop < count; ++stop) {
+                if (required[stop]) {
+                    insertAtBest(stop);
+                }
+            }
+            improve(noisy ? 0.3 : 0.0, true);
+            saveBest();
+
+            while (iterations < maxIterations && System.nanoTime() < deadline && count > 0) {
+                ++iterations;
+                perturb();
+                improve(0.1, random.nextBoolean());
+                if (!keepIfBest() && random.nextInt(20) != 0) {
+                    restore(bestTour);
+                }
+            }
+
+            restore(bestTour);
+            return this;
+        }
+
+        boolean isBetterThan(Search other) {
+            return bestScore > other.bestScore
+                    || (bestScore == other.bestScore && bestMinutes < other.bestMinutes - EPSILON);
+        }
+
+        Plan toPlan(long kicks) {
+            List<Integer> ids = new ArrayList<>(size);
+            for (int i = 0; i < size; ++i) {
+                ids.add(bonusPointIds[tour[i]]);
+            }
+            List<Integer> combinationIds = new ArrayList<>();
+            for (int offset = 0; offset < satisfied.length; ++offset) {
+                if (satisfied[offset]) {
+                    combinationIds.add(matcher.combinationIdAt(offset));
+                }
+            }
+            double travelMinutes = minutes - size * stopMinutes;
+            return new Plan(ids, score, travelMinutes * milesPerHour / 60.0, minutes, combinationIds, kicks);
+        }
+
+        //----------------------------------------------------------------------
+        // The search.
+        //----------------------------------------------------------------------
+
+        /**
+         * Tighten the order and use up any time left. A speculative fill counts a share of the
+         * combinations each point works towards; otherwise only what a point adds right now counts,
+         * which gets us out of plans built around a combination that can't be finished.
+         */
+        private void improve(double noise, boolean speculative) {
+            twoOpt();
+            fill(noise, speculative);
+            prune();
+            twoOpt();
+            fill(0.0, false);
+        }
+
+        /**
+         * Knock the plan somewhere new: either drop a few stops, or force in every missing point of
+         * a combination we don't have and cut the plan back under budget.
+         */
+        private void perturb() {
+            List<Integer> open = new ArrayList<>();
+            for (int offset = 0; offset < satisfied.length; ++offset) {
+                if (!satisfied[offset] && combinationValues[offset] > 0 && stopsByCombination[offset].length > 0) {
+                    open.add(offset);
+                }
+            }
+
+            if (!open.isEmpty() && random.nextBoolean()) {
+                int offset = open.get(random.nextInt(open.size()));
+                for (int stop : stopsByCombination[offset]) {
+                    if (!inTour[stop]) {
+                        insertAtBest(stop);
+                    }
+                }
+            } else {
+                int drops = 1 + random.nextInt(Math.max(1, size / 8));
+                for (int i = 0; i < drops && size > 0; ++i) {
+                    int position = random.nextInt(size);
+                    if (!required[tour[position]]) {
+                        removeAt(position);
+                    }
+                }
+            }
+            repair();
+        }
+
+        /**
+         * Keep adding whatever stop looks best per minute it costs until nothing else fits.
+         */
+        private void fill(double noise, boolean speculative) {
+            while (true) {
+                int bestStop = -1;
+                int bestPosition = -1;
+                double bestRatio = 0;
+
+                for (int stop = 0; stop < count; ++stop) {
+                    if (inTour[stop]) {
+                        continue;
+                    }
+                    double value = speculative ? estimate(stop) : gain(stop);
+                    if (value <= 0) {
+                        continue;
+                    }
+
+                    int position = bestPosition(stop);
+                    double cost = insertCost(stop, position);
+                    if (minutes + cost > budgetMinutes + EPSILON) {
+                        continue;
+                    }
+
+                    double ratio = value / Math.max(cost, EPSILON);
+                    if (noise > 0) {
+                        ratio *= 1.0 + noise * (2.0 * random.nextDouble() - 1.0);
+                    }
+                    if (ratio > bestRatio) {
+                        bestRatio = ratio;
+                        bestStop = stop;
+                        bestPosition = position;
+                    }
+                }
+
+                if (bestStop < 0) {
+                    return;
+                }
+                insertAt(bestStop, bestPosition);
+            }
+        }
+
+        /**
+         * Drop stops that add nothing: no points of their own and no combination that needs them.
+         */
+        private void prune() {
+            for (int position = size - 1; position >= 0; --position) {
+                int stop = tour[position];
+                if (!required[stop] && loss(stop) <= 0) {
+                    removeAt(position);
+                }
+            }
+        }
+
+        /**
+         * While over budget, drop the stop that loses the least per minute it saves.
+         */
+        private void repair() {
+            while (minutes > budgetMinutes + EPSILON) {
+                int worst = -1;
+                double worstRatio = Double.MAX_VALUE;
+                for (int position = 0; position < size; ++position) {
+                    int stop = tour[position];
+                    if (required[stop]) {
+                        continue;
+                    }
+                    double ratio = loss(stop) / Math.max(removeSaving(position), EPSILON);
+                    if (ratio < worstRatio) {
+                        worstRatio = ratio;
+                        worst = position;
+                    }
+                }
+                if (worst < 0) {
+                    return;
+                }
+                removeAt(worst);
+            }
+        }
+
+        /**
+         * Reverse stretches of the tour while that shortens it. Travel is symmetric, so only the
+         * two ends of the stretch change.
+         */
+        private void twoOpt() {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 0; i < size - 1; ++i) {
+                    int before = nodeAt(i - 1);
+                    int first = tour[i];
+                    for (int j = i + 1; j < size; ++j) {
+                        int last = tour[j];
+                        int after = nodeAt(j + 1);
+                        double delta = travel(before, last) + travel(first, after)
+                                - travel(before, first) - travel(last, after);
+                        if (delta < -EPSILON) {
+                            reverse(i, j);
+                            minutes += delta;
+                            first = tour[i];
+                            improved = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Remember the working plan if it beats the best so far: more points, or as many in less time.
+         */
+        private boolean keepIfBest() {
+            boolean better = score > bestScore || (score == bestScore && minutes < bestMinutes - EPSILON);
+            if (better) {
+                saveBest();
+            }
+            return better;
+        }
+
+        private void saveBest() {
+            bestTour = Arrays.copyOf(tour, size);
+            bestScore = score;
+            bestMinutes = minutes;
+        }
+
+        //----------------------------------------------------------------------
+        // Scoring.
+        //----------------------------------------------------------------------
+
+        /**
+         * What adding this stop is worth for certain, plus a share of each combination it moves
+         * closer to, so a plan can build up to a combination one point at a time.
+         */
+        private double estimate(int stop) {
+            double value = gain(stop);
+            for (int offset : combinationsByStop[stop]) {
+                if (!satisfied[offset]) {
+                    int missing = stopsByCombination[offset].length - heldCount[offset];
+                    value += (double) combinationValues[offset] / Math.max(1, missing);
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Exactly what adding this stop would add to the score.
+         */
+        private int gain(int stop) {
+            int value = points[stop];
+            matcher.hold(held, bonusPointIds[stop]);
+            for (int offset : combinationsByStop[stop]) {
+                if (!satisfied[offset] && matcher.isSatisfied(offset, held)) {
+                    value += combinationValues[offset];
+                }
+            }
+            matcher.release(held, bonusPointIds[stop]);
+            return value;
+        }
+
+        /**
+         * Exactly what removing this stop would take off the score.
+         */
+        private int loss(int stop) {
+            int value = points[stop];
+            matcher.release(held, bonusPointIds[stop]);
+            for (int offset : combinationsByStop[stop]) {
+                if (satisfied[offset] && !matcher.isSatisfied(offset, held)) {
+                    value += combinationValues[offset];
+                }
+            }
+            matcher.hold(held, bonusPointIds[stop]);
+            return value;
+        }
+
+        //----------------------------------------------------------------------
+        // Editing the tour.
+        //----------------------------------------------------------------------
+
+        private int nodeAt(int position) {
+            if (position < 0) {
+                return count;
+            }
+            return position >= size ? count + 1 : tour[position];
+        }
+
+        private int bestPosition(int stop) {
+            int best = 0;
+            double bestCost = Double.MAX_VALUE;
+            for (int position = 0; position <= size; ++position) {
+                double cost = insertCost(stop, position);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = position;
+                }
+            }
+            return best;
+        }
+
+        private double insertCost(int stop, int position) {
+            int before = nodeAt(position - 1);
+            int after = nodeAt(position);
+            return travel(before, stop) + travel(stop, after) - travel(before, after) + stopMinutes;
+        }
+
+        private double removeSaving(int position) {
+            int before = nodeAt(position - 1);
+            int after = nodeAt(position + 1);
+            int stop = tour[position];
+            return travel(before, stop) + travel(stop, after) - travel(before, after) + stopMinutes;
+        }
+
+        private void insertAtBest(int stop) {
+            insertAt(stop, bestPosition(stop));
+        }
+
+        private void insertAt(int stop, int position) {
+            minutes += insertCost(stop, position);
+            System.arraycopy(tour, position, tour, position + 1, size - position);
+            tour[position] = stop;
+            ++size;
+            inTour[stop] = true;
+
+            score += points[stop];
+            matcher.hold(held, bonusPointIds[stop]);
+            for (int offset : combinationsByStop[stop]) {
+                ++heldCount[offset];
+                if (!satisfied[offset] && matcher.isSatisfied(offset, held)) {
+                    satisfied[offset] = true;
+                    score += combinationValues[offset];
+                }
+            }
+        }
+
+        private void removeAt(int position) {
+            int stop = tour[position];
+            minutes -= removeSaving(position);
+            System.arraycopy(tour, position + 1, tour, position, size - position - 1);
+            --size;
+            inTour[stop] = false;
+
+            score -= points[stop];
+            matcher.release(held, bonusPointIds[stop]);
+            for (int offset : combinationsByStop[stop]) {
+                --heldCount[offset];
+                if (satisfied[offset] && !matcher.isSatisfied(offset, held)) {
+                    satisfied[offset] = false;
+                    score -= combinationValues[offset];
+                }
+            }
+        }
+
+        private void reverse(int from, int to) {
+            while (from < to) {
+                int swap = tour[from];
+                tour[from++] = tour[to];
+                tour[to--] = swap;
+            }
+        }
+
+        /**
+         * Throw away the working plan and rebuild it from a tour.
+         */
+        private void restore(int[] stops) {
+            size = 0;
+            score = 0;
+            minutes = travel(count, count + 1);
+            Arrays.fill(inTour, false);
+            Arrays.fill(held, 0L);
+            Arrays.fill(satisfied, false);
+            Arrays.fill(heldCount, 0);
+            for (int stop : stops) {
+                insertAt(stop, size);
+            }
+        }
+    }
+
+    /**
+     * Collects the problem. Start, finish, budget and speed are required; stop time defaults to none.
+     */
+    public static class Builder {
+        private final List<Stop> stops = new ArrayList<>();
+        private double startLatitude;
+        private double startLongitude;
+        private double finishLatitude;
+        private double finishLongitude;
+        private double budgetMinutes;
+        private double stopMinutes;
+        private double milesPerHour;
+        private CombinationMatcher matcher;
+        private Map<Integer, Integer> combinationValues = Map.of();
+        private DistanceMatrix distances;
+        private int iterations = Integer.MAX_VALUE;
+
+        public Builder start(double latitude, double longitude) {
+            startLatitude = latitude;
+            startLongitude = longitude;
+            return this;
+        }
+
+        public Builder finish(double latitude, double longitude) {
+            finishLatitude = latitude;
+            finishLongitude = longitude;
+            return this;
+        }
+
+        /**
+         * A bonus point we might visit. A point with no value is still worth visiting if it's part
+         * of a combination.
+         */
+        public Builder stop(int bonusPointId, double latitude, double longitude, Integer points, Boolean required) {
+            stops.add(new Stop(bonusPointId, latitude, longitude,
+                    points != null ? points : 0, Boolean.TRUE.equals(required)));
+            return this;
+        }
+
+        /**
+         * The rally's combinations and what each is worth, by combination ID.
+         */
+        public Builder combinations(CombinationMatcher matcher, Map<Integer, Integer> valuesById) {
+            this.matcher = matcher;
+            this.combinationValues = valuesById;
+            return this;
+        }
+
+        /**
+         * The rally's distance matrix, so stop-to-stop miles don't have to be worked out again. Stops
+         * it doesn't cover are worked out from their location.
+         */
+        public Builder distances(DistanceMatrix distances) {
+            this.distances = distances;
+            return this;
+        }
+
+        public Builder budgetMinutes(double budgetMinutes) {
+            this.budgetMinutes = budgetMinutes;
+            return this;
+        }
+
+        public Builder stopMinutes(double stopMinutes) {
+            this.stopMinutes = stopMinutes;
+            return this;
+        }
+
+        public Builder milesPerHour(double milesPerHour) {
+            this.milesPerHour = milesPerHour;
+            return this;
+        }
+
+        /**
+         * Stop each start after this many kicks even if there's time left, so the answer doesn't
+         * depend on how fast the machine is. Unlimited by default.
+         */
+        public Builder iterations(int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
+        public RouteOptimizer build() {
+            if (milesPerHour <= 0) {
+                throw new IllegalArgumentException("Average speed must be positive");
+            }
+            return new RouteOptimizer(this);
+        }
+    }
+}
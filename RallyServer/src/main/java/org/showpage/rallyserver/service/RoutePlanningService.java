@@ -0,0 +1,488 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.*;
+import org.showpage.rallyserver.exception.NotFoundException;
+import org.showpage.rallyserver.exception.ValidationException;
+import org.showpage.rallyserver.repository.*;
+import org.showpage.rallyserver.ui.*;
+import org.showpage.rallyserver.util.DataValidator;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Suggests a plan for a ride: which of the rally's bonus points to visit, in what order, to score
+ * the most in the time available. The search itself is RouteOptimizer; this gathers the rally's
+ * points and combinations, works out the defaults from the ride, and writes the answer out as a
+ * new Route with one leg of waypoints.
+ *
+ * It also answers the question that comes before planning: which combinations to chase at all.
+ * That search is CombinationPortfolio, and nothing is saved.
+ *
+ * And after planning, it can put the waypoints of a leg, or of each leg in a route, in the order
+ * that rides the fewest miles, with WaypointSequencer.
+ *
+ * The two searches run for seconds, so they run on the SearchPool between transactions rather than
+ * in one: what they need is read first, and anything saved is written after. Call optimize() and
+ * analyzeCombinations() without a transaction around them.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RoutePlanningService {
+    static final double DEFAULT_MILES_PER_HOUR = 50.0;
+    static final int DEFAULT_SEARCH_SECONDS = 3;
+    static final int DEFAULT_PORTFOLIO_SEARCH_SECONDS = 2;
+    static final int DEFAULT_PORTFOLIOS = 5;
+
+    private final RideService rideService;
+    private final RallyService rallyService;
+    private final CombinationMatchService combinationMatchService;
+    private final DistanceMatrixService distanceMatrixService;
+    private final ScoringBatchRepository scoringBatchRepository;
+    private final RouteRepository routeRepository;
+    private final RideLegRepository rideLegRepository;
+    private final WaypointRepository waypointRepository;
+    private final BonusPointRepository bonusPointRepository;
+    private final RidePlanRepository ridePlanRepository;
+    private final SearchPool searchPool;
+    private final TransactionRunner transactionRunner;
+
+    /**
+     * Plan the ride and save the plan as a new route. Only the ride's owner can do this, and the
+     * ride must be for a rally they can see.
+     */
+    public UiRoutePlan optimize(Member member, Integer rideId, OptimizeRouteRequest request)
+            throws NotFoundException, ValidationException
+    {
+        request.checkValid();
+        Planning planning = transactionRunner.run(true, () -> planning(member, rideId, request));
+
+        //----------------------------------------------------------------------
+        // Search.
+        //----------------------------------------------------------------------
+        Duration timeLimit = searchPool.timeLimit(request.getSearchSeconds(), DEFAULT_SEARCH_SECONDS);
+        long start = System.nanoTime();
+        RouteOptimizer.Plan plan = searchPool.run(executor ->
+                planning.optimizer().solve(timeLimit, searchPool.tasksPerSearch(), executor));
+        log.info("Planned ride {} over {} bonus points in {} ms: {} points, {} stops, {} minutes, {} iterations",
+                rideId, planning.bonusPointsById().size(), (System.nanoTime() - start) / 1_000_000,
+                plan.score(), plan.bonusPointIds().size(), Math.round(plan.minutes()), plan.iterations());
+
+        return transactionRunner.run(false, () -> savePlan(rideId, request, planning, plan));
+    }
+
+    /**
+     * Work out which of the rally's combinations are worth riding for in the time given: the best
+     * few sets of them, counting shared bonus points once, and what each would take on its own.
+     * Anyone who can see the rally can ask.
+     */
+    public UiCombinationAnalysis analyzeCombinations(Member member, Integer rallyId, CombinationPortfolioRequest request)
+            throws NotFoundException, ValidationException
+    {
+        request.checkValid();
+        CombinationPortfolio portfolio = transactionRunner.run(true, () -> portfolio(member, rallyId, request));
+
+        Duration timeLimit = searchPool.timeLimit(request.getSearchSeconds(), DEFAULT_PORTFOLIO_SEARCH_SECONDS);
+        int maxResults = request.getMaxResults() != null ? request.getMaxResults() : DEFAULT_PORTFOLIOS;
+        long start = System.nanoTime();
+        CombinationPortfolio.Analysis analysis = searchPool.run(executor -> portfolio.solve(timeLimit, maxResults, executor));
+        log.info("Analyzed {} combinations for rally {} in {} ms: {} portfolios, complete {}",
+                analysis.combinations().size(), rallyId, (System.nanoTime() - start) / 1_000_000,
+                analysis.portfolios().size(), analysis.complete());
+
+        return UiCombinationAnalysis
+                .builder()
+                .portfolios(analysis.portfolios().stream().map(RoutePlanningService::toUiPortfolio).toList())
+                .combinations(analysis.combinations().stream().map(RoutePlanningService::toUiEstimate).toList())
+                .complete(analysis.complete())
+                .build();
+    }
+
+    /**
+     * Reorder a leg's waypoints to ride the fewest miles, keeping the first and last in place.
+     */
+    public UiWaypointSequence sequenceLeg(Member member, Integer rideLegId) throws NotFoundException, ValidationException {
+        return sequence(List.of(rideService.getRideLeg(member, rideLegId)));
+    }
+
+    /**
+     * Reorder the waypoints within each of a route's legs. Legs stay in order, and each keeps its
+     * first and last waypoint where they are.
+     */
+    public UiWaypointSequence sequenceRoute(Member member, Integer routeId) throws NotFoundException, ValidationException {
+        rideService.getRoute(member, routeId);
+        List<RideLeg> legs = new ArrayList<>(rideLegRepository.findByRouteId(routeId));
+        legs.sort(Comparator.comparing(RideLeg::getSequenceOrder, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(RideLeg::getId));
+        return sequence(legs);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * What planning a ride reads before the search: the optimizer, the ends of the ride, and the
+     * bonus points it might stop at.
+     */
+    private record Planning(
+            RouteOptimizer optimizer,
+            Endpoints endpoints,
+            Map<Integer, BonusPoint> bonusPointsById
+    ) {}
+
+    /**
+     * What the search needs, read in one go: where the ride starts and finishes, the bonus points it
+     * might stop at, and the optimizer built from them.
+     */
+    private Planning planning(Member member, Integer rideId, OptimizeRouteRequest request)
+            throws NotFoundException, ValidationException
+    {
+        Ride ride = rideService.getRide(member, rideId);
+        if (ride.getRallyId() == null) {
+            throw new ValidationException("Ride is not for a rally");
+        }
+
+        List<BonusPoint> bonusPoints = rallyService.listBonusPoints(member, ride.getRallyId());
+        Endpoints endpoints = endpoints(bonusPoints,
+                request.getStartLatitude(), request.getStartLongitude(),
+                request.getFinishLatitude(), request.getFinishLongitude());
+
+        double budgetMinutes = budgetMinutes(ride, request);
+        int stopSeconds = request.getStopDuration() != null ? request.getStopDuration()
+                : ride.getStopDuration() != null ? ride.getStopDuration() : 0;
+        double milesPerHour = request.getAverageSpeedMph() != null ? request.getAverageSpeedMph() : DEFAULT_MILES_PER_HOUR;
+
+        RouteOptimizer.Builder builder = RouteOptimizer
+                .builder()
+                .start(endpoints.startLatitude(), endpoints.startLongitude())
+                .finish(endpoints.finishLatitude(), endpoints.finishLongitude())
+                .budgetMinutes(budgetMinutes)
+                .stopMinutes(stopSeconds / 60.0)
+                .milesPerHour(milesPerHour)
+                .distances(distanceMatrixService.getMatrix(ride.getRallyId()))
+                .combinations(
+                        combinationMatchService.getMatcher(ride.getRallyId()),
+                        scoringBatchRepository.findCombinationValues(ride.getRallyId()));
+
+        Map<Integer, BonusPoint> bonusPointsById = new HashMap<>();
+        for (BonusPoint bonusPoint : bonusPoints) {
+            if (bonusPoint == endpoints.startPoint() || bonusPoint == endpoints.finishPoint() || !hasLocation(bonusPoint)) {
+                continue;
+            }
+            bonusPointsById.put(bonusPoint.getId(), bonusPoint);
+            builder.stop(bonusPoint.getId(), bonusPoint.getLatitude(), bonusPoint.getLongitude(),
+                    bonusPoint.getPoints(), bonusPoint.getRequired());
+        }
+
+        return new Planning(builder.build(), endpoints, bonusPointsById);
+    }
+
+    /**
+     * Write the plan out as a new route with one leg.
+     */
+    private UiRoutePlan savePlan(Integer rideId, OptimizeRouteRequest request, Planning planning, RouteOptimizer.Plan plan) {
+        Route route = routeRepository.save(Route
+                .builder()
+                .rideId(rideId)
+                .name(DataValidator.nonEmpty(request.getName()) ? request.getName().trim() : "Optimized Route")
+                .description(String.format("Planned for %d points: %d stops, %.0f miles, %.1f hours",
+                        plan.score(), plan.bonusPointIds().size(), plan.miles(), plan.minutes() / 60.0))
+                .isPrimary(false)
+                .build());
+
+        RideLeg leg = rideLegRepository.save(RideLeg
+                .builder()
+                .routeId(route.getId())
+                .name("Leg 1")
+                .sequenceOrder(1)
+                .build());
+
+        Endpoints endpoints = planning.endpoints();
+        List<Waypoint> waypoints = new ArrayList<>();
+        waypoints.add(endpoint(leg, endpoints.startPoint(), "Start", endpoints.startLatitude(), endpoints.startLongitude()));
+        for (Integer bonusPointId : plan.bonusPointIds()) {
+            waypoints.add(waypoint(leg, planning.bonusPointsById().get(bonusPointId)));
+        }
+        waypoints.add(endpoint(leg, endpoints.finishPoint(), "Finish", endpoints.finishLatitude(), endpoints.finishLongitude()));
+        for (int index = 0; index < waypoints.size(); ++index) {
+            waypoints.get(index).setSequenceOrder(index + 1);
+        }
+
+        leg.setWaypoints(waypointRepository.saveAll(waypoints));
+        route.setRideLegs(List.of(leg));
+
+        return UiRoutePlan
+                .builder()
+                .route(DtoMapper.toUiRoute(route))
+                .score(plan.score())
+                .miles(plan.miles())
+                .minutes(plan.minutes())
+                .bonusPointCount(plan.bonusPointIds().size())
+                .combinationIds(plan.combinationIds())
+                .build();
+    }
+
+    /**
+     * The portfolio search for the rally, built from its bonus points and combinations.
+     */
+    private CombinationPortfolio portfolio(Member member, Integer rallyId, CombinationPortfolioRequest request)
+            throws NotFoundException, ValidationException
+    {
+        List<BonusPoint> bonusPoints = rallyService.listBonusPoints(member, rallyId);
+        Endpoints endpoints = endpoints(bonusPoints,
+                request.getStartLatitude(), request.getStartLongitude(),
+                request.getFinishLatitude(), request.getFinishLongitude());
+
+        double milesPerHour = request.getAverageSpeedMph() != null ? request.getAverageSpeedMph() : DEFAULT_MILES_PER_HOUR;
+        int stopSeconds = request.getStopDuration() != null ? request.getStopDuration() : 0;
+        CombinationPortfolio.Builder builder = CombinationPortfolio
+                .builder()
+                .start(endpoints.startLatitude(), endpoints.startLongitude())
+                .finish(endpoints.finishLatitude(), endpoints.finishLongitude())
+                .budgetMinutes(request.getTimeBudgetMinutes())
+                .stopMinutes(stopSeconds / 60.0)
+                .milesPerHour(milesPerHour)
+                .distances(distanceMatrixService.getMatrix(rallyId))
+                .combinations(
+                        combinationMatchService.getMatcher(rallyId),
+                        scoringBatchRepository.findCombinationValues(rallyId));
+
+        for (BonusPoint bonusPoint : bonusPoints) {
+            if (hasLocation(bonusPoint)) {
+                builder.point(bonusPoint.getId(), bonusPoint.getLatitude(), bonusPoint.getLongitude(), bonusPoint.getPoints());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Where the ride starts and finishes, and the rally's bonus points there if it's at them.
+     */
+    private record Endpoints(
+            BonusPoint startPoint,
+            BonusPoint finishPoint,
+            double startLatitude,
+            double startLongitude,
+            double finishLatitude,
+            double finishLongitude
+    ) {}
+
+    /**
+     * Start and finish come from the request, else the rally's start and finish points. With no
+     * finish at all, finish where we started.
+     */
+    private static Endpoints endpoints(
+            List<BonusPoint> bonusPoints,
+            Double startLatitude,
+            Double startLongitude,
+            Double finishLatitude,
+            Double finishLongitude
+    ) throws ValidationException {
+        BonusPoint startPoint = null;
+        BonusPoint finishPoint = null;
+        for (BonusPoint bonusPoint : bonusPoints) {
+            if (Boolean.TRUE.equals(bonusPoint.getIsStart()) && hasLocation(bonusPoint) && startPoint == null) {
+                startPoint = bonusPoint;
+            }
+            if (Boolean.TRUE.equals(bonusPoint.getIsFinish()) && hasLocation(bonusPoint) && finishPoint == null) {
+                finishPoint = bonusPoint;
+            }
+        }
+
+        if (startLatitude != null) {
+            startPoint = null;
+        } else if (startPoint != null) {
+            startLatitude = startPoint.getLatitude();
+            startLongitude = startPoint.getLongitude();
+        } else {
+            throw new ValidationException("Start location is required; the rally has no start bonus point");
+        }
+
+        if (finishLatitude != null) {
+            finishPoint = null;
+        } else if (finishPoint != null) {
+            finishLatitude = finishPoint.getLatitude();
+            finishLongitude = finishPoint.getLongitude();
+        } else {
+            finishLatitude = startLatitude;
+            finishLongitude = startLongitude;
+        }
+
+        return new Endpoints(startPoint, finishPoint, startLatitude, startLongitude, finishLatitude, finishLongitude);
+    }
+
+    private static UiCombinationPortfolio toUiPortfolio(CombinationPortfolio.Portfolio portfolio) {
+        return UiCombinationPortfolio
+                .builder()
+                .members(portfolio.combinations().stream()
+                        .map(pick -> UiPortfolioCombination
+                                .builder()
+                                .combinationId(pick.combinationId())
+                                .marginalPoints(pick.marginalPoints())
+                                .marginalMiles(pick.marginalMiles())
+                                .marginalMinutes(pick.marginalMinutes())
+                                .build())
+                        .toList())
+                .bonusPointIds(portfolio.bonusPointIds())
+                .points(portfolio.points())
+                .miles(portfolio.miles())
+                .minutes(portfolio.minutes())
+                .extraMiles(portfolio.extraMiles())
+                .extraMinutes(portfolio.extraMinutes())
+                .pointsPerMile(portfolio.extraMiles() > 0 ? portfolio.points() / portfolio.extraMiles() : null)
+                .pointsPerHour(portfolio.extraMinutes() > 0 ? portfolio.points() * 60.0 / portfolio.extraMinutes() : null)
+                .build();
+    }
+
+    private static UiCombinationEstimate toUiEstimate(CombinationPortfolio.Estimate estimate) {
+        return UiCombinationEstimate
+                .builder()
+                .combinationId(estimate.combinationId())
+                .bonusPointIds(estimate.bonusPointIds())
+                .points(estimate.points())
+                .extraMiles(estimate.extraMiles())
+                .extraMinutes(estimate.extraMinutes())
+                .pointsPerHour(estimate.extraMinutes() > 0 ? estimate.points() * 60.0 / estimate.extraMinutes() : null)
+                .fits(estimate.fits())
+                .build();
+    }
+
+    /**
+     * Sequence each leg and write every changed sequence order back in one batch. Waypoints that
+     * name a bonus point but have no location of their own are where the bonus point is.
+     */
+    private UiWaypointSequence sequence(List<RideLeg> legs) throws ValidationException {
+        long start = System.nanoTime();
+        Map<Integer, List<Waypoint>> waypointsByLeg = new HashMap<>();
+        Set<Integer> bonusPointIds = new HashSet<>();
+        for (Waypoint waypoint : waypointRepository.findByRideLegIdIn(legs.stream().map(RideLeg::getId).toList())) {
+            waypointsByLeg.computeIfAbsent(waypoint.getRideLegId(), id -> new ArrayList<>()).add(waypoint);
+            if ((waypoint.getLatitude() == null || waypoint.getLongitude() == null) && waypoint.getBonusPointId() != null) {
+                bonusPointIds.add(waypoint.getBonusPointId());
+            }
+        }
+        Map<Integer, BonusPoint> bonusPoints = new HashMap<>();
+        for (BonusPoint bonusPoint : bonusPointRepository.findAllById(bonusPointIds)) {
+            bonusPoints.put(bonusPoint.getId(), bonusPoint);
+        }
+
+        List<UiRideLeg> uiLegs = new ArrayList<>();
+        Map<Integer, Integer> changed = new HashMap<>();
+        double milesBefore = 0;
+        double milesAfter = 0;
+        for (RideLeg leg : legs) {
+            List<Waypoint> waypoints = waypointsByLeg.getOrDefault(leg.getId(), new ArrayList<>());
+            waypoints.sort(Comparator.comparing(Waypoint::getSequenceOrder, Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparing(Waypoint::getId));
+
+            int count = waypoints.size();
+            int[] indexes = new int[count];
+            double[] latitudes = new double[count];
+            double[] longitudes = new double[count];
+            for (int i = 0; i < count; ++i) {
+                Waypoint waypoint = waypoints.get(i);
+                BonusPoint bonusPoint = bonusPoints.get(waypoint.getBonusPointId());
+                if (waypoint.getLatitude() != null && waypoint.getLongitude() != null) {
+                    latitudes[i] = waypoint.getLatitude();
+                    longitudes[i] = waypoint.getLongitude();
+                } else if (bonusPoint != null && hasLocation(bonusPoint)) {
+                    latitudes[i] = bonusPoint.getLatitude();
+                    longitudes[i] = bonusPoint.getLongitude();
+                } else {
+                    throw new ValidationException("Waypoint " + waypoint.getName() + " has no location");
+                }
+                indexes[i] = i;
+            }
+
+            WaypointSequencer.Sequence sequence = WaypointSequencer.sequence(DistanceMatrix.of(indexes, latitudes, longitudes));
+            milesBefore += sequence.milesBefore();
+            milesAfter += sequence.milesAfter();
+
+            List<UiWaypoint> uiWaypoints = new ArrayList<>();
+            for (int position = 0; position < count; ++position) {
+                Waypoint waypoint = waypoints.get(sequence.order()[position]);
+                if (!Integer.valueOf(position + 1).equals(waypoint.getSequenceOrder())) {
+                    changed.put(waypoint.getId(), position + 1);
+                }
+                UiWaypoint uiWaypoint = DtoMapper.toUiWaypoint(waypoint);
+                uiWaypoint.setSequenceOrder(position + 1);
+                uiWaypoints.add(uiWaypoint);
+            }
+            uiLegs.add(DtoMapper.toUiRideLeg(leg, uiWaypoints));
+        }
+
+        // Straight to the table; the waypoint entities aren't touched, so nothing else gets flushed.
+        if (!changed.isEmpty()) {
+            ridePlanRepository.updateWaypointOrder(changed);
+        }
+        log.info("Sequenced {} legs in {} ms: {} waypoints moved, {} miles down to {}",
+                legs.size(), (System.nanoTime() - start) / 1_000_000, changed.size(),
+                Math.round(milesBefore), Math.round(milesAfter));
+
+        return UiWaypointSequence
+                .builder()
+                .rideLegs(uiLegs)
+                .milesBefore(milesBefore)
+                .milesAfter(milesAfter)
+                .build();
+    }
+
+    private static double budgetMinutes(Ride ride, OptimizeRouteRequest request) throws ValidationException {
+        if (request.getTimeBudgetMinutes() != null) {
+            return request.getTimeBudgetMinutes();
+        }
+        if (ride.getExpectedStart() != null && ride.getExpectedEnd() != null
+                && ride.getExpectedEnd().isAfter(ride.getExpectedStart())) {
+            return Duration.between(ride.getExpectedStart(), ride.getExpectedEnd()).toMinutes();
+        }
+        throw new ValidationException("Time budget is required; the ride has no expected start and end");
+    }
+
+    private static boolean hasLocation(BonusPoint bonusPoint) {
+        return bonusPoint.getLatitude() != null && bonusPoint.getLongitude() != null;
+    }
+
+    private static Waypoint waypoint(RideLeg leg, BonusPoint bonusPoint) {
+        return Waypoint
+                .builder()
+                .rideLegId(leg.getId())
+                .bonusPointId(bonusPoint.getId())
+                .name(DataValidator.nonEmpty(bonusPoint.getCode()) ? bonusPoint.getCode()
+                        : DataValidator.nonEmpty(bonusPoint.getName()) ? bonusPoint.getName()
+                        : "Bonus point " + bonusPoint.getId())
+                .description(bonusPoint.getName())
+                .latitude(bonusPoint.getLatitude().floatValue())
+                .longitude(bonusPoint.getLongitude().floatValue())
+                .address(bonusPoint.getAddress())
+                .markerColor(bonusPoint.getMarkerColor())
+                .markerIcon(bonusPoint.getMarkerIcon())
+                .build();
+    }
+
+    /**
+     * The start or finish: the rally's bonus point if that's where it is, else a bare location.
+     */
+    private static Waypoint endpoint(RideLeg leg, BonusPoint bonusPoint, String name, double latitude, double longitude) {
+        if (bonusPoint != null) {
+            return waypoint(leg, bonusPoint);
+        }
+        return Waypoint
+                .builder()
+                .rideLegId(leg.getId())
+                .name(name)
+                .latitude((float) latitude)
+                .longitude((float) longitude)
+                .build();
+    }
+}
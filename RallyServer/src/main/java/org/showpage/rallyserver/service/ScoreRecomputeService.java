@@ -0,0 +1,207 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.Member;
+import org.showpage.rallyserver.entity.RallyParticipantType;
+import org.showpage.rallyserver.exception.NotFoundException;
+import org.showpage.rallyserver.repository.RallyRepository;
+import org.showpage.rallyserver.repository.ScoringBatchRepository;
+import org.showpage.rallyserver.ui.UiScoreRecompute;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The safety net: rebuild every rider's final score in a rally from the raw claims, ignoring
+ * anything we've been keeping incrementally. Only confirmed claims count, same as the standings.
+ *
+ * It runs in three phases, each timed. Load pulls the rally's point values and every confirmed
+ * claim in four plain JDBC queries, grouping claims by rider into int arrays as they stream in.
+ * Compute splits the riders across the common fork-join pool. Write sends back only the scores
+ * that changed, as one batch.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ScoreRecomputeService {
+    /** Riders per fork-join task before we stop splitting. */
+    static final int RIDERS_PER_TASK = 32;
+
+    private final RallyRepository rallyRepository;
+    private final ScoringBatchRepository scoringBatchRepository;
+    private final RallyRoleCache rallyRoleCache;
+    private final StandingsService standingsService;
+
+    /**
+     * Recompute the rally. Only its organizers may do this.
+     */
+    public UiScoreRecompute recompute(Member member, Integer rallyId) throws NotFoundException {
+        rallyRepository.findById_WithThrow(rallyId);
+        if (rallyRoleCache.getRole(rallyId, member.getId()).orElse(null) != RallyParticipantType.ORGANIZER) {
+            throw new NotFoundException("Rally not found");
+        }
+
+        long start = System.nanoTime();
+
+        //----------------------------------------------------------------------
+        // Load.
+        //----------------------------------------------------------------------
+        Map<Integer, Integer> previous = scoringBatchRepository.findRiderScores(rallyId);
+        Map<Integer, Integer> bonusPointValues = scoringBatchRepository.findBonusPointValues(rallyId);
+        Map<Integer, Integer> combinationValues = scoringBatchRepository.findCombinationValues(rallyId);
+
+        int[] participantIds = previous.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Map<Integer, Integer> indexByParticipant = new HashMap<>();
+        for (int index = 0; index < participantIds.length; ++index) {
+            indexByParticipant.put(participantIds[index], index);
+        }
+
+        Claims bonusPoints = new Claims(participantIds.length);
+        Claims combinations = new Claims(participantIds.length);
+        int bonusPointClaims = scoringBatchRepository.forEachConfirmedBonusPoint(rallyId,
+                (participantId, bonusPointId) -> bonusPoints.add(indexByParticipant.get(participantId), bonusPointId));
+        int combinationClaims = scoringBatchRepository.forEachConfirmedCombination(rallyId,
+                (participantId, combinationId) -> combinations.add(indexByParticipant.get(participantId), combinationId));
+
+        long loaded = System.nanoTime();
+
+        //----------------------------------------------------------------------
+        // Compute.
+        //----------------------------------------------------------------------
+        int[] scores = new int[participantIds.length];
+        ForkJoinPool.commonPool().invoke(new ScoreTask(
+                scores, 0, scores.length, bonusPoints, bonusPointValues, combinations, combinationValues));
+
+        long computed = System.nanoTime();
+
+        //----------------------------------------------------------------------
+        // Write.
+        //----------------------------------------------------------------------
+        Map<Integer, Integer> changed = new LinkedHashMap<>();
+        for (int index = 0; index < participantIds.length; ++index) {
+            if (!Objects.equals(previous.get(participantIds[index]), scores[index])) {
+                changed.put(participantIds[index], scores[index]);
+            }
+        }
+        scoringBatchRepository.updateFinalScores(changed);
+
+        long written = System.nanoTime();
+
+        // The standings are a cache over the same rows. Rebuild them too.
+        standingsService.evict(rallyId);
+
+        UiScoreRecompute result = UiScoreRecompute
+                .builder()
+                .rallyId(rallyId)
+                .riders(participantIds.length)
+                .bonusPointClaims(bonusPointClaims)
+                .combinationClaims(combinationClaims)
+                .updated(changed.size())
+                .loadMillis(millis(start, loaded))
+                .computeMillis(millis(loaded, computed))
+                .writeMillis(millis(computed, written))
+                .totalMillis(millis(start, written))
+                .build();
+
+        log.info("Recomputed rally {}: {}", rallyId, result);
+        return result;
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000L;
+    }
+
+    /**
+     * Claims grouped by rider index, as growable int arrays. Claims for riders we don't know (a
+     * non-rider somehow holding a claim) are dropped.
+     */
+    static class Claims {
+        private final int[][] ids;
+        private final int[] counts;
+
+        Claims(int riders) {
+            ids = new int[riders][];
+            counts = new int[riders];
+        }
+
+        void add(Integer riderIndex, int definitionId) {
+            if (riderIndex == null) {
+                return;
+            }
+            int[] row = ids[riderIndex];
+            if (row == null) {
+                row = ids[riderIndex] = new int[8];
+            } else if (counts[riderIndex] == row.length) {
+                row = ids[riderIndex] = Arrays.copyOf(row, row.length * 2);
+            }
+            row[counts[riderIndex]++] = definitionId;
+        }
+
+        int sum(int riderIndex, Map<Integer, Integer> values) {
+            int[] row = ids[riderIndex];
+            int total = 0;
+            for (int i = 0; i < counts[riderIndex]; ++i) {
+                total += values.getOrDefault(row[i], 0);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Scores riders [from, to), splitting in half until the range is small. Each rider's slot in
+     * the scores array is written by exactly one task, and everything else is only read.
+     */
+    static class ScoreTask extends RecursiveAction {
+        private final int[] scores;
+        private final int from;
+        private final int to;
+        private final Claims bonusPoints;
+        private final Map<Integer, Integer> bonusPointValues;
+        private final Claims combinations;
+        private final Map<Integer, Integer> combinationValues;
+
+        ScoreTask(
+                int[] scores,
+                int from,
+                int to,
+                Claims bonusPoints,
+                Map<Integer, Integer> bonusPointValues,
+                Claims combinations,
+                Map<Integer, Integer> combinationValues
+        ) {
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+            this.bonusPoints = bonusPoints;
+            this.bonusPointValues = bonusPointValues;
+            this.combinations = combinations;
+            this.combinationValues = combinationValues;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= RIDERS_PER_TASK) {
+                for (int index = from; index < to; ++index) {
+                    scores[index] = bonusPoints.sum(index, bonusPointValues) + combinations.sum(index, combinationValues);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new ScoreTask(scores, from, middle, bonusPoints, bonusPointValues, combinations, combinationValues),
+                    new ScoreTask(scores, middle, to, bonusPoints, bonusPointValues, combinations, combinationValues));
+        }
+    }
+}
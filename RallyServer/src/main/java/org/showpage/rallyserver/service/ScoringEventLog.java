@@ -0,0 +1,217 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.repository.ScoringEventRepository;
+import org.showpage.rallyserver.repository.ScoringEventRepository.ScoringEventRow;
+import org.showpage.rallyserver.repository.ScoringEventRepository.SnapshotRow;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The append-only scoring log. Every scoring change is recorded here, and the live standings are
+ * whatever you get by replaying it.
+ *
+ * Entries recorded during a transaction are held until just before it commits and then written as
+ * one batch, under a per-rally advisory lock so a rally's events always commit in ID order. Each
+ * entry's follow-up (updating the in-memory standings, telling viewers) runs after the commit, in
+ * the order the entries were recorded.
+ *
+ * Every SNAPSHOT_EVERY events or so a rally gets a snapshot of its replayed standings, so a replay
+ * only has to read the snapshot and whatever came after it.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ScoringEventLog {
+    /** Roughly how many events a rally accumulates between snapshots. */
+    static final int SNAPSHOT_EVERY = 1000;
+
+    private final ScoringEventRepository scoringEventRepository;
+
+    /** Events appended per rally since its last snapshot. Only a hint; it's fine if it drifts. */
+    private final ConcurrentMap<Integer, AtomicLong> sinceSnapshot = new ConcurrentHashMap<>();
+
+    /**
+     * The result of a replay: the standings, and how much of the log it took to get there.
+     */
+    public record Replay(RallyStandings standings, long lastEventId, int eventsReplayed) {}
+
+    /**
+     * Record an event. It's written when the current transaction commits (or right away if there
+     * isn't one), and afterwards the follow-up gets the event with its ID filled in.
+     */
+    public void record(ScoringEventRow row, Consumer<ScoringEventRow> afterCommit) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            for (ScoringEventRow appended : write(List.of(row))) {
+                afterCommit.accept(appended);
+            }
+            return;
+        }
+
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new Pending();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.rows.add(row);
+        pending.followUps.add(afterCommit);
+    }
+
+    /**
+     * Rebuild a rally's standings from its latest snapshot plus everything logged since.
+     */
+    public Replay replay(Integer rallyId) {
+        long start = System.currentTimeMillis();
+        Optional<SnapshotRow> snapshot = scoringEventRepository.findLatestSnapshot(rallyId);
+
+        RallyStandings standings = snapshot
+                .map(row -> readSnapshot(rallyId, row.state()))
+                .orElseGet(() -> new RallyStandings(rallyId));
+        long[] lastEventId = { snapshot.map(SnapshotRow::lastEventId).orElse(0L) };
+        int[] replayed = { 0 };
+
+        scoringEventRepository.forEachEventAfter(rallyId, lastEventId[0], row -> {
+            applyTo(standings, row);
+            lastEventId[0] = row.id();
+            ++replayed[0];
+        });
+
+        log.info("Replayed {} scoring events for rally {} on top of {} in {} ms",
+                replayed[0], rallyId,
+                snapshot.isPresent() ? "snapshot @" + snapshot.get().lastEventId() : "nothing",
+                System.currentTimeMillis() - start);
+        return new Replay(standings, lastEventId[0], replayed[0]);
+    }
+
+    /**
+     * What one event does to the standings. Odometer events are only there for the record.
+     */
+    static void applyTo(RallyStandings standings, ScoringEventRow row) {
+        switch (row.type()) {
+            case RIDER_JOINED -> standings.addRider(row.rallyParticipantId(), row.memberId());
+            case RIDER_LEFT -> standings.removeRider(row.rallyParticipantId());
+            case BONUS_POINT -> standings.putBonusPoint(
+                    row.earnedId(), row.definitionId(), row.rallyParticipantId(), row.memberId(),
+                    StandingsService.pointsOf(row.points()), Boolean.TRUE.equals(row.confirmed()));
+            case COMBINATION -> standings.putCombination(
+                    row.earnedId(), row.definitionId(), row.rallyParticipantId(), row.memberId(),
+                    StandingsService.pointsOf(row.points()), Boolean.TRUE.equals(row.confirmed()));
+            case COMBINATION_RETIRED -> standings.removeCombination(row.earnedId());
+            case BONUS_POINT_REPRICED -> standings.repriceBonusPoint(row.definitionId(), StandingsService.pointsOf(row.points()));
+            case COMBINATION_REPRICED -> standings.repriceCombination(row.definitionId(), StandingsService.pointsOf(row.points()));
+            case BONUS_POINT_DELETED -> standings.removeBonusPoint(row.definitionId());
+            case ODOMETER_IN, ODOMETER_OUT -> { }
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Lock each rally involved (in ID order, so two writers can't deadlock), append, and snapshot
+     * any rally that is due.
+     */
+    private List<ScoringEventRow> write(List<ScoringEventRow> rows) {
+        TreeSet<Integer> rallyIds = new TreeSet<>();
+        for (ScoringEventRow row : rows) {
+            rallyIds.add(row.rallyId());
+        }
+        for (Integer rallyId : rallyIds) {
+            scoringEventRepository.lockRally(rallyId);
+        }
+
+        List<ScoringEventRow> appended = scoringEventRepository.append(rows);
+
+        for (Integer rallyId : rallyIds) {
+            long count = rows.stream().filter(row -> row.rallyId() == rallyId).count();
+            if (counter(rallyId).addAndGet(count) >= SNAPSHOT_EVERY) {
+                snapshot(rallyId);
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Replay the rally as this transaction sees it and store the result. We hold the rally's
+     * lock, so there's nothing older still in flight.
+     */
+    private void snapshot(Integer rallyId) {
+        Replay replay = replay(rallyId);
+        if (replay.eventsReplayed() == 0) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            replay.standings().writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        scoringEventRepository.insertSnapshot(rallyId, replay.lastEventId(), bytes.toByteArray());
+        counter(rallyId).set(0);
+        log.info("Snapshot of rally {} at event {} ({} bytes)", rallyId, replay.lastEventId(), bytes.size());
+    }
+
+    /**
+     * How many events the rally has logged since its last snapshot. Asked of the database the first
+     * time, then counted as we go.
+     */
+    private AtomicLong counter(Integer rallyId) {
+        return sinceSnapshot.computeIfAbsent(rallyId, id -> new AtomicLong(scoringEventRepository.countEventsAfter(
+                id, scoringEventRepository.findLatestSnapshot(id).map(SnapshotRow::lastEventId).orElse(0L))));
+    }
+
+    private static RallyStandings readSnapshot(Integer rallyId, byte[] state) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            return RallyStandings.readFrom(rallyId, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Everything recorded in one transaction. Written just before commit; the follow-ups run after.
+     */
+    private class Pending implements TransactionSynchronization {
+        final List<ScoringEventRow> rows = new ArrayList<>();
+        final List<Consumer<ScoringEventRow>> followUps = new ArrayList<>();
+        List<ScoringEventRow> appended = List.of();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            appended = write(rows);
+        }
+
+        @Override
+        public void afterCommit() {
+            for (int index = 0; index < appended.size(); ++index) {
+                followUps.get(index).accept(appended.get(index));
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(ScoringEventLog.this);
+        }
+    }
+}
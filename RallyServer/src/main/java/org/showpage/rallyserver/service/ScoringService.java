@@ -6,12 +6,12 @@ import org.showpage.rallyserver.entity.*;
 import org.showpage.rallyserver.exception.NotFoundException;
 import org.showpage.rallyserver.exception.ValidationException;
 import org.showpage.rallyserver.repository.*;
-import org.showpage.rallyserver.ui.CreateEarnedBonusPointRequest;
-import org.showpage.rallyserver.ui.CreateEarnedCombinationRequest;
-import org.showpage.rallyserver.ui.UpdateOdometerRequest;
+import org.showpage.rallyserver.ui.*;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Service for scoring operations during rallies.
@@ -25,6 +25,10 @@ public class ScoringService {
     private final CombinationRepository combinationRepository;
     private final EarnedBonusPointRepository earnedBonusPointRepository;
     private final EarnedCombinationRepository earnedCombinationRepository;
+    private final StandingsService standingsService;
+    private final CombinationMatchService combinationMatchService;
+    private final ScoringBatchRepository scoringBatchRepository;
+    private final RallyRoleCache rallyRoleCache;
 
     /**
      * Update starting odometer for a rider. Can be done by scorer (ORGANIZER/AIDE) or by the rider themselves.
@@ -38,7 +42,9 @@ public class ScoringService {
         RallyParticipant participant = rallyParticipantRepository.getRiderForRally(rallyId, request.getRiderId());
 
         participant.setOdometerIn(request.getOdometer());
-        return rallyParticipantRepository.save(participant);
+        participant = rallyParticipantRepository.save(participant);
+        standingsService.odometerChanged(participant, ScoringLogType.ODOMETER_IN, participant.getOdometerIn());
+        return participant;
     }
 
     /**
@@ -53,7 +59,9 @@ public class ScoringService {
         RallyParticipant participant = rallyParticipantRepository.getRiderForRally(rallyId, request.getRiderId());
 
         participant.setOdometerOut(request.getOdometer());
-        return rallyParticipantRepository.save(participant);
+        participant = rallyParticipantRepository.save(participant);
+        standingsService.odometerChanged(participant, ScoringLogType.ODOMETER_OUT, participant.getOdometerOut());
+        return participant;
     }
 
     /**
@@ -70,19 +78,15 @@ public class ScoringService {
 
         BonusPoint bonusPoint = bonusPointRepository.findById_WithThrow(request.getBonusPointId());
 
-        // Verify bonus point belongs to this rally
-        if (!bonusPoint.getRallyId().equals(rallyId)) {
+        // Verify bonus point belongs to this rally. A ride's planning copy has no rally.
+        if (!rallyId.equals(bonusPoint.getRallyId())) {
             throw new ValidationException("Bonus point does not belong to this rally");
         }
 
-        // Verify they don't already have one.
-        if (!earnedBonusPointRepository.findByRallyParticipantIdAndBonusPointId(rallyId, bonusPoint.getId()).isEmpty()) {
-            throw new ValidationException("This earned bonus point already exists");
-        }
-
         EarnedBonusPoint earned = EarnedBonusPoint
                 .builder()
                 .rallyParticipant(participant)
+                .rallyParticipantId(participant.getId())
                 .bonusPoint(bonusPoint)
                 .bonusPointId(bonusPoint.getId())
                 .odometer(request.getOdometer())
@@ -90,7 +94,166 @@ public class ScoringService {
                 .confirmed(request.getConfirmed() != null ? request.getConfirmed() : false)
                 .build();
 
-        return earnedBonusPointRepository.save(earned);
+        // The unique index decides whether they already have one, so a rider and an aide submitting
+        // the same claim at once can't both get in.
+        Integer id = scoringBatchRepository.insertEarnedBonusPoint(new ScoringBatchRepository.EarnedBonusPointRow(
+                        participant.getId(),
+                        bonusPoint.getId(),
+                        earned.getOdometer(),
+                        earned.getEarnedAt(),
+                        earned.getConfirmed()))
+                .orElseThrow(() -> new ValidationException("This earned bonus point already exists"));
+        earned.setId(id);
+
+        standingsService.bonusPointChanged(participant, earned, StandingsService.pointsOf(bonusPoint.getPoints()));
+        combinationMatchService.bonusPointChanged(participant, bonusPoint.getId());
+
+        return earned;
+    }
+
+    /**
+     * Record a rider's whole claim sheet at once. Can be done by scorer (ORGANIZER/AIDE) or by the rider themselves.
+     *
+     * Everything is validated against a couple of queries up front, then the good claims go in as one
+     * JDBC batch. Bad lines don't stop the rest; each one gets a result saying what happened to it.
+     */
+    public ClaimSheetResult submitClaimSheet(Member currentMember, Integer rallyId, ClaimSheetRequest request)
+            throws NotFoundException, ValidationException
+    {
+        if (request == null || request.getClaims() == null) {
+            throw new ValidationException("Claims are required");
+        }
+
+        int riderId = request.getRiderId() != null ? request.getRiderId() : currentMember.getId();
+        RallyParticipant participant = rallyParticipantRepository.getRiderForRally(rallyId, riderId);
+
+        // Permission check: must be scorer (ORGANIZER/AIDE) or the rider themselves
+        checkScoringPermission(currentMember, participant);
+
+        if (request.getOdometerIn() != null) {
+            participant.setOdometerIn(request.getOdometerIn());
+        }
+        if (request.getOdometerOut() != null) {
+            participant.setOdometerOut(request.getOdometerOut());
+        }
+        Integer odometerIn = participant.getOdometerIn();
+        Integer odometerOut = participant.getOdometerOut();
+        if (odometerIn != null && odometerOut != null && odometerOut < odometerIn) {
+            throw new ValidationException("Ending odometer is less than starting odometer");
+        }
+        participant = rallyParticipantRepository.save(participant);
+        if (request.getOdometerIn() != null) {
+            standingsService.odometerChanged(participant, ScoringLogType.ODOMETER_IN, odometerIn);
+        }
+        if (request.getOdometerOut() != null) {
+            standingsService.odometerChanged(participant, ScoringLogType.ODOMETER_OUT, odometerOut);
+        }
+
+        // Everything we need to check against, in two queries.
+        Map<Integer, BonusPoint> bonusPointsById = new HashMap<>();
+        Map<String, BonusPoint> bonusPointsByCode = new HashMap<>();
+        for (BonusPoint bonusPoint : bonusPointRepository.findByRallyId(rallyId)) {
+            bonusPointsById.put(bonusPoint.getId(), bonusPoint);
+            if (bonusPoint.getCode() != null) {
+                bonusPointsByCode.put(bonusPoint.getCode().trim().toUpperCase(), bonusPoint);
+            }
+        }
+        Set<Integer> held = new HashSet<>(earnedBonusPointRepository.findBonusPointIdsByRallyParticipantId(participant.getId()));
+
+        List<ClaimSheetItemResult> items = new ArrayList<>();
+        List<ScoringBatchRepository.EarnedBonusPointRow> rows = new ArrayList<>();
+        List<ClaimSheetItemResult> accepted = new ArrayList<>();
+        List<BonusPoint> acceptedPoints = new ArrayList<>();
+
+        for (int index = 0; index < request.getClaims().size(); ++index) {
+            ClaimSheetEntry claim = request.getClaims().get(index);
+            ClaimSheetItemResult item = ClaimSheetItemResult
+                    .builder()
+                    .index(index)
+                    .bonusPointId(claim != null ? claim.getBonusPointId() : null)
+                    .code(claim != null ? claim.getCode() : null)
+                    .build();
+            items.add(item);
+
+            BonusPoint bonusPoint = null;
+            if (claim != null && claim.getBonusPointId() != null) {
+                bonusPoint = bonusPointsById.get(claim.getBonusPointId());
+            } else if (claim != null && claim.getCode() != null) {
+                bonusPoint = bonusPointsByCode.get(claim.getCode().trim().toUpperCase());
+            }
+
+            if (bonusPoint == null) {
+                reject(item, ClaimStatus.INVALID, "Not a bonus point in this rally");
+                continue;
+            }
+            item.setBonusPointId(bonusPoint.getId());
+            item.setCode(bonusPoint.getCode());
+
+            Integer odometer = claim.getOdometer();
+            if (odometer != null && odometerIn != null && odometer < odometerIn) {
+                reject(item, ClaimStatus.INVALID, "Odometer is before the starting odometer");
+                continue;
+            }
+            if (odometer != null && odometerOut != null && odometer > odometerOut) {
+                reject(item, ClaimStatus.INVALID, "Odometer is past the ending odometer");
+                continue;
+            }
+
+            // This also catches the same point twice on one sheet.
+            if (!Boolean.TRUE.equals(bonusPoint.getRepeatable()) && !held.add(bonusPoint.getId())) {
+                reject(item, ClaimStatus.DUPLICATE, "This earned bonus point already exists");
+                continue;
+            }
+
+            rows.add(new ScoringBatchRepository.EarnedBonusPointRow(
+                    participant.getId(),
+                    bonusPoint.getId(),
+                    odometer,
+                    claim.getEarnedAt(),
+                    Boolean.TRUE.equals(claim.getConfirmed())));
+            accepted.add(item);
+            acceptedPoints.add(bonusPoint);
+        }
+
+        // Anything claimed since we read what they hold is skipped by the unique index and comes back
+        // without an ID.
+        List<Integer> ids = scoringBatchRepository.insertEarnedBonusPoints(rows);
+        Set<Integer> changed = new HashSet<>();
+        int acceptedCount = 0;
+        for (int index = 0; index < ids.size(); ++index) {
+            ClaimSheetItemResult item = accepted.get(index);
+            BonusPoint bonusPoint = acceptedPoints.get(index);
+
+            if (ids.get(index) == null) {
+                reject(item, ClaimStatus.DUPLICATE, "This earned bonus point already exists");
+                continue;
+            }
+            ++acceptedCount;
+            item.setStatus(ClaimStatus.ACCEPTED);
+            item.setEarnedBonusPointId(ids.get(index));
+            standingsService.bonusPointChanged(
+                    participant, ids.get(index), bonusPoint.getId(), StandingsService.pointsOf(bonusPoint.getPoints()), rows.get(index).confirmed());
+            changed.add(bonusPoint.getId());
+        }
+        combinationMatchService.bonusPointsChanged(participant, changed);
+
+        log.info("Claim sheet for participant {}: {} accepted, {} rejected",
+                participant.getId(), acceptedCount, items.size() - acceptedCount);
+
+        return ClaimSheetResult
+                .builder()
+                .rallyParticipantId(participant.getId())
+                .odometerIn(odometerIn)
+                .odometerOut(odometerOut)
+                .accepted(acceptedCount)
+                .rejected(items.size() - acceptedCount)
+                .items(items)
+                .build();
+    }
+
+    private static void reject(ClaimSheetItemResult item, ClaimStatus status, String message) {
+        item.setStatus(status);
+        item.setMessage(message);
     }
 
     /**
@@ -107,7 +270,11 @@ public class ScoringService {
         checkIsScorerForRally(currentMember, participant.getRallyId());
 
         earned.setConfirmed(confirmed);
-        return earnedBonusPointRepository.save(earned);
+        earned = earnedBonusPointRepository.save(earned);
+        standingsService.bonusPointChanged(participant, earned, StandingsService.pointsOf(earned.getBonusPoint().getPoints()));
+        combinationMatchService.bonusPointChanged(participant, earned.getBonusPointId());
+
+        return earned;
     }
 
     /**
@@ -126,11 +293,17 @@ public class ScoringService {
         Combination combination = combinationRepository.findById(request.getCombinationId())
                 .orElseThrow(() -> new NotFoundException("Combination not found"));
 
-        // Verify combination belongs to this rally
-        if (!combination.getRallyId().equals(rallyId)) {
+        // Verify combination belongs to this rally. A ride's planning copy has no rally.
+        if (!rallyId.equals(combination.getRallyId())) {
             throw new ValidationException("Combination does not belong to this rally");
         }
 
+        // Combinations are normally created for us as bonus points come in. This is for the scorer
+        // who needs to award one by hand, so don't let it duplicate one we already have.
+        if (!earnedCombinationRepository.findByRallyParticipantIdAndCombinationId(participant.getId(), combination.getId()).isEmpty()) {
+            throw new ValidationException("This earned combination already exists");
+        }
+
         // We also set IDs. The repo ignores them but also doesn't populate them for us.
         // We want them when we return to the user, and it's harmless.
         EarnedCombination earned = EarnedCombination
@@ -142,7 +315,10 @@ public class ScoringService {
                 .confirmed(request.getConfirmed() != null ? request.getConfirmed() : false)
                 .build();
 
-        return earnedCombinationRepository.save(earned);
+        earned = earnedCombinationRepository.save(earned);
+        standingsService.combinationChanged(participant, earned, StandingsService.pointsOf(combination.getPoints()));
+
+        return earned;
     }
 
     /**
@@ -159,35 +335,36 @@ public class ScoringService {
         checkIsScorerForRally(currentMember, participant.getRallyId());
 
         earned.setConfirmed(confirmed);
-        return earnedCombinationRepository.save(earned);
+        earned = earnedCombinationRepository.save(earned);
+        standingsService.combinationChanged(participant, earned, StandingsService.pointsOf(earned.getCombination().getPoints()));
+
+        return earned;
     }
 
     /**
-     * Get all earned bonus points for a rider.
+     * A rider's earned bonus points in id order, read as they're used rather than all at once.
+     * Permission is checked now; the rows are opened when the supplier is called, which must be in a
+     * transaction, and the stream must be closed.
      */
-    public List<EarnedBonusPoint> getEarnedBonusPoints(Member currentMember, Integer rallyParticipantId)
+    public Supplier<Stream<EarnedBonusPoint>> streamEarnedBonusPoints(Member currentMember, Integer rallyParticipantId)
             throws NotFoundException, ValidationException {
         RallyParticipant participant = rallyParticipantRepository.findById(rallyParticipantId)
                 .orElseThrow(() -> new NotFoundException("Rally participant not found"));
-
-        // Permission check: must be scorer (ORGANIZER/AIDE) or the rider themselves
         checkScoringPermission(currentMember, participant);
 
-        return earnedBonusPointRepository.findByRallyParticipantId(rallyParticipantId);
+        return () -> earnedBonusPointRepository.streamByRallyParticipantIdOrderById(rallyParticipantId);
     }
 
     /**
-     * Get all earned combinations for a rider.
+     * The same for a rider's earned combinations.
      */
-    public List<EarnedCombination> getEarnedCombinations(Member currentMember, Integer rallyParticipantId)
+    public Supplier<Stream<EarnedCombination>> streamEarnedCombinations(Member currentMember, Integer rallyParticipantId)
             throws NotFoundException, ValidationException {
         RallyParticipant participant = rallyParticipantRepository.findById(rallyParticipantId)
                 .orElseThrow(() -> new NotFoundException("Rally participant not found"));
-
-        // Permission check: must be scorer (ORGANIZER/AIDE) or the rider themselves
         checkScoringPermission(currentMember, participant);
 
-        return earnedCombinationRepository.findByRallyParticipantId(rallyParticipantId);
+        return () -> earnedCombinationRepository.streamByRallyParticipantIdOrderById(rallyParticipantId);
     }
 
     //======================================================================
@@ -230,10 +407,9 @@ public class ScoringService {
      * Check if the current member is a scorer (ORGANIZER or AIDE) for the given rally.
      */
     private void checkIsScorerForRally(Member currentMember, Integer rallyId) throws ValidationException {
-        RallyParticipant currentParticipant = rallyParticipantRepository.findByRallyIdAndMemberId(rallyId, currentMember.getId())
+        RallyParticipantType type = rallyRoleCache.getRole(rallyId, currentMember.getId())
                 .orElseThrow(() -> new ValidationException("Not authorized to score for this rally"));
 
-        RallyParticipantType type = currentParticipant.getParticipantType();
         if (type != RallyParticipantType.ORGANIZER && type != RallyParticipantType.AIDE) {
             throw new ValidationException("Only organizers and aides can perform this operation");
         }
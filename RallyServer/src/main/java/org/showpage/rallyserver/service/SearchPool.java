@@ -0,0 +1,88 @@
+package org.showpage.rallyserver.service;
+
+import jakarta.annotation.PreDestroy;
+import org.showpage.rallyserver.exception.ValidationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Where the route and combination searches run. They keep every thread they're given busy for
+ * seconds at a time, so they get a few threads of their own instead of the common fork-join pool
+ * that everything else in the server shares.
+ *
+ * Only so many searches run at once. The rest wait for a turn, and give up if one doesn't come
+ * within the longest a search may run. Searches are also held to that limit however long they ask
+ * for.
+ */
+@Component
+public class SearchPool {
+    private final ExecutorService executor;
+    private final Semaphore running;
+    private final int threads;
+    private final int concurrent;
+    private final int maxSeconds;
+
+    public SearchPool(
+            @Value("${rallymaster.options.search-threads:4}") int threads,
+            @Value("${rallymaster.options.search-concurrency:2}") int concurrent,
+            @Value("${rallymaster.options.search-max-seconds:10}") int maxSeconds
+    ) {
+        this.threads = Math.max(1, threads);
+        this.concurrent = Math.max(1, concurrent);
+        this.maxSeconds = Math.max(1, maxSeconds);
+        this.executor = Executors.newFixedThreadPool(this.threads,
+                Thread.ofPlatform().name("search-", 1).daemon().factory());
+        this.running = new Semaphore(this.concurrent, true);
+    }
+
+    /**
+     * How long a search may run: what was asked for, else the default, and never past the limit.
+     */
+    public Duration timeLimit(Integer requestedSeconds, int defaultSeconds) {
+        int seconds = requestedSeconds != null ? requestedSeconds : defaultSeconds;
+        return Duration.ofSeconds(Math.min(seconds, maxSeconds));
+    }
+
+    /**
+     * How many tasks one search should split into, so searches running together don't queue up
+     * behind each other.
+     */
+    public int tasksPerSearch() {
+        return Math.max(1, threads / concurrent);
+    }
+
+    /**
+     * Run a search once it's our turn, handing it the executor to put its tasks on.
+     */
+    public <T> T run(Function<Executor, T> search) throws ValidationException {
+        try {
+            if (!running.tryAcquire(maxSeconds, TimeUnit.SECONDS)) {
+                throw new ValidationException("Too many searches are running; try again shortly");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValidationException("Interrupted waiting to search");
+        }
+
+        try {
+            return search.apply(executor);
+        }
+        finally {
+            running.release();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
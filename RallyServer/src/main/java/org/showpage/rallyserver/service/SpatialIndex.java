@@ -0,0 +1,356 @@
+package org.showpage.rallyserver.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Answers "nearest N to here", "everything within R miles" and "everything in this box" over a
+ * fixed set of locations without looking at all of them.
+ *
+ * Nearest and radius queries use a k-d tree over points on the unit sphere. Straight-line distance
+ * through the sphere orders points the same way great-circle distance does, so the tree can prune
+ * exactly, and there's nothing special to do at the poles or the date line. The tree is implicit:
+ * the node for a range is its middle element, so it's just a permutation and an axis per node.
+ * Box queries binary search a copy sorted by latitude and check longitude as they go.
+ *
+ * Locations are known by their position in the arrays the index was built from. Instances are
+ * immutable and can be shared.
+ */
+public class SpatialIndex {
+    private static final double EARTH_RADIUS_MILES = 3958.7613;
+
+    private final int size;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    /** Unit-sphere coordinates, in tree order. */
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final int[] tree;
+    private final byte[] axes;
+
+    /** Positions sorted by latitude, and those latitudes, for box queries. */
+    private final int[] byLatitude;
+    private final double[] sortedLatitudes;
+
+    /**
+     * A location and how far it is from the query point.
+     */
+    public record Hit(int index, double miles) {}
+
+    private SpatialIndex(double[] latitudes, double[] longitudes) {
+        size = latitudes.length;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+
+        double[][] unit = new double[3][size];
+        for (int i = 0; i < size; ++i) {
+            double phi = Math.toRadians(latitudes[i]);
+            double lambda = Math.toRadians(longitudes[i]);
+            unit[0][i] = Math.cos(phi) * Math.cos(lambda);
+            unit[1][i] = Math.cos(phi) * Math.sin(lambda);
+            unit[2][i] = Math.sin(phi);
+        }
+
+        tree = new int[size];
+        for (int i = 0; i < size; ++i) {
+            tree[i] = i;
+        }
+        axes = new byte[size];
+        build(unit, 0, size);
+
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        for (int node = 0; node < size; ++node) {
+            xs[node] = unit[0][tree[node]];
+            ys[node] = unit[1][tree[node]];
+            zs[node] = unit[2][tree[node]];
+        }
+
+        byLatitude = new int[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> latitudes[i]));
+        sortedLatitudes = new double[size];
+        for (int i = 0; i < size; ++i) {
+            byLatitude[i] = order[i];
+            sortedLatitudes[i] = latitudes[order[i]];
+        }
+    }
+
+    /**
+     * Index these locations, in degrees. The arrays are parallel.
+     */
+    public static SpatialIndex of(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Need a latitude and longitude for every location");
+        }
+        return new SpatialIndex(latitudes.clone(), longitudes.clone());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The count closest to the point, closest first.
+     */
+    public List<Hit> nearest(double latitude, double longitude, int count) {
+        count = Math.min(count, size);
+        if (count <= 0) {
+            return List.of();
+        }
+
+        double[] query = unit(latitude, longitude);
+        Nearest nearest = new Nearest(count);
+        nearest(query, 0, size, nearest);
+
+        List<Hit> hits = new ArrayList<>(nearest.found);
+        for (int i = 0; i < nearest.found; ++i) {
+            hits.add(new Hit(tree[nearest.nodes[i]], milesFromChord(Math.sqrt(nearest.chords[i]))));
+        }
+        hits.sort(Comparator.comparingDouble(Hit::miles));
+        return hits;
+    }
+
+    /**
+     * Everything within this many miles of the point, closest first.
+     */
+    public List<Hit> within(double latitude, double longitude, double miles) {
+        if (miles < 0 || size == 0) {
+            return List.of();
+        }
+
+        double[] query = unit(latitude, longitude);
+        double chord = chordFromMiles(miles);
+        List<Hit> hits = new ArrayList<>();
+        within(query, chord * chord, 0, size, hits);
+        hits.sort(Comparator.comparingDouble(Hit::miles));
+        return hits;
+    }
+
+    /**
+     * Everything inside the box, in no particular order. If minLongitude is greater than
+     * maxLongitude the box crosses the date line.
+     */
+    public List<Integer> inBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        List<Integer> found = new ArrayList<>();
+        boolean wraps = minLongitude > maxLongitude;
+        for (int i = lowerBound(minLatitude); i < size && sortedLatitudes[i] <= maxLatitude; ++i) {
+            double longitude = longitudes[byLatitude[i]];
+            boolean inside = wraps
+                    ? longitude >= minLongitude || longitude <= maxLongitude
+                    : longitude >= minLongitude && longitude <= maxLongitude;
+            if (inside) {
+                found.add(byLatitude[i]);
+            }
+        }
+        return found;
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Put the median of this range, along its widest axis, in the middle, smaller to the left and
+     * larger to the right, and do the same for each side.
+     */
+    private void build(double[][] unit, int lo, int hi) {
+        if (hi - lo <= 1) {
+            return;
+        }
+
+        int axis = 0;
+        double widest = -1;
+        for (int a = 0; a < 3; ++a) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int i = lo; i < hi; ++i) {
+                double value = unit[a][tree[i]];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = a;
+            }
+        }
+
+        int mid = (lo + hi) >>> 1;
+        select(unit[axis], lo, hi - 1, mid);
+        axes[mid] = (byte) axis;
+        build(unit, lo, mid);
+        build(unit, mid + 1, hi);
+    }
+
+    /**
+     * Quickselect on tree[lo..hi] so that tree[k] is where it would be if sorted by values.
+     */
+    private void select(double[] values, int lo, int hi, int k) {
+        while (hi > lo) {
+            double pivot = values[tree[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[tree[i]] < pivot) {
+                    ++i;
+                }
+                while (values[tree[j]] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    int swap = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = swap;
+                    ++i;
+                    --j;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void nearest(double[] query, int lo, int hi, Nearest nearest) {
+        if (lo >= hi) {
+            return;
+        }
+        int node = (lo + hi) >>> 1;
+        nearest.offer(node, chord2(query, node));
+
+        double split = query[axes[node]] - coordinate(node, axes[node]);
+        boolean leftFirst = split < 0;
+        if (leftFirst) {
+            nearest(query, lo, node, nearest);
+        } else {
+            nearest(query, node + 1, hi, nearest);
+        }
+        if (split * split < nearest.worst()) {
+            if (leftFirst) {
+                nearest(query, node + 1, hi, nearest);
+            } else {
+                nearest(query, lo, node, nearest);
+            }
+        }
+    }
+
+    private void within(double[] query, double chord2, int lo, int hi, List<Hit> hits) {
+        if (lo >= hi) {
+            return;
+        }
+        int node = (lo + hi) >>> 1;
+        double distance2 = chord2(query, node);
+        if (distance2 <= chord2) {
+            hits.add(new Hit(tree[node], milesFromChord(Math.sqrt(distance2))));
+        }
+
+        double split = query[axes[node]] - coordinate(node, axes[node]);
+        if (split < 0 || split * split <= chord2) {
+            within(query, chord2, lo, node, hits);
+        }
+        if (split >= 0 || split * split <= chord2) {
+            within(query, chord2, node + 1, hi, hits);
+        }
+    }
+
+    private double coordinate(int node, int axis) {
+        return axis == 0 ? xs[node] : axis == 1 ? ys[node] : zs[node];
+    }
+
+    private double chord2(double[] query, int node) {
+        double dx = query[0] - xs[node];
+        double dy = query[1] - ys[node];
+        double dz = query[2] - zs[node];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private int lowerBound(double latitude) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedLatitudes[mid] < latitude) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static double[] unit(double latitude, double longitude) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        return new double[] { Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi) };
+    }
+
+    private static double milesFromChord(double chord) {
+        return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1.0, chord / 2));
+    }
+
+    private static double chordFromMiles(double miles) {
+        return 2 * Math.sin(Math.min(Math.PI, miles / EARTH_RADIUS_MILES) / 2);
+    }
+
+    /**
+     * The best count seen so far, as a max-heap on squared chord so the worst is on top.
+     */
+    private static class Nearest {
+        private final int[] nodes;
+        private final double[] chords;
+        private int found;
+
+        Nearest(int count) {
+            nodes = new int[count];
+            chords = new double[count];
+        }
+
+        double worst() {
+            return found < nodes.length ? Double.MAX_VALUE : chords[0];
+        }
+
+        void offer(int node, double chord2) {
+            if (found < nodes.length) {
+                int i = found++;
+                while (i > 0 && chords[(i - 1) / 2] < chord2) {
+                    nodes[i] = nodes[(i - 1) / 2];
+                    chords[i] = chords[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                nodes[i] = node;
+                chords[i] = chord2;
+            } else if (chord2 < chords[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= found) {
+                        break;
+                    }
+                    if (child + 1 < found && chords[child + 1] > chords[child]) {
+                        ++child;
+                    }
+                    if (chords[child] <= chord2) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    chords[i] = chords[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                chords[i] = chord2;
+            }
+        }
+    }
+}
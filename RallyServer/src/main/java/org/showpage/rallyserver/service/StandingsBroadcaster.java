@@ -0,0 +1,210 @@
+package org.showpage.rallyserver.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.ScoringEventType;
+import org.showpage.rallyserver.ui.UiScoringEvent;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Fans scoring events out to everyone watching a rally. Events are built once, by StandingsService
+ * from its in-memory table, and handed to every viewer; nothing here touches the database.
+ *
+ * Each viewer has its own small queue keyed by what the event is about (a claim, a rider's rank),
+ * so a newer event replaces an older one about the same thing that hasn't gone out yet, and takes
+ * its place at the back: events still go out in the order they happened. A viewer that falls far
+ * enough behind to fill the queue anyway gets it thrown away and a single RESYNC in its place.
+ * Sending happens on virtual threads so a slow viewer never holds up scoring.
+ */
+@Service
+@Slf4j
+public class StandingsBroadcaster {
+    /** How long a stream stays open before the client has to reconnect. */
+    static final long STREAM_TIMEOUT_MS = 60 * 60 * 1000L;
+
+    /** Distinct pending events per viewer before we give up and tell them to resync. */
+    static final int MAX_PENDING = 500;
+
+    private final ConcurrentMap<Integer, Set<Viewer>> viewersByRally = new ConcurrentHashMap<>();
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Open a stream on a rally. The first event comes from the supplier, usually the current
+     * standings. We ask for it after the viewer is registered, so nothing committed in between
+     * can be missed.
+     */
+    public SseEmitter subscribe(Integer rallyId, Supplier<UiScoringEvent> first) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        Viewer viewer = new Viewer(rallyId, emitter);
+
+        emitter.onCompletion(() -> remove(viewer));
+        emitter.onTimeout(() -> remove(viewer));
+        emitter.onError(e -> remove(viewer));
+
+        viewersByRally.computeIfAbsent(rallyId, id -> ConcurrentHashMap.newKeySet()).add(viewer);
+        offer(viewer, first.get());
+
+        log.info("Viewer joined rally {} stream ({} watching)", rallyId, viewersByRally.get(rallyId).size());
+        return emitter;
+    }
+
+    public boolean hasViewers(Integer rallyId) {
+        Set<Viewer> viewers = viewersByRally.get(rallyId);
+        return viewers != null && !viewers.isEmpty();
+    }
+
+    /**
+     * Send these events to everyone watching the rally.
+     */
+    public void publish(Integer rallyId, List<UiScoringEvent> events) {
+        Set<Viewer> viewers = viewersByRally.get(rallyId);
+        if (viewers == null || events.isEmpty()) {
+            return;
+        }
+
+        for (Viewer viewer : viewers) {
+            for (UiScoringEvent event : events) {
+                offer(viewer, event);
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sender.shutdownNow();
+        for (Set<Viewer> viewers : viewersByRally.values()) {
+            for (Viewer viewer : viewers) {
+                viewer.emitter.complete();
+            }
+        }
+        viewersByRally.clear();
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private void offer(Viewer viewer, UiScoringEvent event) {
+        if (viewer.offer(event)) {
+            sender.execute(() -> drain(viewer));
+        }
+    }
+
+    /**
+     * Send everything the viewer has pending, and keep going until it stays empty.
+     */
+    private void drain(Viewer viewer) {
+        List<UiScoringEvent> batch;
+        while ((batch = viewer.take()) != null) {
+            try {
+                for (UiScoringEvent event : batch) {
+                    viewer.emitter.send(SseEmitter
+                            .event()
+                            .name(event.getType().name())
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.info("Dropping viewer of rally {}: {}", viewer.rallyId, e.getMessage());
+                remove(viewer);
+                viewer.emitter.completeWithError(e);
+                return;
+            }
+        }
+    }
+
+    private void remove(Viewer viewer) {
+        viewersByRally.computeIfPresent(viewer.rallyId, (id, viewers) -> {
+            viewers.remove(viewer);
+            return viewers.isEmpty() ? null : viewers;
+        });
+    }
+
+    /**
+     * Key used to coalesce events. Two pending events with the same key are about the same thing,
+     * and only the later one matters.
+     */
+    static String coalesceKey(UiScoringEvent event) {
+        return switch (event.getType()) {
+            case BONUS_POINT -> "bp:" + event.getEarnedBonusPointId();
+            case COMBINATION, COMBINATION_RETIRED -> "combo:" + event.getEarnedCombinationId();
+            case RANK -> "rank:" + event.getRallyParticipantId();
+            case STANDINGS, RESYNC -> event.getType().name();
+        };
+    }
+
+    private static class Viewer extends PendingEvents {
+        final SseEmitter emitter;
+
+        Viewer(Integer rallyId, SseEmitter emitter) {
+            super(rallyId, MAX_PENDING);
+            this.emitter = emitter;
+        }
+    }
+
+    /**
+     * One viewer's queue of events waiting to go out, and whether someone is sending them.
+     */
+    static class PendingEvents {
+        final Integer rallyId;
+        private final int maxPending;
+
+        private final Map<String, UiScoringEvent> pending = new LinkedHashMap<>();
+        private boolean draining;
+
+        PendingEvents(Integer rallyId, int maxPending) {
+            this.rallyId = rallyId;
+            this.maxPending = maxPending;
+        }
+
+        /**
+         * Queue an event. Returns true if nobody is draining yet and the caller should start.
+         */
+        synchronized boolean offer(UiScoringEvent event) {
+            String key = coalesceKey(event);
+            if (pending.remove(key) == null && pending.size() >= maxPending) {
+                pending.clear();
+                pending.put(ScoringEventType.RESYNC.name(), UiScoringEvent
+                        .builder()
+                        .type(ScoringEventType.RESYNC)
+                        .rallyId(rallyId)
+                        .build());
+            } else {
+                // Removed first, so the newer event goes to the back rather than the older one's place.
+                pending.put(key, event);
+            }
+
+            if (draining) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        /**
+         * Everything pending, or null (and stop draining) if there's nothing.
+         */
+        synchronized List<UiScoringEvent> take() {
+            if (pending.isEmpty()) {
+                draining = false;
+                return null;
+            }
+            List<UiScoringEvent> batch = new ArrayList<>(pending.values());
+            pending.clear();
+            return batch;
+        }
+    }
+}
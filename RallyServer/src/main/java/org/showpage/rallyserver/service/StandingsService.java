@@ -0,0 +1,350 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.*;
+import org.showpage.rallyserver.exception.NotFoundException;
+import org.showpage.rallyserver.repository.LeaderboardRepository;
+import org.showpage.rallyserver.repository.RallyRepository;
+import org.showpage.rallyserver.repository.ScoringEventRepository.ScoringEventRow;
+import org.showpage.rallyserver.ui.UiRallyStanding;
+import org.showpage.rallyserver.ui.UiScoringEvent;
+import org.showpage.rallyserver.util.TransactionHooks;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Live standings. We keep one RallyStandings table per rally in memory, built by replaying the
+ * scoring log the first time someone asks and then kept current as changes are logged.
+ *
+ * Every change comes in through here, goes into the log, and is applied to the table (and sent to
+ * viewers) after the surrounding transaction commits, so the table never shows something that got
+ * rolled back and never needs to look at the earned tables.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class StandingsService {
+    private final RallyRepository rallyRepository;
+    private final LeaderboardRepository leaderboardRepository;
+    private final ScoringEventLog scoringEventLog;
+    private final StandingsBroadcaster broadcaster;
+    private final RallyRoleCache rallyRoleCache;
+
+    private final ConcurrentMap<Integer, RallyStandings> standingsByRally = new ConcurrentHashMap<>();
+
+    /**
+     * Ranked standings for a rally. Anyone who can see the rally can see the standings.
+     */
+    public List<UiRallyStanding> getStandings(Member member, Integer rallyId) throws NotFoundException {
+        checkCanView(member, rallyId);
+        return ranked(rallyId);
+    }
+
+    /**
+     * One page of the leaderboard, ranked in the database with the full tie-breaks (mileage, then
+     * earliest finish). Use this rather than getStandings() for large rallies and final results.
+     */
+    public Page<UiRallyStanding> getLeaderboard(Member member, Integer rallyId, Pageable pageable) throws NotFoundException {
+        checkCanView(member, rallyId);
+        return leaderboardRepository.findPage(rallyId, pageable);
+    }
+
+    /**
+     * Open a live stream of scoring changes for a rally. The first event is the full standings.
+     */
+    public SseEmitter subscribe(Member member, Integer rallyId) throws NotFoundException {
+        checkCanView(member, rallyId);
+        return broadcaster.subscribe(rallyId, () -> UiScoringEvent
+                .builder()
+                .type(ScoringEventType.STANDINGS)
+                .rallyId(rallyId)
+                .standings(ranked(rallyId))
+                .build());
+    }
+
+    /**
+     * A participant became a rider, and should show up in the standings.
+     */
+    public void riderJoined(RallyParticipant participant) {
+        record(riderEvent(participant, ScoringLogType.RIDER_JOINED).build());
+    }
+
+    /**
+     * A rider became something else, and drops out of the standings.
+     */
+    public void riderLeft(RallyParticipant participant) {
+        record(riderEvent(participant, ScoringLogType.RIDER_LEFT).build());
+    }
+
+    /**
+     * An odometer reading was recorded. It doesn't change the score but it belongs in the log.
+     */
+    public void odometerChanged(RallyParticipant participant, ScoringLogType type, Integer odometer) {
+        record(riderEvent(participant, type).odometer(odometer).build());
+    }
+
+    /**
+     * An earned bonus point was created or its confirmation changed.
+     */
+    public void bonusPointChanged(RallyParticipant participant, EarnedBonusPoint earned, int points) {
+        bonusPointChanged(participant, earned.getId(), earned.getBonusPointId(), points, Boolean.TRUE.equals(earned.getConfirmed()));
+    }
+
+    /**
+     * Same thing, for rows written without an entity (batch inserts).
+     */
+    public void bonusPointChanged(RallyParticipant participant, int earnedId, int bonusPointId, int points, boolean confirmed) {
+        record(riderEvent(participant, ScoringLogType.BONUS_POINT)
+                .earnedId(earnedId)
+                .definitionId(bonusPointId)
+                .points(points)
+                .confirmed(confirmed)
+                .build());
+    }
+
+    /**
+     * An earned combination was created or its confirmation changed.
+     */
+    public void combinationChanged(RallyParticipant participant, EarnedCombination earned, int points) {
+        record(riderEvent(participant, ScoringLogType.COMBINATION)
+                .earnedId(earned.getId())
+                .definitionId(earned.getCombinationId())
+                .points(points)
+                .confirmed(Boolean.TRUE.equals(earned.getConfirmed()))
+                .build());
+    }
+
+    /**
+     * An earned combination was deleted.
+     */
+    public void combinationRemoved(Integer rallyId, Integer rallyParticipantId, Integer earnedId) {
+        record(ScoringEventRow
+                .builder()
+                .rallyId(rallyId)
+                .type(ScoringLogType.COMBINATION_RETIRED)
+                .rallyParticipantId(rallyParticipantId)
+                .earnedId(earnedId)
+                .build());
+    }
+
+    /**
+     * The organizer changed what a bonus point is worth. Only the riders holding it are rescored.
+     */
+    public void bonusPointRepriced(Integer rallyId, Integer bonusPointId, int points) {
+        record(definitionEvent(rallyId, ScoringLogType.BONUS_POINT_REPRICED, bonusPointId).points(points).build());
+    }
+
+    /**
+     * The organizer changed what a combination is worth. Only the riders holding it are rescored.
+     */
+    public void combinationRepriced(Integer rallyId, Integer combinationId, int points) {
+        record(definitionEvent(rallyId, ScoringLogType.COMBINATION_REPRICED, combinationId).points(points).build());
+    }
+
+    /**
+     * A bonus point was deleted. The database takes the claims to it along, and so do we.
+     */
+    public void bonusPointDeleted(Integer rallyId, Integer bonusPointId) {
+        record(definitionEvent(rallyId, ScoringLogType.BONUS_POINT_DELETED, bonusPointId).build());
+    }
+
+    /**
+     * Riders holding any of these bonus points or this combination, from the in-memory index. Empty
+     * if we don't have the rally loaded, in which case the caller has to ask the database.
+     */
+    public Optional<Set<Integer>> findHolders(Integer rallyId, Collection<Integer> bonusPointIds, Integer combinationId) {
+        RallyStandings standings = standingsByRally.get(rallyId);
+        if (standings == null) {
+            return Optional.empty();
+        }
+
+        Set<Integer> holders = new HashSet<>();
+        for (Integer bonusPointId : bonusPointIds) {
+            holders.addAll(standings.holdersOfBonusPoint(bonusPointId));
+        }
+        if (combinationId != null) {
+            holders.addAll(standings.holdersOfCombination(combinationId));
+        }
+        return Optional.of(holders);
+    }
+
+    /**
+     * The rally itself changed (or went away), or we just want to be sure. Throw the table away and
+     * replay the log on the next read. Anyone watching is told to fetch the standings again, which
+     * does the replay.
+     */
+    public void evict(Integer rallyId) {
+        TransactionHooks.afterCommit(() -> {
+            standingsByRally.remove(rallyId);
+            broadcaster.publish(rallyId, List.of(UiScoringEvent
+                    .builder()
+                    .type(ScoringEventType.RESYNC)
+                    .rallyId(rallyId)
+                    .build()));
+        });
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Anyone who can see the rally can see its standings.
+     */
+    private void checkCanView(Member member, Integer rallyId) throws NotFoundException {
+        Rally rally = rallyRepository.findById_WithThrow(rallyId);
+        if (!Boolean.TRUE.equals(rally.getIsPublic())
+                && rallyRoleCache.getRole(rallyId, member.getId()).isEmpty()) {
+            throw new NotFoundException("Rally not found");
+        }
+    }
+
+    private List<UiRallyStanding> ranked(Integer rallyId) {
+        return standingsByRally.computeIfAbsent(rallyId, this::load).getRanked();
+    }
+
+    /**
+     * Log the change. Once it commits, apply it to the table and tell anyone watching.
+     */
+    private void record(ScoringEventRow row) {
+        scoringEventLog.record(row, logged -> apply(
+                logged.rallyId(), toUiEvent(logged), standings -> ScoringEventLog.applyTo(standings, logged)));
+    }
+
+    private static ScoringEventRow.ScoringEventRowBuilder riderEvent(RallyParticipant participant, ScoringLogType type) {
+        return ScoringEventRow
+                .builder()
+                .rallyId(participant.getRallyId())
+                .type(type)
+                .rallyParticipantId(participant.getId())
+                .memberId(participant.getMemberId());
+    }
+
+    private static ScoringEventRow.ScoringEventRowBuilder definitionEvent(Integer rallyId, ScoringLogType type, Integer definitionId) {
+        return ScoringEventRow
+                .builder()
+                .rallyId(rallyId)
+                .type(type)
+                .definitionId(definitionId);
+    }
+
+    /**
+     * What viewers are told about a logged change, if anything beyond the rank changes it causes.
+     */
+    private static UiScoringEvent toUiEvent(ScoringEventRow row) {
+        UiScoringEvent.UiScoringEventBuilder event = UiScoringEvent
+                .builder()
+                .rallyId(row.rallyId())
+                .rallyParticipantId(row.rallyParticipantId())
+                .memberId(row.memberId());
+
+        return switch (row.type()) {
+            case BONUS_POINT -> event
+                    .type(ScoringEventType.BONUS_POINT)
+                    .earnedBonusPointId(row.earnedId())
+                    .points(row.points())
+                    .confirmed(row.confirmed())
+                    .build();
+            case COMBINATION -> event
+                    .type(ScoringEventType.COMBINATION)
+                    .earnedCombinationId(row.earnedId())
+                    .points(row.points())
+                    .confirmed(row.confirmed())
+                    .build();
+            case COMBINATION_RETIRED -> event
+                    .type(ScoringEventType.COMBINATION_RETIRED)
+                    .earnedCombinationId(row.earnedId())
+                    .build();
+            default -> null;
+        };
+    }
+
+    /**
+     * Apply one committed change to the table, if we have it loaded, and tell anyone watching. When
+     * there are viewers we also work out whose rank or score moved. The event may be null when the
+     * rank changes are all there is to say.
+     */
+    private void apply(Integer rallyId, UiScoringEvent event, Consumer<RallyStandings> change) {
+        boolean watched = broadcaster.hasViewers(rallyId);
+        List<UiScoringEvent> events = new ArrayList<>();
+        if (event != null) {
+            events.add(event);
+        }
+
+        standingsByRally.computeIfPresent(rallyId, (id, standings) -> {
+            List<UiRallyStanding> before = watched ? standings.getRanked() : null;
+            change.accept(standings);
+            if (watched) {
+                events.addAll(rankChanges(rallyId, before, standings.getRanked()));
+            }
+            return standings;
+        });
+
+        if (watched) {
+            broadcaster.publish(rallyId, events);
+        }
+    }
+
+    /**
+     * RANK events for every rider whose line in the standings is different now.
+     */
+    private static List<UiScoringEvent> rankChanges(Integer rallyId, List<UiRallyStanding> before, List<UiRallyStanding> after) {
+        if (before == after) {
+            return List.of();
+        }
+
+        Map<Integer, UiRallyStanding> previous = new HashMap<>();
+        for (UiRallyStanding standing : before) {
+            previous.put(standing.getRallyParticipantId(), standing);
+        }
+
+        List<UiScoringEvent> events = new ArrayList<>();
+        for (UiRallyStanding standing : after) {
+            UiRallyStanding old = previous.get(standing.getRallyParticipantId());
+            if (old != null
+                    && old.getRank().equals(standing.getRank())
+                    && old.getScore().equals(standing.getScore())
+                    && old.getPendingScore().equals(standing.getPendingScore())) {
+                continue;
+            }
+            events.add(UiScoringEvent
+                    .builder()
+                    .type(ScoringEventType.RANK)
+                    .rallyId(rallyId)
+                    .rallyParticipantId(standing.getRallyParticipantId())
+                    .memberId(standing.getMemberId())
+                    .rank(standing.getRank())
+                    .previousRank(old != null ? old.getRank() : null)
+                    .score(standing.getScore())
+                    .pendingScore(standing.getPendingScore())
+                    .build());
+        }
+        return events;
+    }
+
+    /**
+     * Build the table by replaying the scoring log from its latest snapshot.
+     */
+    private RallyStandings load(Integer rallyId) {
+        return scoringEventLog.replay(rallyId).standings();
+    }
+
+    static int pointsOf(Integer points) {
+        return points != null ? points : 0;
+    }
+}
@@ -0,0 +1,168 @@
+package org.showpage.rallyserver.service;
+
+import org.showpage.rallyserver.util.GeometryCodec;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * A GPS track: positions and times in parallel primitive arrays, oldest first. Times are epoch
+ * seconds. A day at one point a second is about 86,000 points, which is 2 MB here and around
+ * 400 KB packed with GeometryCodec.
+ */
+public class Track {
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final long[] times;
+    private final int skipped;
+
+    private Track(double[] latitudes, double[] longitudes, long[] times, int skipped) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.times = times;
+        this.skipped = skipped;
+    }
+
+    public static Builder builder() {
+        return new Builder(Integer.MAX_VALUE);
+    }
+
+    /**
+     * A builder that holds no more than maxPoints.
+     */
+    public static Builder builder(int maxPoints) {
+        return new Builder(maxPoints);
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public double latitude(int i) {
+        return latitudes[i];
+    }
+
+    public double longitude(int i) {
+        return longitudes[i];
+    }
+
+    /**
+     * Epoch seconds.
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * Points that were read but thrown away for having no time or an impossible position.
+     */
+    public int skipped() {
+        return skipped;
+    }
+
+    public Instant startedAt() {
+        return times.length > 0 ? Instant.ofEpochSecond(times[0]) : null;
+    }
+
+    public Instant endedAt() {
+        return times.length > 0 ? Instant.ofEpochSecond(times[times.length - 1]) : null;
+    }
+
+    /**
+     * The points, for storing or sending, as GeometryCodec at DEFAULT_PRECISION with times.
+     */
+    public byte[] pack() {
+        return GeometryCodec.encode(latitudes, longitudes, times, GeometryCodec.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Read back what pack() wrote.
+     */
+    public static Track unpack(byte[] packed) {
+        GeometryCodec.Geometry geometry = GeometryCodec.decode(packed);
+        long[] times = geometry.times() != null ? geometry.times() : new long[geometry.size()];
+        return new Track(geometry.latitudes(), geometry.longitudes(), times, 0);
+    }
+
+    /**
+     * Collects points as they're read. Points may come in any order; build() sorts them by time if
+     * they need it, since some exports list the newest first. The arrays grow as points come in,
+     * but never past maxPoints; check isFull() before adding.
+     */
+    public static class Builder {
+        private final int maxPoints;
+        private double[] latitudes;
+        private double[] longitudes;
+        private long[] times;
+        private int size;
+        private int skipped;
+        private boolean sorted = true;
+
+        private Builder(int maxPoints) {
+            this.maxPoints = Math.max(0, maxPoints);
+            int capacity = Math.min(1024, this.maxPoints);
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            times = new long[capacity];
+        }
+
+        public boolean isFull() {
+            return size >= maxPoints;
+        }
+
+        public Builder add(double latitude, double longitude, long time) {
+            if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+                return skip();
+            }
+            if (isFull()) {
+                throw new IllegalStateException("Track is full at " + maxPoints + " points");
+            }
+            if (size == times.length) {
+                int capacity = (int) Math.min((long) size * 2, maxPoints);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                times = Arrays.copyOf(times, capacity);
+            }
+            if (size > 0 && time < times[size - 1]) {
+                sorted = false;
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            times[size] = time;
+            ++size;
+            return this;
+        }
+
+        /**
+         * A point we couldn't use.
+         */
+        public Builder skip() {
+            ++skipped;
+            return this;
+        }
+
+        public Track build() {
+            if (sorted) {
+                return new Track(
+                        Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size), Arrays.copyOf(times, size), skipped);
+            }
+
+            // Stable, so points with the same time keep the order they came in.
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+
+            double[] sortedLatitudes = new double[size];
+            double[] sortedLongitudes = new double[size];
+            long[] sortedTimes = new long[size];
+            for (int i = 0; i < size; ++i) {
+                sortedLatitudes[i] = latitudes[order[i]];
+                sortedLongitudes[i] = longitudes[order[i]];
+                sortedTimes[i] = times[order[i]];
+            }
+            return new Track(sortedLatitudes, sortedLongitudes, sortedTimes, skipped);
+        }
+    }
+}
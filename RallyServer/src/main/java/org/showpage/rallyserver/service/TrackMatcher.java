@@ -0,0 +1,48 @@
+package org.showpage.rallyserver.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds where a track went near bonus points. Every track point asks the SpatialIndex what's
+ * within the radius, so a day at one point a second is 86,000 small tree searches and no scan of
+ * the rally's points.
+ *
+ * A visit starts the first time the track comes within the radius of a point and lasts until it's
+ * been away longer than the gap, so GPS wander at the edge of the circle doesn't turn one stop into
+ * several. Coming back after the gap is a new visit.
+ */
+public class TrackMatcher {
+    /**
+     * One visit to the bonus point at this position in the index. Times are epoch seconds.
+     */
+    public record Visit(int index, long arrivedAt, long departedAt, double closestMiles) {}
+
+    /**
+     * Every visit, in the order they started.
+     */
+    public static List<Visit> match(SpatialIndex index, Track track, double radiusMiles, long gapSeconds) {
+        List<Visit> visits = new ArrayList<>();
+
+        // Where each bonus point's latest visit is in the list, or -1.
+        int[] latest = new int[index.size()];
+        Arrays.fill(latest, -1);
+
+        for (int i = 0; i < track.size(); ++i) {
+            long time = track.time(i);
+            for (SpatialIndex.Hit hit : index.within(track.latitude(i), track.longitude(i), radiusMiles)) {
+                int position = latest[hit.index()];
+                Visit visit = position >= 0 ? visits.get(position) : null;
+                if (visit != null && time - visit.departedAt() <= gapSeconds) {
+                    visits.set(position, new Visit(
+                            visit.index(), visit.arrivedAt(), time, Math.min(visit.closestMiles(), hit.miles())));
+                } else {
+                    latest[hit.index()] = visits.size();
+                    visits.add(new Visit(hit.index(), time, time, hit.miles()));
+                }
+            }
+        }
+        return visits;
+    }
+}
@@ -0,0 +1,381 @@
+package org.showpage.rallyserver.service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a GPS track from GPX or CSV as it streams in. GPX goes through StAX a point at a time and
+ * CSV a line at a time, so the file itself is never held in memory, only the points in a Track.
+ *
+ * GPX: every trkpt with a time. Waypoints and route points aren't where the rider went, so they're
+ * ignored.
+ *
+ * CSV: a header row naming latitude, longitude and time columns (lat/lon/lng and anything with
+ * "time" or "date" in it will do), which covers SpotWalla's export. Without a header the columns
+ * are taken to be latitude, longitude, time.
+ *
+ * Times can be ISO-8601, "yyyy-MM-dd HH:mm:ss" in UTC, or epoch seconds or milliseconds.
+ *
+ * The caller can cap the bytes read and the points kept, and reading stops with an IOException as
+ * soon as either is passed.
+ */
+public class TrackReader {
+    private static final XMLInputFactory XML = xmlInputFactory();
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+    private static final Pattern OFFSET = Pattern.compile("[+-]\\d\\d:?\\d\\d$");
+
+    public enum Format {
+        GPX,
+        CSV
+    }
+
+    /**
+     * Read the whole stream. With no format, look at the first character: '<' is GPX, anything
+     * else is CSV.
+     */
+    public static Track read(InputStream in, Format format) throws IOException {
+        return read(in, format, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * The same, giving up once the stream runs past maxBytes or the track past maxPoints.
+     */
+    public static Track read(InputStream in, Format format, int maxPoints, long maxBytes) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(new Limited(in, maxBytes), 64 * 1024);
+        if (format == null) {
+            format = detect(buffered);
+        }
+        Track.Builder track = Track.builder(maxPoints);
+        return format == Format.GPX ? readGpx(buffered, track) : readCsv(buffered, track);
+    }
+
+    /**
+     * Parse a format name, ignoring case. Null or blank is null.
+     */
+    public static Format format(String name) throws IOException {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        try {
+            return Format.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown track format: " + name);
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static XMLInputFactory xmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static Format detect(BufferedInputStream in) throws IOException {
+        in.mark(1024);
+        try {
+            for (int i = 0; i < 1024; ++i) {
+                int c = in.read();
+                if (c < 0) {
+                    break;
+                }
+                // Whitespace and a UTF-8 byte order mark.
+                if (Character.isWhitespace(c) || c == 0xEF || c == 0xBB || c == 0xBF) {
+                    continue;
+                }
+                return c == '<' ? Format.GPX : Format.CSV;
+            }
+            return Format.CSV;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private static Track readGpx(InputStream in, Track.Builder track) throws IOException {
+        XMLStreamReader xml = null;
+        try {
+            xml = XML.createXMLStreamReader(in);
+            boolean inPoint = false;
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            Long time = null;
+
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if (name.equals("trkpt")) {
+                        inPoint = true;
+                        latitude = parseDouble(xml.getAttributeValue(null, "lat"));
+                        longitude = parseDouble(xml.getAttributeValue(null, "lon"));
+                        time = null;
+                    } else if (inPoint && name.equals("time")) {
+                        time = parseTime(xml.getElementText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("trkpt")) {
+                    inPoint = false;
+                    if (time == null) {
+                        track.skip();
+                    } else {
+                        add(track, latitude, longitude, time);
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Not a readable GPX file: " + e.getMessage(), e);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException ignored) {
+                    // Nothing more to read anyway.
+                }
+            }
+        }
+        return track.build();
+    }
+
+    private static Track readCsv(InputStream in, Track.Builder track) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        String line = reader.readLine();
+        while (line != null && line.isBlank()) {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return track.build();
+        }
+        if (line.startsWith("\uFEFF")) {
+            line = line.substring(1);
+        }
+
+        int latitudeColumn = 0;
+        int longitudeColumn = 1;
+        int timeColumn = 2;
+        List<String> first = split(line);
+        if (Double.isNaN(parseDouble(first.get(0)))) {
+            latitudeColumn = -1;
+            longitudeColumn = -1;
+            timeColumn = -1;
+            for (int i = 0; i < first.size(); ++i) {
+                String name = first.get(i).trim().toLowerCase(Locale.ROOT);
+                if (latitudeColumn < 0 && name.startsWith("lat")) {
+                    latitudeColumn = i;
+                } else if (longitudeColumn < 0 && (name.startsWith("lon") || name.startsWith("lng"))) {
+                    longitudeColumn = i;
+                } else if (timeColumn < 0 && (name.contains("time") || name.contains("date"))) {
+                    timeColumn = i;
+                }
+            }
+            if (latitudeColumn < 0 || longitudeColumn < 0 || timeColumn < 0) {
+                throw new IOException("CSV header needs latitude, longitude and time columns");
+            }
+            line = reader.readLine();
+        }
+
+        int needed = Math.max(latitudeColumn, Math.max(longitudeColumn, timeColumn));
+        for (; line != null; line = reader.readLine()) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            Long time = fields.size() > needed ? parseTime(fields.get(timeColumn)) : null;
+            if (time == null) {
+                track.skip();
+                continue;
+            }
+            add(track, parseDouble(fields.get(latitudeColumn)), parseDouble(fields.get(longitudeColumn)), time);
+        }
+        return track.build();
+    }
+
+    private static void add(Track.Builder track, double latitude, double longitude, long time) throws IOException {
+        if (track.isFull()) {
+            throw new IOException("The track has too many points");
+        }
+        track.add(latitude, longitude, time);
+    }
+
+    /**
+     * Split a CSV line on commas, honouring double quotes.
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    ++i;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * NaN if it isn't a number, which the track then skips as an impossible position.
+     */
+    private static double parseDouble(String text) {
+        if (text == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Epoch seconds, or null if we can't make sense of it.
+     */
+    private static Long parseTime(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        text = text.trim();
+        try {
+            if (DIGITS.matcher(text).matches()) {
+                long value = Long.parseLong(text);
+                return value > 100_000_000_000L ? value / 1000 : value;
+            }
+            Long utc = parseUtc(text);
+            if (utc != null) {
+                return utc;
+            }
+            if (text.endsWith("Z") || OFFSET.matcher(text).find()) {
+                return Instant.parse(text).getEpochSecond();
+            }
+            return LocalDateTime.parse(text.replace(' ', 'T')).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The usual GPX time, yyyy-MM-ddTHH:mm:ss with optional fractions and a Z, read by hand.
+     * Instant.parse() is general and takes a few microseconds, which is most of the time spent
+     * reading a day's track. Anything else is null and left to the general parsers.
+     */
+    private static Long parseUtc(String text) {
+        int length = text.length();
+        if (length < 20 || text.charAt(length - 1) != 'Z' || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || text.charAt(10) != 'T' || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return null;
+        }
+        for (int i = 19; i < length - 1; ++i) {
+            char c = text.charAt(i);
+            if (i == 19 ? c != '.' : !Character.isDigit(c)) {
+                return null;
+            }
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        try {
+            return LocalDate.of(year, month, day).toEpochDay() * 86_400L + hour * 3600L + minute * 60L + second;
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The number in text[start .. start + count - 1], or -1 if they aren't all digits.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; ++i) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Passes the stream through until maxBytes have gone by, then fails.
+     */
+    private static class Limited extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        Limited(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                counted(1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                counted(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counted(skipped);
+            return skipped;
+        }
+
+        private void counted(long bytes) throws IOException {
+            count += bytes;
+            if (count > maxBytes) {
+                throw new IOException("The track is over " + maxBytes + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.showpage.rallyserver.entity.*;
+import org.showpage.rallyserver.exception.NotFoundException;
+import org.showpage.rallyserver.exception.ValidationException;
+import org.showpage.rallyserver.repository.*;
+import org.showpage.rallyserver.ui.UiBonusPoint;
+import org.showpage.rallyserver.ui.UiTrackUpload;
+import org.showpage.rallyserver.ui.UiTrackVisit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Takes a rider's GPS track for a ride, stores it, and proposes claims for the bonus points it
+ * visited so the scorer has something better than a map to go on.
+ *
+ * The track is read as it streams in (TrackReader), checked against the rally's cached SpatialIndex
+ * (BonusPointIndexService), and each visit becomes an unconfirmed earned bonus point arriving when
+ * the rider did. Claims the rider already has are left alone, so uploading the same track twice
+ * proposes nothing new. Start and finish points aren't claimed.
+ *
+ * A track is read before any transaction is opened, since that takes as long as the upload does.
+ * It's held to track-max-megabytes and track-max-points.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class TrackService {
+    private final RideRepository rideRepository;
+    private final RideTrackRepository rideTrackRepository;
+    private final RallyParticipantRepository rallyParticipantRepository;
+    private final EarnedBonusPointRepository earnedBonusPointRepository;
+    private final ScoringBatchRepository scoringBatchRepository;
+    private final BonusPointIndexService bonusPointIndexService;
+    private final StandingsService standingsService;
+    private final CombinationMatchService combinationMatchService;
+    private final RallyRoleCache rallyRoleCache;
+    private final TransactionRunner transactionRunner;
+
+    @Value("${rallymaster.options.track-visit-miles:0.1}")
+    private double visitMiles;
+
+    @Value("${rallymaster.options.track-visit-gap-minutes:10}")
+    private int visitGapMinutes;
+
+    @Value("${rallymaster.options.track-max-points:500000}")
+    private int maxPoints;
+
+    @Value("${rallymaster.options.track-max-megabytes:64}")
+    private int maxMegabytes;
+
+    /**
+     * Read a GPX or CSV track for the ride and propose claims from it. The ride's owner or a scorer
+     * for its rally can do this; to anyone else the ride isn't there. With no format, it's worked out
+     * from the content. Call this without a transaction around it.
+     */
+    public UiTrackUpload upload(Member member, Integer rideId, String format, InputStream in)
+            throws NotFoundException, ValidationException
+    {
+        long start = System.nanoTime();
+        Ride ride = transactionRunner.run(true, () -> {
+            Ride found = rideRepository.findById_WithThrow(rideId);
+            if (found.getRallyId() == null) {
+                throw new ValidationException("This ride isn't for a rally");
+            }
+            if (!member.getId().equals(found.getMemberId()) && !rallyRoleCache.isScorer(found.getRallyId(), member.getId())) {
+                throw new NotFoundException("Ride not found");
+            }
+            return found;
+        });
+
+        Track track;
+        try {
+            track = TrackReader.read(in, TrackReader.format(format), maxPoints, maxMegabytes * 1024L * 1024L);
+        } catch (IOException e) {
+            throw new ValidationException("Can't read the track: " + e.getMessage());
+        }
+        if (track.size() == 0) {
+            throw new ValidationException("The track has no points with times");
+        }
+
+        return transactionRunner.run(false, () -> store(ride, track, start));
+    }
+
+    /**
+     * The ride's track, packed with GeometryCodec and sent as stored. The ride's owner or a scorer
+     * for its rally can have it; to anyone else the ride isn't there.
+     */
+    public byte[] getTrack(Member member, Integer rideId) throws NotFoundException {
+        Ride ride = rideRepository.findById_WithThrow(rideId);
+        if (!member.getId().equals(ride.getMemberId())
+                && (ride.getRallyId() == null || !rallyRoleCache.isScorer(ride.getRallyId(), member.getId()))) {
+            throw new NotFoundException("Ride not found");
+        }
+        return rideTrackRepository.find(ride.getId())
+                .orElseThrow(() -> new NotFoundException("This ride has no track"));
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Store the track and propose claims from its visits.
+     */
+    private UiTrackUpload store(Ride ride, Track track, long start) throws NotFoundException {
+        RallyParticipant participant = rallyParticipantRepository.getRiderForRally(ride.getRallyId(), ride.getMemberId());
+        rideTrackRepository.save(ride.getId(), track.size(), track.startedAt(), track.endedAt(), track.pack());
+
+        List<BonusPointIndexService.Visit> visits = bonusPointIndexService.visits(
+                ride.getRallyId(), track, visitMiles, visitGapMinutes * 60L);
+
+        // What they already hold: any claim on a non-repeatable point, or the same arrival on a
+        // repeatable one.
+        Set<Integer> held = new HashSet<>();
+        Set<String> heldAt = new HashSet<>();
+        for (EarnedBonusPoint earned : earnedBonusPointRepository.findByRallyParticipantId(participant.getId())) {
+            held.add(earned.getBonusPointId());
+            heldAt.add(earned.getBonusPointId() + "@" + earned.getEarnedAt());
+        }
+
+        List<UiTrackVisit> items = new ArrayList<>();
+        List<ScoringBatchRepository.EarnedBonusPointRow> rows = new ArrayList<>();
+        List<UiTrackVisit> proposed = new ArrayList<>();
+        List<UiBonusPoint> proposedPoints = new ArrayList<>();
+        for (BonusPointIndexService.Visit visit : visits) {
+            UiBonusPoint bonusPoint = visit.bonusPoint();
+            if (Boolean.TRUE.equals(bonusPoint.getIsStart()) || Boolean.TRUE.equals(bonusPoint.getIsFinish())) {
+                continue;
+            }
+
+            UiTrackVisit item = UiTrackVisit
+                    .builder()
+                    .bonusPointId(bonusPoint.getId())
+                    .code(bonusPoint.getCode())
+                    .name(bonusPoint.getName())
+                    .arrivedAt(visit.arrivedAt())
+                    .departedAt(visit.departedAt())
+                    .closestMiles(visit.closestMiles())
+                    .build();
+            items.add(item);
+
+            boolean repeatable = Boolean.TRUE.equals(bonusPoint.getRepeatable());
+            if (!heldAt.add(bonusPoint.getId() + "@" + visit.arrivedAt()) || (!repeatable && !held.add(bonusPoint.getId()))) {
+                reject(item);
+                continue;
+            }
+            rows.add(new ScoringBatchRepository.EarnedBonusPointRow(
+                    participant.getId(), bonusPoint.getId(), null, visit.arrivedAt(), false));
+            proposed.add(item);
+            proposedPoints.add(bonusPoint);
+        }
+
+        // As with a claim sheet, anything claimed since we looked comes back without an ID.
+        List<Integer> ids = scoringBatchRepository.insertEarnedBonusPoints(rows);
+        Set<Integer> changed = new HashSet<>();
+        for (int index = 0; index < ids.size(); ++index) {
+            UiTrackVisit item = proposed.get(index);
+            UiBonusPoint bonusPoint = proposedPoints.get(index);
+            if (ids.get(index) == null) {
+                reject(item);
+                continue;
+            }
+            item.setStatus(ClaimStatus.ACCEPTED);
+            item.setEarnedBonusPointId(ids.get(index));
+            standingsService.bonusPointChanged(
+                    participant, ids.get(index), bonusPoint.getId(), StandingsService.pointsOf(bonusPoint.getPoints()), false);
+            changed.add(bonusPoint.getId());
+        }
+        combinationMatchService.bonusPointsChanged(participant, changed);
+
+        int accepted = (int) items.stream().filter(item -> item.getStatus() == ClaimStatus.ACCEPTED).count();
+        log.info("Track for ride {}: {} points ({} skipped), {} visits, {} claims proposed in {} ms",
+                ride.getId(), track.size(), track.skipped(), items.size(), accepted, (System.nanoTime() - start) / 1_000_000);
+
+        return UiTrackUpload
+                .builder()
+                .rideId(ride.getId())
+                .rallyParticipantId(participant.getId())
+                .points(track.size())
+                .skipped(track.skipped())
+                .startedAt(track.startedAt())
+                .endedAt(track.endedAt())
+                .proposed(accepted)
+                .visits(items)
+                .build();
+    }
+
+    private static void reject(UiTrackVisit item) {
+        item.setStatus(ClaimStatus.DUPLICATE);
+        item.setMessage("This earned bonus point already exists");
+    }
+}
@@ -0,0 +1,60 @@
+package org.showpage.rallyserver.service;
+
+import lombok.RequiredArgsConstructor;
+import org.showpage.rallyserver.exception.NotFoundException;
+import org.showpage.rallyserver.exception.ValidationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs work in a transaction of its own. This is for services that do something slow between
+ * transactions rather than inside one, like searching for a route or reading an upload, and are
+ * called through ServiceCaller.callWithoutTransaction(). The work throws what services throw.
+ */
+@Component
+@RequiredArgsConstructor
+public class TransactionRunner {
+    private final PlatformTransactionManager transactionManager;
+
+    public interface Work<T> {
+        T run() throws NotFoundException, ValidationException;
+    }
+
+    /**
+     * Run it, committing if it returns and rolling back if it throws.
+     */
+    public <T> T run(boolean readOnly, Work<T> work) throws NotFoundException, ValidationException {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(readOnly);
+        try {
+            return template.execute(status -> {
+                try {
+                    return work.run();
+                }
+                catch (NotFoundException | ValidationException e) {
+                    throw new WorkFailed(e);
+                }
+            });
+        }
+        catch (WorkFailed e) {
+            if (e.getCause() instanceof NotFoundException notFound) {
+                throw notFound;
+            }
+            throw (ValidationException) e.getCause();
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Carries a checked exception out of TransactionTemplate, which only lets unchecked ones out.
+     */
+    private static class WorkFailed extends RuntimeException {
+        WorkFailed(Exception cause) {
+            super(cause);
+        }
+    }
+}
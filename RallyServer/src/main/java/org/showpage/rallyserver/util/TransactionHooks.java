@@ -0,0 +1,63 @@
+package org.showpage.rallyserver.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Run code when the current transaction commits or finishes.
+ *
+ * The caches that hold what's read from the database (rally roles, compiled combinations, distance
+ * matrices, spatial indexes, search results) all forget an entry the same way, through evict().
+ * The entry is dropped right away, so the rest of the transaction reads what it just changed. It is
+ * dropped again once the transaction finishes, because anything cached in between was read
+ * mid-transaction and must not outlive a rollback.
+ */
+public class TransactionHooks {
+    private TransactionHooks() {
+    }
+
+    /**
+     * Run this once the current transaction commits, and not at all if it rolls back. With no
+     * transaction there's nothing to wait for, so it runs right away.
+     */
+    public static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Run this once the current transaction finishes, committed or rolled back. With no transaction
+     * there's nothing to wait for, so it runs right away.
+     */
+    public static void afterCompletion(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Drop something cached now and again once the current transaction finishes. With no
+     * transaction it runs once.
+     */
+    public static void evict(Runnable drop) {
+        drop.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            afterCompletion(drop);
+        }
+    }
+}
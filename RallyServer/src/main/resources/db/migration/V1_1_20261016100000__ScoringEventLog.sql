@@ -0,0 +1,81 @@
+--
+-- Append-only scoring log. Every scoring change is written here in the same transaction as the
+-- change itself, and the live standings are rebuilt by replaying it. Snapshots hold the replayed
+-- state as of some event, so a replay only has to start from the latest one.
+--
+CREATE TYPE scoring_log_type AS ENUM (
+    'RIDER_JOINED',
+    'RIDER_LEFT',
+    'ODOMETER_IN',
+    'ODOMETER_OUT',
+    'BONUS_POINT',
+    'COMBINATION',
+    'COMBINATION_RETIRED',
+    'BONUS_POINT_REPRICED',
+    'COMBINATION_REPRICED',
+    'BONUS_POINT_DELETED'
+);
+
+CREATE TABLE IF NOT EXISTS scoring_event
+(
+    id                   BIGSERIAL PRIMARY KEY,
+    rally_id             INTEGER NOT NULL REFERENCES rally (id) ON DELETE CASCADE,
+    event_type           scoring_log_type NOT NULL,
+    rally_participant_id INTEGER,
+    member_id            INTEGER,
+    earned_id            INTEGER,
+    definition_id        INTEGER,
+    points               INTEGER,
+    confirmed            BOOLEAN,
+    odometer             INTEGER,
+    recorded_at          TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp()
+);
+
+CREATE INDEX IF NOT EXISTS scoring_event_rally_idx ON scoring_event (rally_id, id);
+
+CREATE TABLE IF NOT EXISTS scoring_snapshot
+(
+    id            SERIAL PRIMARY KEY,
+    rally_id      INTEGER NOT NULL REFERENCES rally (id) ON DELETE CASCADE,
+    last_event_id BIGINT NOT NULL,
+    state         BYTEA NOT NULL,
+    created_at    TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS scoring_snapshot_rally_idx ON scoring_snapshot (rally_id, last_event_id DESC);
+
+--
+-- Backfill so replaying an existing rally gives the standings it has today: riders first, then
+-- odometers, then claims in the order they were made.
+--
+INSERT INTO scoring_event (rally_id, event_type, rally_participant_id, member_id)
+SELECT rally_id, 'RIDER_JOINED', id, member_id
+FROM rally_participant
+WHERE participant_type = 'RIDER'
+ORDER BY id;
+
+INSERT INTO scoring_event (rally_id, event_type, rally_participant_id, member_id, odometer)
+SELECT rally_id, 'ODOMETER_IN', id, member_id, odometer_in
+FROM rally_participant
+WHERE participant_type = 'RIDER' AND odometer_in IS NOT NULL
+ORDER BY id;
+
+INSERT INTO scoring_event (rally_id, event_type, rally_participant_id, member_id, odometer)
+SELECT rally_id, 'ODOMETER_OUT', id, member_id, odometer_out
+FROM rally_participant
+WHERE participant_type = 'RIDER' AND odometer_out IS NOT NULL
+ORDER BY id;
+
+INSERT INTO scoring_event (rally_id, event_type, rally_participant_id, member_id, earned_id, definition_id, points, confirmed, odometer)
+SELECT p.rally_id, 'BONUS_POINT', p.id, p.member_id, e.id, e.bonus_point_id, COALESCE(b.points, 0), e.confirmed, e.odometer
+FROM earned_bonus_point e
+JOIN rally_participant p ON p.id = e.rally_participant_id
+JOIN bonus_point b ON b.id = e.bonus_point_id
+ORDER BY e.id;
+
+INSERT INTO scoring_event (rally_id, event_type, rally_participant_id, member_id, earned_id, definition_id, points, confirmed)
+SELECT p.rally_id, 'COMBINATION', p.id, p.member_id, e.id, e.combination_id, COALESCE(c.points, 0), e.confirmed
+FROM earned_combination e
+JOIN rally_participant p ON p.id = e.rally_participant_id
+JOIN combination c ON c.id = e.combination_id
+ORDER BY e.id;
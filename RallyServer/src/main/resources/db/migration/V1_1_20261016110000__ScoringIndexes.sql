@@ -0,0 +1,7 @@
+--
+-- Indexes for per-participant and per-rally scoring lookups. The leaderboard query aggregates
+-- earned rows by participant for one rally; without these every lookup is a sequential scan.
+--
+CREATE INDEX IF NOT EXISTS earned_bonus_point_participant_idx ON earned_bonus_point (rally_participant_id);
+CREATE INDEX IF NOT EXISTS earned_combination_participant_idx ON earned_combination (rally_participant_id);
+CREATE INDEX IF NOT EXISTS rally_participant_rally_idx ON rally_participant (rally_id);
@@ -0,0 +1,28 @@
+--
+-- A rider can hold a non-repeatable bonus point only once. Uniqueness can't look across to
+-- bonus_point, so each claim carries a copy of the point's repeatable flag and the unique index
+-- only covers claims where it's false. Inserts use ON CONFLICT against this index.
+--
+ALTER TABLE earned_bonus_point ADD COLUMN IF NOT EXISTS repeatable BOOLEAN NOT NULL DEFAULT FALSE;
+
+UPDATE earned_bonus_point e
+SET repeatable = b.repeatable
+FROM bonus_point b
+WHERE b.id = e.bonus_point_id;
+
+-- The old duplicate check looked up the wrong ID, so duplicates may already exist. Keep the
+-- earliest claim under the index and flag the rest so they're left alone; they're already in the
+-- scoring log, and deleting them here would put the log and the earned rows out of step.
+UPDATE earned_bonus_point e
+SET repeatable = TRUE
+WHERE NOT e.repeatable
+  AND EXISTS (SELECT 1
+              FROM earned_bonus_point other
+              WHERE other.rally_participant_id = e.rally_participant_id
+                AND other.bonus_point_id = e.bonus_point_id
+                AND NOT other.repeatable
+                AND other.id < e.id);
+
+CREATE UNIQUE INDEX IF NOT EXISTS earned_bonus_point_unique_claim_idx
+    ON earned_bonus_point (rally_participant_id, bonus_point_id)
+    WHERE NOT repeatable;
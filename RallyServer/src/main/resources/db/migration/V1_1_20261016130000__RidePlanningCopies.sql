@@ -0,0 +1,20 @@
+--
+-- "Plan My Ride" copies a rally's bonus points and combinations into rows owned by the ride (see
+-- Decisions.md). A row belongs to a rally or to a ride, never both, and a copy remembers the rally
+-- row it came from so scoring can find its way back. Copies go when the ride does; if the rally
+-- row is deleted the copy stays and just loses its source.
+--
+ALTER TABLE bonus_point ADD COLUMN IF NOT EXISTS ride_id INTEGER REFERENCES ride (id) ON DELETE CASCADE;
+ALTER TABLE bonus_point ADD COLUMN IF NOT EXISTS source_bonus_point_id INTEGER REFERENCES bonus_point (id) ON DELETE SET NULL;
+ALTER TABLE bonus_point ADD CONSTRAINT bonus_point_one_owner CHECK (rally_id IS NULL OR ride_id IS NULL);
+
+ALTER TABLE combination ADD COLUMN IF NOT EXISTS ride_id INTEGER REFERENCES ride (id) ON DELETE CASCADE;
+ALTER TABLE combination ADD COLUMN IF NOT EXISTS source_combination_id INTEGER REFERENCES combination (id) ON DELETE SET NULL;
+ALTER TABLE combination ADD CONSTRAINT combination_one_owner CHECK (rally_id IS NULL OR ride_id IS NULL);
+
+ALTER TABLE combination_point ADD COLUMN IF NOT EXISTS source_combination_point_id INTEGER REFERENCES combination_point (id) ON DELETE SET NULL;
+
+-- The copy joins new rows back to their sources within one ride.
+CREATE INDEX IF NOT EXISTS bonus_point_ride_idx ON bonus_point (ride_id, source_bonus_point_id);
+CREATE INDEX IF NOT EXISTS combination_ride_idx ON combination (ride_id, source_combination_id);
+CREATE INDEX IF NOT EXISTS combination_point_combination_idx ON combination_point (combination_id);
@@ -0,0 +1,14 @@
+--
+-- A ride's recorded GPS track, packed into one value rather than a row per point: a day at one
+-- point a second is 86,000 points, packed with GeometryCodec (see Track.pack()). Uploading again
+-- replaces it.
+--
+CREATE TABLE IF NOT EXISTS ride_track
+(
+    ride_id     INTEGER PRIMARY KEY REFERENCES ride (id) ON DELETE CASCADE,
+    point_count INTEGER NOT NULL,
+    started_at  TIMESTAMPTZ,
+    ended_at    TIMESTAMPTZ,
+    points      BYTEA NOT NULL,
+    uploaded_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
@@ -0,0 +1,6 @@
+--
+-- The road a leg follows between its waypoints, as routed on the desktop, in GeometryCodec's
+-- packed form. It's served back as stored. RideLeg doesn't map it, so loading a ride's legs never
+-- drags the geometry along.
+--
+ALTER TABLE ride_leg ADD COLUMN IF NOT EXISTS geometry BYTEA;
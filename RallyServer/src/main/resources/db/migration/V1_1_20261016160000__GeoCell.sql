@@ -0,0 +1,27 @@
+--
+-- Rally proximity search. geo_cell is a binary geohash of the rally's location: latitude and
+-- longitude each cut into 2^31 steps with their bits interleaved, latitude first. A geohash cell is
+-- then one range of geo_cell values, so a radius search is a few range scans on the index instead
+-- of trig on every row. GeoCell.java works out the ranges and must number cells the same way.
+--
+CREATE OR REPLACE FUNCTION rally_geo_cell(latitude DOUBLE PRECISION, longitude DOUBLE PRECISION)
+    RETURNS BIGINT
+    LANGUAGE plpgsql IMMUTABLE STRICT PARALLEL SAFE AS
+$$
+DECLARE
+    lat_step BIGINT := LEAST(GREATEST(floor((latitude + 90) / 180 * 2147483648), 0), 2147483647);
+    lng_step BIGINT := LEAST(GREATEST(floor((longitude + 180) / 360 * 2147483648), 0), 2147483647);
+    cell     BIGINT := 0;
+BEGIN
+    FOR b IN 0..30 LOOP
+        cell := cell | (((lat_step >> b) & 1) << (2 * b + 1)) | (((lng_step >> b) & 1) << (2 * b));
+    END LOOP;
+    RETURN cell;
+END
+$$;
+
+-- Kept up to date by the database on every insert and update, however the row is written.
+ALTER TABLE rally ADD COLUMN IF NOT EXISTS geo_cell BIGINT
+    GENERATED ALWAYS AS (rally_geo_cell(latitude, longitude)) STORED;
+
+CREATE INDEX IF NOT EXISTS rally_geo_cell_idx ON rally (geo_cell);
@@ -0,0 +1,9 @@
+--
+-- Rally search matches name and region with lower(...) LIKE '%text%', which a B-tree can't help
+-- with. Trigram GIN indexes on the same expressions can, for anything three characters or longer,
+-- and pg_trgm's similarity functions rank the results when searching by relevance.
+--
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS rally_name_trgm_idx ON rally USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS rally_location_state_trgm_idx ON rally USING gin (lower(location_state) gin_trgm_ops);
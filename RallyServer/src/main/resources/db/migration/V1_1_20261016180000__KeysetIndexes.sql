@@ -0,0 +1,8 @@
+--
+-- Paging by cursor reads rows after a key in key order. These indexes let the database seek to
+-- the key and read just the page, for rally search by (start_date, id) and for a rally's bonus
+-- points and combinations by id. Members page on their primary key.
+--
+CREATE INDEX IF NOT EXISTS rally_start_date_idx ON rally (start_date, id);
+CREATE INDEX IF NOT EXISTS bonus_point_rally_idx ON bonus_point (rally_id, id);
+CREATE INDEX IF NOT EXISTS combination_rally_idx ON combination (rally_id, id);
@@ -0,0 +1,6 @@
+--
+-- Earned combinations the server worked out from a rider's bonus points are marked automatic, and
+-- only those are retired when the points stop satisfying them. Everything already here was entered
+-- by hand.
+--
+ALTER TABLE earned_combination ADD COLUMN IF NOT EXISTS automatic BOOLEAN NOT NULL DEFAULT false;
@@ -11,13 +11,18 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.net.http.HttpResponse;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.Base64;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 /**
  * Base class for all integration tests.
@@ -31,22 +36,33 @@ public abstract class IntegrationTest {
     public static class RR_UiMember extends RestResponse<UiMember> {}
     public static class RR_ListUiMember extends RestResponse<List<UiMember>> {}
     public static class RR_PageUiRally extends RestResponse<PageResponse<UiRally>> {}
+    public static class RR_PageUiBonusPoint extends RestResponse<PageResponse<UiBonusPoint>> {}
+    public static class RR_PageUiMember extends RestResponse<PageResponse<UiMember>> {}
     public static class RR_UiRally extends RestResponse<UiRally> {}
     public static class RR_UiRallyParticipant extends RestResponse<UiRallyParticipant> {}
     public static class RR_UiBonusPoint extends RestResponse<UiBonusPoint> {}
     public static class RR_UiCombination extends RestResponse<UiCombination> {}
     public static class RR_UiCombinationPoint extends RestResponse<UiCombinationPoint> {}
+    public static class RR_UiCombinationAnalysis extends RestResponse<UiCombinationAnalysis> {}
     public static class RR_UiEarnedBonusPoint extends RestResponse<UiEarnedBonusPoint> {}
     public static class RR_UiEarnedCombination extends RestResponse<UiEarnedCombination> {}
     public static class RR_UiMotorcycle extends RestResponse<UiMotorcycle> {}
     public static class RR_ListUiBonusPoint extends RestResponse<List<UiBonusPoint>> {}
+    public static class RR_ListUiNearbyBonusPoint extends RestResponse<List<UiNearbyBonusPoint>> {}
     public static class RR_ListUiCombination extends RestResponse<List<UiCombination>> {}
     public static class RR_ListUiEarnedBonusPoint extends RestResponse<List<UiEarnedBonusPoint>> {}
     public static class RR_ListUiEarnedCombination extends RestResponse<List<UiEarnedCombination>> {}
+    public static class RR_ListUiRallyStanding extends RestResponse<List<UiRallyStanding>> {}
+    public static class RR_PageUiRallyStanding extends RestResponse<PageResponse<UiRallyStanding>> {}
+    public static class RR_ClaimSheetResult extends RestResponse<ClaimSheetResult> {}
+    public static class RR_UiScoreRecompute extends RestResponse<UiScoreRecompute> {}
     public static class RR_UiRide extends RestResponse<UiRide> {}
     public static class RR_UiRoute extends RestResponse<UiRoute> {}
+    public static class RR_UiRoutePlan extends RestResponse<UiRoutePlan> {}
     public static class RR_UiRideLeg extends RestResponse<UiRideLeg> {}
     public static class RR_UiWaypoint extends RestResponse<UiWaypoint> {}
+    public static class RR_UiWaypointSequence extends RestResponse<UiWaypointSequence> {}
+    public static class RR_UiTrackUpload extends RestResponse<UiTrackUpload> {}
     public static class RR_ListUiRide extends RestResponse<List<UiRide>> {}
     public static class RR_ListUiRoute extends RestResponse<List<UiRoute>> {}
     public static class RR_ListUiRideLeg extends RestResponse<List<UiRideLeg>> {}
@@ -56,9 +72,12 @@ public abstract class IntegrationTest {
     // Type references for the above.
     public static final TypeReference<RR_AuthResponse> tr_AuthResponse = new TypeReference<>() {};
     public static final TypeReference<RR_PageUiRally> tr_PageUiRally = new TypeReference<>() {};
+    public static final TypeReference<RR_PageUiBonusPoint> tr_PageUiBonusPoint = new TypeReference<>() {};
+    public static final TypeReference<RR_PageUiMember> tr_PageUiMember = new TypeReference<>() {};
     public static final TypeReference<RR_UiBonusPoint> tr_UiBonusPoint = new TypeReference<>() {};
     public static final TypeReference<RR_UiCombination> tr_UiCombination = new TypeReference<>() {};
     public static final TypeReference<RR_UiCombinationPoint> tr_UiCombinationPoint = new TypeReference<>() {};
+    public static final TypeReference<RR_UiCombinationAnalysis> tr_UiCombinationAnalysis = new TypeReference<>() {};
     public static final TypeReference<RR_UiEarnedCombination> tr_UiEarnedCombination = new TypeReference<>() {};
     public static final TypeReference<RR_UiMember> tr_UiMember = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiMember> tr_ListUiMember = new TypeReference<>() {};
@@ -67,13 +86,21 @@ public abstract class IntegrationTest {
     public static final TypeReference<RR_UiRallyParticipant> tr_UiRallyParticipant = new TypeReference<>() {};
     public static final TypeReference<RR_UiEarnedBonusPoint> tr_UiEarnedBonusPoint = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiBonusPoint> tr_ListUiBonusPoint = new TypeReference<>() {};
+    public static final TypeReference<RR_ListUiNearbyBonusPoint> tr_ListUiNearbyBonusPoint = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiCombination> tr_ListUiCombination = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiEarnedBonusPoint> tr_ListUiEarnedBonusPoint = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiEarnedCombination> tr_ListUiEarnedCombination = new TypeReference<>() {};
+    public static final TypeReference<RR_ListUiRallyStanding> tr_ListUiRallyStanding = new TypeReference<>() {};
+    public static final TypeReference<RR_PageUiRallyStanding> tr_PageUiRallyStanding = new TypeReference<>() {};
+    public static final TypeReference<RR_ClaimSheetResult> tr_ClaimSheetResult = new TypeReference<>() {};
+    public static final TypeReference<RR_UiScoreRecompute> tr_UiScoreRecompute = new TypeReference<>() {};
     public static final TypeReference<RR_UiRide> tr_UiRide = new TypeReference<>() {};
     public static final TypeReference<RR_UiRoute> tr_UiRoute = new TypeReference<>() {};
+    public static final TypeReference<RR_UiRoutePlan> tr_UiRoutePlan = new TypeReference<>() {};
     public static final TypeReference<RR_UiRideLeg> tr_UiRideLeg = new TypeReference<>() {};
     public static final TypeReference<RR_UiWaypoint> tr_UiWaypoint = new TypeReference<>() {};
+    public static final TypeReference<RR_UiWaypointSequence> tr_UiWaypointSequence = new TypeReference<>() {};
+    public static final TypeReference<RR_UiTrackUpload> tr_UiTrackUpload = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiRide> tr_ListUiRide = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiRoute> tr_ListUiRoute = new TypeReference<>() {};
     public static final TypeReference<RR_ListUiRideLeg> tr_ListUiRideLeg = new TypeReference<>() {};
@@ -99,6 +126,11 @@ public abstract class IntegrationTest {
 
     protected static String testUserPassword;
 
+    // Optional. Tests that look at query plans connect straight to the database.
+    protected static String databaseUrl;
+    protected static String databaseUser;
+    protected static String databasePassword;
+
     protected static RESTCaller restCaller;
     protected static Faker faker;
 
@@ -346,6 +378,27 @@ public abstract class IntegrationTest {
         testUserPassword = value;
     }
 
+    public static void setDatabaseUrl(String value) {
+        databaseUrl = value;
+    }
+
+    public static void setDatabaseUser(String value) {
+        databaseUser = value;
+    }
+
+    public static void setDatabasePassword(String value) {
+        databasePassword = value;
+    }
+
+    /**
+     * A connection to the server's database, for tests that need to see what it does with a query.
+     * Skips the test if .integration.properties doesn't say where the database is.
+     */
+    protected Connection openDatabase() throws SQLException {
+        assumeTrue(databaseUrl != null && !databaseUrl.isBlank(), "database_url is not set");
+        return DriverManager.getConnection(databaseUrl, databaseUser, databasePassword);
+    }
+
     /**
      * Step D: Login as a user and return the Bearer authorization header.
      */
@@ -400,6 +453,10 @@ public abstract class IntegrationTest {
         return restCaller.delete(path, adminAuthHeader, typeRef);
     }
 
+    protected HttpResponse<byte[]> getBytes_Admin(String path) throws IOException, InterruptedException {
+        return restCaller.getBytes(path, adminAuthHeader);
+    }
+
     // Step E: REST methods for Rally Master (Organizer)
     protected <T> T get_ForRM(String path, TypeReference<T> typeRef) throws IOException, InterruptedException {
         return restCaller.get(path, organizerAuthHeader, typeRef);
@@ -413,6 +470,14 @@ public abstract class IntegrationTest {
         return restCaller.put(path, body, organizerAuthHeader, typeRef);
     }
 
+    protected <T> T putBytes_ForRM(String path, byte[] body, String contentType, TypeReference<T> typeRef) throws IOException, InterruptedException {
+        return restCaller.putBytes(path, body, contentType, organizerAuthHeader, typeRef);
+    }
+
+    protected HttpResponse<byte[]> getBytes_ForRM(String path) throws IOException, InterruptedException {
+        return restCaller.getBytes(path, organizerAuthHeader);
+    }
+
     protected <T> T delete_ForRM(String path, TypeReference<T> typeRef) throws IOException, InterruptedException {
         return restCaller.delete(path, organizerAuthHeader, typeRef);
     }
@@ -430,6 +495,14 @@ public abstract class IntegrationTest {
         return restCaller.put(path, body, riderAuthHeader, typeRef);
     }
 
+    protected <T> T upload_ForRider(String path, Path file, String contentType, TypeReference<T> typeRef) throws IOException, InterruptedException {
+        return restCaller.upload(path, file, contentType, riderAuthHeader, typeRef);
+    }
+
+    protected HttpResponse<byte[]> getBytes_ForRider(String path) throws IOException, InterruptedException {
+        return restCaller.getBytes(path, riderAuthHeader);
+    }
+
     protected <T> T delete_ForRider(String path, TypeReference<T> typeRef) throws IOException, InterruptedException {
         return restCaller.delete(path, riderAuthHeader, typeRef);
     }
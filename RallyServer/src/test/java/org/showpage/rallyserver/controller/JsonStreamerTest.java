@@ -0,0 +1,49 @@
+package org.showpage.rallyserver.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the JSON the streamed lists write, whole and when a row fails part way.
+ */
+public class JsonStreamerTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonStreamer jsonStreamer = new JsonStreamer(objectMapper, null);
+
+    @Test
+    public void testWritesAPage() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jsonStreamer.writePage(out, () -> Stream.of("a", "b", "c"));
+
+        JsonNode body = objectMapper.readTree(out.toByteArray());
+        assertTrue(body.get("success").asBoolean());
+        assertEquals(3, body.get("data").get("content").size());
+        assertEquals(3, body.get("data").get("totalElements").asInt());
+    }
+
+    @Test
+    public void testFailedRowLeavesTheJsonUnfinished() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IllegalStateException failure = new IllegalStateException("Lost the database");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> jsonStreamer.writeList(out,
+                () -> Stream.of("a", "b", "c").map(row -> {
+                    if (row.equals("c")) {
+                        throw failure;
+                    }
+                    return row;
+                })));
+        assertSame(failure, e);
+
+        // Whatever got out must not parse as a shorter list.
+        String written = out.toString(StandardCharsets.UTF_8);
+        assertThrows(Exception.class, () -> objectMapper.readTree(written), written);
+    }
+}
@@ -3,9 +3,12 @@ package org.showpage.rallyserver.controller;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.*;
 import org.showpage.rallyserver.IntegrationTest;
+import org.showpage.rallyserver.service.DistanceMatrix;
 import org.showpage.rallyserver.ui.*;
 
+import java.net.http.HttpResponse;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -182,6 +185,121 @@ public class RallyMasterOperationsIT extends IntegrationTest {
         assertEquals(3, bonusPoints.size());
     }
 
+    @Test
+    @Order(131)
+    @DisplayName("Rally Master can page through bonus points by cursor")
+    public void testPageBonusPoints() throws Exception {
+        UiRally rally = createTestRally();
+        for (int i = 1; i <= 5; ++i) {
+            createTestBonusPoint(rally.getId(), "BP" + i, 10 * i);
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        String cursor = "";
+        int pages = 0;
+        while (cursor != null) {
+            RR_PageUiBonusPoint response = get_ForRM(
+                    "/api/rally/" + rally.getId() + "/bonuspoints/page?size=2&count=true&cursor=" + cursor, tr_PageUiBonusPoint);
+            check(response);
+            PageResponse<UiBonusPoint> page = response.getData();
+            assertEquals(5, page.getTotalElements());
+            assertEquals(pages == 0, page.isFirst());
+            page.getContent().forEach(bonusPoint -> ids.add(bonusPoint.getId()));
+            cursor = page.getNext();
+            ++pages;
+        }
+
+        assertEquals(3, pages);
+        assertEquals(5, ids.size());
+        assertEquals(ids.stream().sorted().toList(), ids);
+
+        RR_PageUiBonusPoint bad = get_ForRM("/api/rally/" + rally.getId() + "/bonuspoints/page?cursor=nonsense", tr_PageUiBonusPoint);
+        checkFailed(bad);
+    }
+
+    @Test
+    @Order(132)
+    @DisplayName("Listing bonus points streams every one, past where the writer flushes")
+    public void testStreamBonusPoints() throws Exception {
+        UiRally rally = createTestRally();
+        int count = 105;
+        for (int i = 1; i <= count; ++i) {
+            createTestBonusPoint(rally.getId(), "BP" + i, i);
+        }
+
+        RR_ListUiBonusPoint response = get_ForRM("/api/rally/" + rally.getId() + "/bonuspoints", tr_ListUiBonusPoint);
+        check(response);
+        List<Integer> ids = response.getData().stream().map(UiBonusPoint::getId).toList();
+        assertEquals(count, ids.size());
+        assertEquals(ids.stream().sorted().toList(), ids);
+
+        checkFailed(get_ForRM("/api/rally/0/bonuspoints", tr_ListUiBonusPoint));
+    }
+
+    @Test
+    @Order(140)
+    @DisplayName("Bonus points can be found by location, and moving one updates the answer")
+    public void testFindBonusPointsNearby() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 50);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 75);
+        String near = "latitude=" + bp1.getLatitude() + "&longitude=" + bp1.getLongitude();
+
+        RR_ListUiNearbyBonusPoint nearest = get_ForRM(
+                "/api/rally/" + rally.getId() + "/bonuspoints/nearest?" + near + "&count=1", tr_ListUiNearbyBonusPoint);
+        check(nearest);
+        assertEquals(1, nearest.getData().size());
+        assertEquals(bp1.getId(), nearest.getData().get(0).getBonusPoint().getId());
+        assertEquals(0.0, nearest.getData().get(0).getMiles(), 0.01);
+
+        RR_ListUiBonusPoint box = get_ForRM("/api/rally/" + rally.getId() + "/bonuspoints/box"
+                + "?minLatitude=" + (bp1.getLatitude() - 0.001) + "&minLongitude=" + (bp1.getLongitude() - 0.001)
+                + "&maxLatitude=" + (bp1.getLatitude() + 0.001) + "&maxLongitude=" + (bp1.getLongitude() + 0.001),
+                tr_ListUiBonusPoint);
+        check(box);
+        assertTrue(box.getData().stream().anyMatch(bp -> bp.getId().equals(bp1.getId())));
+
+        // Move BP2 next to BP1; the index has to notice.
+        UpdateBonusPointRequest move = new UpdateBonusPointRequest();
+        move.setLatitude(bp1.getLatitude());
+        move.setLongitude(bp1.getLongitude());
+        check(put_ForRM("/api/bonuspoint/" + bp2.getId(), move, tr_UiBonusPoint));
+
+        RR_ListUiNearbyBonusPoint within = get_ForRM(
+                "/api/rally/" + rally.getId() + "/bonuspoints/within?" + near + "&miles=1", tr_ListUiNearbyBonusPoint);
+        check(within);
+        assertEquals(2, within.getData().size());
+
+        checkFailed(get_ForRM("/api/rally/" + rally.getId() + "/bonuspoints/nearest?" + near + "&count=0", tr_ListUiNearbyBonusPoint));
+    }
+
+    @Test
+    @Order(150)
+    @DisplayName("The distance matrix is cached, and moving a bonus point gives a new one")
+    public void testDistanceMatrix() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 50);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 75);
+        String path = "/api/rally/" + rally.getId() + "/distances";
+
+        HttpResponse<byte[]> response = getBytes_ForRM(path);
+        assertEquals(200, response.statusCode());
+        DistanceMatrix before = DistanceMatrix.fromBytes(response.body());
+        assertEquals(2, before.size());
+        assertEquals(DistanceMatrix.miles(bp1.getLatitude(), bp1.getLongitude(), bp2.getLatitude(), bp2.getLongitude()),
+                before.milesBetween(bp1.getId(), bp2.getId()), 1.0);
+        assertArrayEquals(response.body(), getBytes_ForRM(path).body());
+
+        // Move BP2 next to BP1; the cached matrix has to go.
+        UpdateBonusPointRequest move = new UpdateBonusPointRequest();
+        move.setLatitude(bp1.getLatitude());
+        move.setLongitude(bp1.getLongitude());
+        check(put_ForRM("/api/bonuspoint/" + bp2.getId(), move, tr_UiBonusPoint));
+
+        DistanceMatrix after = DistanceMatrix.fromBytes(getBytes_ForRM(path).body());
+        assertEquals(0.0, after.milesBetween(bp1.getId(), bp2.getId()), 0.01);
+    }
+
     @Test
     @Order(200)
     @DisplayName("Rally Master can create combinations with bonus points")
@@ -263,6 +381,41 @@ public class RallyMasterOperationsIT extends IntegrationTest {
         // Note: combinationId and bonusPointId may not be populated due to JPA insertable=false, updatable=false
     }
 
+    @Test
+    @Order(240)
+    @DisplayName("Combinations can be analyzed for which are worth riding for")
+    public void testAnalyzeCombinations() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 50);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 75);
+        UiCombination combo = createTestCombination(rally.getId(), List.of(bp1.getId(), bp2.getId()));
+
+        // The points are anywhere on Earth, so give it long enough to get anywhere.
+        CombinationPortfolioRequest request = CombinationPortfolioRequest
+                .builder()
+                .startLatitude(bp1.getLatitude())
+                .startLongitude(bp1.getLongitude())
+                .timeBudgetMinutes(100_000)
+                .searchSeconds(1)
+                .build();
+
+        RR_UiCombinationAnalysis response = post_ForRM(
+                "/api/rally/" + rally.getId() + "/combinations/portfolio", request, tr_UiCombinationAnalysis);
+        check(response);
+
+        UiCombinationAnalysis analysis = response.getData();
+        assertTrue(analysis.getComplete());
+        assertEquals(1, analysis.getCombinations().size());
+        assertTrue(analysis.getCombinations().get(0).getFits());
+
+        UiCombinationPortfolio best = analysis.getPortfolios().get(0);
+        assertEquals(List.of(combo.getId()), best.getMembers().stream().map(UiPortfolioCombination::getCombinationId).toList());
+        assertEquals(50 + 75 + combo.getPoints(), best.getPoints());
+
+        request.setTimeBudgetMinutes(null);
+        checkFailed(post_ForRM("/api/rally/" + rally.getId() + "/combinations/portfolio", request, tr_UiCombinationAnalysis));
+    }
+
     @Test
     @Order(400)
     @DisplayName("Rally Master can handle null data gracefully in rally creation")
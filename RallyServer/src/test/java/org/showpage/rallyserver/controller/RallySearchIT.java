@@ -0,0 +1,301 @@
+package org.showpage.rallyserver.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.*;
+import org.showpage.rallyserver.IntegrationTest;
+import org.showpage.rallyserver.ui.CreateRallyRequest;
+import org.showpage.rallyserver.ui.PageResponse;
+import org.showpage.rallyserver.ui.UiBonusPoint;
+import org.showpage.rallyserver.ui.UiRally;
+import org.showpage.rallyserver.ui.UpdateRallyRequest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for searching rallies by name and region: the relevance mode, paging by
+ * cursor, and that the trigram indexes are what the database uses for name search.
+ */
+@Slf4j
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class RallySearchIT extends IntegrationTest {
+    private static final Pattern EXECUTION_TIME = Pattern.compile("Execution Time: ([0-9.]+) ms");
+
+    @Test
+    @Order(1)
+    @DisplayName("Search by relevance finds the words in any order, best match first")
+    public void testSearchByRelevance() throws Exception {
+        String tag = "tg" + System.currentTimeMillis() % 1_000_000;
+        createTestRally("AutoTest Saddlesore Marathon " + tag, null, null);
+        createTestRally("AutoTest Sore Saddle Weekend Getaway " + tag, null, null);
+        UiRally exact = createTestRally("AutoTest Saddle Sore " + tag, null, null);
+
+        // Plain search wants the words together, as typed.
+        RR_PageUiRally response = get_ForRider("/api/rallies?name=saddle+sore+" + tag, tr_PageUiRally);
+        check(response);
+        List<UiRally> rallies = response.getData().getContent();
+        assertEquals(1, rallies.size());
+        assertEquals(exact.getId(), rallies.get(0).getId());
+
+        // By relevance, any order will do, and the closest comes first.
+        response = get_ForRider("/api/rallies?name=saddle+sore+" + tag + "&relevance=true", tr_PageUiRally);
+        check(response);
+        rallies = response.getData().getContent();
+        assertEquals(3, rallies.size());
+        assertEquals(exact.getId(), rallies.get(0).getId());
+        log.info("By relevance: {}", rallies.stream().map(UiRally::getName).toList());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Search by region matches part of the state")
+    public void testSearchByRegion() throws Exception {
+        CreateRallyRequest request = CreateRallyRequest
+                .builder()
+                .name("AutoTest Big Sky Rally")
+                .description("Automated test rally created by integration tests")
+                .locationCity("Bozeman")
+                .locationState("Montana")
+                .locationCountry("US")
+                .startDate(LocalDate.now().plusDays(7))
+                .endDate(LocalDate.now().plusDays(8))
+                .isPublic(true)
+                .pointsPublic(true)
+                .ridersPublic(true)
+                .organizersPublic(true)
+                .build();
+        RR_UiRally created = post_ForRM("/api/rally", request, tr_UiRally);
+        check(created);
+
+        RR_PageUiRally response = get_ForRider("/api/rallies?region=ONTAN&size=100", tr_PageUiRally);
+        check(response);
+        List<UiRally> rallies = response.getData().getContent();
+        assertTrue(rallies.stream().anyMatch(rally -> rally.getId().equals(created.getData().getId())));
+        assertTrue(rallies.stream().allMatch(rally -> rally.getLocationState().toLowerCase().contains("ontan")));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Search pages by cursor in start date order without counting")
+    public void testSearchByCursor() throws Exception {
+        String tag = "cr" + System.currentTimeMillis() % 1_000_000;
+        LocalDate start = LocalDate.now().plusDays(30);
+        for (int i = 0; i < 5; ++i) {
+            createTestRally("AutoTest Cursor " + tag + " " + i, start.plusDays(i % 3), null);
+        }
+
+        List<UiRally> found = new ArrayList<>();
+        String cursor = "";
+        int pages = 0;
+        while (cursor != null) {
+            RR_PageUiRally response = get_ForRider("/api/rallies?name=" + tag + "&size=2&cursor=" + cursor, tr_PageUiRally);
+            check(response);
+            PageResponse<UiRally> page = response.getData();
+            assertEquals(-1, page.getTotalElements(), "Not counted unless asked");
+            found.addAll(page.getContent());
+            cursor = page.getNext();
+            ++pages;
+        }
+        assertEquals(3, pages);
+        assertEquals(5, found.size());
+        for (int i = 1; i < found.size(); ++i) {
+            UiRally before = found.get(i - 1);
+            UiRally after = found.get(i);
+            int order = before.getStartDate().compareTo(after.getStartDate());
+            assertTrue(order < 0 || order == 0 && before.getId() < after.getId(), "In start date then id order");
+        }
+
+        RR_PageUiRally counted = get_ForRider("/api/rallies?name=" + tag + "&size=2&cursor=&count=true", tr_PageUiRally);
+        check(counted);
+        assertEquals(5, counted.getData().getTotalElements());
+
+        checkFailed(get_ForRider("/api/rallies?name=" + tag + "&relevance=true&cursor=", tr_PageUiRally));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Repeated searches see rallies created and renamed since")
+    public void testSearchSeesChanges() throws Exception {
+        String tag = "cc" + System.currentTimeMillis() % 1_000_000;
+        String search = "/api/rallies?name=" + tag + "&country=";
+
+        // Asked once, and again with another name for the same country.
+        RR_PageUiRally response = get_ForRider(search + "US", tr_PageUiRally);
+        check(response);
+        assertEquals(0, response.getData().getContent().size());
+        response = get_ForRider(search + "United+States", tr_PageUiRally);
+        check(response);
+        assertEquals(0, response.getData().getContent().size());
+
+        UiRally rally = createTestRally("AutoTest Cache " + tag, null, null);
+        response = get_ForRider(search + "USA", tr_PageUiRally);
+        check(response);
+        assertEquals(1, response.getData().getContent().size());
+
+        UpdateRallyRequest rename = new UpdateRallyRequest();
+        rename.setName("AutoTest Cache Renamed");
+        check(put_ForRM("/api/rally/" + rally.getId(), rename, tr_UiRally));
+        response = get_ForRider(search + "US", tr_PageUiRally);
+        check(response);
+        assertEquals(0, response.getData().getContent().size());
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Only admins can read the search cache metrics")
+    public void testMetricsAreForAdmins() throws Exception {
+        check(get_ForRider("/api/rallies?name=AutoTest", tr_PageUiRally));
+        String path = "/actuator/metrics/rally.search.cache";
+
+        assertEquals(200, getBytes_Admin(path).statusCode());
+        assertEquals(403, getBytes_ForRider(path).statusCode());
+        assertEquals(403, getBytes_ForRM("/actuator/metrics").statusCode());
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("Streaming every match brings each rally's participants, points and combinations, across chunks")
+    public void testSearchAllLoadsCollections() throws Exception {
+        String tag = "sa" + System.currentTimeMillis() % 1_000_000;
+        List<UiRally> created = new ArrayList<>();
+        for (int i = 0; i < 105; ++i) {
+            created.add(createTestRally("AutoTest Stream " + tag + " " + i, null, null));
+        }
+
+        // Points on a rally in the first chunk and one in the second.
+        List<Integer> withPoints = List.of(created.get(50).getId(), created.get(103).getId());
+        for (Integer rallyId : withPoints) {
+            UiBonusPoint a = createTestBonusPoint(rallyId, "SA1", 10);
+            UiBonusPoint b = createTestBonusPoint(rallyId, "SA2", 20);
+            createTestCombination(rallyId, List.of(a.getId(), b.getId()));
+        }
+
+        RR_PageUiRally response = get_ForRider("/api/rallies?name=" + tag + "&all=true&sort=id", tr_PageUiRally);
+        check(response);
+        List<UiRally> rallies = response.getData().getContent();
+        assertEquals(105, rallies.size());
+        assertEquals(105, response.getData().getTotalElements());
+        for (UiRally rally : rallies) {
+            assertEquals(1, rally.getParticipants().size(), "The organizer");
+            int points = withPoints.contains(rally.getId()) ? 2 : 0;
+            assertEquals(points, rally.getBonusPoints().size());
+            assertEquals(points / 2, rally.getCombinations().size());
+            rally.getCombinations().forEach(combination -> assertEquals(2, combination.getCombinationPoints().size()));
+        }
+    }
+
+    @Test
+    @Order(10)
+    @DisplayName("Name search reads the trigram index, not the whole table")
+    public void testNameSearchUsesIndex() throws Exception {
+        try (Connection connection = openDatabase()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                // A throwaway copy of the rally table, indexes and all, with 100,000 made-up rallies.
+                statement.execute("CREATE TEMP TABLE bench_rally (LIKE rally INCLUDING ALL) ON COMMIT DROP");
+                statement.execute("""
+                        INSERT INTO bench_rally (id, name, location_state)
+                        SELECT n,
+                               (ARRAY['Iron', 'Grand', 'Desert', 'Mountain', 'Coastal', 'Prairie', 'Northern', 'Lakes'])[1 + n % 8]
+                                   || ' ' || (ARRAY['Butt', 'Tour', 'Dash', 'Run', 'Challenge', 'Quest', 'Classic'])[1 + n % 7]
+                                   || ' Rally ' || n,
+                               (ARRAY['Colorado', 'Montana', 'Texas', 'Ontario', 'Bavaria', 'Wales'])[1 + n % 6]
+                        FROM generate_series(1, 100000) n
+                        """);
+                statement.execute("ANALYZE bench_rally");
+
+                String query = "SELECT id FROM bench_rally WHERE lower(name) LIKE '%rally 4242%'";
+                String indexed = explain(statement, query);
+                assertTrue(indexed.contains("Bitmap Index Scan"), indexed);
+                assertFalse(indexed.contains("Seq Scan"), indexed);
+
+                // The same query the way it ran before the index.
+                statement.execute("SET LOCAL enable_bitmapscan = off");
+                statement.execute("SET LOCAL enable_indexscan = off");
+                String scanned = explain(statement, query);
+                assertTrue(scanned.contains("Seq Scan"), scanned);
+
+                double indexedMillis = executionTime(indexed);
+                double scannedMillis = executionTime(scanned);
+                log.info("Name search on 100,000 rallies: {} ms with the trigram index, {} ms without", indexedMillis, scannedMillis);
+                assertTrue(indexedMillis < scannedMillis);
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    @Test
+    @Order(11)
+    @DisplayName("Paging by cursor seeks the start date index, dated rallies and undated ones alike")
+    public void testCursorSeeksIndex() throws Exception {
+        try (Connection connection = openDatabase()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                // 100,000 made-up rallies over a few years, one in ten with no start date.
+                statement.execute("CREATE TEMP TABLE bench_rally (LIKE rally INCLUDING ALL) ON COMMIT DROP");
+                statement.execute("""
+                        INSERT INTO bench_rally (id, name, start_date)
+                        SELECT n, 'Rally ' || n,
+                               CASE WHEN n % 10 = 0 THEN NULL ELSE DATE '2026-01-01' + n % 1000 END
+                        FROM generate_series(1, 100000) n
+                        """);
+                statement.execute("ANALYZE bench_rally");
+
+                // A page from near the end of the dated rallies, the way searchAfter() asks for it.
+                String dated = explain(statement, "SELECT id FROM bench_rally"
+                        + " WHERE row(start_date, id) > row(DATE '2028-06-01', 50000)"
+                        + " ORDER BY start_date, id LIMIT 21");
+                assertTrue(dated.contains("Index Cond: (ROW(start_date, id) > ROW("), dated);
+                assertFalse(dated.contains("Seq Scan"), dated);
+                assertFalse(dated.contains("Rows Removed by Filter"), dated);
+
+                // Then the undated ones after them, in id order.
+                String undated = explain(statement, "SELECT id FROM bench_rally"
+                        + " WHERE start_date IS NULL AND id > 50000"
+                        + " ORDER BY id LIMIT 21");
+                assertTrue(undated.contains("Index Cond"), undated);
+                assertFalse(undated.contains("Seq Scan"), undated);
+
+                // The same page the way it was asked for before, with the undated rallies ORed in.
+                String ored = explain(statement, "SELECT id FROM bench_rally"
+                        + " WHERE start_date > DATE '2028-06-01' OR (start_date = DATE '2028-06-01' AND id > 50000)"
+                        + " OR start_date IS NULL"
+                        + " ORDER BY start_date, id LIMIT 21");
+                assertFalse(ored.contains("Index Cond: (ROW("), ored);
+                log.info("Cursor page on 100,000 rallies: {} ms by row comparison, {} ms for the undated tail, {} ms ORed",
+                        executionTime(dated), executionTime(undated), executionTime(ored));
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static String explain(Statement statement, String query) throws Exception {
+        StringBuilder plan = new StringBuilder();
+        try (ResultSet rows = statement.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + query)) {
+            while (rows.next()) {
+                plan.append(rows.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    private static double executionTime(String plan) {
+        Matcher matcher = EXECUTION_TIME.matcher(plan);
+        assertTrue(matcher.find(), plan);
+        return Double.parseDouble(matcher.group(1));
+    }
+}
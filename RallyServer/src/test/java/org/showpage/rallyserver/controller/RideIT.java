@@ -7,9 +7,16 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 import org.showpage.rallyserver.IntegrationTest;
 import org.showpage.rallyserver.ui.*;
+import org.showpage.rallyserver.util.GeometryCodec;
 
+import java.net.http.HttpResponse;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -541,6 +548,265 @@ public class RideIT extends IntegrationTest {
         assertEquals(2, waypoints.size(), "Should have 2 waypoints");
     }
 
+    //======================================================================
+    // Route Optimization
+    //======================================================================
+
+    @Test
+    @Order(560)
+    public void test_560_OptimizeRoute() throws Exception {
+        log.info("Test: Optimize a route through the rally's bonus points");
+
+        CreateRideRequest rideRequest = CreateRideRequest.builder()
+                .name("Optimized Rally Ride")
+                .rallyId(testRally.getId())
+                .build();
+        RR_UiRide rideResponse = post_ForRM("/api/ride", rideRequest, tr_UiRide);
+        check(rideResponse);
+        UiRide ride = rideResponse.getData();
+
+        // No start bonus point and no expected times, so both have to come from the request.
+        OptimizeRouteRequest request = OptimizeRouteRequest.builder()
+                .startLatitude(testBonusPoint.getLatitude())
+                .startLongitude(testBonusPoint.getLongitude())
+                .searchSeconds(1)
+                .build();
+        checkFailed(post_ForRM("/api/ride/" + ride.getId() + "/route/optimize", request, tr_UiRoutePlan));
+
+        request.setTimeBudgetMinutes(60);
+        RR_UiRoutePlan response = post_ForRM("/api/ride/" + ride.getId() + "/route/optimize", request, tr_UiRoutePlan);
+        check(response);
+        UiRoutePlan plan = response.getData();
+
+        assertNotNull(plan.getRoute());
+        assertEquals(ride.getId(), plan.getRoute().getRideId());
+        assertFalse(plan.getRoute().getIsPrimary());
+        assertEquals(50, plan.getScore().intValue(), "The only bonus point is at the start, so it should be collected");
+        assertEquals(1, plan.getBonusPointCount().intValue());
+
+        // Riders can't plan someone else's ride.
+        checkFailed(post_ForRider("/api/ride/" + ride.getId() + "/route/optimize", request, tr_UiRoutePlan));
+
+        delete_ForRM("/api/ride/" + ride.getId(), tr_Void);
+    }
+
+    @Test
+    @Order(570)
+    public void test_570_PlanMyRide() throws Exception {
+        log.info("Test: Plan My Ride copies a 300 point rally into the ride");
+
+        UiRally rally = createTestRally();
+        List<UiBonusPoint> bonusPoints = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            bonusPoints.add(createTestBonusPoint(rally.getId(), "P" + i, 10 + i));
+        }
+        UiCombination combo = createTestCombination(rally.getId(),
+                List.of(bonusPoints.get(0).getId(), bonusPoints.get(150).getId(), bonusPoints.get(299).getId()));
+
+        CreateRideRequest request = CreateRideRequest.builder()
+                .name("Planned Rally Ride")
+                .rallyId(rally.getId())
+                .build();
+        long start = System.nanoTime();
+        RR_UiRide response = post_ForRM("/api/ride/plan", request, tr_UiRide);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        check(response);
+        UiRide ride = response.getData();
+        log.info("Planned ride {} in {} ms", ride.getId(), millis);
+
+        // Every bonus point is copied, owned by the ride and pointing back at the original.
+        assertEquals(rally.getId(), ride.getRallyId());
+        assertEquals(300, ride.getBonusPoints().size());
+        Map<Integer, Integer> copyOf = new HashMap<>();
+        for (UiBonusPoint copy : ride.getBonusPoints()) {
+            assertNull(copy.getRallyId());
+            assertEquals(ride.getId(), copy.getRideId());
+            copyOf.put(copy.getSourceBonusPointId(), copy.getId());
+        }
+        assertEquals(bonusPoints.stream().map(UiBonusPoint::getId).collect(Collectors.toSet()), copyOf.keySet());
+
+        // The combination's points are the copies, not the originals.
+        assertEquals(1, ride.getCombinations().size());
+        UiCombination comboCopy = ride.getCombinations().get(0);
+        assertEquals(combo.getId(), comboCopy.getSourceCombinationId());
+        assertEquals(combo.getPoints(), comboCopy.getPoints());
+        assertEquals(
+                Set.of(copyOf.get(bonusPoints.get(0).getId()), copyOf.get(bonusPoints.get(150).getId()), copyOf.get(bonusPoints.get(299).getId())),
+                comboCopy.getCombinationPoints().stream().map(UiCombinationPoint::getBonusPointId).collect(Collectors.toSet()));
+
+        // The rally is untouched, and the copies aren't reachable as rally bonus points.
+        RR_ListUiBonusPoint rallyPoints = get_ForRM("/api/rally/" + rally.getId() + "/bonuspoints", tr_ListUiBonusPoint);
+        check(rallyPoints);
+        assertEquals(300, rallyPoints.getData().size());
+        checkFailed(get_ForRM("/api/bonuspoint/" + ride.getBonusPoints().get(0).getId(), tr_UiBonusPoint));
+
+        RR_UiRide reread = get_ForRM("/api/ride/" + ride.getId() + "/plan", tr_UiRide);
+        check(reread);
+        assertEquals(300, reread.getData().getBonusPoints().size());
+        checkFailed(get_ForRider("/api/ride/" + ride.getId() + "/plan", tr_UiRide));
+
+        // A ride needs a rally to plan from.
+        checkFailed(post_ForRM("/api/ride/plan", CreateRideRequest.builder().name("No Rally").build(), tr_UiRide));
+
+        delete_ForRM("/api/ride/" + ride.getId(), tr_Void);
+    }
+
+    @Test
+    @Order(580)
+    public void test_580_GetRideTree_QueryCountDoesNotGrow() throws Exception {
+        log.info("Test: Reading a ride tree takes the same few queries however big it is");
+
+        RR_UiRide rideResponse = post_ForRM("/api/ride",
+                CreateRideRequest.builder().name("Tree Ride").build(), tr_UiRide);
+        check(rideResponse);
+        UiRide ride = rideResponse.getData();
+        addRoute(ride, 0, 1, 1);
+
+        RR_UiRide small = get_ForRM("/api/ride/" + ride.getId(), tr_UiRide);
+        check(small);
+        assertEquals(1, small.getData().getRoutes().size());
+        assertEquals(1, small.getData().getRoutes().get(0).getRideLegs().get(0).getWaypoints().size());
+
+        // Three routes of two legs of three waypoints, added out of order.
+        addRoute(ride, 1, 2, 3);
+        addRoute(ride, 2, 2, 3);
+        RR_UiRide large = get_ForRM("/api/ride/" + ride.getId(), tr_UiRide);
+        check(large);
+        List<UiRoute> routes = large.getData().getRoutes();
+        assertEquals(3, routes.size());
+        for (UiRoute route : routes.subList(1, 3)) {
+            assertEquals(List.of(1, 2), route.getRideLegs().stream().map(UiRideLeg::getSequenceOrder).toList());
+            for (UiRideLeg leg : route.getRideLegs()) {
+                assertEquals(List.of(1, 2, 3), leg.getWaypoints().stream().map(UiWaypoint::getSequenceOrder).toList());
+            }
+        }
+
+        RR_ListUiRide list = get_ForRM("/api/rides", tr_ListUiRide);
+        check(list);
+        assertTrue(list.getData().stream().anyMatch(r -> r.getId().equals(ride.getId()) && r.getRoutes().size() == 3));
+
+        assertNotNull(small.getQueryCount(), "Run the server with the it profile so it reports X-Query-Count");
+        log.info("Ride tree queries: small {}, large {}, list {}", small.getQueryCount(), large.getQueryCount(), list.getQueryCount());
+        assertEquals(small.getQueryCount(), large.getQueryCount(), "Query count grew with the tree");
+        assertTrue(large.getQueryCount() <= 3, "Took " + large.getQueryCount() + " queries");
+        assertTrue(list.getQueryCount() <= 3, "Took " + list.getQueryCount() + " queries");
+
+        delete_ForRM("/api/ride/" + ride.getId(), tr_Void);
+    }
+
+    @Test
+    @Order(590)
+    public void test_590_SequenceWaypoints() throws Exception {
+        log.info("Test: Put a leg's waypoints in the shortest order");
+
+        RR_UiRide rideResponse = post_ForRM("/api/ride",
+                CreateRideRequest.builder().name("Sequence Ride").build(), tr_UiRide);
+        check(rideResponse);
+        UiRide ride = rideResponse.getData();
+        RR_UiRoute route = post_ForRM("/api/ride/" + ride.getId() + "/route",
+                CreateRouteRequest.builder().name("Zigzag").build(), tr_UiRoute);
+        check(route);
+        RR_UiRideLeg leg = post_ForRM("/api/route/" + route.getData().getId() + "/leg",
+                CreateRideLegRequest.builder().name("Zigzag Leg").sequenceOrder(1).build(), tr_UiRideLeg);
+        check(leg);
+
+        // Heading north, but the stops in between are muddled.
+        float[] latitudes = { 46.0f, 46.4f, 46.1f, 46.3f, 46.2f, 46.5f };
+        for (int i = 0; i < latitudes.length; ++i) {
+            check(post_ForRM("/api/leg/" + leg.getData().getId() + "/waypoint",
+                    CreateWaypointRequest.builder()
+                            .name(String.format("%.1f", latitudes[i]))
+                            .sequenceOrder(i + 1)
+                            .latitude(latitudes[i])
+                            .longitude(-93.6f)
+                            .build(),
+                    tr_UiWaypoint));
+        }
+
+        RR_UiWaypointSequence response = post_ForRM("/api/leg/" + leg.getData().getId() + "/sequence", null, tr_UiWaypointSequence);
+        check(response);
+        UiWaypointSequence sequence = response.getData();
+        assertTrue(sequence.getMilesAfter() < sequence.getMilesBefore());
+        assertEquals(List.of("46.0", "46.1", "46.2", "46.3", "46.4", "46.5"),
+                sequence.getRideLegs().get(0).getWaypoints().stream().map(UiWaypoint::getName).toList());
+
+        // It stuck, and doing it again changes nothing.
+        RR_ListUiWaypoint saved = get_ForRM("/api/leg/" + leg.getData().getId() + "/waypoints", tr_ListUiWaypoint);
+        check(saved);
+        assertEquals(List.of("46.0", "46.1", "46.2", "46.3", "46.4", "46.5"), saved.getData().stream()
+                .sorted((a, b) -> a.getSequenceOrder() - b.getSequenceOrder())
+                .map(UiWaypoint::getName)
+                .toList());
+
+        RR_UiWaypointSequence again = post_ForRM("/api/route/" + route.getData().getId() + "/sequence", null, tr_UiWaypointSequence);
+        check(again);
+        assertEquals(again.getData().getMilesBefore(), again.getData().getMilesAfter(), 1e-6);
+
+        delete_ForRM("/api/ride/" + ride.getId(), tr_Void);
+    }
+
+    @Test
+    @Order(600)
+    public void test_600_LegGeometry() throws Exception {
+        log.info("Test: Store a leg's routed line and get the same bytes back");
+
+        RR_UiRide rideResponse = post_ForRM("/api/ride",
+                CreateRideRequest.builder().name("Geometry Ride").build(), tr_UiRide);
+        check(rideResponse);
+        UiRide ride = rideResponse.getData();
+        RR_UiRoute route = post_ForRM("/api/ride/" + ride.getId() + "/route",
+                CreateRouteRequest.builder().name("Routed").build(), tr_UiRoute);
+        check(route);
+        RR_UiRideLeg leg = post_ForRM("/api/route/" + route.getData().getId() + "/leg",
+                CreateRideLegRequest.builder().name("Routed Leg").sequenceOrder(1).build(), tr_UiRideLeg);
+        check(leg);
+        String path = "/api/leg/" + leg.getData().getId() + "/geometry";
+
+        assertEquals(404, getBytes_ForRM(path).statusCode());
+
+        double[] latitudes = { 41.5868, 41.5901, 41.6005, 41.6122 };
+        double[] longitudes = { -93.6250, -93.6199, -93.6113, -93.6020 };
+        byte[] geometry = GeometryCodec.encode(latitudes, longitudes, null, GeometryCodec.DEFAULT_PRECISION);
+        check(putBytes_ForRM(path, geometry, GeometryCodec.CONTENT_TYPE, tr_Void));
+
+        HttpResponse<byte[]> stored = getBytes_ForRM(path);
+        assertEquals(200, stored.statusCode());
+        assertArrayEquals(geometry, stored.body());
+
+        // Garbage is refused, and the leg keeps what it had.
+        checkFailed(putBytes_ForRM(path, new byte[] { 'G', 1, 6, 0, 50, 1 }, GeometryCodec.CONTENT_TYPE, tr_Void));
+        assertArrayEquals(geometry, getBytes_ForRM(path).body());
+
+        delete_ForRM("/api/ride/" + ride.getId(), tr_Void);
+    }
+
+    /**
+     * Add a route with legs of waypoints, each created last-first so reading them back in order
+     * depends on sequenceOrder.
+     */
+    private void addRoute(UiRide ride, int number, int legCount, int waypointCount) throws Exception {
+        RR_UiRoute route = post_ForRM("/api/ride/" + ride.getId() + "/route",
+                CreateRouteRequest.builder().name("Route " + number).isPrimary(number == 0).build(), tr_UiRoute);
+        check(route);
+
+        for (int legOrder = legCount; legOrder >= 1; --legOrder) {
+            RR_UiRideLeg leg = post_ForRM("/api/route/" + route.getData().getId() + "/leg",
+                    CreateRideLegRequest.builder().name("Leg " + legOrder).sequenceOrder(legOrder).build(), tr_UiRideLeg);
+            check(leg);
+
+            for (int waypointOrder = waypointCount; waypointOrder >= 1; --waypointOrder) {
+                check(post_ForRM("/api/leg/" + leg.getData().getId() + "/waypoint",
+                        CreateWaypointRequest.builder()
+                                .name("Stop " + waypointOrder)
+                                .sequenceOrder(waypointOrder)
+                                .latitude(46.5f + waypointOrder / 100f)
+                                .longitude(-93.6f)
+                                .build(),
+                        tr_UiWaypoint));
+            }
+        }
+    }
+
     //======================================================================
     // Cascade Deletion Tests
     //======================================================================
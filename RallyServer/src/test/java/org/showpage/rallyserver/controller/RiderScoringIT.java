@@ -3,8 +3,13 @@ package org.showpage.rallyserver.controller;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.*;
 import org.showpage.rallyserver.IntegrationTest;
+import org.showpage.rallyserver.entity.ClaimStatus;
 import org.showpage.rallyserver.ui.*;
+import org.showpage.rallyserver.util.GeometryCodec;
 
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
 
@@ -281,6 +286,44 @@ public class RiderScoringIT extends IntegrationTest {
         log.info("Retrieved {} earned combinations", earnedCombos.size());
     }
 
+    @Test
+    @Order(22)
+    @DisplayName("Rider cannot claim a ride's copy of a bonus point or combination")
+    public void testCannotClaimRideCopies() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 150);
+        createTestCombination(rally.getId(), List.of(bp1.getId(), bp2.getId()));
+        check(post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant));
+
+        RR_UiRide planned = post_ForRider("/api/ride/plan",
+                CreateRideRequest.builder().name("Copies Ride").rallyId(rally.getId()).build(), tr_UiRide);
+        check(planned);
+        UiRide ride = planned.getData();
+
+        // The copies have no rally, which is refused rather than tripping over.
+        CreateEarnedBonusPointRequest bpRequest = CreateEarnedBonusPointRequest
+                .builder()
+                .riderId(rider.getId())
+                .bonusPointId(ride.getBonusPoints().get(0).getId())
+                .odometer(13000)
+                .earnedAt(Instant.now())
+                .build();
+        RR_UiEarnedBonusPoint bpResponse = post_ForRider(
+                "/api/rally/" + rally.getId() + "/earned-bonus-point", bpRequest, tr_UiEarnedBonusPoint);
+        checkFailed(bpResponse);
+        assertTrue(bpResponse.getMessage().contains("Bonus point does not belong to this rally"), bpResponse.getMessage());
+
+        CreateEarnedCombinationRequest comboRequest = new CreateEarnedCombinationRequest();
+        comboRequest.setCombinationId(ride.getCombinations().get(0).getId());
+        RR_UiEarnedCombination comboResponse = post_ForRider(
+                "/api/rally/" + rally.getId() + "/earned-combination", comboRequest, tr_UiEarnedCombination);
+        checkFailed(comboResponse);
+        assertTrue(comboResponse.getMessage().contains("Combination does not belong to this rally"), comboResponse.getMessage());
+
+        delete_ForRider("/api/ride/" + ride.getId(), tr_Void);
+    }
+
     //======================================================================
     // Other things riders can't do.
     //======================================================================
@@ -413,4 +456,188 @@ public class RiderScoringIT extends IntegrationTest {
             log.info("Correctly rejected submission without registration: {}", e.getMessage());
         }
     }
+
+    @Test
+    @Order(42)
+    @DisplayName("Rider cannot claim the same bonus point twice")
+    public void testSubmitDuplicateBonusPoint() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp = createTestBonusPoint(rally.getId(), "BP1", 100);
+        RR_UiRallyParticipant regResponse = post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        check(regResponse);
+        Integer participantId = regResponse.getData().getId();
+
+        CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+        request.setBonusPointId(bp.getId());
+        request.setOdometer(13000);
+        request.setEarnedAt(Instant.now());
+
+        check(post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint));
+
+        try {
+            RR_UiEarnedBonusPoint response = post_ForRider(
+                "/api/rally/" + rally.getId() + "/earned-bonus-point",
+                request,
+                tr_UiEarnedBonusPoint
+            );
+            if (response.isSuccess()) {
+                fail("Should not be able to claim the same bonus point twice");
+            }
+        } catch (Exception e) {
+            log.info("Correctly rejected duplicate claim: {}", e.getMessage());
+        }
+
+        RR_ListUiEarnedBonusPoint earned = get_ForRider(
+            "/api/rally-participant/" + participantId + "/earned-bonus-points",
+            tr_ListUiEarnedBonusPoint
+        );
+        check(earned);
+        assertEquals(1, earned.getData().size());
+    }
+
+    @Test
+    @Order(50)
+    @DisplayName("Rider can submit a whole claim sheet")
+    public void testSubmitClaimSheet() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 150);
+        post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+
+        ClaimSheetRequest request = ClaimSheetRequest
+            .builder()
+            .odometerIn(10000)
+            .odometerOut(11000)
+            .claims(List.of(
+                ClaimSheetEntry.builder().bonusPointId(bp1.getId()).odometer(10100).earnedAt(Instant.now()).build(),
+                ClaimSheetEntry.builder().code(bp2.getCode()).odometer(10500).earnedAt(Instant.now()).build(),
+                ClaimSheetEntry.builder().bonusPointId(bp1.getId()).odometer(10600).build(),
+                ClaimSheetEntry.builder().code("NOPE").odometer(10700).build(),
+                ClaimSheetEntry.builder().bonusPointId(bp2.getId()).odometer(12000).build()
+            ))
+            .build();
+
+        RR_ClaimSheetResult response = post_ForRider("/api/rally/" + rally.getId() + "/claim-sheet", request, tr_ClaimSheetResult);
+        check(response);
+
+        ClaimSheetResult result = response.getData();
+        assertEquals(10000, result.getOdometerIn());
+        assertEquals(11000, result.getOdometerOut());
+        assertEquals(2, result.getAccepted());
+        assertEquals(3, result.getRejected());
+
+        List<ClaimSheetItemResult> items = result.getItems();
+        assertEquals(5, items.size());
+        assertEquals(ClaimStatus.ACCEPTED, items.get(0).getStatus());
+        assertNotNull(items.get(0).getEarnedBonusPointId());
+        assertEquals(ClaimStatus.ACCEPTED, items.get(1).getStatus());
+        assertEquals(bp2.getId(), items.get(1).getBonusPointId(), "Code should resolve to the bonus point");
+        assertEquals(ClaimStatus.DUPLICATE, items.get(2).getStatus());
+        assertEquals(ClaimStatus.INVALID, items.get(3).getStatus());
+        assertEquals(ClaimStatus.INVALID, items.get(4).getStatus(), "Odometer past check-in should be rejected");
+
+        // The accepted ones are really there.
+        RR_ListUiEarnedBonusPoint earned = get_ForRider(
+            "/api/rally-participant/" + result.getRallyParticipantId() + "/earned-bonus-points",
+            tr_ListUiEarnedBonusPoint
+        );
+        check(earned);
+        assertEquals(2, earned.getData().size());
+
+        // Submitting the same sheet again only produces duplicates.
+        response = post_ForRider("/api/rally/" + rally.getId() + "/claim-sheet", request, tr_ClaimSheetResult);
+        check(response);
+        assertEquals(0, response.getData().getAccepted());
+    }
+
+    @Test
+    @Order(60)
+    @DisplayName("Rider's GPS track proposes claims for the bonus points it stopped at")
+    public void testUploadTrack() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bridge = createBonusPointAt(rally.getId(), "TRK1", 40.05, -100.0);
+        UiBonusPoint diner = createBonusPointAt(rally.getId(), "TRK2", 40.10, -100.0);
+        UiBonusPoint missed = createBonusPointAt(rally.getId(), "TRK3", 40.05, -99.0);
+        post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        RR_UiRide ride = post_ForRider("/api/ride",
+            CreateRideRequest.builder().name("Tracked Ride").rallyId(rally.getId()).build(), tr_UiRide);
+        check(ride);
+
+        // North at a point every ten seconds, stopping for five minutes at the bridge.
+        StringBuilder gpx = new StringBuilder("<?xml version=\"1.0\"?>\n<gpx version=\"1.1\"><trk><trkseg>\n");
+        Instant time = Instant.parse("2025-06-01T12:00:00Z");
+        for (int i = 0; i <= 150; ++i) {
+            int stops = i == 50 ? 30 : 1;
+            for (int stop = 0; stop < stops; ++stop) {
+                gpx.append("<trkpt lat=\"").append(40 + i * 0.001).append("\" lon=\"-100.0\"><time>")
+                    .append(time).append("</time></trkpt>\n");
+                time = time.plusSeconds(10);
+            }
+        }
+        gpx.append("</trkseg></trk></gpx>\n");
+        Path file = Files.createTempFile("track", ".gpx");
+        Files.writeString(file, gpx);
+
+        try {
+            String path = "/api/ride/" + ride.getData().getId() + "/track";
+            RR_UiTrackUpload response = upload_ForRider(path, file, "application/gpx+xml", tr_UiTrackUpload);
+            check(response);
+
+            UiTrackUpload upload = response.getData();
+            assertEquals(180, upload.getPoints());
+            assertEquals(2, upload.getProposed());
+            assertEquals(List.of(bridge.getId(), diner.getId()),
+                upload.getVisits().stream().map(UiTrackVisit::getBonusPointId).toList());
+            assertTrue(upload.getVisits().stream().noneMatch(visit -> visit.getBonusPointId().equals(missed.getId())));
+            UiTrackVisit stop = upload.getVisits().get(0);
+            assertEquals(ClaimStatus.ACCEPTED, stop.getStatus());
+            assertTrue(stop.getDepartedAt().getEpochSecond() - stop.getArrivedAt().getEpochSecond() >= 300);
+
+            RR_ListUiEarnedBonusPoint earned = get_ForRider(
+                "/api/rally-participant/" + upload.getRallyParticipantId() + "/earned-bonus-points",
+                tr_ListUiEarnedBonusPoint
+            );
+            check(earned);
+            assertEquals(2, earned.getData().size());
+            assertTrue(earned.getData().stream().noneMatch(e -> Boolean.TRUE.equals(e.getConfirmed())));
+
+            // The same track again proposes nothing new.
+            response = upload_ForRider(path, file, "application/gpx+xml", tr_UiTrackUpload);
+            check(response);
+            assertEquals(0, response.getData().getProposed());
+            assertEquals(ClaimStatus.DUPLICATE, response.getData().getVisits().get(0).getStatus());
+
+            // And the track comes back packed.
+            HttpResponse<byte[]> track = getBytes_ForRider(path);
+            assertEquals(200, track.statusCode());
+            GeometryCodec.Geometry geometry = GeometryCodec.decode(track.body());
+            assertEquals(180, geometry.size());
+            assertEquals(40.0, geometry.latitudes()[0], 1e-6);
+            assertTrue(track.body().length < 180 * 6);
+
+            // Anyone else can't tell the ride is there.
+            assertEquals(404, restCaller.getBytes(path, adminAuthHeader).statusCode());
+            RR_UiTrackUpload other = restCaller.upload(path, file, "application/gpx+xml", adminAuthHeader, tr_UiTrackUpload);
+            checkFailed(other);
+            assertTrue(other.getMessage().contains("Ride not found"), other.getMessage());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private UiBonusPoint createBonusPointAt(Integer rallyId, String code, double latitude, double longitude) throws Exception {
+        CreateBonusPointRequest request = CreateBonusPointRequest
+            .builder()
+            .code(code)
+            .name(code)
+            .latitude(latitude)
+            .longitude(longitude)
+            .points(100)
+            .required(false)
+            .repeatable(false)
+            .build();
+        RR_UiBonusPoint response = post_ForRM("/api/rally/" + rallyId + "/bonuspoint", request, tr_UiBonusPoint);
+        check(response);
+        return response.getData();
+    }
 }
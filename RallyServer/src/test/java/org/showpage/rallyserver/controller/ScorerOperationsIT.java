@@ -481,4 +481,157 @@ public class ScorerOperationsIT extends IntegrationTest {
             log.info("Correctly rejected promotion of non-existent participant: {}", e.getMessage());
         }
     }
+
+    @Test
+    @Order(80)
+    @DisplayName("Combinations are earned and retired as bonus points are confirmed")
+    public void testAutomaticCombination() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 150);
+        UiCombination combo = createTestCombination(rally.getId(), List.of(bp1.getId(), bp2.getId()));
+        RR_UiRallyParticipant riderReg = post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        check(riderReg);
+        Integer participantId = riderReg.getData().getId();
+
+        // Rider claims both points. The combination shows up on its own after the second.
+        Integer[] earnedIds = new Integer[2];
+        UiBonusPoint[] bps = { bp1, bp2 };
+        for (int i = 0; i < bps.length; i++) {
+            CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+            request.setBonusPointId(bps[i].getId());
+            request.setOdometer(11000 + i * 50);
+            request.setEarnedAt(Instant.now());
+
+            RR_UiEarnedBonusPoint response = post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint);
+            check(response);
+            earnedIds[i] = response.getData().getId();
+
+            List<UiEarnedCombination> combos = getEarnedCombinations(participantId);
+            assertEquals(i == 0 ? 0 : 1, combos.size());
+        }
+
+        UiEarnedCombination earned = getEarnedCombinations(participantId).get(0);
+        assertEquals(combo.getId(), earned.getCombinationId());
+        assertFalse(earned.getConfirmed(), "Combination can't be confirmed before its points are");
+
+        // Confirming both points confirms the combination.
+        for (Integer earnedId : earnedIds) {
+            check(put_ForRM("/api/earned-bonus-point/" + earnedId + "/confirm?confirmed=true", null, tr_UiEarnedBonusPoint));
+        }
+        assertTrue(getEarnedCombinations(participantId).get(0).getConfirmed());
+
+        // Riders can't claim it again by hand.
+        CreateEarnedCombinationRequest request = new CreateEarnedCombinationRequest();
+        request.setCombinationId(combo.getId());
+        try {
+            RR_UiEarnedCombination response = post_ForRider("/api/rally/" + rally.getId() + "/earned-combination", request, tr_UiEarnedCombination);
+            if (response.isSuccess()) {
+                fail("Should not be able to claim the same combination twice");
+            }
+        } catch (Exception e) {
+            log.info("Correctly rejected duplicate combination: {}", e.getMessage());
+        }
+
+        // Unconfirming a point drops the combination back to unconfirmed.
+        check(put_ForRM("/api/earned-bonus-point/" + earnedIds[1] + "/confirm?confirmed=false", null, tr_UiEarnedBonusPoint));
+        assertFalse(getEarnedCombinations(participantId).get(0).getConfirmed());
+    }
+
+    @Test
+    @Order(81)
+    @DisplayName("A combination awarded by hand survives bonus point changes")
+    public void testManualCombinationIsKept() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 150);
+        UiCombination combo = createTestCombination(rally.getId(), List.of(bp1.getId(), bp2.getId()));
+        RR_UiRallyParticipant riderReg = post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        check(riderReg);
+        Integer participantId = riderReg.getData().getId();
+
+        // The scorer awards the combination although the rider holds none of its points.
+        CreateEarnedCombinationRequest comboRequest = new CreateEarnedCombinationRequest();
+        comboRequest.setCombinationId(combo.getId());
+        comboRequest.setRiderId(riderReg.getData().getMemberId());
+        comboRequest.setConfirmed(true);
+        RR_UiEarnedCombination awarded = post_ForRM("/api/rally/" + rally.getId() + "/earned-combination", comboRequest, tr_UiEarnedCombination);
+        check(awarded);
+
+        // Claiming, confirming and unconfirming one of its points doesn't take it away.
+        CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+        request.setBonusPointId(bp1.getId());
+        request.setOdometer(12000);
+        request.setEarnedAt(Instant.now());
+        RR_UiEarnedBonusPoint claimed = post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint);
+        check(claimed);
+        check(put_ForRM("/api/earned-bonus-point/" + claimed.getData().getId() + "/confirm?confirmed=true", null, tr_UiEarnedBonusPoint));
+        check(put_ForRM("/api/earned-bonus-point/" + claimed.getData().getId() + "/confirm?confirmed=false", null, tr_UiEarnedBonusPoint));
+
+        List<UiEarnedCombination> combos = getEarnedCombinations(participantId);
+        assertEquals(1, combos.size());
+        assertEquals(awarded.getData().getId(), combos.get(0).getId());
+        assertTrue(combos.get(0).getConfirmed(), "The scorer's confirmation stands");
+    }
+
+    @Test
+    @Order(90)
+    @DisplayName("Organizer can recompute final scores from confirmed claims")
+    public void testRecomputeScores() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 150);
+        UiBonusPoint bp3 = createTestBonusPoint(rally.getId(), "BP3", 75);
+        UiCombination combo = createTestCombination(rally.getId(), List.of(bp1.getId(), bp2.getId()));
+        check(post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant));
+
+        // Claim all three, confirm the two that make up the combination.
+        for (UiBonusPoint bp : List.of(bp1, bp2, bp3)) {
+            CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+            request.setBonusPointId(bp.getId());
+            request.setOdometer(11000);
+            request.setEarnedAt(Instant.now());
+
+            RR_UiEarnedBonusPoint response = post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint);
+            check(response);
+            if (bp != bp3) {
+                check(put_ForRM("/api/earned-bonus-point/" + response.getData().getId() + "/confirm?confirmed=true", null, tr_UiEarnedBonusPoint));
+            }
+        }
+
+        RR_UiScoreRecompute response = post_ForRM("/api/rally/" + rally.getId() + "/recompute", null, tr_UiScoreRecompute);
+        check(response);
+        UiScoreRecompute result = response.getData();
+        log.info("Recompute: {}", result);
+
+        assertEquals(1, result.getRiders());
+        assertEquals(2, result.getBonusPointClaims(), "Unconfirmed claims don't count");
+        assertEquals(1, result.getCombinationClaims());
+        assertEquals(1, result.getUpdated());
+        assertNotNull(result.getTotalMillis());
+
+        // Nothing changed, so nothing to write the second time.
+        response = post_ForRM("/api/rally/" + rally.getId() + "/recompute", null, tr_UiScoreRecompute);
+        check(response);
+        assertEquals(0, response.getData().getUpdated());
+
+        // Riders can't.
+        try {
+            RR_UiScoreRecompute riderResponse = post_ForRider("/api/rally/" + rally.getId() + "/recompute", null, tr_UiScoreRecompute);
+            if (riderResponse.isSuccess()) {
+                fail("Riders should not be able to recompute scores");
+            }
+        } catch (Exception e) {
+            log.info("Correctly rejected rider recompute: {}", e.getMessage());
+        }
+    }
+
+    private List<UiEarnedCombination> getEarnedCombinations(Integer participantId) throws Exception {
+        RR_ListUiEarnedCombination response = get_ForRider(
+            "/api/rally-participant/" + participantId + "/earned-combinations",
+            tr_ListUiEarnedCombination
+        );
+        check(response);
+        return response.getData();
+    }
 }
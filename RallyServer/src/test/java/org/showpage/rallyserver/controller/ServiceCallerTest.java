@@ -0,0 +1,81 @@
+package org.showpage.rallyserver.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.entity.Member;
+import org.showpage.rallyserver.exception.NotFoundException;
+import org.showpage.rallyserver.exception.UnauthorizedException;
+import org.showpage.rallyserver.exception.ValidationException;
+import org.showpage.rallyserver.repository.MemberRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for how ServiceCaller turns a lambda's exceptions into HTTP statuses for endpoints
+ * whose body isn't a RestResponse.
+ */
+public class ServiceCallerTest {
+    private final Member member = Member.builder().id(7).email("rider@example.com").build();
+    private ServiceCaller serviceCaller;
+
+    @BeforeEach
+    public void setUp() {
+        MemberRepository memberRepository = mock(MemberRepository.class);
+        when(memberRepository.findByEmail(member.getEmail())).thenReturn(Optional.of(member));
+        serviceCaller = new ServiceCaller(memberRepository, null, new ObjectMapper());
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(member.getEmail(), null, List.of()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testCallForBodyReturnsTheBody() {
+        String body = serviceCaller.callForBody(current -> {
+            assertSame(member, current);
+            return "body";
+        });
+        assertEquals("body", body);
+    }
+
+    @Test
+    public void testCallForBodyMapsErrorsToStatuses() {
+        assertStatus(HttpStatus.NOT_FOUND, current -> { throw new NotFoundException("Rally not found"); });
+        assertStatus(HttpStatus.BAD_REQUEST, current -> { throw new ValidationException("Bad request"); });
+        assertStatus(HttpStatus.UNAUTHORIZED, current -> { throw new UnauthorizedException("Not yours"); });
+        assertStatus(HttpStatus.CONFLICT, current -> { throw new DataIntegrityViolationException("Duplicate"); });
+    }
+
+    @Test
+    public void testCallForBodyWithoutLoginIsUnauthorized() {
+        SecurityContextHolder.clearContext();
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> serviceCaller.callForBody(current -> fail("Should not be called")));
+        assertEquals(HttpStatus.UNAUTHORIZED, e.getStatusCode());
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private void assertStatus(HttpStatus status, ServiceCaller.MemberLambda<Object> lambda) {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> serviceCaller.callForBody(lambda));
+        assertEquals(status, e.getStatusCode());
+    }
+}
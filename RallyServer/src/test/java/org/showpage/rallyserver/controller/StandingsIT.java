@@ -0,0 +1,172 @@
+package org.showpage.rallyserver.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.*;
+import org.showpage.rallyserver.IntegrationTest;
+import org.showpage.rallyserver.ui.*;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for live standings.
+ */
+@Slf4j
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class StandingsIT extends IntegrationTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("Standings follow claims and confirmations")
+    public void testStandingsFollowScoring() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 250);
+        RR_UiRallyParticipant riderReg = post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        check(riderReg);
+        Integer participantId = riderReg.getData().getId();
+
+        // Nothing claimed yet, but the rider is listed.
+        UiRallyStanding standing = findStanding(rally.getId(), participantId);
+        assertEquals(0, standing.getScore());
+        assertEquals(0, standing.getPendingScore());
+
+        // Rider claims both points.
+        Integer firstEarnedId = null;
+        for (UiBonusPoint bp : List.of(bp1, bp2)) {
+            CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+            request.setBonusPointId(bp.getId());
+            request.setOdometer(11000);
+            request.setEarnedAt(Instant.now());
+
+            RR_UiEarnedBonusPoint response = post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint);
+            check(response);
+            if (firstEarnedId == null) {
+                firstEarnedId = response.getData().getId();
+            }
+        }
+
+        standing = findStanding(rally.getId(), participantId);
+        assertEquals(0, standing.getScore());
+        assertEquals(350, standing.getPendingScore());
+        assertEquals(2, standing.getBonusPointCount());
+
+        // Organizer confirms the first one.
+        check(put_ForRM("/api/earned-bonus-point/" + firstEarnedId + "/confirm?confirmed=true", null, tr_UiEarnedBonusPoint));
+
+        standing = findStanding(rally.getId(), participantId);
+        assertEquals(100, standing.getScore());
+        assertEquals(250, standing.getPendingScore());
+        assertEquals(1, standing.getRank());
+
+        // And takes it back again.
+        check(put_ForRM("/api/earned-bonus-point/" + firstEarnedId + "/confirm?confirmed=false", null, tr_UiEarnedBonusPoint));
+
+        standing = findStanding(rally.getId(), participantId);
+        assertEquals(0, standing.getScore());
+        assertEquals(350, standing.getPendingScore());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Repricing or deleting a bonus point rescores its holders")
+    public void testDefinitionChangesRescore() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 250);
+        RR_UiRallyParticipant riderReg = post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        check(riderReg);
+        Integer participantId = riderReg.getData().getId();
+
+        for (UiBonusPoint bp : List.of(bp1, bp2)) {
+            CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+            request.setBonusPointId(bp.getId());
+            request.setOdometer(11000);
+            request.setEarnedAt(Instant.now());
+            check(post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint));
+        }
+
+        // Load the standings so the change is applied to them rather than a fresh rebuild.
+        assertEquals(350, findStanding(rally.getId(), participantId).getPendingScore());
+
+        UpdateBonusPointRequest update = new UpdateBonusPointRequest();
+        update.setPoints(400);
+        check(put_ForRM("/api/bonuspoint/" + bp1.getId(), update, tr_UiBonusPoint));
+
+        assertEquals(650, findStanding(rally.getId(), participantId).getPendingScore());
+
+        check(delete_ForRM("/api/bonuspoint/" + bp2.getId(), tr_Void));
+
+        UiRallyStanding standing = findStanding(rally.getId(), participantId);
+        assertEquals(400, standing.getPendingScore());
+        assertEquals(1, standing.getBonusPointCount());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Leaderboard ranks confirmed points and reports mileage")
+    public void testLeaderboard() throws Exception {
+        UiRally rally = createTestRally();
+        UiBonusPoint bp1 = createTestBonusPoint(rally.getId(), "BP1", 100);
+        UiBonusPoint bp2 = createTestBonusPoint(rally.getId(), "BP2", 250);
+        RR_UiRallyParticipant riderReg = post_ForRider("/api/rally/" + rally.getId() + "/register", null, tr_UiRallyParticipant);
+        check(riderReg);
+        Integer participantId = riderReg.getData().getId();
+
+        UpdateOdometerRequest start = new UpdateOdometerRequest();
+        start.setOdometer(10000);
+        check(put_ForRider("/api/rally/" + rally.getId() + "/odometer/start", start, tr_UiRallyParticipant));
+
+        Integer firstEarnedId = null;
+        for (UiBonusPoint bp : List.of(bp1, bp2)) {
+            CreateEarnedBonusPointRequest request = new CreateEarnedBonusPointRequest();
+            request.setBonusPointId(bp.getId());
+            request.setOdometer(10500);
+            request.setEarnedAt(Instant.now());
+
+            RR_UiEarnedBonusPoint response = post_ForRider("/api/rally/" + rally.getId() + "/earned-bonus-point", request, tr_UiEarnedBonusPoint);
+            check(response);
+            if (firstEarnedId == null) {
+                firstEarnedId = response.getData().getId();
+            }
+        }
+        check(put_ForRM("/api/earned-bonus-point/" + firstEarnedId + "/confirm?confirmed=true", null, tr_UiEarnedBonusPoint));
+
+        UpdateOdometerRequest end = new UpdateOdometerRequest();
+        end.setOdometer(11200);
+        check(put_ForRider("/api/rally/" + rally.getId() + "/odometer/end", end, tr_UiRallyParticipant));
+
+        RR_PageUiRallyStanding response = get_ForRider("/api/rally/" + rally.getId() + "/leaderboard?page=0&size=10", tr_PageUiRallyStanding);
+        check(response);
+        assertEquals(1, response.getData().getTotalElements());
+
+        UiRallyStanding standing = response.getData().getContent().get(0);
+        assertEquals(participantId, standing.getRallyParticipantId());
+        assertEquals(1, standing.getRank());
+        assertEquals(100, standing.getScore());
+        assertEquals(250, standing.getPendingScore());
+        assertEquals(2, standing.getBonusPointCount());
+        assertEquals(1200, standing.getMileage());
+
+        // Past the end there's nothing, but the total is still there.
+        response = get_ForRider("/api/rally/" + rally.getId() + "/leaderboard?page=5&size=10", tr_PageUiRallyStanding);
+        check(response);
+        assertTrue(response.getData().getContent().isEmpty());
+        assertEquals(1, response.getData().getTotalElements());
+    }
+
+    /**
+     * Fetch the standings and pull out one participant's line.
+     */
+    private UiRallyStanding findStanding(Integer rallyId, Integer participantId) throws Exception {
+        RR_ListUiRallyStanding response = get_ForRider("/api/rally/" + rallyId + "/standings", tr_ListUiRallyStanding);
+        check(response);
+
+        return response.getData().stream()
+                .filter(s -> s.getRallyParticipantId().equals(participantId))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Participant " + participantId + " missing from standings"));
+    }
+}
@@ -0,0 +1,101 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.ui.UiBonusPoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the bonus point index cache, over rallies of made-up points loaded on demand.
+ */
+public class BonusPointIndexServiceTest {
+    private final Map<Integer, Integer> sizesByRally = new HashMap<>();
+    private int loads;
+    private Runnable duringLoad = () -> {};
+
+    @Test
+    public void testHitsAvoidTheDatabase() {
+        sizesByRally.put(1, 10);
+        BonusPointIndexService service = service(10);
+
+        assertEquals(3, service.nearest(1, 40, -105, 3).size());
+        assertEquals(10, service.inBox(1, 39, -106, 41, -104).size());
+        assertEquals(1, loads);
+        assertEquals(1, service.size());
+    }
+
+    @Test
+    public void testInvalidateReloads() {
+        sizesByRally.put(1, 10);
+        BonusPointIndexService service = service(10);
+        service.nearest(1, 40, -105, 1);
+
+        sizesByRally.put(1, 11);
+        service.invalidate(1);
+        assertEquals(0, service.size());
+        assertEquals(11, service.inBox(1, 39, -106, 41, -104).size());
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedGoesFirst() {
+        sizesByRally.put(1, 5);
+        sizesByRally.put(2, 5);
+        sizesByRally.put(3, 5);
+        BonusPointIndexService service = service(2);
+        service.nearest(1, 40, -105, 1);
+        service.nearest(2, 40, -105, 1);
+        service.nearest(1, 40, -105, 1);
+        service.nearest(3, 40, -105, 1);
+        assertEquals(3, loads);
+        assertEquals(2, service.size());
+
+        service.nearest(1, 40, -105, 1);
+        service.nearest(3, 40, -105, 1);
+        assertEquals(3, loads, "1 and 3 were kept");
+        service.nearest(2, 40, -105, 1);
+        assertEquals(4, loads, "2 was evicted");
+    }
+
+    @Test
+    public void testLoadRacingInvalidateIsNotKept() {
+        sizesByRally.put(1, 10);
+        BonusPointIndexService service = service(10);
+
+        duringLoad = () -> service.invalidate(1);
+        service.nearest(1, 40, -105, 1);
+        assertEquals(0, service.size());
+
+        duringLoad = () -> {};
+        service.nearest(1, 40, -105, 1);
+        service.nearest(1, 40, -105, 1);
+        assertEquals(2, loads);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private BonusPointIndexService service(int maxEntries) {
+        return new BonusPointIndexService(rallyId -> {
+            ++loads;
+            duringLoad.run();
+            List<UiBonusPoint> bonusPoints = new ArrayList<>();
+            for (int i = 0; i < sizesByRally.get(rallyId); ++i) {
+                bonusPoints.add(UiBonusPoint
+                        .builder()
+                        .id(i + 1)
+                        .rallyId(rallyId)
+                        .latitude(40 + i * 0.01)
+                        .longitude(-105.0)
+                        .build());
+            }
+            return bonusPoints;
+        }, maxEntries);
+    }
+}
@@ -0,0 +1,130 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the combination bitsets.
+ */
+public class CombinationMatcherTest {
+
+    @Test
+    public void testRequiresAll() {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(1, true, null)
+                .points(1, List.of(10, 11, 12))
+                .build();
+
+        assertFalse(matcher.isSatisfied(0, held(matcher, 10, 11)));
+        assertTrue(matcher.isSatisfied(0, held(matcher, 10, 11, 12)));
+        assertTrue(matcher.isSatisfied(0, held(matcher, 10, 11, 12, 99)), "Unrelated points don't matter");
+    }
+
+    @Test
+    public void testNumRequiredWithRequiredPoint() {
+        // Any 2 of 4, but 20 has to be one of them.
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(2, false, 2)
+                .point(2, 20, true)
+                .point(2, 21, false)
+                .point(2, 22, false)
+                .point(2, 23, false)
+                .build();
+
+        assertFalse(matcher.isSatisfied(0, held(matcher, 21, 22, 23)), "Missing the required point");
+        assertFalse(matcher.isSatisfied(0, held(matcher, 20)), "Not enough points");
+        assertTrue(matcher.isSatisfied(0, held(matcher, 20, 23)));
+    }
+
+    @Test
+    public void testMissingNumRequiredMeansAll() {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(3, false, null)
+                .points(3, List.of(30, 31))
+                .build();
+
+        assertFalse(matcher.isSatisfied(0, held(matcher, 30)));
+        assertTrue(matcher.isSatisfied(0, held(matcher, 30, 31)));
+    }
+
+    @Test
+    public void testRelease() {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(5, true, null)
+                .points(5, List.of(50, 51))
+                .build();
+
+        long[] held = held(matcher, 50, 51);
+        assertTrue(matcher.isSatisfied(0, held));
+        matcher.release(held, 51);
+        assertFalse(matcher.isSatisfied(0, held));
+    }
+
+    @Test
+    public void testEmptyCombinationNeverMatches() {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(4, true, null)
+                .build();
+
+        assertFalse(matcher.isSatisfied(0, matcher.newHeldSet()));
+    }
+
+    @Test
+    public void testOnlyCombinationsContainingThePointAreReturned() {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(1, true, null)
+                .points(1, List.of(10, 11))
+                .combination(2, true, null)
+                .points(2, List.of(11, 12))
+                .build();
+
+        assertArrayEquals(new int[] { 0 }, matcher.combinationsContaining(10));
+        assertArrayEquals(new int[] { 0, 1 }, matcher.combinationsContaining(11));
+        assertEquals(0, matcher.combinationsContaining(99).length);
+        assertEquals(2, matcher.combinationIdAt(matcher.offsetsOf(2)[0]));
+    }
+
+    @Test
+    public void testLargeRallySeesEachCombinationFromEachPoint() {
+        // Roughly the shape of a real rally: 100 points, 20 combinations of 5 each, spanning words.
+        CombinationMatcher.Builder builder = CombinationMatcher.builder();
+        for (int combo = 0; combo < 20; ++combo) {
+            builder.combination(combo, combo % 2 == 0, 3);
+            for (int i = 0; i < 5; ++i) {
+                builder.point(combo, combo * 5 + i, i == 0);
+            }
+        }
+        CombinationMatcher matcher = builder.build();
+
+        long[] held = matcher.newHeldSet();
+        for (int bp = 0; bp < 100; ++bp) {
+            if (bp % 5 != 4) {
+                matcher.hold(held, bp);
+            }
+        }
+
+        int satisfied = 0;
+        for (int bp = 0; bp < 100; ++bp) {
+            for (int offset : matcher.combinationsContaining(bp)) {
+                if (matcher.isSatisfied(offset, held)) {
+                    ++satisfied;
+                }
+            }
+        }
+
+        // We hold 4 of every 5. The odd combinations only need 3, the even ones need all 5, and
+        // each satisfied combination is seen once per point.
+        assertEquals(10 * 5, satisfied);
+    }
+
+    private static long[] held(CombinationMatcher matcher, Integer... bonusPointIds) {
+        long[] held = matcher.newHeldSet();
+        for (Integer bonusPointId : bonusPointIds) {
+            matcher.hold(held, bonusPointId);
+        }
+        return held;
+    }
+}
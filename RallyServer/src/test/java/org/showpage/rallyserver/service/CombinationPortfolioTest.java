@@ -0,0 +1,219 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the combination portfolio search. At 60 mph a mile is a minute; a tenth of a degree
+ * of latitude is about 7 miles.
+ */
+public class CombinationPortfolioTest {
+
+    @Test
+    public void testSkipsTheSuckerCombo() {
+        CombinationPortfolio.Analysis analysis = suckerProblem().build().solve(Duration.ofSeconds(2), 3);
+
+        // Three medium combos sharing stops on one short out-and-back beat the big one 80 miles away.
+        CombinationPortfolio.Portfolio best = analysis.portfolios().get(0);
+        assertEquals(Set.of(1, 2, 3), combinationIds(best));
+        assertEquals(600 + 40, best.points());
+        assertEquals(4, best.bonusPointIds().size(), "Shared points are visited once");
+        assertEquals(Set.of(11, 12, 13, 14), Set.copyOf(best.bonusPointIds()));
+        assertEquals(55.3, best.miles(), 0.5, "Straight out to point 14 and back");
+        assertTrue(analysis.complete());
+
+        // On its own the sucker fits, and it's the next best thing.
+        CombinationPortfolio.Estimate sucker = estimate(analysis, 9);
+        assertTrue(sucker.fits());
+        assertEquals(500, sucker.points());
+        assertTrue(analysis.portfolios().stream().anyMatch(portfolio -> combinationIds(portfolio).equals(Set.of(9))));
+    }
+
+    @Test
+    public void testMarginals() {
+        CombinationPortfolio.Portfolio best = suckerProblem().build().solve(Duration.ofSeconds(2), 1).portfolios().get(0);
+
+        // Combo 1's only point of its own is on the way to the others, so it's nearly free.
+        CombinationPortfolio.Pick first = best.combinations().stream()
+                .filter(pick -> pick.combinationId() == 1)
+                .findFirst()
+                .orElseThrow();
+        assertEquals(210, first.marginalPoints());
+        assertEquals(0.0, first.marginalMinutes(), 0.5);
+
+        // Combo 3 is the only reason to go as far as point 14.
+        CombinationPortfolio.Pick last = best.combinations().stream()
+                .filter(pick -> pick.combinationId() == 3)
+                .findFirst()
+                .orElseThrow();
+        assertEquals(210, last.marginalPoints());
+        assertEquals(13.8, last.marginalMinutes(), 0.5);
+    }
+
+    @Test
+    public void testPicksCheapestOptionalPoints() {
+        // Any 2 of 3, and one of them is 200 miles off.
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(4, false, 2)
+                .point(4, 21, false)
+                .point(4, 22, false)
+                .point(4, 23, false)
+                .build();
+
+        CombinationPortfolio.Analysis analysis = base(240)
+                .point(21, 40, -96, 10)
+                .point(22, 39.9, -100, 10)
+                .point(23, 39.8, -100, 10)
+                .combinations(matcher, Map.of(4, 50))
+                .build()
+                .solve(Duration.ofSeconds(1), 1);
+
+        assertEquals(Set.of(22, 23), Set.copyOf(estimate(analysis, 4).bonusPointIds()));
+        assertEquals(70, analysis.portfolios().get(0).points());
+    }
+
+    @Test
+    public void testUnreachableCombination() {
+        // Bonus point 99 has no location.
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(5, true, null)
+                .points(5, List.of(11, 99))
+                .build();
+
+        CombinationPortfolio.Analysis analysis = base(180)
+                .point(11, 40.1, -100, 10)
+                .combinations(matcher, Map.of(5, 100))
+                .build()
+                .solve(Duration.ofSeconds(1), 3);
+
+        assertFalse(estimate(analysis, 5).fits());
+        assertTrue(analysis.portfolios().isEmpty());
+    }
+
+    @Test
+    public void testManyCombinationsSearchedToTheEnd() {
+        // A minute is far more than the search takes and is only there as a backstop; what matters
+        // is that it finished rather than ran out of time.
+        CombinationPortfolio.Analysis analysis = manyCombinations().solve(Duration.ofMinutes(1), 5);
+
+        assertTrue(analysis.complete());
+        assertEquals(5, analysis.portfolios().size());
+        for (CombinationPortfolio.Portfolio portfolio : analysis.portfolios()) {
+            assertTrue(portfolio.minutes() <= 600 + 1e-6);
+        }
+        for (int i = 1; i < 5; ++i) {
+            assertTrue(analysis.portfolios().get(i - 1).points() >= analysis.portfolios().get(i).points());
+        }
+    }
+
+    @Test
+    public void testAnchorsRunOnExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CombinationPortfolio.Analysis alone = manyCombinations().solve(Duration.ofMinutes(1), 5);
+            CombinationPortfolio.Analysis shared = manyCombinations().solve(Duration.ofMinutes(1), 5, executor);
+
+            assertTrue(shared.complete());
+            assertEquals(points(alone), points(shared));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * Fifteen overlapping combinations over sixty points, in a ten hour budget.
+     */
+    private static CombinationPortfolio manyCombinations() {
+        Random random = new Random(5);
+        CombinationMatcher.Builder matcher = CombinationMatcher.builder();
+        Map<Integer, Integer> values = new HashMap<>();
+        CombinationPortfolio.Builder builder = base(600).stopMinutes(5);
+        for (int point = 100; point < 160; ++point) {
+            builder.point(point, 39 + random.nextDouble() * 2, -101 + random.nextDouble() * 2, 10);
+        }
+        for (int combination = 1; combination <= 15; ++combination) {
+            matcher.combination(combination, random.nextBoolean(), 3);
+            Set<Integer> points = new HashSet<>();
+            while (points.size() < 4) {
+                points.add(100 + random.nextInt(60));
+            }
+            matcher.points(combination, points);
+            values.put(combination, 100 + random.nextInt(400));
+        }
+        return builder.combinations(matcher.build(), values).build();
+    }
+
+    private static List<Integer> points(CombinationPortfolio.Analysis analysis) {
+        return analysis.portfolios().stream().map(CombinationPortfolio.Portfolio::points).toList();
+    }
+
+    /**
+     * Start and finish at the same place, 60 mph, no stop time.
+     */
+    private static CombinationPortfolio.Builder base(double budgetMinutes) {
+        return CombinationPortfolio.builder()
+                .start(40, -100)
+                .finish(40, -100)
+                .budgetMinutes(budgetMinutes)
+                .milesPerHour(60);
+    }
+
+    /**
+     * Points 11-14 head north in a line from the start; 1 = {11, 12}, 2 = {12, 13}, 3 = {13, 14},
+     * 200 each. Combo 9 is worth 500 but its points are 80 miles east: it fits on its own, but not
+     * with anything else.
+     */
+    private static CombinationPortfolio.Builder suckerProblem() {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(1, true, null)
+                .points(1, List.of(11, 12))
+                .combination(2, true, null)
+                .points(2, List.of(12, 13))
+                .combination(3, true, null)
+                .points(3, List.of(13, 14))
+                .combination(9, true, null)
+                .points(9, List.of(91, 92, 93))
+                .build();
+
+        return base(170)
+                .point(11, 40.1, -100, 10)
+                .point(12, 40.2, -100, 10)
+                .point(13, 40.3, -100, 10)
+                .point(14, 40.4, -100, 10)
+                .point(91, 40.0, -98.5, 0)
+                .point(92, 40.05, -98.5, 0)
+                .point(93, 40.1, -98.5, 0)
+                .combinations(matcher, Map.of(1, 200, 2, 200, 3, 200, 9, 500));
+    }
+
+    private static Set<Integer> combinationIds(CombinationPortfolio.Portfolio portfolio) {
+        Set<Integer> ids = new HashSet<>();
+        for (CombinationPortfolio.Pick pick : portfolio.combinations()) {
+            ids.add(pick.combinationId());
+        }
+        return ids;
+    }
+
+    private static CombinationPortfolio.Estimate estimate(CombinationPortfolio.Analysis analysis, int combinationId) {
+        return analysis.combinations().stream()
+                .filter(estimate -> estimate.combinationId() == combinationId)
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,111 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the distance matrix cache, over rallies of made-up sizes built on demand.
+ */
+public class DistanceMatrixServiceTest {
+    private final Map<Integer, Integer> sizesByRally = new HashMap<>();
+    private int builds;
+    private Runnable duringBuild = () -> {};
+
+    @Test
+    public void testHitsAvoidTheDatabase() {
+        sizesByRally.put(1, 10);
+        DistanceMatrixService service = service(1_000_000);
+
+        DistanceMatrix matrix = service.getMatrix(1);
+        assertEquals(10, matrix.size());
+        assertSame(matrix, service.getMatrix(1));
+        assertEquals(1, builds);
+        assertEquals(10L * 10 * Double.BYTES, service.bytes());
+    }
+
+    @Test
+    public void testInvalidateRebuilds() {
+        sizesByRally.put(1, 10);
+        DistanceMatrixService service = service(1_000_000);
+        service.getMatrix(1);
+
+        sizesByRally.put(1, 11);
+        service.invalidate(1);
+        assertEquals(0, service.bytes());
+        assertEquals(11, service.getMatrix(1).size());
+        assertEquals(2, builds);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedGoesFirst() {
+        sizesByRally.put(1, 10);
+        sizesByRally.put(2, 10);
+        sizesByRally.put(3, 10);
+        DistanceMatrixService service = service(2L * 10 * 10 * Double.BYTES);
+        service.getMatrix(1);
+        service.getMatrix(2);
+        service.getMatrix(1);
+        service.getMatrix(3);
+        assertEquals(3, builds);
+        assertEquals(2L * 10 * 10 * Double.BYTES, service.bytes());
+
+        service.getMatrix(1);
+        service.getMatrix(3);
+        assertEquals(3, builds, "1 and 3 were kept");
+        service.getMatrix(2);
+        assertEquals(4, builds, "2 was evicted");
+    }
+
+    @Test
+    public void testTooBigIsNotKept() {
+        sizesByRally.put(1, 5);
+        sizesByRally.put(2, 20);
+        DistanceMatrixService service = service(10L * 10 * Double.BYTES);
+        service.getMatrix(1);
+
+        assertEquals(20, service.getMatrix(2).size());
+        service.getMatrix(2);
+        assertEquals(3, builds);
+        assertEquals(5L * 5 * Double.BYTES, service.bytes(), "The small one is still there");
+    }
+
+    @Test
+    public void testBuildRacingInvalidateIsNotKept() {
+        sizesByRally.put(1, 10);
+        DistanceMatrixService service = service(1_000_000);
+
+        duringBuild = () -> service.invalidate(1);
+        service.getMatrix(1);
+        assertEquals(0, service.bytes());
+
+        duringBuild = () -> {};
+        service.getMatrix(1);
+        service.getMatrix(1);
+        assertEquals(2, builds);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private DistanceMatrixService service(long maxBytes) {
+        return new DistanceMatrixService(rallyId -> {
+            ++builds;
+            duringBuild.run();
+            int size = sizesByRally.get(rallyId);
+            int[] ids = new int[size];
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            for (int i = 0; i < size; ++i) {
+                ids[i] = i + 1;
+                latitudes[i] = 40 + i * 0.01;
+                longitudes[i] = -105;
+            }
+            return DistanceMatrix.of(ids, latitudes, longitudes);
+        }, maxBytes);
+    }
+}
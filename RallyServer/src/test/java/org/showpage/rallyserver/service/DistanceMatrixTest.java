@@ -0,0 +1,111 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the flat distance table and its wire form.
+ */
+public class DistanceMatrixTest {
+
+    @Test
+    public void testKnownDistances() {
+        // A degree of latitude is about 69 miles; Denver to Colorado Springs is about 64 as the crow flies.
+        DistanceMatrix matrix = DistanceMatrix.of(
+                new int[] { 10, 11, 12 },
+                new double[] { 39.7392, 40.7392, 38.8339 },
+                new double[] { -104.9903, -104.9903, -104.8214 });
+
+        assertEquals(69.1, matrix.milesBetween(10, 11), 0.1);
+        assertEquals(63.2, matrix.milesBetween(10, 12), 0.5);
+        assertEquals(DistanceMatrix.miles(39.7392, -104.9903, 38.8339, -104.8214), matrix.milesBetween(10, 12), 1e-9);
+    }
+
+    @Test
+    public void testSymmetricWithEmptyDiagonal() {
+        DistanceMatrix matrix = randomMatrix(50, 1);
+
+        for (int a = 0; a < matrix.size(); ++a) {
+            assertEquals(0.0, matrix.milesAt(a, a));
+            for (int b = 0; b < matrix.size(); ++b) {
+                assertEquals(matrix.milesAt(a, b), matrix.milesAt(b, a));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOf() {
+        DistanceMatrix matrix = randomMatrix(5, 2);
+
+        assertEquals(0, matrix.indexOf(100));
+        assertEquals(4, matrix.indexOf(104));
+        assertEquals(104, matrix.bonusPointIdAt(4));
+        assertEquals(-1, matrix.indexOf(999), "Not in the matrix");
+        assertThrows(IllegalArgumentException.class, () -> matrix.milesBetween(100, 999));
+    }
+
+    @Test
+    public void testParallelBuildMatchesPairwise() {
+        // Big enough to be filled in parallel.
+        DistanceMatrix matrix = randomMatrix(400, 3);
+        Random random = new Random(3);
+        double[] latitudes = new double[400];
+        double[] longitudes = new double[400];
+        for (int i = 0; i < 400; ++i) {
+            latitudes[i] = 35 + random.nextDouble() * 10;
+            longitudes[i] = -110 + random.nextDouble() * 15;
+        }
+
+        for (int a = 0; a < 400; a += 37) {
+            for (int b = 0; b < 400; b += 11) {
+                double expected = DistanceMatrix.miles(latitudes[a], longitudes[a], latitudes[b], longitudes[b]);
+                assertEquals(expected, matrix.milesAt(a, b), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testBytesRoundTrip() {
+        DistanceMatrix matrix = randomMatrix(30, 4);
+        byte[] bytes = matrix.toBytes();
+
+        // Count, IDs, then the upper triangle as floats.
+        assertEquals(4 + 30 * 4 + (30 * 29 / 2) * 4, bytes.length);
+
+        DistanceMatrix copy = DistanceMatrix.fromBytes(bytes);
+        assertEquals(30, copy.size());
+        for (int a = 0; a < 30; ++a) {
+            assertEquals(matrix.bonusPointIdAt(a), copy.bonusPointIdAt(a));
+            for (int b = 0; b < 30; ++b) {
+                assertEquals(matrix.milesAt(a, b), copy.milesAt(a, b), 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        DistanceMatrix matrix = DistanceMatrix.of(new int[0], new double[0], new double[0]);
+
+        assertEquals(0, matrix.size());
+        assertEquals(0, DistanceMatrix.fromBytes(matrix.toBytes()).size());
+    }
+
+    /**
+     * Bonus points 100, 101, ... scattered over the Rockies.
+     */
+    private static DistanceMatrix randomMatrix(int size, long seed) {
+        Random random = new Random(seed);
+        int[] ids = new int[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; ++i) {
+            ids[i] = 100 + i;
+            latitudes[i] = 35 + random.nextDouble() * 10;
+            longitudes[i] = -110 + random.nextDouble() * 15;
+        }
+        return DistanceMatrix.of(ids, latitudes, longitudes);
+    }
+}
@@ -0,0 +1,198 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for geo cells and covering circles with them. A sorted array of cells stands in for
+ * the rally table's index: what matters to the database is how many rows it has to read.
+ */
+public class GeoCellTest {
+    private static final double EARTH_RADIUS_MILES = 3958.7613;
+
+    @Test
+    public void testCellNumbers() {
+        // These must match rally_geo_cell() in the database.
+        assertEquals(0L, GeoCell.of(-90, -180));
+        assertEquals((1L << 62) - 1, GeoCell.of(90, 180));
+        assertEquals(3L << 60, GeoCell.of(0, 0));
+        assertEquals(2586302369519169291L, GeoCell.of(39.7392, -104.9903));
+        assertEquals(2L, GeoCell.of(0, -0.0000001) >>> 60);
+        assertEquals(1L, GeoCell.of(-0.0000001, 0) >>> 60);
+
+        // Nearby places share a long prefix; far ones don't.
+        long denver = GeoCell.of(39.7392, -104.9903);
+        long boulder = GeoCell.of(40.0150, -105.2705);
+        long sydney = GeoCell.of(-33.8688, 151.2093);
+        assertTrue(Long.numberOfLeadingZeros(denver ^ boulder) > Long.numberOfLeadingZeros(denver ^ sydney) + 10);
+    }
+
+    @Test
+    public void testCoverHoldsTheWholeCircle() {
+        Random random = new Random(21);
+        double[][] centres = {
+                { 39.7392, -104.9903 }, { 0, 0 }, { 64.8, -179.9 }, { -41.3, 179.95 }, { 89.5, 10 }, { -89.9, -60 }
+        };
+        for (double[] centre : centres) {
+            for (double radius : new double[] { 0.5, 25, 100, 500, 3000 }) {
+                List<GeoCell.Range> ranges = GeoCell.cover(centre[0], centre[1], radius);
+                assertTrue(ranges.size() <= 50, ranges.size() + " ranges");
+                for (int i = 1; i < ranges.size(); ++i) {
+                    assertTrue(ranges.get(i).from() > ranges.get(i - 1).to() + 1, "Sorted and merged");
+                }
+
+                // Points scattered over the circle, most of them near the edge.
+                for (int i = 0; i < 2000; ++i) {
+                    double miles = radius * Math.sqrt(Math.sqrt(random.nextDouble()));
+                    double[] point = destination(centre[0], centre[1], random.nextDouble() * 360, miles);
+                    long cell = GeoCell.of(point[0], point[1]);
+                    assertTrue(ranges.stream().anyMatch(range -> cell >= range.from() && cell <= range.to()),
+                            "Missed " + Arrays.toString(point) + " within " + radius + " of " + Arrays.toString(centre));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadsFewRowsOfManyRallies() {
+        // 100,000 rallies, mostly around North America and Europe.
+        Random random = new Random(22);
+        int count = 100_000;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; ++i) {
+            boolean america = random.nextInt(3) > 0;
+            latitudes[i] = america ? 25 + random.nextDouble() * 25 : 36 + random.nextDouble() * 24;
+            longitudes[i] = america ? -125 + random.nextDouble() * 58 : -10 + random.nextDouble() * 40;
+        }
+        long[] cells = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            cells[i] = GeoCell.of(latitudes[i], longitudes[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(cells[a], cells[b]));
+        long[] sortedCells = new long[count];
+        int[] rows = new int[count];
+        for (int i = 0; i < count; ++i) {
+            sortedCells[i] = cells[order[i]];
+            rows[i] = order[i];
+        }
+
+        double[][] queries = new double[200][];
+        for (int i = 0; i < queries.length; ++i) {
+            queries[i] = new double[] { 30 + random.nextDouble() * 20, -120 + random.nextDouble() * 50, 25 + random.nextDouble() * 225 };
+        }
+
+        // Right answers, warming up as we go. The old box was a little narrow at its east and west
+        // edges, so it could drop a rally; the cells can't.
+        long candidates = 0;
+        long found = 0;
+        for (double[] query : queries) {
+            List<Integer> exact = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                if (miles(query[0], query[1], latitudes[i], longitudes[i]) <= query[2]) {
+                    exact.add(i);
+                }
+            }
+            List<Integer> indexed = new ArrayList<>();
+            candidates += indexed(sortedCells, rows, latitudes, longitudes, query[0], query[1], query[2], indexed);
+            indexed.sort(null);
+            assertEquals(exact, indexed);
+            assertTrue(exact.containsAll(scan(latitudes, longitudes, query[0], query[1], query[2])));
+            found += exact.size();
+        }
+        assertTrue(found > 0);
+
+        // The old query read every row; this reads a few percent, mostly ones it wants.
+        assertTrue(candidates < found * 4, candidates + " rows read for " + found + " rallies");
+        assertTrue(candidates / queries.length < count / 20, candidates / queries.length + " rows read a query");
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * What the old specification asked the database to do: every row through a bounding box, then
+     * the trig.
+     */
+    private static List<Integer> scan(double[] latitudes, double[] longitudes, double lat, double lng, double radiusMiles) {
+        double dLat = radiusMiles / 69.0;
+        double dLng = radiusMiles / Math.max(0.000001, 69.172 * Math.cos(Math.toRadians(lat)));
+        List<Integer> hits = new ArrayList<>();
+        for (int i = 0; i < latitudes.length; ++i) {
+            if (latitudes[i] >= lat - dLat && latitudes[i] <= lat + dLat && longitudes[i] >= lng - dLng && longitudes[i] <= lng + dLng
+                    && miles(lat, lng, latitudes[i], longitudes[i]) <= radiusMiles) {
+                hits.add(i);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * What it asks now: the rows in each cell range, found by binary search as a B-tree would, then
+     * the trig. Returns how many rows it had to check.
+     */
+    private static int indexed(long[] sortedCells, int[] rows, double[] latitudes, double[] longitudes,
+                               double lat, double lng, double radiusMiles, List<Integer> hits)
+    {
+        int candidates = 0;
+        for (GeoCell.Range range : GeoCell.cover(lat, lng, radiusMiles)) {
+            int from = lowerBound(sortedCells, range.from());
+            for (int i = from; i < sortedCells.length && sortedCells[i] <= range.to(); ++i) {
+                ++candidates;
+                int row = rows[i];
+                if (miles(lat, lng, latitudes[row], longitudes[row]) <= radiusMiles) {
+                    hits.add(row);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The same formula as the SQL.
+     */
+    private static double miles(double lat1, double lng1, double lat2, double lng2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double cos = Math.cos(phi1) * Math.cos(phi2) * Math.cos(Math.toRadians(lng2) - Math.toRadians(lng1))
+                + Math.sin(phi1) * Math.sin(phi2);
+        return EARTH_RADIUS_MILES * Math.acos(Math.max(-1, Math.min(1, cos)));
+    }
+
+    /**
+     * Where you end up going this many miles on this bearing, with longitude back in -180..180.
+     */
+    private static double[] destination(double lat, double lng, double bearing, double miles) {
+        double angle = miles / EARTH_RADIUS_MILES;
+        double phi = Math.toRadians(lat);
+        double theta = Math.toRadians(bearing);
+        double phi2 = Math.asin(Math.sin(phi) * Math.cos(angle) + Math.cos(phi) * Math.sin(angle) * Math.cos(theta));
+        double lambda2 = Math.toRadians(lng) + Math.atan2(Math.sin(theta) * Math.sin(angle) * Math.cos(phi),
+                Math.cos(angle) - Math.sin(phi) * Math.sin(phi2));
+        double longitude = (Math.toDegrees(lambda2) + 540) % 360 - 180;
+        return new double[] { Math.toDegrees(phi2), longitude };
+    }
+}
@@ -0,0 +1,67 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.exception.ValidationException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for keyset pages and their cursors.
+ */
+public class KeysetPageTest {
+
+    @Test
+    public void testCursorsRoundTrip() throws Exception {
+        String cursor = KeysetPage.cursor(LocalDate.of(2026, 6, 1), 42);
+        assertFalse(cursor.contains("2026"), "Cursors are opaque");
+        assertArrayEquals(new String[] { "2026-06-01", "42" }, KeysetPage.keys(cursor, 2));
+
+        assertArrayEquals(new String[] { null, "7" }, KeysetPage.keys(KeysetPage.cursor(null, 7), 2));
+        assertEquals(Integer.valueOf(123456), KeysetPage.id(KeysetPage.cursor(123456)));
+    }
+
+    @Test
+    public void testRejectsBadCursors() {
+        assertThrows(ValidationException.class, () -> KeysetPage.keys("not base64!", 2));
+        assertThrows(ValidationException.class, () -> KeysetPage.keys(KeysetPage.cursor(42), 2));
+        assertThrows(ValidationException.class, () -> KeysetPage.id(KeysetPage.cursor("x")));
+        assertThrows(ValidationException.class, () -> KeysetPage.checkSize(0));
+        assertThrows(ValidationException.class, () -> KeysetPage.checkSize(KeysetPage.MAX_SIZE + 1));
+    }
+
+    @Test
+    public void testPagesThroughEveryRowOnce() throws Exception {
+        // Stands in for "WHERE id > :after ORDER BY id LIMIT :size + 1".
+        List<Integer> ids = IntStream.rangeClosed(1, 25).map(i -> i * 3).boxed().toList();
+        List<Integer> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            int after = cursor == null ? 0 : KeysetPage.id(cursor);
+            List<Integer> rows = ids.stream().filter(id -> id > after).limit(11).toList();
+            KeysetPage<Integer> page = KeysetPage.of(rows, 10, cursor == null, id -> KeysetPage.cursor(id), null);
+            assertEquals(pages == 0, page.first());
+            assertTrue(page.content().size() <= 10);
+            assertNull(page.totalElements());
+            seen.addAll(page.content());
+            cursor = page.next();
+            ++pages;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(ids, seen);
+    }
+
+    @Test
+    public void testLastFullPageHasNoNext() {
+        KeysetPage<Integer> page = KeysetPage.of(List.of(1, 2, 3), 3, true, id -> KeysetPage.cursor(id), 3L);
+        assertNull(page.next());
+        assertEquals(Long.valueOf(3), page.totalElements());
+        assertEquals(List.of("1", "2", "3"), page.map(String::valueOf).content());
+    }
+}
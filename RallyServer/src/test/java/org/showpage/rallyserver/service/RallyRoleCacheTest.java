@@ -0,0 +1,109 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.entity.RallyParticipantType;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the rally role cache, over a map standing in for the rally_participant table and a
+ * clock we move by hand.
+ */
+public class RallyRoleCacheTest {
+    private static final long TTL = TimeUnit.SECONDS.toNanos(600);
+
+    private final Map<List<Integer>, RallyParticipantType> table = new HashMap<>();
+    private int lookups;
+    private long now = 1_000;
+
+    @Test
+    public void testHitsAvoidTheDatabase() {
+        table.put(List.of(1, 10), RallyParticipantType.ORGANIZER);
+        RallyRoleCache cache = cache(100);
+
+        assertEquals(Optional.of(RallyParticipantType.ORGANIZER), cache.getRole(1, 10));
+        assertTrue(cache.isScorer(1, 10));
+        assertEquals(1, lookups);
+
+        now += TTL;
+        assertTrue(cache.isScorer(1, 10));
+        assertEquals(2, lookups, "Expired, so asked again");
+    }
+
+    @Test
+    public void testNonParticipantsAreNotKept() {
+        RallyRoleCache cache = cache(100);
+        for (int rallyId = 1; rallyId <= 50; ++rallyId) {
+            assertEquals(Optional.empty(), cache.getRole(rallyId, 10));
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        RallyRoleCache cache = cache(3);
+        for (int memberId = 1; memberId <= 5; ++memberId) {
+            table.put(List.of(1, memberId), RallyParticipantType.RIDER);
+            cache.getRole(1, memberId);
+        }
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        table.put(List.of(1, 10), RallyParticipantType.RIDER);
+        table.put(List.of(1, 11), RallyParticipantType.RIDER);
+        table.put(List.of(2, 10), RallyParticipantType.RIDER);
+        RallyRoleCache cache = cache(100);
+        cache.getRole(1, 10);
+        cache.getRole(1, 11);
+        cache.getRole(2, 10);
+
+        table.put(List.of(1, 10), RallyParticipantType.AIDE);
+        cache.invalidate(1, 10);
+        assertTrue(cache.isScorer(1, 10));
+        assertEquals(3, cache.size());
+
+        cache.invalidate(1);
+        assertEquals(1, cache.size(), "Only the other rally is left");
+    }
+
+    @Test
+    public void testRollbackForgetsWhatTheTransactionSaw() {
+        RallyRoleCache cache = cache(100);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // Registered inside the transaction, and looked up before it rolls back.
+            table.put(List.of(1, 10), RallyParticipantType.RIDER);
+            cache.invalidate(1, 10);
+            assertEquals(Optional.of(RallyParticipantType.RIDER), cache.getRole(1, 10));
+
+            table.remove(List.of(1, 10));
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(Optional.empty(), cache.getRole(1, 10));
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private RallyRoleCache cache(int maxEntries) {
+        return new RallyRoleCache((rallyId, memberId) -> {
+            ++lookups;
+            return Optional.ofNullable(table.get(List.of(rallyId, memberId)));
+        }, maxEntries, TTL, () -> now);
+    }
+}
@@ -0,0 +1,93 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the rally search cache, with a clock we move by hand.
+ */
+public class RallySearchCacheTest {
+    private static final long TTL = TimeUnit.SECONDS.toNanos(300);
+
+    private long now = 1_000;
+
+    @Test
+    public void testHitsAndMisses() {
+        RallySearchCache cache = new RallySearchCache(10, TTL, () -> now);
+        RallySearchCache.Key key = key("US", 0);
+
+        assertNull(cache.find(key));
+        cache.put(key, cache.generation(), new RallySearchCache.Result(List.of(3, 1, 2), 7));
+
+        RallySearchCache.Result result = cache.find(key("US", 0));
+        assertNotNull(result);
+        assertEquals(List.of(3, 1, 2), result.ids());
+        assertEquals(7, result.total());
+        assertNull(cache.find(key("US", 1)), "Another page is another search");
+        assertNull(cache.find(key("CA", 0)));
+
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    public void testExpires() {
+        RallySearchCache cache = new RallySearchCache(10, TTL, () -> now);
+        cache.put(key("US", 0), cache.generation(), new RallySearchCache.Result(List.of(1), 1));
+
+        now += TTL - 1;
+        assertNotNull(cache.find(key("US", 0)));
+        now += 1;
+        assertNull(cache.find(key("US", 0)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDropsLeastRecentlyUsed() {
+        RallySearchCache cache = new RallySearchCache(3, TTL, () -> now);
+        for (int page = 0; page < 3; ++page) {
+            cache.put(key("US", page), cache.generation(), new RallySearchCache.Result(List.of(page), 3));
+        }
+        assertNotNull(cache.find(key("US", 0)));
+
+        cache.put(key("US", 3), cache.generation(), new RallySearchCache.Result(List.of(3), 4));
+        assertEquals(3, cache.size());
+        assertNotNull(cache.find(key("US", 0)), "Used recently, so kept");
+        assertNull(cache.find(key("US", 1)), "The oldest unused one goes");
+        assertNotNull(cache.find(key("US", 3)));
+    }
+
+    @Test
+    public void testInvalidateDropsEverythingAndSearchesInFlight() {
+        RallySearchCache cache = new RallySearchCache(10, TTL, () -> now);
+        cache.put(key("US", 0), cache.generation(), new RallySearchCache.Result(List.of(1), 1));
+
+        // A search starts, a rally changes, then the search finishes with what it read before.
+        long generation = cache.generation();
+        cache.invalidate();
+        cache.put(key("GB", 0), generation, new RallySearchCache.Result(List.of(2), 1));
+
+        assertEquals(0, cache.size());
+        assertNull(cache.find(key("US", 0)));
+        assertNull(cache.find(key("GB", 0)));
+
+        cache.put(key("GB", 0), cache.generation(), new RallySearchCache.Result(List.of(2), 1));
+        assertNotNull(cache.find(key("GB", 0)));
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static RallySearchCache.Key key(String country, int page) {
+        Pageable pageable = PageRequest.of(page, 20, Sort.by("startDate"));
+        return new RallySearchCache.Key(null, false, null, null, country, null, null, null, null, pageable);
+    }
+}
@@ -0,0 +1,65 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.ui.UiRallyStanding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the in-memory standings table.
+ */
+public class RallyStandingsTest {
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        RallyStandings standings = sample();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            standings.writeTo(out);
+        }
+        RallyStandings copy = RallyStandings.readFrom(1, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(standings.getRanked(), copy.getRanked());
+        assertEquals(Set.of(10, 12), copy.holdersOfBonusPoint(500));
+
+        // The copy keeps working like the original.
+        copy.repriceBonusPoint(500, 80);
+        assertEquals(105, find(copy.getRanked(), 10).getScore());
+    }
+
+    @Test
+    public void testRemoveRider() {
+        RallyStandings standings = sample();
+        standings.removeRider(12);
+
+        assertEquals(2, standings.getRanked().size());
+        assertEquals(Set.of(10), standings.holdersOfBonusPoint(500));
+    }
+
+    private static RallyStandings sample() {
+        RallyStandings standings = new RallyStandings(1);
+        standings.addRider(10, 100);
+        standings.addRider(11, 101);
+        standings.addRider(12, 102);
+        standings.putBonusPoint(1, 500, 10, 100, 50, true);
+        standings.putBonusPoint(2, 501, 11, 101, 70, false);
+        standings.putCombination(3, 900, 10, 100, 25, true);
+        standings.putBonusPoint(4, 500, 12, 102, 50, true);
+        return standings;
+    }
+
+    private static UiRallyStanding find(List<UiRallyStanding> ranked, int rallyParticipantId) {
+        return ranked.stream()
+                .filter(s -> s.getRallyParticipantId() == rallyParticipantId)
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,153 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the route optimizer.
+ */
+public class RouteOptimizerTest {
+    private static final Duration SHORT = Duration.ofMillis(200);
+
+    @Test
+    public void testStaysInsideBudget() {
+        // Three points a degree apart on the equator, about 69 miles each. At 60 mph with no stop
+        // time, two hours gets us out and back to the first one but no further.
+        RouteOptimizer optimizer = RouteOptimizer.builder()
+                .start(0, 0)
+                .finish(0, 0)
+                .stop(1, 0, 1, 100, false)
+                .stop(2, 0, 2, 100, false)
+                .stop(3, 0, 3, 100, false)
+                .budgetMinutes(150)
+                .milesPerHour(60)
+                .build();
+
+        RouteOptimizer.Plan plan = optimizer.solve(SHORT, 2);
+        assertEquals(List.of(1), plan.bonusPointIds());
+        assertEquals(100, plan.score());
+        assertTrue(plan.minutes() <= 150);
+    }
+
+    @Test
+    public void testOrdersStopsAlongTheWay() {
+        RouteOptimizer optimizer = RouteOptimizer.builder()
+                .start(0, 0)
+                .finish(0, 4)
+                .stop(3, 0, 3, 10, false)
+                .stop(1, 0, 1, 10, false)
+                .stop(2, 0, 2, 10, false)
+                .budgetMinutes(24 * 60)
+                .stopMinutes(15)
+                .milesPerHour(60)
+                .build();
+
+        RouteOptimizer.Plan plan = optimizer.solve(SHORT, 2);
+        assertEquals(List.of(1, 2, 3), plan.bonusPointIds());
+        assertEquals(30, plan.score());
+    }
+
+    @Test
+    public void testCompletesValuableCombination() {
+        // Points 1 and 2 are worth little alone but make a big combination. Point 3 is worth more
+        // than either on its own, in the other direction. There's only time for one side.
+        RouteOptimizer.Plan plan = combinationProblem(180).solve(SHORT, 2);
+        assertEquals(1020, plan.score());
+        assertEquals(List.of(50), plan.combinationIds());
+        assertFalse(plan.bonusPointIds().contains(3));
+    }
+
+    @Test
+    public void testSkipsCombinationThatCannotBeFinished() {
+        // Same rally, but now there isn't time to reach both halves of the combination.
+        RouteOptimizer.Plan plan = combinationProblem(160).solve(SHORT, 2);
+        assertEquals(60, plan.score());
+        assertEquals(List.of(3), plan.bonusPointIds());
+    }
+
+    @Test
+    public void testRequiredPointAlwaysIncluded() {
+        RouteOptimizer optimizer = RouteOptimizer.builder()
+                .start(0, 0)
+                .finish(0, 0)
+                .stop(1, 0, 5, 0, true)
+                .budgetMinutes(10)
+                .milesPerHour(60)
+                .build();
+
+        RouteOptimizer.Plan plan = optimizer.solve(SHORT, 1);
+        assertEquals(List.of(1), plan.bonusPointIds());
+    }
+
+    @Test
+    public void testLargeRallyImprovesOnGreedyPlan() {
+        // Capped by kicks rather than the clock, so the answer is the same on any machine. A
+        // minute is far more than the kicks take and is only there as a backstop.
+        RouteOptimizer.Plan greedy = largeRally(0).solve(Duration.ofMinutes(1), 2);
+        RouteOptimizer.Plan plan = largeRally(200).solve(Duration.ofMinutes(1), 2);
+
+        assertEquals(0, greedy.iterations());
+        assertEquals(400, plan.iterations());
+        assertTrue(plan.score() >= greedy.score(), plan.score() + " < " + greedy.score());
+        assertTrue(plan.minutes() <= 24 * 60);
+        assertEquals(plan.bonusPointIds().size(), plan.bonusPointIds().stream().distinct().count());
+    }
+
+    @Test
+    public void testStartsRunOnExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            RouteOptimizer.Plan plan = largeRally(50).solve(Duration.ofMinutes(1), 4, executor);
+            assertEquals(200, plan.iterations());
+            assertEquals(largeRally(50).solve(Duration.ofMinutes(1), 4), plan);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static RouteOptimizer largeRally(int iterations) {
+        Random random = new Random(7);
+        RouteOptimizer.Builder builder = RouteOptimizer.builder()
+                .start(39, -105)
+                .finish(39, -105)
+                .budgetMinutes(24 * 60)
+                .stopMinutes(10)
+                .milesPerHour(50)
+                .iterations(iterations);
+        for (int id = 1; id <= 150; ++id) {
+            builder.stop(id, 39 + random.nextGaussian() * 2, -105 + random.nextGaussian() * 3, 10 + random.nextInt(300), false);
+        }
+        return builder.build();
+    }
+
+    private static RouteOptimizer combinationProblem(double budgetMinutes) {
+        CombinationMatcher matcher = CombinationMatcher.builder()
+                .combination(50, true, null)
+                .points(50, List.of(1, 2))
+                .build();
+
+        return RouteOptimizer.builder()
+                .start(0, 0)
+                .finish(0, 0)
+                .stop(1, 0, 1, 10, false)
+                .stop(2, 0, 1.2, 10, false)
+                .stop(3, 0, -1, 60, false)
+                .combinations(matcher, Map.of(50, 1000))
+                .budgetMinutes(budgetMinutes)
+                .milesPerHour(60)
+                .build();
+    }
+}
@@ -0,0 +1,145 @@
+package org.showpage.rallyserver.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the k-d tree and latitude-sorted box search, checked against brute force.
+ */
+@Slf4j
+public class SpatialIndexTest {
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        double[][] points = randomPoints(2000, 1, 35, 45, -110, -95);
+        SpatialIndex index = SpatialIndex.of(points[0], points[1]);
+        Random random = new Random(11);
+
+        for (int query = 0; query < 200; ++query) {
+            double latitude = 35 + random.nextDouble() * 10;
+            double longitude = -110 + random.nextDouble() * 15;
+            List<SpatialIndex.Hit> hits = index.nearest(latitude, longitude, 7);
+            List<Integer> expected = bruteForce(points, latitude, longitude).subList(0, 7);
+
+            assertEquals(expected, hits.stream().map(SpatialIndex.Hit::index).toList());
+            assertEquals(DistanceMatrix.miles(latitude, longitude, points[0][expected.get(0)], points[1][expected.get(0)]),
+                    hits.get(0).miles(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testWithinMatchesBruteForce() {
+        double[][] points = randomPoints(2000, 2, 35, 45, -110, -95);
+        SpatialIndex index = SpatialIndex.of(points[0], points[1]);
+
+        List<SpatialIndex.Hit> hits = index.within(40, -102, 50);
+        List<Integer> expected = bruteForce(points, 40, -102)
+                .stream()
+                .filter(i -> DistanceMatrix.miles(40, -102, points[0][i], points[1][i]) <= 50)
+                .toList();
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, hits.stream().map(SpatialIndex.Hit::index).toList());
+        assertTrue(hits.get(hits.size() - 1).miles() <= 50);
+    }
+
+    @Test
+    public void testInBox() {
+        double[][] points = randomPoints(2000, 3, 35, 45, -110, -95);
+        SpatialIndex index = SpatialIndex.of(points[0], points[1]);
+
+        List<Integer> found = new ArrayList<>(index.inBox(38, -105, 39.5, -103));
+        found.sort(null);
+        List<Integer> expected = IntStream.range(0, 2000)
+                .filter(i -> points[0][i] >= 38 && points[0][i] <= 39.5 && points[1][i] >= -105 && points[1][i] <= -103)
+                .boxed()
+                .toList();
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testAcrossTheDateLine() {
+        // Fiji and Samoa are close together on opposite sides of 180.
+        SpatialIndex index = SpatialIndex.of(
+                new double[] { -17.7, -13.8, 51.5 },
+                new double[] { 179.9, -171.8, -0.1 });
+
+        assertEquals(List.of(0, 1), index.nearest(-16, 179, 2).stream().map(SpatialIndex.Hit::index).toList());
+        assertEquals(2, index.within(-16, -179, 1000).size());
+
+        List<Integer> found = new ArrayList<>(index.inBox(-20, 170, -10, -170));
+        found.sort(null);
+        assertEquals(List.of(0, 1), found);
+    }
+
+    @Test
+    public void testEdgeCases() {
+        SpatialIndex empty = SpatialIndex.of(new double[0], new double[0]);
+        assertTrue(empty.nearest(40, -105, 5).isEmpty());
+        assertTrue(empty.within(40, -105, 100).isEmpty());
+        assertTrue(empty.inBox(-90, -180, 90, 180).isEmpty());
+
+        // Asking for more than there are returns them all; duplicates are all found.
+        SpatialIndex same = SpatialIndex.of(new double[] { 40, 40, 40 }, new double[] { -105, -105, -105 });
+        assertEquals(3, same.nearest(40, -105, 10).size());
+        assertEquals(3, same.within(40, -105, 0).size());
+    }
+
+    @Test
+    public void testThousandsOfPointsTimings() {
+        double[][] points = randomPoints(20000, 4, 25, 49, -124, -67);
+        SpatialIndex index = SpatialIndex.of(points[0], points[1]);
+        Random random = new Random(4);
+
+        // Warm up, then time.
+        for (int i = 0; i < 2000; ++i) {
+            index.nearest(25 + random.nextDouble() * 24, -124 + random.nextDouble() * 57, 5);
+        }
+        long start = System.nanoTime();
+        int queries = 2000;
+        for (int i = 0; i < queries; ++i) {
+            double latitude = 25 + random.nextDouble() * 24;
+            double longitude = -124 + random.nextDouble() * 57;
+            index.nearest(latitude, longitude, 5);
+            index.within(latitude, longitude, 20);
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / queries;
+
+        // Logged rather than asserted; the brute force tests above are what check the answers.
+        log.info("20,000 points: {} us per nearest and within pair", micros);
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static double[][] randomPoints(int count, long seed, double minLat, double maxLat, double minLon, double maxLon) {
+        Random random = new Random(seed);
+        double[][] points = new double[2][count];
+        for (int i = 0; i < count; ++i) {
+            points[0][i] = minLat + random.nextDouble() * (maxLat - minLat);
+            points[1][i] = minLon + random.nextDouble() * (maxLon - minLon);
+        }
+        return points;
+    }
+
+    /**
+     * Every point, closest first.
+     */
+    private static List<Integer> bruteForce(double[][] points, double latitude, double longitude) {
+        return IntStream.range(0, points[0].length)
+                .boxed()
+                .sorted(Comparator.comparingDouble(i -> DistanceMatrix.miles(latitude, longitude, points[0][i], points[1][i])))
+                .toList();
+    }
+}
@@ -0,0 +1,80 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.entity.ScoringEventType;
+import org.showpage.rallyserver.ui.UiScoringEvent;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for a viewer's queue of pending scoring events.
+ */
+public class StandingsBroadcasterTest {
+
+    @Test
+    public void testNewerEventReplacesOlderAtTheBack() {
+        StandingsBroadcaster.PendingEvents pending = new StandingsBroadcaster.PendingEvents(1, 10);
+        assertTrue(pending.offer(bonusPoint(100, false)), "The first event starts a drain");
+        assertFalse(pending.offer(rank(5, 3)), "Already draining");
+        assertFalse(pending.offer(bonusPoint(100, true)));
+
+        // The rank change happened before the confirmation, so it goes out first.
+        List<UiScoringEvent> batch = pending.take();
+        assertEquals(2, batch.size());
+        assertEquals(ScoringEventType.RANK, batch.get(0).getType());
+        assertEquals(ScoringEventType.BONUS_POINT, batch.get(1).getType());
+        assertTrue(batch.get(1).getConfirmed(), "Only the newer event about the claim is sent");
+    }
+
+    @Test
+    public void testDrainingStopsWhenEmpty() {
+        StandingsBroadcaster.PendingEvents pending = new StandingsBroadcaster.PendingEvents(1, 10);
+        assertTrue(pending.offer(rank(5, 3)));
+        assertEquals(1, pending.take().size());
+        assertNull(pending.take());
+        assertTrue(pending.offer(rank(5, 2)), "Nobody is draining any more");
+    }
+
+    @Test
+    public void testOverflowBecomesResync() {
+        StandingsBroadcaster.PendingEvents pending = new StandingsBroadcaster.PendingEvents(1, 3);
+        for (int id = 1; id <= 3; ++id) {
+            pending.offer(bonusPoint(id, false));
+        }
+        pending.offer(bonusPoint(2, true));
+        pending.offer(bonusPoint(4, false));
+        pending.offer(rank(5, 1));
+
+        List<UiScoringEvent> batch = pending.take();
+        assertEquals(2, batch.size());
+        assertEquals(ScoringEventType.RESYNC, batch.get(0).getType());
+        assertEquals(Integer.valueOf(1), batch.get(0).getRallyId());
+        assertEquals(ScoringEventType.RANK, batch.get(1).getType(), "Events after the RESYNC still go out");
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static UiScoringEvent bonusPoint(int earnedBonusPointId, boolean confirmed) {
+        return UiScoringEvent
+                .builder()
+                .type(ScoringEventType.BONUS_POINT)
+                .rallyId(1)
+                .earnedBonusPointId(earnedBonusPointId)
+                .confirmed(confirmed)
+                .build();
+    }
+
+    private static UiScoringEvent rank(int rallyParticipantId, int rank) {
+        return UiScoringEvent
+                .builder()
+                .type(ScoringEventType.RANK)
+                .rallyId(1)
+                .rallyParticipantId(rallyParticipantId)
+                .rank(rank)
+                .build();
+    }
+}
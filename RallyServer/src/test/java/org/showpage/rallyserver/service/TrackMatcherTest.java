@@ -0,0 +1,153 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for finding bonus point visits along a track. A thousandth of a degree of latitude is
+ * about 0.07 miles.
+ */
+public class TrackMatcherTest {
+
+    @Test
+    public void testFindsVisitsInOrder() {
+        // Points 0 and 1 are on the way north; point 2 is well off to the side.
+        SpatialIndex index = SpatialIndex.of(new double[] { 40.05, 40.10, 40.05 }, new double[] { -100, -100, -99 });
+        Track.Builder builder = Track.builder();
+        for (int i = 0; i <= 150; ++i) {
+            builder.add(40 + i * 0.001, -100, 1000 + i * 10L);
+        }
+
+        List<TrackMatcher.Visit> visits = TrackMatcher.match(index, builder.build(), 0.1, 300);
+
+        assertEquals(2, visits.size());
+        assertEquals(0, visits.get(0).index());
+        assertEquals(1, visits.get(1).index());
+        assertEquals(0.0, visits.get(0).closestMiles(), 1e-6);
+
+        // 0.1 miles is a bit under 0.0015 degrees, so the track is inside from 40.049 to 40.051.
+        assertEquals(1000 + 49 * 10, visits.get(0).arrivedAt());
+        assertEquals(1000 + 51 * 10, visits.get(0).departedAt());
+    }
+
+    @Test
+    public void testWanderingAtTheEdgeIsOneVisit() {
+        SpatialIndex index = SpatialIndex.of(new double[] { 40 }, new double[] { -100 });
+        Track.Builder builder = Track.builder();
+
+        // In and out of the circle every minute for ten minutes, then gone an hour, then back.
+        for (int minute = 0; minute < 10; ++minute) {
+            builder.add(minute % 2 == 0 ? 40.001 : 40.002, -100, minute * 60L);
+        }
+        builder.add(40.5, -100, 1800);
+        builder.add(40, -100, 10 * 60 + 3600);
+
+        List<TrackMatcher.Visit> visits = TrackMatcher.match(index, builder.build(), 0.1, 300);
+
+        assertEquals(2, visits.size());
+        assertEquals(0, visits.get(0).arrivedAt());
+        assertEquals(8 * 60, visits.get(0).departedAt());
+        assertEquals(10 * 60 + 3600, visits.get(1).arrivedAt());
+    }
+
+    @Test
+    public void testDayLongTrack() throws Exception {
+        // 300 bonus points scattered over the rally, and a rider wandering among them for 24 hours
+        // at one point a second, stopping at ten of them.
+        Random random = new Random(19);
+        double[] latitudes = new double[300];
+        double[] longitudes = new double[300];
+        for (int i = 0; i < latitudes.length; ++i) {
+            latitudes[i] = 38 + random.nextDouble() * 4;
+            longitudes[i] = -106 + random.nextDouble() * 6;
+        }
+        SpatialIndex index = SpatialIndex.of(latitudes, longitudes);
+
+        Track track = TrackReader.read(new GpxDay(latitudes, longitudes), null);
+        List<TrackMatcher.Visit> visits = TrackMatcher.match(index, track, 0.1, 300);
+
+        assertEquals(86_400, track.size());
+        for (TrackMatcher.Visit visit : visits) {
+            assertTrue(visit.closestMiles() <= 0.1, "Visit too far away: " + visit);
+        }
+
+        // The rider sits at each stop for over an hour, right on top of it.
+        for (int stop = 0; stop < 10; ++stop) {
+            int bonusPoint = stop * 30;
+            assertTrue(visits.stream().anyMatch(visit -> visit.index() == bonusPoint
+                    && visit.departedAt() - visit.arrivedAt() >= 3600
+                    && visit.closestMiles() < 0.001), "Missed stop " + stop);
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * A day's GPX made up as it's read, so the test doesn't hold the XML either. The rider spends
+     * 2.4 hours on each of ten legs: ride to the next stop, then sit there.
+     */
+    private static class GpxDay extends InputStream {
+        private static final int POINTS = 86_400;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private byte[] chunk = ("<?xml version=\"1.0\"?>\n<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\">"
+                + "<trk><trkseg>\n").getBytes(StandardCharsets.UTF_8);
+        private int position;
+        private int point;
+
+        GpxDay(double[] latitudes, double[] longitudes) {
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+        }
+
+        @Override
+        public int read() {
+            while (position == chunk.length) {
+                if (point > POINTS) {
+                    return -1;
+                }
+                chunk = next().getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (read() < 0) {
+                return -1;
+            }
+            --position;
+            int count = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private String next() {
+            if (point == POINTS) {
+                ++point;
+                return "</trkseg></trk></gpx>\n";
+            }
+            int leg = point / (POINTS / 10);
+            double along = Math.min(1, (point % (POINTS / 10)) / (POINTS / 10 * 0.5));
+            int from = Math.max(0, leg - 1) * 30;
+            int to = leg * 30;
+            double latitude = latitudes[from] + (latitudes[to] - latitudes[from]) * along;
+            double longitude = longitudes[from] + (longitudes[to] - longitudes[from]) * along;
+            String time = Instant.ofEpochSecond(1_748_736_000L + point).toString();
+            ++point;
+            return "<trkpt lat=\"" + Math.round(latitude * 1e6) / 1e6 + "\" lon=\"" + Math.round(longitude * 1e6) / 1e6
+                    + "\"><time>" + time + "</time></trkpt>\n";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+import org.showpage.rallyserver.util.GeometryCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for reading GPX and CSV tracks, and packing them for storage.
+ */
+public class TrackReaderTest {
+
+    @Test
+    public void testReadsGpxTrackPoints() throws Exception {
+        String gpx = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <gpx version="1.1" creator="test" xmlns="http://www.topografix.com/GPX/1/1">
+                  <metadata><time>2020-01-01T00:00:00Z</time></metadata>
+                  <wpt lat="10" lon="10"><time>2025-06-01T11:00:00Z</time></wpt>
+                  <trk><trkseg>
+                    <trkpt lat="40.0" lon="-105.0"><ele>1600</ele><time>2025-06-01T12:00:00Z</time></trkpt>
+                    <trkpt lat="40.001" lon="-105.001"><time>2025-06-01T12:00:01Z</time></trkpt>
+                    <trkpt lat="40.002" lon="-105.002"></trkpt>
+                    <trkpt lat="40.003" lon="-105.003"><time>2025-06-01T06:00:03-06:00</time></trkpt>
+                  </trkseg></trk>
+                </gpx>
+                """;
+
+        Track track = TrackReader.read(stream(gpx), null);
+
+        assertEquals(3, track.size());
+        assertEquals(1, track.skipped(), "The point without a time");
+        assertEquals(40.0, track.latitude(0), 1e-9);
+        assertEquals(-105.003, track.longitude(2), 1e-9);
+        assertEquals(Instant.parse("2025-06-01T12:00:00Z"), track.startedAt());
+        assertEquals(Instant.parse("2025-06-01T12:00:03Z"), track.endedAt());
+    }
+
+    @Test
+    public void testReadsCsvWithHeaderNewestFirst() throws Exception {
+        String csv = """
+                "Name","Date/Time","Latitude","Longitude","Note"
+                "Rider","2025-06-01 12:02:00","40.2","-105.2","Gas, food"
+                "Rider","2025-06-01T12:01:00Z","40.1","-105.1",""
+                "Rider","","40.15","-105.15",""
+                "Rider","1748779200","40.0","-105.0",""
+                """;
+
+        Track track = TrackReader.read(stream(csv), TrackReader.Format.CSV);
+
+        assertEquals(3, track.size());
+        assertEquals(1, track.skipped());
+        assertEquals(40.0, track.latitude(0), 1e-9);
+        assertEquals(40.1, track.latitude(1), 1e-9);
+        assertEquals(40.2, track.latitude(2), 1e-9);
+        assertEquals(Instant.parse("2025-06-01T12:00:00Z").getEpochSecond(), track.time(0));
+        assertEquals(Instant.parse("2025-06-01T12:02:00Z").getEpochSecond(), track.time(2));
+    }
+
+    @Test
+    public void testReadsCsvWithoutHeader() throws Exception {
+        String csv = "40.0,-105.0,1748779200000\n\n40.1,-105.1,1748779260000\n95,-105,1748779320000\n";
+
+        Track track = TrackReader.read(stream(csv), null);
+
+        assertEquals(2, track.size());
+        assertEquals(1, track.skipped(), "Latitude 95 is off the planet");
+        assertEquals(1748779260L, track.time(1));
+    }
+
+    @Test
+    public void testRejectsWhatItCantRead() {
+        assertThrows(IOException.class, () -> TrackReader.read(stream("<gpx><trk><trkpt lat=\"1\""), null));
+        assertThrows(IOException.class, () -> TrackReader.read(stream("name,speed\nx,1\n"), null));
+        assertThrows(IOException.class, () -> TrackReader.format("kml"));
+    }
+
+    @Test
+    public void testStopsAtTheLimits() throws Exception {
+        String csv = "40.0,-105.0,1748779200\n40.1,-105.1,1748779260\n40.2,-105.2,1748779320\n";
+
+        assertEquals(3, TrackReader.read(stream(csv), null, 3, csv.length()).size());
+        assertThrows(IOException.class, () -> TrackReader.read(stream(csv), null, 2, csv.length()));
+        assertThrows(IOException.class, () -> TrackReader.read(stream(csv), null, 3, csv.length() - 1));
+    }
+
+    @Test
+    public void testPacksAndUnpacks() throws Exception {
+        Track track = Track.builder()
+                .add(40.1234567, -105.7654321, 1748779200)
+                .add(-33.8688197, 151.2092955, 1748779201)
+                .add(89.9999999, -179.9999999, 1748865600)
+                .build();
+
+        byte[] packed = track.pack();
+        Track unpacked = Track.unpack(packed);
+
+        assertTrue(GeometryCodec.isEncoded(packed));
+        assertEquals(3, unpacked.size());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(track.latitude(i), unpacked.latitude(i), 1e-6);
+            assertEquals(track.longitude(i), unpacked.longitude(i), 1e-6);
+            assertEquals(track.time(i), unpacked.time(i));
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
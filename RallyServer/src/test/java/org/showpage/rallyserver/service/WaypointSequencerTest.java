@@ -0,0 +1,156 @@
+package org.showpage.rallyserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the waypoint sequencer, checked against brute force on small legs.
+ */
+public class WaypointSequencerTest {
+
+    @Test
+    public void testStraightensAShuffledLine() {
+        // Start at one end, finish at the other, and everything in between is muddled.
+        double[] latitudes = { 40.0, 40.5, 40.1, 40.4, 40.2, 40.3, 40.6 };
+        double[] longitudes = new double[latitudes.length];
+        Arrays.fill(longitudes, -100);
+
+        WaypointSequencer.Sequence sequence = WaypointSequencer.sequence(matrix(latitudes, longitudes));
+
+        assertArrayEquals(new int[] { 0, 2, 4, 5, 3, 1, 6 }, sequence.order());
+        assertEquals(41.4, sequence.milesAfter(), 0.1);
+        assertTrue(sequence.milesBefore() > sequence.milesAfter());
+    }
+
+    @Test
+    public void testMatchesBruteForceOnSmallLegs() {
+        for (int seed = 0; seed < 20; ++seed) {
+            double[][] points = randomPoints(9, seed);
+            DistanceMatrix distances = matrix(points[0], points[1]);
+
+            WaypointSequencer.Sequence sequence = WaypointSequencer.sequence(distances);
+
+            checkPermutation(sequence.order());
+            assertEquals(length(distances, sequence.order()), sequence.milesAfter(), 1e-6);
+            double best = bruteForce(distances);
+            assertTrue(sequence.milesAfter() <= best * 1.02, "Seed " + seed + ": " + sequence.milesAfter() + " vs " + best);
+        }
+    }
+
+    @Test
+    public void testNeverWorseThanTheRidersOrder() {
+        // Already optimal: a straight line in order.
+        DistanceMatrix distances = matrix(new double[] { 40, 40.1, 40.2, 40.3 }, new double[] { -100, -100, -100, -100 });
+
+        WaypointSequencer.Sequence sequence = WaypointSequencer.sequence(distances);
+
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, sequence.order());
+        assertEquals(sequence.milesBefore(), sequence.milesAfter(), 1e-9);
+    }
+
+    @Test
+    public void testTinyLegsAreLeftAlone() {
+        WaypointSequencer.Sequence sequence = WaypointSequencer.sequence(
+                matrix(new double[] { 40, 41, 40.5 }, new double[] { -100, -100, -100 }));
+        assertArrayEquals(new int[] { 0, 1, 2 }, sequence.order());
+
+        assertEquals(0, WaypointSequencer.sequence(matrix(new double[0], new double[0])).order().length);
+    }
+
+    @Test
+    public void testSixtyStopsLeftWithNothingToReverse() {
+        double[][] points = randomPoints(60, 99);
+        DistanceMatrix distances = matrix(points[0], points[1]);
+        WaypointSequencer.Sequence sequence = WaypointSequencer.sequence(distances);
+
+        checkPermutation(sequence.order());
+        assertTrue(sequence.milesAfter() < sequence.milesBefore() / 2, "Random order should be far from the best");
+
+        // The search only stops when 2-opt has nothing left, so no stretch is worth reversing.
+        int[] order = sequence.order();
+        for (int i = 1; i < order.length - 2; ++i) {
+            for (int j = i + 1; j < order.length - 1; ++j) {
+                double delta = distances.milesAt(order[i - 1], order[j]) + distances.milesAt(order[i], order[j + 1])
+                        - distances.milesAt(order[i - 1], order[i]) - distances.milesAt(order[j], order[j + 1]);
+                assertTrue(delta > -1e-6, "Reversing " + i + ".." + j + " saves " + -delta + " miles");
+            }
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    private static DistanceMatrix matrix(double[] latitudes, double[] longitudes) {
+        int[] ids = new int[latitudes.length];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = i;
+        }
+        return DistanceMatrix.of(ids, latitudes, longitudes);
+    }
+
+    private static double[][] randomPoints(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[2][count];
+        for (int i = 0; i < count; ++i) {
+            points[0][i] = 39 + random.nextDouble() * 2;
+            points[1][i] = -101 + random.nextDouble() * 2;
+        }
+        return points;
+    }
+
+    /**
+     * Start first, end last, and every stop exactly once.
+     */
+    private static void checkPermutation(int[] order) {
+        assertEquals(0, order[0]);
+        assertEquals(order.length - 1, order[order.length - 1]);
+        boolean[] seen = new boolean[order.length];
+        for (int stop : order) {
+            assertFalse(seen[stop]);
+            seen[stop] = true;
+        }
+    }
+
+    private static double length(DistanceMatrix distances, int[] order) {
+        double total = 0;
+        for (int i = 1; i < order.length; ++i) {
+            total += distances.milesAt(order[i - 1], order[i]);
+        }
+        return total;
+    }
+
+    /**
+     * The shortest path from the first stop to the last through all the others, by trying them all.
+     */
+    private static double bruteForce(DistanceMatrix distances) {
+        int[] middle = new int[distances.size() - 2];
+        for (int i = 0; i < middle.length; ++i) {
+            middle[i] = i + 1;
+        }
+        return permute(distances, middle, 0);
+    }
+
+    private static double permute(DistanceMatrix distances, int[] middle, int k) {
+        if (k == middle.length) {
+            int[] order = new int[middle.length + 2];
+            System.arraycopy(middle, 0, order, 1, middle.length);
+            order[order.length - 1] = middle.length + 1;
+            return length(distances, order);
+        }
+        double best = Double.MAX_VALUE;
+        for (int i = k; i < middle.length; ++i) {
+            int swap = middle[k];
+            middle[k] = middle[i];
+            middle[i] = swap;
+            best = Math.min(best, permute(distances, middle, k + 1));
+            middle[i] = middle[k];
+            middle[k] = swap;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,72 @@
+package org.showpage.rallyserver.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the transaction hooks, with synchronization started and finished by hand.
+ */
+public class TransactionHooksTest {
+
+    @Test
+    public void testWithoutTransactionRunsOnce() {
+        List<String> ran = new ArrayList<>();
+        TransactionHooks.evict(() -> ran.add("evict"));
+        TransactionHooks.afterCompletion(() -> ran.add("completion"));
+        TransactionHooks.afterCommit(() -> ran.add("commit"));
+        assertEquals(List.of("evict", "completion", "commit"), ran);
+    }
+
+    @Test
+    public void testEvictRunsNowAndAfterRollback() {
+        List<String> ran = new ArrayList<>();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            TransactionHooks.evict(() -> ran.add("evict"));
+            TransactionHooks.afterCommit(() -> ran.add("commit"));
+            assertEquals(List.of("evict"), ran);
+
+            finish(TransactionSynchronization.STATUS_ROLLED_BACK);
+            assertEquals(List.of("evict", "evict"), ran, "Rolled back, so nothing waiting for the commit runs");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testCommitRunsEverything() {
+        List<String> ran = new ArrayList<>();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            TransactionHooks.afterCompletion(() -> ran.add("completion"));
+            TransactionHooks.afterCommit(() -> ran.add("commit"));
+            assertTrue(ran.isEmpty());
+
+            finish(TransactionSynchronization.STATUS_COMMITTED);
+            assertEquals(List.of("commit", "completion"), ran);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    //======================================================================
+    // Helpers.
+    //======================================================================
+
+    /**
+     * What the transaction manager does as a transaction ends.
+     */
+    private static void finish(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            synchronizations.forEach(TransactionSynchronization::afterCommit);
+        }
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+}
@@ -0,0 +1,45 @@
+--
+-- Compares the old rally radius search with the geo_cell one on 100,000 made-up rallies, in a
+-- temporary copy of the rally table so nothing real is touched. Run against a migrated database:
+--
+--   psql -h localhost -p 5433 -U rallymaster -d rallymaster -f scripts/RallyProximityBenchmark.sql
+--
+-- Both queries look for rallies within 100 miles of Denver. The first is what the specification
+-- used to generate: a bounding box and the trig, with no index to help, so every row is read. The
+-- second uses the ranges GeoCell.cover(39.7392, -104.9903, 100) gives, then the same trig.
+--
+BEGIN;
+
+CREATE TEMP TABLE bench_rally (LIKE rally INCLUDING ALL) ON COMMIT DROP;
+
+-- Two thirds around North America, the rest around Europe.
+INSERT INTO bench_rally (id, name, latitude, longitude)
+SELECT n,
+       'Rally ' || n,
+       CASE WHEN n % 3 > 0 THEN 25 + random() * 25 ELSE 36 + random() * 24 END,
+       CASE WHEN n % 3 > 0 THEN -125 + random() * 58 ELSE -10 + random() * 40 END
+FROM generate_series(1, 100000) n;
+
+ANALYZE bench_rally;
+
+-- Before.
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT id
+FROM bench_rally
+WHERE latitude BETWEEN 38.28992463768115 AND 41.18847536231884
+  AND longitude BETWEEN -106.87032918397674 AND -103.11027081602327
+  AND 3958.7613 * acos(LEAST(1, GREATEST(-1,
+        cos(radians(39.7392)) * cos(radians(latitude)) * cos(radians(longitude) - radians(-104.9903))
+        + sin(radians(39.7392)) * sin(radians(latitude))))) <= 100;
+
+-- After.
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT id
+FROM bench_rally
+WHERE (geo_cell BETWEEN 2579999636529872896 AND 2580562586483294207
+    OR geo_cell BETWEEN 2586192086017507328 AND 2587317985924349951)
+  AND 3958.7613 * acos(LEAST(1, GREATEST(-1,
+        cos(radians(39.7392)) * cos(radians(latitude)) * cos(radians(longitude) - radians(-104.9903))
+        + sin(radians(39.7392)) * sin(radians(latitude))))) <= 100;
+
+ROLLBACK;